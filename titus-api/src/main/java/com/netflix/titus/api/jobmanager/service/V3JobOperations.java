@@ -16,7 +16,9 @@
 
 package com.netflix.titus.api.jobmanager.service;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -62,6 +64,18 @@ public interface V3JobOperations {
 
     List<Pair<Job<?>, Task>> findTasks(Predicate<Pair<Job<?>, Task>> queryPredicate, int offset, int limit);
 
+    /**
+     * Variant of {@link #findJobs(Predicate, int, int)} which evaluates the query predicate only for the given
+     * candidate jobs. Candidate jobs that do not exist are ignored. The result order is not defined.
+     */
+    List<Job<?>> findJobs(Collection<String> candidateJobIds, Predicate<Pair<Job<?>, List<Task>>> queryPredicate);
+
+    /**
+     * Variant of {@link #findTasks(Predicate, int, int)} which evaluates the query predicate only for tasks of the
+     * given candidate jobs. Candidate jobs that do not exist are ignored. The result order is not defined.
+     */
+    List<Pair<Job<?>, Task>> findTasks(Collection<String> candidateJobIds, Predicate<Pair<Job<?>, Task>> queryPredicate);
+
     Optional<Pair<Job<?>, Task>> findTaskById(String taskId);
 
     Observable<Void> updateJobCapacity(String jobId, Capacity capacity);
@@ -80,6 +94,12 @@ public interface V3JobOperations {
      */
     Completable updateTask(String taskId, Function<Task, Optional<Task>> changeFunction, Trigger trigger, String reason);
 
+    /**
+     * Batch version of {@link #updateTask(String, Function, Trigger, String)} for tasks belonging to the same job.
+     * All updates are applied in a single transaction. Tasks that are not found are skipped.
+     */
+    Completable updateTasks(String jobId, Map<String, Function<Task, Optional<Task>>> changeFunctions, Trigger trigger, String reason);
+
     /**
      * Called by scheduler when a task is assigned to an agent. The new task state is written to store first, and next
      * internal models are updated.
@@ -88,6 +108,15 @@ public interface V3JobOperations {
      */
     Completable recordTaskPlacement(String taskId, Function<Task, Task> changeFunction);
 
+    /**
+     * Batch version of {@link #recordTaskPlacement(String, Function)} for tasks belonging to the same job. All
+     * placements are applied in a single transaction, and the updated tasks are written to the store together.
+     * A placement that cannot be applied (for example the task is no longer in the expected state) is excluded
+     * from the batch, and its error is returned in the result map, keyed by the task id. A store failure fails the
+     * whole batch.
+     */
+    Observable<Map<String, Throwable>> recordTaskPlacements(String jobId, Map<String, Function<Task, Task>> changeFunctions);
+
     Observable<JobManagerEvent<?>> observeJobs();
 
     Observable<JobManagerEvent<?>> observeJob(String jobId);
@@ -101,6 +101,14 @@ public interface JobStore {
      */
     Completable updateTask(Task task);
 
+    /**
+     * Update a group of existing tasks. The returned completable completes when all tasks are written, or fails
+     * if any of the writes fails.
+     *
+     * @param tasks
+     */
+    Completable updateTasks(List<Task> tasks);
+
     /**
      * Replace an existing task.
      *
@@ -132,6 +140,14 @@ public interface JobStore {
      */
     Observable<Task> retrieveArchivedTasksForJob(String jobId);
 
+    /**
+     * Retrieve the ids of all the archived tasks for a specific job.
+     *
+     * @param jobId
+     * @return the archived task ids for the job.
+     */
+    Observable<String> retrieveArchivedTaskIdsForJob(String jobId);
+
     /**
      * Retrieve a specific archived task.
      *
@@ -28,14 +28,17 @@ import com.fasterxml.jackson.databind.AnnotationIntrospector;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.introspect.Annotated;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
 import com.fasterxml.jackson.databind.ser.PropertyWriter;
 import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
 import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.google.common.base.Preconditions;
 import com.netflix.titus.api.agent.model.AgentInstance;
@@ -147,7 +150,8 @@ public class ObjectMappers {
 
     private static final ObjectMapper DEFAULT = createDefaultMapper();
     private static final ObjectMapper COMPACT = createCompactMapper();
-    private static final ObjectMapper STORE = createStoreMapper();
+    private static final ObjectMapper STORE = createStoreMapper(new ObjectMapper());
+    private static final ObjectMapper BINARY_STORE = createStoreMapper(new ObjectMapper(new SmileFactory()));
     private static final ObjectMapper APP_SCALE_STORE = createAppScalePolicyMapper();
 
     /**
@@ -171,6 +175,13 @@ public class ObjectMappers {
         return STORE;
     }
 
+    /**
+     * Same configuration as {@link #storeMapper()}, but encoding entities in the binary Smile format.
+     */
+    public static ObjectMapper binaryStoreMapper() {
+        return BINARY_STORE;
+    }
+
     public static ObjectMapper appScalePolicyMapper() {
         return APP_SCALE_STORE;
     }
@@ -191,13 +202,37 @@ public class ObjectMappers {
         }
     }
 
+    public static byte[] writeValueAsBytes(ObjectMapper objectMapper, Object object) {
+        try {
+            return objectMapper.writeValueAsBytes(object);
+        } catch (JsonProcessingException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+
+    public static <T> T readValue(ObjectMapper objectMapper, byte[] data, Class<T> clazz) {
+        try {
+            return objectMapper.readValue(data, clazz);
+        } catch (IOException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+
     /**
      * Serializes only the specified fields in Titus POJOs.
      */
     public static ObjectMapper applyFieldsFilter(ObjectMapper original, Collection<String> fields) {
-        Preconditions.checkArgument(!fields.isEmpty(), "Fields filter, with no field names provided");
+        ObjectMapper newMapper = withFieldsFilterSupport(original);
+        newMapper.setFilterProvider(newFieldsFilterProvider(fields));
+        return newMapper;
+    }
 
-        PropertiesExt.PropertyNode<Boolean> rootNode = PropertiesExt.fullSplit(fields);
+    /**
+     * Returns a copy of the given mapper, which serializes Titus POJOs with the fields filter. Serialization must be
+     * done with writers created by {@link #fieldsFilteringWriter(ObjectMapper, Collection)}. The mapper should be
+     * created once, so its serializer caches are shared by all the fields filtering writers.
+     */
+    public static ObjectMapper withFieldsFilterSupport(ObjectMapper original) {
         SimpleModule module = new SimpleModule() {
             @Override
             public void setupModule(SetupContext context) {
@@ -205,8 +240,23 @@ public class ObjectMappers {
                 context.appendAnnotationIntrospector(new TitusAnnotationIntrospector());
             }
         };
-        ObjectMapper newMapper = original.copy().registerModule(module);
+        return original.copy().registerModule(module);
+    }
+
+    /**
+     * Creates an immutable writer, which serializes only the specified fields in Titus POJOs. The writer can be reused
+     * for all requests with the same field set.
+     *
+     * @param fieldsFilteringMapper a mapper created by {@link #withFieldsFilterSupport(ObjectMapper)}
+     */
+    public static ObjectWriter fieldsFilteringWriter(ObjectMapper fieldsFilteringMapper, Collection<String> fields) {
+        return fieldsFilteringMapper.writer(newFieldsFilterProvider(fields));
+    }
+
+    private static FilterProvider newFieldsFilterProvider(Collection<String> fields) {
+        Preconditions.checkArgument(!fields.isEmpty(), "Fields filter, with no field names provided");
 
+        PropertiesExt.PropertyNode<Boolean> rootNode = PropertiesExt.fullSplit(fields);
         SimpleBeanPropertyFilter filter = new SimpleBeanPropertyFilter() {
 
             private PropertiesExt.PropertyNode<Boolean> findNode(JsonStreamContext outputContext) {
@@ -261,8 +311,7 @@ public class ObjectMappers {
             }
         };
 
-        newMapper.setFilterProvider(new SimpleFilterProvider().addFilter("titusFilter", filter));
-        return newMapper;
+        return new SimpleFilterProvider().addFilter("titusFilter", filter);
     }
 
     private static class TitusAnnotationIntrospector extends AnnotationIntrospector {
@@ -311,9 +360,7 @@ public class ObjectMappers {
         return objectMapper;
     }
 
-    private static ObjectMapper createStoreMapper() {
-        ObjectMapper objectMapper = new ObjectMapper();
-
+    private static ObjectMapper createStoreMapper(ObjectMapper objectMapper) {
         objectMapper.registerModule(new Jdk8Module());
 
         // Common
@@ -19,12 +19,15 @@ package com.netflix.titus.api.model;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
 import com.netflix.titus.common.util.StringExt;
+import com.netflix.titus.common.util.collections.PersistentSortedSet;
 import com.netflix.titus.common.util.tuple.Pair;
 
 /**
@@ -84,6 +87,181 @@ public final class PaginationUtil {
         return Pair.of(pageItems, pagination);
     }
 
+    /**
+     * Equivalent of {@link #takePageWithCursor(Page, List, Comparator, CursorIndexOf, Function)} for large, unordered
+     * item sequences. The items are scanned once, and only the elements of the requested page are kept (in a heap
+     * bounded by the page size) and sorted, so the cost is O(n * log(pageSize)) with no copy of the input. This
+     * lets callers convert only the returned page items into their external representation.
+     *
+     * @param cursorDecoder maps a cursor value to a reference item, comparable with the other items by the cursorComparator
+     */
+    public static <T> Pair<List<T>, Pagination> selectPageWithCursor(Page page,
+                                                                     Iterable<T> items,
+                                                                     Comparator<T> cursorComparator,
+                                                                     Function<String, Optional<T>> cursorDecoder,
+                                                                     Function<T, String> cursorFactory) {
+        boolean hasCursor = !StringExt.isEmpty(page.getCursor());
+        T cursorItem = hasCursor
+                ? cursorDecoder.apply(page.getCursor()).orElseThrow(() -> new IllegalArgumentException("Invalid cursor: " + page.getCursor()))
+                : null;
+
+        int pageSize = Math.max(0, page.getPageSize());
+        long requested = hasCursor ? pageSize : ((long) Math.max(0, page.getPageNumber()) + 1) * pageSize;
+        int heapLimit = (int) Math.min(Integer.MAX_VALUE - 1, requested);
+
+        // Max-heap holding the lowest heapLimit items that follow the cursor.
+        PriorityQueue<T> heap = new PriorityQueue<>(Math.max(1, Math.min(heapLimit, 1024)), cursorComparator.reversed());
+        int totalItems = 0;
+        int offset = 0;
+        T lastItem = null;
+        for (T item : items) {
+            totalItems++;
+            if (lastItem == null || cursorComparator.compare(item, lastItem) > 0) {
+                lastItem = item;
+            }
+            if (cursorItem != null && cursorComparator.compare(item, cursorItem) <= 0) {
+                offset++;
+                continue;
+            }
+            if (heap.size() < heapLimit) {
+                heap.add(item);
+            } else if (heapLimit > 0 && cursorComparator.compare(item, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(item);
+            }
+        }
+
+        List<T> selected = new ArrayList<>(heap);
+        selected.sort(cursorComparator);
+
+        if (!hasCursor) {
+            if (totalItems <= 0 || pageSize <= 0) {
+                return Pair.of(Collections.emptyList(), new Pagination(page, false, 0, 0, "", 0));
+            }
+            int firstItem = page.getPageNumber() * pageSize;
+            int endItem = Math.min(totalItems, firstItem + pageSize);
+            List<T> pageItems = firstItem < endItem ? selected.subList(firstItem, selected.size()) : Collections.emptyList();
+            String cursor = pageItems.isEmpty() ? "" : cursorFactory.apply(pageItems.get(pageItems.size() - 1));
+            int cursorPosition = pageItems.isEmpty() ? 0 : endItem - 1;
+            return Pair.of(pageItems, new Pagination(page, totalItems > endItem, numberOfPages(page, totalItems), totalItems, cursor, cursorPosition));
+        }
+
+        boolean hasMore = totalItems > (offset + pageSize);
+        int endOffset = Math.min(totalItems, offset + pageSize);
+        int cursorPosition = endOffset - 1;
+        int numberOfPages = numberOfPages(page, totalItems);
+        int pageNumber = Math.min(numberOfPages, offset / pageSize);
+
+        // When the page is empty, the cursor points to the last item, as in the list based variant.
+        T cursorPositionItem = selected.isEmpty() ? lastItem : selected.get(selected.size() - 1);
+        Pagination pagination = new Pagination(
+                page.toBuilder().withPageNumber(pageNumber).build(),
+                hasMore,
+                numberOfPages,
+                totalItems,
+                totalItems == 0 ? "" : cursorFactory.apply(cursorPositionItem),
+                totalItems == 0 ? 0 : cursorPosition
+        );
+        return Pair.of(selected, pagination);
+    }
+
+    /**
+     * Equivalent of {@link #selectPageWithCursor(Page, Iterable, Comparator, Function, Function)} for items kept in
+     * one or more {@link PersistentSortedSet}s, all ordered by the same cursor comparator (for example one set per
+     * entity state). The cursor is located in each set by a binary search, and the page is produced by merging the
+     * sets from that position, so a request costs O(k * log(n) + pageSize) for k sets. Classic (pageNumber-based)
+     * pagination must still skip all items preceding the requested page.
+     *
+     * @param cursorDecoder maps a cursor value to a reference item, comparable with the set items
+     */
+    public static <T> Pair<List<T>, Pagination> takePageFromSortedSets(Page page,
+                                                                       List<PersistentSortedSet<T>> sortedSets,
+                                                                       Function<String, Optional<T>> cursorDecoder,
+                                                                       Function<T, String> cursorFactory) {
+        boolean hasCursor = !StringExt.isEmpty(page.getCursor());
+        T cursorItem = hasCursor
+                ? cursorDecoder.apply(page.getCursor()).orElseThrow(() -> new IllegalArgumentException("Invalid cursor: " + page.getCursor()))
+                : null;
+        int pageSize = Math.max(0, page.getPageSize());
+
+        int totalItems = 0;
+        int offset = 0;
+        T lastItem = null;
+        PriorityQueue<Pair<T, Iterator<T>>> heads = null;
+        for (PersistentSortedSet<T> sortedSet : sortedSets) {
+            Comparator<T> comparator = sortedSet.getComparator();
+            if (heads == null) {
+                heads = new PriorityQueue<>(Math.max(1, sortedSets.size()), (first, second) -> comparator.compare(first.getLeft(), second.getLeft()));
+            }
+            int size = sortedSet.size();
+            if (size == 0) {
+                continue;
+            }
+            totalItems += size;
+            T setLastItem = sortedSet.get(size - 1);
+            if (lastItem == null || comparator.compare(setLastItem, lastItem) > 0) {
+                lastItem = setLastItem;
+            }
+
+            int startIndex = 0;
+            if (cursorItem != null) {
+                startIndex = sortedSet.rank(cursorItem);
+                if (startIndex < size && comparator.compare(sortedSet.get(startIndex), cursorItem) == 0) {
+                    startIndex++;
+                }
+                offset += startIndex;
+            }
+            if (startIndex < size) {
+                Iterator<T> it = sortedSet.iterator(startIndex);
+                heads.add(Pair.of(it.next(), it));
+            }
+        }
+
+        if (!hasCursor && (totalItems <= 0 || pageSize <= 0)) {
+            return Pair.of(Collections.emptyList(), new Pagination(page, false, 0, 0, "", 0));
+        }
+
+        long toSkip = hasCursor ? 0 : (long) Math.max(0, page.getPageNumber()) * pageSize;
+        List<T> pageItems = new ArrayList<>(Math.min(pageSize, Math.max(0, totalItems - offset)));
+        while (heads != null && !heads.isEmpty() && pageItems.size() < pageSize && toSkip < totalItems) {
+            Pair<T, Iterator<T>> head = heads.poll();
+            if (toSkip > 0) {
+                toSkip--;
+            } else {
+                pageItems.add(head.getLeft());
+            }
+            Iterator<T> it = head.getRight();
+            if (it.hasNext()) {
+                heads.add(Pair.of(it.next(), it));
+            }
+        }
+
+        if (!hasCursor) {
+            int endItem = (int) Math.min(totalItems, (long) page.getPageNumber() * pageSize + pageSize);
+            String cursor = pageItems.isEmpty() ? "" : cursorFactory.apply(pageItems.get(pageItems.size() - 1));
+            int cursorPosition = pageItems.isEmpty() ? 0 : endItem - 1;
+            return Pair.of(pageItems, new Pagination(page, totalItems > endItem, numberOfPages(page, totalItems), totalItems, cursor, cursorPosition));
+        }
+
+        boolean hasMore = totalItems > (offset + pageSize);
+        int endOffset = Math.min(totalItems, offset + pageSize);
+        int cursorPosition = endOffset - 1;
+        int numberOfPages = numberOfPages(page, totalItems);
+        int pageNumber = Math.min(numberOfPages, offset / pageSize);
+
+        // When the page is empty, the cursor points to the last item, as in the list based variant.
+        T cursorPositionItem = pageItems.isEmpty() ? lastItem : pageItems.get(pageItems.size() - 1);
+        Pagination pagination = new Pagination(
+                page.toBuilder().withPageNumber(pageNumber).build(),
+                hasMore,
+                numberOfPages,
+                totalItems,
+                totalItems == 0 ? "" : cursorFactory.apply(cursorPositionItem),
+                totalItems == 0 ? 0 : cursorPosition
+        );
+        return Pair.of(pageItems, pagination);
+    }
+
     /**
      * {@link Page#getPageNumber() Number} (index) based pagination.
      * <p>
@@ -22,6 +22,12 @@ import java.util.List;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.ext.ServiceJobExt;
+import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
+import com.netflix.titus.testkit.model.job.JobGenerator;
 import org.junit.Test;
 
 import static com.netflix.titus.api.json.ObjectMappers.compactMapper;
@@ -62,6 +68,40 @@ public class ObjectMappersTest {
         assertThat(deserialized.objectValue.intValue).isEqualTo(0);
     }
 
+    @Test
+    public void testFieldsFilteringWritersWithSharedMapper() throws Exception {
+        ObjectMapper filteringMapper = ObjectMappers.withFieldsFilterSupport(compactMapper());
+        ObjectWriter stringValuesWriter = ObjectMappers.fieldsFilteringWriter(filteringMapper, asList("stringValue", "objectValue.stringValue"));
+        ObjectWriter intValuesWriter = ObjectMappers.fieldsFilteringWriter(filteringMapper, asList("intValue", "objectValue.intValue"));
+
+        for (int i = 0; i < 2; i++) {
+            OuterClass withStrings = compactMapper().readValue(stringValuesWriter.writeValueAsString(NESTED_OBJECT), OuterClass.class);
+            assertThat(withStrings.stringValue).isEqualTo("outerStringValue");
+            assertThat(withStrings.intValue).isEqualTo(0);
+            assertThat(withStrings.objectValue.stringValue).isEqualTo("innerStringValue");
+            assertThat(withStrings.objectValue.intValue).isEqualTo(0);
+
+            OuterClass withInts = compactMapper().readValue(intValuesWriter.writeValueAsString(NESTED_OBJECT), OuterClass.class);
+            assertThat(withInts.stringValue).isNull();
+            assertThat(withInts.intValue).isEqualTo(123);
+            assertThat(withInts.objectValue.stringValue).isNull();
+            assertThat(withInts.objectValue.intValue).isEqualTo(321);
+        }
+    }
+
+    @Test
+    public void testBinaryStoreMapperRoundTrip() {
+        Job<ServiceJobExt> job = JobGenerator.serviceJobs(JobDescriptorGenerator.oneTaskServiceJobDescriptor()).getValue();
+        Task task = JobGenerator.serviceTasks(job).getValue();
+
+        byte[] binaryJob = ObjectMappers.writeValueAsBytes(ObjectMappers.binaryStoreMapper(), job);
+        assertThat(ObjectMappers.readValue(ObjectMappers.binaryStoreMapper(), binaryJob, Job.class)).isEqualTo(job);
+        assertThat(binaryJob.length).isLessThan(ObjectMappers.writeValueAsBytes(ObjectMappers.storeMapper(), job).length);
+
+        byte[] binaryTask = ObjectMappers.writeValueAsBytes(ObjectMappers.binaryStoreMapper(), task);
+        assertThat(ObjectMappers.readValue(ObjectMappers.binaryStoreMapper(), binaryTask, Task.class)).isEqualTo(task);
+    }
+
     private OuterClass filter(List<String> fields) throws Exception {
         ObjectMapper mapper = ObjectMappers.applyFieldsFilter(compactMapper(), fields);
 
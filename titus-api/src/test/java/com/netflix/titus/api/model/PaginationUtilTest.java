@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.api.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import com.netflix.titus.common.util.collections.PersistentSortedSet;
+import com.netflix.titus.common.util.tuple.Pair;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PaginationUtilTest {
+
+    private static final Comparator<Integer> COMPARATOR = Comparator.naturalOrder();
+
+    private final List<Integer> items = shuffledItems(1_000);
+
+    @Test
+    public void testSelectPageWithCursorMatchesListBasedPagination() {
+        Page page = Page.newBuilder().withPageSize(64).withCursor("").build();
+        int walked = 0;
+        while (true) {
+            Pair<List<Integer>, Pagination> expected = PaginationUtil.takePageWithCursor(page, items, COMPARATOR, PaginationUtilTest::indexOf, String::valueOf);
+            Pair<List<Integer>, Pagination> actual = PaginationUtil.selectPageWithCursor(page, items, COMPARATOR, PaginationUtilTest::decode, String::valueOf);
+            assertThat(actual.getLeft()).isEqualTo(expected.getLeft());
+            assertThat(actual.getRight()).isEqualTo(expected.getRight());
+
+            walked += actual.getLeft().size();
+            if (!actual.getRight().hasMore()) {
+                break;
+            }
+            page = page.toBuilder().withCursor(actual.getRight().getCursor()).build();
+        }
+        assertThat(walked).isEqualTo(items.size());
+    }
+
+    @Test
+    public void testSelectPageWithCursorAfterLastItem() {
+        Page page = Page.newBuilder().withPageSize(10).withCursor(String.valueOf(Integer.MAX_VALUE)).build();
+        Pair<List<Integer>, Pagination> expected = PaginationUtil.takePageWithCursor(page, items, COMPARATOR, PaginationUtilTest::indexOf, String::valueOf);
+        Pair<List<Integer>, Pagination> actual = PaginationUtil.selectPageWithCursor(page, items, COMPARATOR, PaginationUtilTest::decode, String::valueOf);
+        assertThat(actual.getLeft()).isEmpty();
+        assertThat(actual.getRight()).isEqualTo(expected.getRight());
+    }
+
+    @Test
+    public void testSelectPageWithPageNumber() {
+        for (int pageNumber = 0; pageNumber < 20; pageNumber++) {
+            Page page = Page.newBuilder().withPageNumber(pageNumber).withPageSize(64).build();
+            List<Integer> sorted = new ArrayList<>(items);
+            sorted.sort(COMPARATOR);
+            Pair<List<Integer>, Pagination> expected = PaginationUtil.takePageWithoutCursor(page, sorted, String::valueOf);
+            Pair<List<Integer>, Pagination> actual = PaginationUtil.selectPageWithCursor(page, items, COMPARATOR, PaginationUtilTest::decode, String::valueOf);
+            assertThat(actual.getLeft()).isEqualTo(expected.getLeft());
+            assertThat(actual.getRight()).isEqualTo(expected.getRight());
+        }
+    }
+
+    @Test
+    public void testSelectPageWithInvalidCursor() {
+        Page page = Page.newBuilder().withPageSize(10).withCursor("bad").build();
+        assertThatThrownBy(() -> PaginationUtil.selectPageWithCursor(page, items, COMPARATOR, PaginationUtilTest::decode, String::valueOf))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testTakePageFromSortedSetsMatchesSelectPageWithCursor() {
+        List<PersistentSortedSet<Integer>> sortedSets = partition(items, 3);
+        Page page = Page.newBuilder().withPageSize(64).withCursor("").build();
+        int walked = 0;
+        while (true) {
+            Pair<List<Integer>, Pagination> expected = PaginationUtil.selectPageWithCursor(page, items, COMPARATOR, PaginationUtilTest::decode, String::valueOf);
+            Pair<List<Integer>, Pagination> actual = PaginationUtil.takePageFromSortedSets(page, sortedSets, PaginationUtilTest::decode, String::valueOf);
+            assertThat(actual.getLeft()).isEqualTo(expected.getLeft());
+            assertThat(actual.getRight()).isEqualTo(expected.getRight());
+
+            walked += actual.getLeft().size();
+            if (!actual.getRight().hasMore()) {
+                break;
+            }
+            page = page.toBuilder().withCursor(actual.getRight().getCursor()).build();
+        }
+        assertThat(walked).isEqualTo(items.size());
+    }
+
+    @Test
+    public void testTakePageFromSortedSetsWithCursorNotInSet() {
+        List<PersistentSortedSet<Integer>> sortedSets = partition(items, 3);
+        for (String cursor : new String[]{"-1", "101", String.valueOf(Integer.MAX_VALUE)}) {
+            Page page = Page.newBuilder().withPageSize(10).withCursor(cursor).build();
+            Pair<List<Integer>, Pagination> expected = PaginationUtil.selectPageWithCursor(page, items, COMPARATOR, PaginationUtilTest::decode, String::valueOf);
+            Pair<List<Integer>, Pagination> actual = PaginationUtil.takePageFromSortedSets(page, sortedSets, PaginationUtilTest::decode, String::valueOf);
+            assertThat(actual.getLeft()).isEqualTo(expected.getLeft());
+            assertThat(actual.getRight()).isEqualTo(expected.getRight());
+        }
+    }
+
+    @Test
+    public void testTakePageFromSortedSetsWithPageNumber() {
+        List<PersistentSortedSet<Integer>> sortedSets = partition(items, 3);
+        for (int pageNumber = 0; pageNumber < 20; pageNumber++) {
+            Page page = Page.newBuilder().withPageNumber(pageNumber).withPageSize(64).build();
+            Pair<List<Integer>, Pagination> expected = PaginationUtil.selectPageWithCursor(page, items, COMPARATOR, PaginationUtilTest::decode, String::valueOf);
+            Pair<List<Integer>, Pagination> actual = PaginationUtil.takePageFromSortedSets(page, sortedSets, PaginationUtilTest::decode, String::valueOf);
+            assertThat(actual.getLeft()).isEqualTo(expected.getLeft());
+            assertThat(actual.getRight()).isEqualTo(expected.getRight());
+        }
+    }
+
+    @Test
+    public void testTakePageFromEmptySortedSets() {
+        Page page = Page.newBuilder().withPageSize(10).withCursor("").build();
+        Pair<List<Integer>, Pagination> actual = PaginationUtil.takePageFromSortedSets(page, partition(Collections.emptyList(), 2), PaginationUtilTest::decode, String::valueOf);
+        assertThat(actual.getLeft()).isEmpty();
+        assertThat(actual.getRight().getTotalItems()).isEqualTo(0);
+    }
+
+    private static List<PersistentSortedSet<Integer>> partition(List<Integer> values, int partitionCount) {
+        List<PersistentSortedSet<Integer>> result = new ArrayList<>();
+        for (int i = 0; i < partitionCount; i++) {
+            result.add(PersistentSortedSet.empty(COMPARATOR));
+        }
+        for (int value : values) {
+            int partition = value % partitionCount;
+            result.set(partition, result.get(partition).insert(value));
+        }
+        return result;
+    }
+
+    private static List<Integer> shuffledItems(int count) {
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            result.add(i * 2);
+        }
+        Collections.shuffle(result, new Random(123));
+        return result;
+    }
+
+    private static Optional<Integer> indexOf(List<Integer> sorted, String cursor) {
+        return decode(cursor).map(value -> {
+            int idx = Collections.binarySearch(sorted, value);
+            return idx >= 0 ? idx : Math.max(-1, -idx - 2);
+        });
+    }
+
+    private static Optional<Integer> decode(String cursor) {
+        try {
+            return Optional.of(Integer.parseInt(cursor));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+}
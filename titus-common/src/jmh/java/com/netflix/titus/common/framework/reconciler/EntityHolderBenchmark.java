@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.common.framework.reconciler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a single child update cost of {@link EntityHolder} against the previous copy-on-write implementation,
+ * which copied the whole children map and list on each change. Run with <tt>./gradlew :titus-common:jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityHolderBenchmark {
+
+    @Param({"10", "100", "1000", "5000", "10000"})
+    public int jobSize;
+
+    private EntityHolder persistentRoot;
+    private CopyOnWriteHolder copyOnWriteRoot;
+    private String[] childIds;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        this.childIds = new String[jobSize];
+        this.persistentRoot = EntityHolder.newRoot("job", "job");
+        this.copyOnWriteRoot = new CopyOnWriteHolder("job", "job", new HashMap<>());
+        for (int i = 0; i < jobSize; i++) {
+            childIds[i] = "task#" + i;
+            persistentRoot = persistentRoot.addChild(EntityHolder.newRoot(childIds[i], i));
+            copyOnWriteRoot = copyOnWriteRoot.addChild(new CopyOnWriteHolder(childIds[i], i, new HashMap<>()));
+        }
+    }
+
+    @Benchmark
+    public EntityHolder persistentUpdateChild() {
+        String childId = nextChildId();
+        persistentRoot = persistentRoot.addChild(EntityHolder.newRoot(childId, next));
+        return persistentRoot;
+    }
+
+    @Benchmark
+    public CopyOnWriteHolder copyOnWriteUpdateChild() {
+        String childId = nextChildId();
+        copyOnWriteRoot = copyOnWriteRoot.addChild(new CopyOnWriteHolder(childId, next, new HashMap<>()));
+        return copyOnWriteRoot;
+    }
+
+    @Benchmark
+    public EntityHolder persistentUpdateChildAndTag() {
+        String childId = nextChildId();
+        persistentRoot = persistentRoot.addChild(EntityHolder.newRoot(childId, next)).addTag("version", next);
+        return persistentRoot;
+    }
+
+    @Benchmark
+    public CopyOnWriteHolder copyOnWriteUpdateChildAndTag() {
+        String childId = nextChildId();
+        copyOnWriteRoot = copyOnWriteRoot.addChild(new CopyOnWriteHolder(childId, next, new HashMap<>())).setEntity(next);
+        return copyOnWriteRoot;
+    }
+
+    @Benchmark
+    public EntityHolder persistentFindChild() {
+        return persistentRoot.findChildById(nextChildId()).orElse(null);
+    }
+
+    @Benchmark
+    public CopyOnWriteHolder copyOnWriteFindChild() {
+        return copyOnWriteRoot.childrenById.get(nextChildId());
+    }
+
+    private String nextChildId() {
+        next = (next + 1) % jobSize;
+        return childIds[next];
+    }
+
+    /**
+     * Replica of the original {@link EntityHolder} data layout, kept as a baseline.
+     */
+    public static class CopyOnWriteHolder {
+
+        private final String id;
+        private final Object entity;
+        private final Map<String, CopyOnWriteHolder> childrenById;
+        private final List<CopyOnWriteHolder> children;
+
+        private CopyOnWriteHolder(String id, Object entity, Map<String, CopyOnWriteHolder> childrenById) {
+            this.id = id;
+            this.entity = entity;
+            this.childrenById = childrenById;
+            this.children = new ArrayList<>(childrenById.values());
+        }
+
+        CopyOnWriteHolder addChild(CopyOnWriteHolder child) {
+            Map<String, CopyOnWriteHolder> newChildrenById = new HashMap<>(childrenById);
+            newChildrenById.put(child.id, child);
+            return new CopyOnWriteHolder(id, entity, newChildrenById);
+        }
+
+        CopyOnWriteHolder setEntity(Object entity) {
+            return new CopyOnWriteHolder(id, entity, childrenById);
+        }
+    }
+}
@@ -16,35 +16,46 @@
 
 package com.netflix.titus.common.framework.reconciler;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
+import com.netflix.titus.common.util.collections.PersistentHashMap;
 import com.netflix.titus.common.util.tuple.Pair;
 
 /**
  * Composite entity hierarchy. The parent-child association runs from parent to child only. {@link EntityHolder} instances
  * are immutable, thus each change produces a new version of an entity. Also each child update requires update of a parent
- * entity, when the reference to the child changes (a new version is created).
+ * entity, when the reference to the child changes (a new version is created). Children are kept in a persistent
+ * map, so adding, updating or removing a single child shares the unchanged part of the structure with the previous version.
  */
 public class EntityHolder {
 
     private final String id;
     private final Object entity;
 
-    private final List<EntityHolder> children;
-    private final Map<String, EntityHolder> childrenById;
+    private final PersistentHashMap<String, EntityHolder> childrenById;
+    private final int nestedChildrenCount;
     private final Map<String, Object> attributes;
 
-    private EntityHolder(String id, Object entity, Map<String, EntityHolder> childrenById, Map<String, Object> attributes) {
+    /**
+     * Children list is materialized on first access, as a single child update does not require it.
+     */
+    private volatile List<EntityHolder> children;
+
+    private EntityHolder(String id,
+                         Object entity,
+                         PersistentHashMap<String, EntityHolder> childrenById,
+                         int nestedChildrenCount,
+                         Map<String, Object> attributes) {
         this.id = id;
         this.entity = entity;
         this.childrenById = childrenById;
-        this.children = new ArrayList<>(childrenById.values());
+        this.nestedChildrenCount = nestedChildrenCount;
         this.attributes = attributes;
     }
 
@@ -57,7 +68,14 @@ public class EntityHolder {
     }
 
     public List<EntityHolder> getChildren() {
-        return children;
+        List<EntityHolder> current = children;
+        if (current == null) {
+            current = childrenById.isEmpty()
+                    ? Collections.emptyList()
+                    : Collections.unmodifiableList(childrenById.values());
+            children = current;
+        }
+        return current;
     }
 
     public Map<String, Object> getAttributes() {
@@ -72,14 +90,17 @@ public class EntityHolder {
     }
 
     public Optional<EntityHolder> findChildById(String childId) {
-        if (children.isEmpty()) {
+        if (childrenById.isEmpty()) {
             return Optional.empty();
         }
         EntityHolder entityHolder = childrenById.get(childId);
         if (entityHolder != null) {
             return Optional.of(entityHolder);
         }
-        for (EntityHolder child : children) {
+        if (nestedChildrenCount == 0) {
+            return Optional.empty();
+        }
+        for (EntityHolder child : getChildren()) {
             Optional<EntityHolder> result = child.findChildById(childId);
             if (result.isPresent()) {
                 return result;
@@ -89,26 +110,26 @@ public class EntityHolder {
     }
 
     public EntityHolder addChild(EntityHolder child) {
-        Map<String, EntityHolder> newChildrenById = new HashMap<>(childrenById);
-        newChildrenById.put(child.getId(), child);
-        return new EntityHolder(id, entity, newChildrenById, attributes);
+        EntityHolder previous = childrenById.get(child.getId());
+        int newNestedChildrenCount = nestedChildrenCount + nestedCount(child) - nestedCount(previous);
+        return new EntityHolder(id, entity, childrenById.put(child.getId(), child), newNestedChildrenCount, attributes);
     }
 
     public Pair<EntityHolder, Optional<EntityHolder>> removeChild(String id) {
-        if (!childrenById.containsKey(id)) {
+        EntityHolder removedChild = childrenById.get(id);
+        if (removedChild == null) {
             return Pair.of(this, Optional.empty());
         }
-        Map<String, EntityHolder> newChildrenById = new HashMap<>(childrenById);
-        EntityHolder removedChild = newChildrenById.remove(id);
-
-        EntityHolder newRoot = new EntityHolder(this.id, this.entity, newChildrenById, this.attributes);
+        EntityHolder newRoot = new EntityHolder(
+                this.id, this.entity, childrenById.remove(id), nestedChildrenCount - nestedCount(removedChild), this.attributes
+        );
         return Pair.of(newRoot, Optional.of(removedChild));
     }
 
     public EntityHolder addTag(String tagName, Object tagValue) {
         Map<String, Object> newTags = new HashMap<>(attributes);
         newTags.put(tagName, tagValue);
-        return new EntityHolder(id, entity, childrenById, newTags);
+        return new EntityHolder(id, entity, childrenById, nestedChildrenCount, newTags);
     }
 
     public EntityHolder removeTag(String tagName) {
@@ -117,19 +138,31 @@ public class EntityHolder {
         }
         Map<String, Object> newTags = new HashMap<>(attributes);
         newTags.remove(tagName);
-        return new EntityHolder(id, entity, childrenById, newTags);
+        return new EntityHolder(id, entity, childrenById, nestedChildrenCount, newTags);
     }
 
     public <E> EntityHolder setEntity(E entity) {
-        return new EntityHolder(id, entity, childrenById, attributes);
+        return new EntityHolder(id, entity, childrenById, nestedChildrenCount, attributes);
+    }
+
+    /**
+     * Reports children that differ between this and the previous version of the entity. The consumer is called with
+     * the previous child version (null if added), and the current one (null if removed).
+     */
+    public void diffChildren(EntityHolder previous, BiConsumer<EntityHolder, EntityHolder> changeConsumer) {
+        childrenById.diff(previous.childrenById, changeConsumer);
     }
 
     public void visit(Consumer<EntityHolder> visitor) {
         visitor.accept(this);
-        children.forEach(c -> c.visit(visitor));
+        childrenById.forEach((childId, child) -> child.visit(visitor));
+    }
+
+    private static int nestedCount(EntityHolder child) {
+        return child == null || child.childrenById.isEmpty() ? 0 : 1;
     }
 
     public static <E> EntityHolder newRoot(String id, E entity) {
-        return new EntityHolder(id, entity, Collections.emptyMap(), Collections.emptyMap());
+        return new EntityHolder(id, entity, PersistentHashMap.empty(), 0, Collections.emptyMap());
     }
 }
@@ -56,7 +56,7 @@ public class DefaultReconciliationEngine<EVENT> implements InternalReconciliatio
     private final TitusRuntime titusRuntime;
     private final Clock clock;
 
-    private IndexSet<EntityHolder> indexSet;
+    private volatile IndexSet<EntityHolder> indexSet;
 
     private Transaction pendingTransaction = EmptyTransaction.EMPTY;
 
@@ -65,6 +65,9 @@ public class DefaultReconciliationEngine<EVENT> implements InternalReconciliatio
 
     private boolean firstTrigger;
 
+    private volatile Runnable readyListener = () -> {
+    };
+
     public DefaultReconciliationEngine(EntityHolder bootstrapModel,
                                        boolean newlyCreated,
                                        DifferenceResolver<EVENT> runningDifferenceResolver,
@@ -75,14 +78,14 @@ public class DefaultReconciliationEngine<EVENT> implements InternalReconciliatio
                                        TitusRuntime titusRuntime) {
         this.runningDifferenceResolver = runningDifferenceResolver;
         this.eventFactory = eventFactory;
-        this.indexSet = IndexSet.newIndexSet(indexComparators);
+        this.indexSet = IndexSet.newIndexSet(indexComparators, EntityHolder::getId);
         this.titusRuntime = titusRuntime;
         this.clock = titusRuntime.getClock();
         this.eventObservable = ObservableExt.protectFromMissingExceptionHandlers(eventSubject, logger);
         this.modelHolder = new ModelHolder(bootstrapModel, bootstrapModel, bootstrapModel);
         this.firstTrigger = newlyCreated;
         this.metrics = new ReconciliationEngineMetrics<>(extraChangeActionTags, extraModelActionTags, titusRuntime.getRegistry(), clock);
-        indexEntityHolder(bootstrapModel);
+        this.indexSet = indexSet.add(bootstrapModel.getChildren());
     }
 
     @Override
@@ -90,15 +93,20 @@ public class DefaultReconciliationEngine<EVENT> implements InternalReconciliatio
         return pendingTransaction.applyModelUpdates(modelHolder)
                 .map(newModelHolder -> {
                     boolean isReferenceModelChanged = newModelHolder != modelHolder && newModelHolder.getReference() != modelHolder.getReference();
-                    this.modelHolder = newModelHolder;
                     if (isReferenceModelChanged) {
-                        indexEntityHolder(modelHolder.getReference());
+                        indexEntityHolder(modelHolder.getReference(), newModelHolder.getReference());
                     }
+                    this.modelHolder = newModelHolder;
                     return isReferenceModelChanged;
                 })
                 .orElse(false);
     }
 
+    @Override
+    public void setReadyListener(Runnable readyListener) {
+        this.readyListener = readyListener;
+    }
+
     @Override
     public boolean hasPendingTransactions() {
         return !pendingTransaction.isClosed() || !referenceChangeActions.isEmpty();
@@ -172,6 +180,7 @@ public class DefaultReconciliationEngine<EVENT> implements InternalReconciliatio
             changeActionEventQueue.add(eventFactory.newBeforeChangeEvent(this, referenceUpdate, transactionId));
             referenceChangeActions.add(new ChangeActionHolder(entityHolderId, referenceUpdate, subscriber, transactionId, clock.wallTime()));
             metrics.updateChangeActionQueueSize(referenceChangeActions.size());
+            readyListener.run();
         });
     }
 
@@ -304,8 +313,17 @@ public class DefaultReconciliationEngine<EVENT> implements InternalReconciliatio
         pendingTransaction = transactions.size() == 1 ? transactions.get(0) : new CompositeTransaction(transactions);
     }
 
-    private void indexEntityHolder(EntityHolder entityHolder) {
-        indexSet = indexSet.apply(entityHolder.getChildren());
+    private void indexEntityHolder(EntityHolder previous, EntityHolder current) {
+        List<EntityHolder> addedOrUpdated = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        current.diffChildren(previous, (previousChild, currentChild) -> {
+            if (currentChild == null) {
+                removed.add(previousChild.getId());
+            } else {
+                addedOrUpdated.add(currentChild);
+            }
+        });
+        indexSet = indexSet.remove(removed).add(addedOrUpdated);
     }
 
     void emitEvent(EVENT event) {
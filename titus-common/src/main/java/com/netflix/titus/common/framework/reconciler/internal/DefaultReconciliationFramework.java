@@ -17,16 +17,18 @@
 package com.netflix.titus.common.framework.reconciler.internal;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -37,13 +39,16 @@ import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import com.google.common.base.Preconditions;
+import com.netflix.spectator.api.DistributionSummary;
 import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Tag;
 import com.netflix.spectator.api.Timer;
 import com.netflix.spectator.api.patterns.PolledMeter;
 import com.netflix.titus.common.framework.reconciler.EntityHolder;
 import com.netflix.titus.common.framework.reconciler.ReconciliationEngine;
 import com.netflix.titus.common.framework.reconciler.ReconciliationFramework;
 import com.netflix.titus.common.util.ExceptionExt;
+import com.netflix.titus.common.util.collections.PersistentHashMap;
 import com.netflix.titus.common.util.rx.ObservableExt;
 import com.netflix.titus.common.util.tuple.Pair;
 import org.slf4j.Logger;
@@ -64,6 +69,12 @@ public class DefaultReconciliationFramework<EVENT> implements ReconciliationFram
     private static final String LOOP_EXECUTION_TIME_METRIC = ROOT_METRIC_NAME + "executionTime";
     private static final String LAST_EXECUTION_TIME_METRIC = ROOT_METRIC_NAME + "lastExecutionTime";
     private static final String LAST_FULL_CYCLE_EXECUTION_TIME_METRIC = ROOT_METRIC_NAME + "lastFullCycleExecutionTime";
+    private static final String VISITED_ENGINES_METRIC = ROOT_METRIC_NAME + "visitedEngines";
+    private static final String LAST_VISITED_ENGINES_METRIC = ROOT_METRIC_NAME + "lastVisitedEngines";
+    private static final String READY_QUEUE_SIZE_METRIC = ROOT_METRIC_NAME + "readyQueueSize";
+    private static final String ENGINE_COUNT_METRIC = ROOT_METRIC_NAME + "engines";
+
+    private static final String DEFAULT_THREAD_NAME = "TitusReconciliationFramework";
 
     private final Function<EntityHolder, InternalReconciliationEngine<EVENT>> engineFactory;
     private final long idleTimeoutMs;
@@ -77,8 +88,9 @@ public class DefaultReconciliationFramework<EVENT> implements ReconciliationFram
     private final BlockingQueue<Pair<InternalReconciliationEngine<EVENT>, Subscriber<ReconciliationEngine>>> enginesAdded = new LinkedBlockingQueue<>();
     private final BlockingQueue<Pair<InternalReconciliationEngine<EVENT>, Subscriber<Void>>> enginesToRemove = new LinkedBlockingQueue<>();
 
-    private final AtomicReference<Map<String, InternalReconciliationEngine<EVENT>>> idToEngineMapRef = new AtomicReference<>(Collections.emptyMap());
-    private IndexSet<EntityHolder> indexSet;
+    private final AtomicReference<PersistentHashMap<String, InternalReconciliationEngine<EVENT>>> idToEngineMapRef = new AtomicReference<>(PersistentHashMap.empty());
+    private volatile IndexSet<EntityHolder> indexSet;
+    private final IndexUpdateListener indexUpdateListener;
 
     private final Scheduler.Worker worker;
 
@@ -89,7 +101,19 @@ public class DefaultReconciliationFramework<EVENT> implements ReconciliationFram
     private final Observable<EVENT> eventsObservable;
     private final Subscription internalEventSubscription;
 
+    /**
+     * Engines that signalled that they have work to do (for example a new change action). Signals may come from any thread.
+     */
+    private final Queue<InternalReconciliationEngine<EVENT>> readyEngines = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Engines with transactions in progress, which must be visited in the next iteration. Accessed only from the loop thread.
+     */
+    private Set<InternalReconciliationEngine<EVENT>> activeEngines = Collections.emptySet();
+
     private final Timer loopExecutionTime;
+    private final DistributionSummary visitedEnginesSummary;
+    private volatile int lastVisitedEngineCount; // Probed by a polled meter.
     private volatile long lastFullCycleExecutionTimeMs; // Probed by a polled meter.
     private volatile long lastExecutionTimeMs; // Probed by a polled meter.
 
@@ -100,11 +124,27 @@ public class DefaultReconciliationFramework<EVENT> implements ReconciliationFram
                                           Map<Object, Comparator<EntityHolder>> indexComparators,
                                           Registry registry,
                                           Optional<Scheduler> optionalScheduler) {
+        this(bootstrapEngines, engineFactory, idleTimeoutMs, activeTimeoutMs, indexComparators, DEFAULT_THREAD_NAME,
+                Collections.emptyList(), (indexedIds, unindexedIds, updatedRoots, removedRootIds) -> {
+                }, registry, optionalScheduler);
+    }
+
+    DefaultReconciliationFramework(List<InternalReconciliationEngine<EVENT>> bootstrapEngines,
+                                   Function<EntityHolder, InternalReconciliationEngine<EVENT>> engineFactory,
+                                   long idleTimeoutMs,
+                                   long activeTimeoutMs,
+                                   Map<Object, Comparator<EntityHolder>> indexComparators,
+                                   String threadName,
+                                   List<Tag> metricTags,
+                                   IndexUpdateListener indexUpdateListener,
+                                   Registry registry,
+                                   Optional<Scheduler> optionalScheduler) {
         Preconditions.checkArgument(idleTimeoutMs > 0, "idleTimeout <= 0 (%s)", idleTimeoutMs);
         Preconditions.checkArgument(activeTimeoutMs <= idleTimeoutMs, "activeTimeout(%s) > idleTimeout(%s)", activeTimeoutMs, idleTimeoutMs);
 
         this.engineFactory = engineFactory;
-        this.indexSet = IndexSet.newIndexSet(indexComparators);
+        this.indexSet = IndexSet.newIndexSet(indexComparators, EntityHolder::getId);
+        this.indexUpdateListener = indexUpdateListener;
 
         this.idleTimeoutMs = idleTimeoutMs;
         this.activeTimeoutMs = activeTimeoutMs;
@@ -114,7 +154,7 @@ public class DefaultReconciliationFramework<EVENT> implements ReconciliationFram
             this.executor = null;
         } else {
             this.executor = Executors.newSingleThreadExecutor(runnable -> {
-                Thread thread = new Thread(runnable, "TitusReconciliationFramework");
+                Thread thread = new Thread(runnable, threadName);
                 thread.setDaemon(true);
                 return thread;
             });
@@ -127,16 +167,31 @@ public class DefaultReconciliationFramework<EVENT> implements ReconciliationFram
         // To keep eventsObservable permanently active.
         this.internalEventSubscription = eventsObservable.subscribe(ObservableExt.silentSubscriber());
 
-        this.loopExecutionTime = registry.timer(LOOP_EXECUTION_TIME_METRIC);
+        this.loopExecutionTime = registry.timer(registry.createId(LOOP_EXECUTION_TIME_METRIC, metricTags));
+        this.visitedEnginesSummary = registry.distributionSummary(registry.createId(VISITED_ENGINES_METRIC, metricTags));
         this.lastFullCycleExecutionTimeMs = scheduler.now() - idleTimeoutMs;
         this.lastExecutionTimeMs = scheduler.now();
-        PolledMeter.using(registry).withName(LAST_EXECUTION_TIME_METRIC).monitorValue(this, self -> scheduler.now() - self.lastExecutionTimeMs);
-        PolledMeter.using(registry).withName(LAST_FULL_CYCLE_EXECUTION_TIME_METRIC).monitorValue(this, self -> scheduler.now() - self.lastFullCycleExecutionTimeMs);
+        PolledMeter.using(registry)
+                .withId(registry.createId(LAST_EXECUTION_TIME_METRIC, metricTags))
+                .monitorValue(this, self -> scheduler.now() - self.lastExecutionTimeMs);
+        PolledMeter.using(registry)
+                .withId(registry.createId(LAST_FULL_CYCLE_EXECUTION_TIME_METRIC, metricTags))
+                .monitorValue(this, self -> scheduler.now() - self.lastFullCycleExecutionTimeMs);
+        PolledMeter.using(registry)
+                .withId(registry.createId(LAST_VISITED_ENGINES_METRIC, metricTags))
+                .monitorValue(this, self -> self.lastVisitedEngineCount);
+        PolledMeter.using(registry)
+                .withId(registry.createId(READY_QUEUE_SIZE_METRIC, metricTags))
+                .monitorValue(readyEngines, Queue::size);
+        PolledMeter.using(registry)
+                .withId(registry.createId(ENGINE_COUNT_METRIC, metricTags))
+                .monitorValue(engines, Set::size);
 
         engines.addAll(bootstrapEngines);
+        bootstrapEngines.forEach(engine -> engine.setReadyListener(() -> readyEngines.add(engine)));
         bootstrapEngines.forEach(engine -> eventsMergeSubject.onNext(engine.events()));
 
-        updateIndexSet();
+        updateIndexSet(bootstrapEngines, Collections.emptyList());
     }
 
     @Override
@@ -270,12 +325,17 @@ public class DefaultReconciliationFramework<EVENT> implements ReconciliationFram
     private void doLoop(boolean fullReconciliationCycle) {
         Set<InternalReconciliationEngine<EVENT>> mustRunEngines = new HashSet<>();
 
+        // In the full cycle all engines are visited. Otherwise only engines with work in progress, and those
+        // that signalled readiness since the last iteration.
+        Collection<InternalReconciliationEngine<EVENT>> visitedEngines = fullReconciliationCycle ? engines : drainReadyEngines();
+
         // Apply pending model updates/send events
-        boolean modelUpdates = false;
-        for (InternalReconciliationEngine engine : engines) {
+        List<InternalReconciliationEngine<EVENT>> modelUpdatedEngines = new ArrayList<>();
+        for (InternalReconciliationEngine<EVENT> engine : visitedEngines) {
             try {
-                boolean anyChange = engine.applyModelUpdates();
-                modelUpdates = modelUpdates || anyChange;
+                if (engine.applyModelUpdates()) {
+                    modelUpdatedEngines.add(engine);
+                }
             } catch (Exception e) {
                 logger.warn("Unexpected error from reconciliation engine 'applyModelUpdates' method", e);
             }
@@ -288,6 +348,10 @@ public class DefaultReconciliationFramework<EVENT> implements ReconciliationFram
             InternalReconciliationEngine<EVENT> newEngine = pair.getLeft();
             engines.add(newEngine);
             mustRunEngines.add(newEngine);
+            if (!fullReconciliationCycle) {
+                visitedEngines.add(newEngine);
+            }
+            newEngine.setReadyListener(() -> readyEngines.add(newEngine));
             eventsMergeSubject.onNext(newEngine.events());
         });
 
@@ -295,12 +359,17 @@ public class DefaultReconciliationFramework<EVENT> implements ReconciliationFram
         List<Pair<InternalReconciliationEngine<EVENT>, Subscriber<Void>>> recentlyRemoved = new ArrayList<>();
         enginesToRemove.drainTo(recentlyRemoved);
         shutdownEnginesToRemove(recentlyRemoved);
-
-        boolean engineSetUpdate = !recentlyAdded.isEmpty() || !recentlyRemoved.isEmpty();
+        if (!fullReconciliationCycle) {
+            recentlyRemoved.forEach(pair -> visitedEngines.remove(pair.getLeft()));
+        }
 
         // Update indexes if there are model changes.
-        if (modelUpdates || engineSetUpdate) {
-            updateIndexSet();
+        if (!modelUpdatedEngines.isEmpty() || !recentlyAdded.isEmpty() || !recentlyRemoved.isEmpty()) {
+            List<InternalReconciliationEngine<EVENT>> removedEngines = recentlyRemoved.stream().map(Pair::getLeft).collect(Collectors.toList());
+            List<InternalReconciliationEngine<EVENT>> updatedEngines = new ArrayList<>();
+            modelUpdatedEngines.stream().filter(e -> !removedEngines.contains(e)).forEach(updatedEngines::add);
+            recentlyAdded.forEach(pair -> updatedEngines.add(pair.getLeft()));
+            updateIndexSet(updatedEngines, removedEngines);
         }
 
         // Complete engine add/remove subscribers.
@@ -316,7 +385,7 @@ public class DefaultReconciliationFramework<EVENT> implements ReconciliationFram
         recentlyRemoved.forEach(pair -> pair.getRight().onCompleted());
 
         // Emit events
-        for (InternalReconciliationEngine engine : engines) {
+        for (InternalReconciliationEngine engine : visitedEngines) {
             try {
                 engine.emitEvents();
             } catch (Exception e) {
@@ -325,7 +394,7 @@ public class DefaultReconciliationFramework<EVENT> implements ReconciliationFram
         }
 
         // Complete ChangeAction subscribers
-        for (InternalReconciliationEngine<EVENT> engine : engines) {
+        for (InternalReconciliationEngine<EVENT> engine : visitedEngines) {
             try {
                 if (engine.closeFinishedTransactions()) {
                     mustRunEngines.add(engine);
@@ -335,16 +404,36 @@ public class DefaultReconciliationFramework<EVENT> implements ReconciliationFram
             }
         }
 
-        // Trigger actions on engines.
-        for (InternalReconciliationEngine engine : engines) {
-            if (fullReconciliationCycle || engine.hasPendingTransactions() || mustRunEngines.contains(engine)) {
+        // Trigger actions on engines. Engines with actions still running are visited again in the next iteration.
+        Set<InternalReconciliationEngine<EVENT>> nextActiveEngines = new HashSet<>();
+        for (InternalReconciliationEngine<EVENT> engine : visitedEngines) {
+            boolean active = engine.hasPendingTransactions();
+            if (fullReconciliationCycle || active || mustRunEngines.contains(engine)) {
                 try {
-                    engine.triggerActions();
+                    active = engine.triggerActions() || active;
                 } catch (Exception e) {
                     logger.warn("Unexpected error from reconciliation engine 'triggerActions' method", e);
                 }
             }
+            if (active) {
+                nextActiveEngines.add(engine);
+            }
+        }
+        this.activeEngines = nextActiveEngines;
+        this.lastVisitedEngineCount = visitedEngines.size();
+        visitedEnginesSummary.record(visitedEngines.size());
+    }
+
+    private Set<InternalReconciliationEngine<EVENT>> drainReadyEngines() {
+        Set<InternalReconciliationEngine<EVENT>> result = new HashSet<>(activeEngines);
+        InternalReconciliationEngine<EVENT> next;
+        while ((next = readyEngines.poll()) != null) {
+            // Signals from engines removed in the meantime are ignored.
+            if (engines.contains(next)) {
+                result.add(next);
+            }
         }
+        return result;
     }
 
     private void shutdownEnginesToRemove(List<Pair<InternalReconciliationEngine<EVENT>, Subscriber<Void>>> toRemove) {
@@ -357,11 +446,104 @@ public class DefaultReconciliationFramework<EVENT> implements ReconciliationFram
         });
     }
 
-    private void updateIndexSet() {
-        Map<String, InternalReconciliationEngine<EVENT>> idToEngineMap = new HashMap<>();
-        engines.forEach(engine -> engine.getReferenceView().visit(h -> idToEngineMap.put(h.getId(), engine)));
+    /**
+     * Updates the indexes incrementally, by visiting only the engines with reference model changes, and within them
+     * only the entities that differ from the last indexed version.
+     */
+    private void updateIndexSet(Collection<InternalReconciliationEngine<EVENT>> updatedEngines,
+                                Collection<InternalReconciliationEngine<EVENT>> removedEngines) {
+        PersistentHashMap<String, InternalReconciliationEngine<EVENT>> idToEngineMap = idToEngineMapRef.get();
+        List<String> indexedIds = new ArrayList<>();
+        List<String> unindexedIds = new ArrayList<>();
+
+        List<String> removedRootIds = new ArrayList<>();
+        for (InternalReconciliationEngine<EVENT> engine : removedEngines) {
+            EntityHolder current = engine.getReferenceView();
+            EntityHolder previous = indexSet.findById(current.getId()).orElse(current);
+            idToEngineMap = removeAll(idToEngineMap, engine, previous, unindexedIds);
+            removedRootIds.add(previous.getId());
+        }
+
+        List<EntityHolder> updatedRoots = new ArrayList<>();
+        for (InternalReconciliationEngine<EVENT> engine : updatedEngines) {
+            EntityHolder current = engine.getReferenceView();
+            Optional<EntityHolder> previous = indexSet.findById(current.getId());
+            idToEngineMap = previous.isPresent()
+                    ? indexChanges(idToEngineMap, engine, previous.get(), current, indexedIds, unindexedIds)
+                    : indexAll(idToEngineMap, engine, current, indexedIds);
+            updatedRoots.add(current);
+        }
+
         this.idToEngineMapRef.set(idToEngineMap);
+        this.indexSet = indexSet.remove(removedRootIds).add(updatedRoots);
+        indexUpdateListener.onIndexUpdate(indexedIds, unindexedIds, updatedRoots, removedRootIds);
+    }
+
+    private PersistentHashMap<String, InternalReconciliationEngine<EVENT>> indexChanges(PersistentHashMap<String, InternalReconciliationEngine<EVENT>> idToEngineMap,
+                                                                                      InternalReconciliationEngine<EVENT> engine,
+                                                                                      EntityHolder previous,
+                                                                                      EntityHolder current,
+                                                                                      List<String> indexedIds,
+                                                                                      List<String> unindexedIds) {
+        List<Pair<EntityHolder, EntityHolder>> changes = new ArrayList<>();
+        current.diffChildren(previous, (previousChild, currentChild) -> changes.add(Pair.of(previousChild, currentChild)));
+
+        PersistentHashMap<String, InternalReconciliationEngine<EVENT>> result = idToEngineMap.put(current.getId(), engine);
+        for (Pair<EntityHolder, EntityHolder> change : changes) {
+            if (change.getRight() == null) {
+                result = removeAll(result, engine, change.getLeft(), unindexedIds);
+            } else if (change.getLeft() == null) {
+                result = indexAll(result, engine, change.getRight(), indexedIds);
+            } else {
+                result = indexChanges(result, engine, change.getLeft(), change.getRight(), indexedIds, unindexedIds);
+            }
+        }
+        return result;
+    }
+
+    private PersistentHashMap<String, InternalReconciliationEngine<EVENT>> indexAll(PersistentHashMap<String, InternalReconciliationEngine<EVENT>> idToEngineMap,
+                                                                                  InternalReconciliationEngine<EVENT> engine,
+                                                                                  EntityHolder entityHolder,
+                                                                                  List<String> indexedIds) {
+        List<String> ids = new ArrayList<>();
+        entityHolder.visit(h -> ids.add(h.getId()));
+
+        PersistentHashMap<String, InternalReconciliationEngine<EVENT>> result = idToEngineMap;
+        for (String id : ids) {
+            result = result.put(id, engine);
+        }
+        indexedIds.addAll(ids);
+        return result;
+    }
+
+    private PersistentHashMap<String, InternalReconciliationEngine<EVENT>> removeAll(PersistentHashMap<String, InternalReconciliationEngine<EVENT>> idToEngineMap,
+                                                                                   InternalReconciliationEngine<EVENT> engine,
+                                                                                   EntityHolder entityHolder,
+                                                                                   List<String> unindexedIds) {
+        List<String> ids = new ArrayList<>();
+        entityHolder.visit(h -> ids.add(h.getId()));
+
+        PersistentHashMap<String, InternalReconciliationEngine<EVENT>> result = idToEngineMap;
+        for (String id : ids) {
+            if (result.get(id) == engine) {
+                result = result.remove(id);
+                unindexedIds.add(id);
+            }
+        }
+        return result;
+    }
 
-        indexSet = indexSet.apply(engines.stream().map(ReconciliationEngine::getReferenceView).collect(Collectors.toList()));
+    /**
+     * Receives the index changes, after they are applied. Called from the reconciliation loop thread.
+     */
+    interface IndexUpdateListener {
+
+        /**
+         * @param indexedIds     ids of the entities (roots and children) added to the id index
+         * @param unindexedIds   ids of the entities removed from the id index
+         * @param updatedRoots   added or updated root entities
+         * @param removedRootIds ids of the removed root entities
+         */
+        void onIndexUpdate(List<String> indexedIds, List<String> unindexedIds, List<EntityHolder> updatedRoots, List<String> removedRootIds);
     }
 }
@@ -16,31 +16,75 @@
 
 package com.netflix.titus.common.framework.reconciler.internal;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+import com.netflix.titus.common.util.collections.PersistentHashMap;
+import com.netflix.titus.common.util.collections.PersistentSortedSet;
 
 /**
- * TODO Optimize. This is expensive and inefficient implementation.
+ * Immutable set of ordered indexes, updated incrementally with added/updated and removed items. Each index is kept
+ * in a {@link PersistentSortedSet}, so a single item update costs O(log(n)), and reading an ordered view costs O(1).
+ * Items with equal ordering are sorted by their ids, so each index is consistent with the item identity.
  */
 public class IndexSet<T> {
 
-    private static final IndexSet<?> EMPTY = new IndexSet<>(Collections.emptyMap());
+    private static final IndexSet<?> EMPTY = new IndexSet<>(Collections.emptyMap(), item -> "", PersistentHashMap.empty());
 
     private final Map<Object, Index<T>> indexes;
+    private final Function<T, String> idExtractor;
+    private final PersistentHashMap<String, T> itemsById;
 
-    private IndexSet(Map<Object, Index<T>> indexes) {
+    private IndexSet(Map<Object, Index<T>> indexes, Function<T, String> idExtractor, PersistentHashMap<String, T> itemsById) {
         this.indexes = indexes;
+        this.idExtractor = idExtractor;
+        this.itemsById = itemsById;
+    }
+
+    /**
+     * Adds new items, or replaces previous versions of the items with the same ids.
+     */
+    public IndexSet<T> add(Collection<T> addedOrUpdated) {
+        if (addedOrUpdated.isEmpty()) {
+            return this;
+        }
+        Map<Object, Index<T>> newIndexes = new HashMap<>(indexes);
+        PersistentHashMap<String, T> newItemsById = itemsById;
+        for (T item : addedOrUpdated) {
+            String id = idExtractor.apply(item);
+            T previous = newItemsById.get(id);
+            if (previous != item) {
+                newIndexes.replaceAll((indexId, index) -> index.replace(previous, item));
+                newItemsById = newItemsById.put(id, item);
+            }
+        }
+        return new IndexSet<>(newIndexes, idExtractor, newItemsById);
+    }
+
+    public IndexSet<T> remove(Collection<String> removedIds) {
+        if (removedIds.isEmpty()) {
+            return this;
+        }
+        Map<Object, Index<T>> newIndexes = new HashMap<>(indexes);
+        PersistentHashMap<String, T> newItemsById = itemsById;
+        for (String id : removedIds) {
+            T previous = newItemsById.get(id);
+            if (previous != null) {
+                newIndexes.replaceAll((indexId, index) -> index.replace(previous, null));
+                newItemsById = newItemsById.remove(id);
+            }
+        }
+        return new IndexSet<>(newIndexes, idExtractor, newItemsById);
     }
 
-    public IndexSet<T> apply(Collection<T> added) {
-        Map<Object, Index<T>> copy = new HashMap<>();
-        indexes.forEach((k, v) -> copy.put(k, v.apply(added)));
-        return new IndexSet<>(copy);
+    public Optional<T> findById(String id) {
+        return itemsById.find(id);
     }
 
     public List<T> getOrdered(Object indexId) {
@@ -55,34 +99,37 @@ public class IndexSet<T> {
         return (IndexSet<T>) EMPTY;
     }
 
-    public static <T> IndexSet<T> newIndexSet(Map<Object, Comparator<T>> comparators) {
+    public static <T> IndexSet<T> newIndexSet(Map<Object, Comparator<T>> comparators, Function<T, String> idExtractor) {
         Map<Object, Index<T>> indexes = new HashMap<>();
-        comparators.forEach((k, v) -> indexes.put(k, Index.newIndex(v)));
-        return new IndexSet<>(indexes);
+        comparators.forEach((k, v) -> indexes.put(k, Index.newIndex(v.thenComparing(idExtractor))));
+        return new IndexSet<>(indexes, idExtractor, PersistentHashMap.empty());
     }
 
     static class Index<T> {
 
-        private final Comparator<T> comparator;
-        private final List<T> ordered;
+        private final PersistentSortedSet<T> ordered;
 
-        private Index(Comparator<T> comparator, List<T> ordered) {
-            this.comparator = comparator;
+        private Index(PersistentSortedSet<T> ordered) {
             this.ordered = ordered;
         }
 
-        Index<T> apply(Collection<T> added) {
-            List<T> copy = new ArrayList<>(added);
-            copy.sort(comparator);
-            return new Index<>(comparator, copy);
+        Index<T> replace(T previous, T current) {
+            PersistentSortedSet<T> result = ordered;
+            if (previous != null) {
+                result = result.remove(previous);
+            }
+            if (current != null) {
+                result = result.insert(current);
+            }
+            return result == ordered ? this : new Index<>(result);
         }
 
         List<T> getOrdered() {
-            return ordered;
+            return ordered.asList();
         }
 
         static <T> Index<T> newIndex(Comparator<T> comparator) {
-            return new Index<>(comparator, Collections.emptyList());
+            return new Index<>(PersistentSortedSet.empty(comparator));
         }
     }
 }
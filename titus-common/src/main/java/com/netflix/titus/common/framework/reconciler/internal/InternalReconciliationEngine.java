@@ -20,6 +20,12 @@ import com.netflix.titus.common.framework.reconciler.ReconciliationEngine;
 
 public interface InternalReconciliationEngine<EVENT>  extends ReconciliationEngine<EVENT> {
 
+    /**
+     * Sets a callback, which the engine calls when it has new work to be processed by the reconciliation loop, like
+     * a newly queued change action. The callback may be called from any thread.
+     */
+    void setReadyListener(Runnable readyListener);
+
     boolean hasPendingTransactions();
 
     /**
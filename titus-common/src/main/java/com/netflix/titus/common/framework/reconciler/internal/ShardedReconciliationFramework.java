@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.common.framework.reconciler.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import com.google.common.base.Preconditions;
+import com.netflix.spectator.api.BasicTag;
+import com.netflix.spectator.api.Registry;
+import com.netflix.titus.common.framework.reconciler.EntityHolder;
+import com.netflix.titus.common.framework.reconciler.ReconciliationEngine;
+import com.netflix.titus.common.framework.reconciler.ReconciliationFramework;
+import com.netflix.titus.common.util.rx.ObservableExt;
+import com.netflix.titus.common.util.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Completable;
+import rx.Observable;
+import rx.Scheduler;
+
+/**
+ * {@link ReconciliationFramework} implementation that partitions engines between multiple
+ * {@link DefaultReconciliationFramework} shards, each running its own reconciliation loop on a separate thread.
+ * An engine is assigned to a shard by its root id, so all its actions are still executed serially, in the same
+ * order as in a single loop. Events of all shards are merged into a single stream. Each shard reports its index
+ * changes, which are applied to a global child id to shard map, and to a global {@link IndexSet} providing the
+ * ordered views, so lookups and ordered views do not depend on the number of shards.
+ */
+public class ShardedReconciliationFramework<EVENT> implements ReconciliationFramework<EVENT> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardedReconciliationFramework.class);
+
+    private static final String THREAD_NAME_PREFIX = "TitusReconciliationFramework-";
+
+    private final List<DefaultReconciliationFramework<EVENT>> shards;
+    private final Observable<EVENT> eventsObservable;
+
+    private final ConcurrentMap<String, Integer> shardIndexById = new ConcurrentHashMap<>();
+
+    /**
+     * Updated from the shard loop threads, so all modifications are done under the lock.
+     */
+    private final Object indexSetLock = new Object();
+    private volatile IndexSet<EntityHolder> indexSet;
+
+    public ShardedReconciliationFramework(int shardCount,
+                                          List<InternalReconciliationEngine<EVENT>> bootstrapEngines,
+                                          Function<EntityHolder, InternalReconciliationEngine<EVENT>> engineFactory,
+                                          long idleTimeoutMs,
+                                          long activeTimeoutMs,
+                                          Map<Object, Comparator<EntityHolder>> indexComparators,
+                                          Registry registry,
+                                          Optional<Scheduler> optionalScheduler) {
+        Preconditions.checkArgument(shardCount > 0, "shardCount <= 0 (%s)", shardCount);
+
+        this.indexSet = IndexSet.newIndexSet(indexComparators, EntityHolder::getId);
+
+        List<List<InternalReconciliationEngine<EVENT>>> bootstrapPartitions = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            bootstrapPartitions.add(new ArrayList<>());
+        }
+        bootstrapEngines.forEach(engine -> bootstrapPartitions.get(shardOf(engine.getReferenceView().getId(), shardCount)).add(engine));
+
+        List<DefaultReconciliationFramework<EVENT>> shards = new ArrayList<>();
+        List<Observable<EVENT>> shardEvents = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            int shardIndex = i;
+            DefaultReconciliationFramework<EVENT> shard = new DefaultReconciliationFramework<>(
+                    bootstrapPartitions.get(i),
+                    engineFactory,
+                    idleTimeoutMs,
+                    activeTimeoutMs,
+                    indexComparators,
+                    THREAD_NAME_PREFIX + i,
+                    Collections.singletonList(new BasicTag("shard", Integer.toString(i))),
+                    (indexedIds, unindexedIds, updatedRoots, removedRootIds) -> onShardIndexUpdate(shardIndex, indexedIds, unindexedIds, updatedRoots, removedRootIds),
+                    registry,
+                    optionalScheduler
+            );
+            shards.add(shard);
+            shardEvents.add(shard.events());
+        }
+        this.shards = Collections.unmodifiableList(shards);
+        this.eventsObservable = Observable.merge(shardEvents).share();
+    }
+
+    @Override
+    public void start() {
+        shards.forEach(DefaultReconciliationFramework::start);
+    }
+
+    @Override
+    public boolean stop(long timeoutMs) {
+        boolean allStopped = true;
+        for (DefaultReconciliationFramework<EVENT> shard : shards) {
+            allStopped = shard.stop(timeoutMs) && allStopped;
+        }
+        return allStopped;
+    }
+
+    @Override
+    public Observable<EVENT> events() {
+        return ObservableExt.protectFromMissingExceptionHandlers(eventsObservable, logger);
+    }
+
+    @Override
+    public Optional<ReconciliationEngine<EVENT>> findEngineByRootId(String id) {
+        return shardFor(id).findEngineByRootId(id);
+    }
+
+    @Override
+    public Optional<Pair<ReconciliationEngine<EVENT>, EntityHolder>> findEngineByChildId(String childId) {
+        Integer shardIndex = shardIndexById.get(childId);
+        return shardIndex == null ? Optional.empty() : shards.get(shardIndex).findEngineByChildId(childId);
+    }
+
+    @Override
+    public <ORDER_BY> List<EntityHolder> orderedView(ORDER_BY orderingCriteria) {
+        return indexSet.getOrdered(orderingCriteria);
+    }
+
+    @Override
+    public Observable<ReconciliationEngine<EVENT>> newEngine(EntityHolder bootstrapModel) {
+        return shardFor(bootstrapModel.getId()).newEngine(bootstrapModel);
+    }
+
+    @Override
+    public Completable removeEngine(ReconciliationEngine<EVENT> engine) {
+        return shardFor(engine.getReferenceView().getId()).removeEngine(engine);
+    }
+
+    private DefaultReconciliationFramework<EVENT> shardFor(String rootId) {
+        return shards.get(shardOf(rootId, shards.size()));
+    }
+
+    private static int shardOf(String rootId, int shardCount) {
+        return Math.floorMod(rootId.hashCode(), shardCount);
+    }
+
+    private void onShardIndexUpdate(int shardIndex,
+                                    List<String> indexedIds,
+                                    List<String> unindexedIds,
+                                    List<EntityHolder> updatedRoots,
+                                    List<String> removedRootIds) {
+        unindexedIds.forEach(shardIndexById::remove);
+        indexedIds.forEach(id -> shardIndexById.put(id, shardIndex));
+        if (!updatedRoots.isEmpty() || !removedRootIds.isEmpty()) {
+            synchronized (indexSetLock) {
+                this.indexSet = indexSet.remove(removedRootIds).add(updatedRoots);
+            }
+        }
+    }
+}
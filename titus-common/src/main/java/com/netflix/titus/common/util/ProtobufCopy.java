@@ -16,74 +16,144 @@
 
 package com.netflix.titus.common.util;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.protobuf.Descriptors;
-import com.google.protobuf.MapEntry;
 import com.google.protobuf.Message;
+import com.netflix.titus.common.util.cache.FieldSetCache;
 
 /**
  * Given set of field names, creates a copy of protobuf object, with only the indicated fields included.
  */
 public final class ProtobufCopy {
 
+    /**
+     * A projection keeps its compiled rules for every message type it was applied to, so the number of projections
+     * is limited to keep memory use bounded, when callers pass arbitrary field combinations.
+     */
+    private static final int MAX_CACHED_PROJECTIONS = 1024;
+
+    private static final FieldSetCache<FieldsProjection> PROJECTIONS = new FieldSetCache<>(MAX_CACHED_PROJECTIONS, FieldsProjection::new);
+
     private ProtobufCopy() {
     }
 
     public static <T extends Message> T copy(T entity, Set<String> fields) {
-        // Split nested field names
-        Map<String, Set<String>> topNames = PropertiesExt.splitNames(fields, 1);
+        return ProtobufCopy.<T>projectionOf(fields).apply(entity);
+    }
 
-        // Filter
-        Message.Builder builder = entity.toBuilder();
+    /**
+     * Returns a thread safe function, which creates a copy of a protobuf object with only the indicated fields
+     * included. The field names are parsed, and matched against the protobuf descriptors, once per distinct field
+     * set, and the result is cached.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Message> Function<T, T> projectionOf(Set<String> fields) {
+        FieldsProjection projection = PROJECTIONS.get(fields);
+        return entity -> (T) projection.apply(entity);
+    }
 
-        // As we modify the builder, we need to take a snapshot this
-        Set<Descriptors.FieldDescriptor> fieldDescriptors = new HashSet<>(builder.getAllFields().keySet());
-        for (Descriptors.FieldDescriptor field : fieldDescriptors) {
-            if (!topNames.containsKey(field.getName())) {
-                builder.clearField(field);
-            } else {
-                Set<String> nested = topNames.get(field.getName());
-                if (nested != null) {
-                    Object value = builder.getField(field);
-                    if (value != null) {
-                        if (value instanceof Message) {
-                            Message messageValue = (Message) value;
-                            if (!messageValue.getAllFields().isEmpty()) {
-                                builder.setField(field, copy(messageValue, nested));
-                            }
-                        } else if (value instanceof Collection) {
-                            Collection<?> collection = (Collection<?>) value;
-                            if (!collection.isEmpty()) {
-                                Object first = CollectionsExt.first(collection);
-                                if (first instanceof MapEntry) {
-                                    if (((MapEntry) first).getKey() instanceof String) {
-                                        List<?> filteredMap = collection.stream().filter(item -> {
-                                            MapEntry<String, Object> entry = (MapEntry<String, Object>) item;
-                                            return nested.contains(entry.getKey());
-                                        }).collect(Collectors.toList());
-                                        builder.setField(field, filteredMap);
-                                    }
-                                } else if (first instanceof Message) {
-                                    Iterator<?> it = collection.iterator();
-                                    int size = collection.size();
-                                    for (int i = 0; i < size; i++) {
-                                        builder.setRepeatedField(field, i, copy((Message) it.next(), nested));
-                                    }
-                                }
-                            }
-                        }
-                    }
+    @VisibleForTesting
+    static long getCachedProjectionCount() {
+        return PROJECTIONS.size();
+    }
+
+    private static class FieldsProjection {
+
+        private final Set<String> names;
+
+        /**
+         * Projections of fields with nested names. A field mapped to null is copied with all its content.
+         */
+        private final Map<String, FieldsProjection> fieldProjections;
+
+        private final ConcurrentMap<Descriptors.Descriptor, List<FieldRule>> rulesByType = new ConcurrentHashMap<>();
+
+        private FieldsProjection(Set<String> names) {
+            this.names = names;
+            this.fieldProjections = new HashMap<>();
+            PropertiesExt.splitNames(names, 1).forEach((name, nested) ->
+                    fieldProjections.put(name, nested == null ? null : new FieldsProjection(nested))
+            );
+        }
+
+        private Message apply(Message entity) {
+            List<FieldRule> rules = rulesByType.computeIfAbsent(entity.getDescriptorForType(), this::compile);
+
+            Message.Builder builder = entity.newBuilderForType();
+            for (FieldRule rule : rules) {
+                rule.copy(entity, builder);
+            }
+            return builder.setUnknownFields(entity.getUnknownFields()).build();
+        }
+
+        private List<FieldRule> compile(Descriptors.Descriptor type) {
+            List<FieldRule> rules = new ArrayList<>();
+            for (Descriptors.FieldDescriptor field : type.getFields()) {
+                if (fieldProjections.containsKey(field.getName())) {
+                    rules.add(new FieldRule(field, fieldProjections.get(field.getName())));
                 }
             }
+            return rules;
         }
+    }
+
+    private static class FieldRule {
+
+        private final Descriptors.FieldDescriptor field;
+        private final FieldsProjection nested;
+        private final boolean nestedMessage;
+        private final Descriptors.FieldDescriptor stringMapKey;
+
+        private FieldRule(Descriptors.FieldDescriptor field, FieldsProjection nested) {
+            this.field = field;
+            this.nested = nested;
+            this.nestedMessage = nested != null && field.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE;
+
+            Descriptors.FieldDescriptor mapKey = field.isMapField() ? field.getMessageType().findFieldByNumber(1) : null;
+            this.stringMapKey = mapKey != null && mapKey.getJavaType() == Descriptors.FieldDescriptor.JavaType.STRING ? mapKey : null;
+        }
+
+        private void copy(Message entity, Message.Builder builder) {
+            if (!field.isRepeated()) {
+                if (entity.hasField(field)) {
+                    Object value = entity.getField(field);
+                    builder.setField(field, nestedMessage ? nested.apply((Message) value) : value);
+                }
+                return;
+            }
 
-        return (T) builder.build();
+            int count = entity.getRepeatedFieldCount(field);
+            if (count == 0) {
+                return;
+            }
+            if (!nestedMessage) {
+                builder.setField(field, entity.getField(field));
+            } else if (field.isMapField()) {
+                // Nested names of a map select its keys
+                if (stringMapKey == null) {
+                    builder.setField(field, entity.getField(field));
+                    return;
+                }
+                for (int i = 0; i < count; i++) {
+                    Message mapEntry = (Message) entity.getRepeatedField(field, i);
+                    if (nested.names.contains((String) mapEntry.getField(stringMapKey))) {
+                        builder.addRepeatedField(field, mapEntry);
+                    }
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    builder.addRepeatedField(field, nested.apply((Message) entity.getRepeatedField(field, i)));
+                }
+            }
+        }
     }
 }
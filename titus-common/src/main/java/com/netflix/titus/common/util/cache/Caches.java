@@ -16,6 +16,9 @@
 
 package com.netflix.titus.common.util.cache;
 
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntBiFunction;
+
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.netflix.spectator.api.Registry;
 import com.netflix.titus.common.util.cache.internal.InstrumentedCache;
@@ -28,4 +31,28 @@ public class Caches {
                 .build();
         return new InstrumentedCache<>(metricNameRoot, cache, registry);
     }
+
+    /**
+     * Creates a cache bounded by the total weight of its entries, as computed by the given weigher function.
+     */
+    public static <K, V> Cache<K, V> instrumentedCacheWithMaxWeight(long maxWeight, ToIntBiFunction<K, V> weigher, String metricNameRoot, Registry registry) {
+        com.github.benmanes.caffeine.cache.Cache<K, V> cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .<K, V>weigher(weigher::applyAsInt)
+                .recordStats()
+                .build();
+        return new InstrumentedCache<>(metricNameRoot, cache, registry);
+    }
+
+    /**
+     * Creates a cache bounded by the number of entries, in which each entry expires after the given time.
+     */
+    public static <K, V> Cache<K, V> instrumentedCacheWithMaxSizeAndTtl(long maxSize, long ttlMs, String metricNameRoot, Registry registry) {
+        com.github.benmanes.caffeine.cache.Cache<K, V> cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        return new InstrumentedCache<>(metricNameRoot, cache, registry);
+    }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.common.util.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Bounded cache of values built for a set of field names, for example from the 'fields' parameter of a query.
+ * A field set given by a caller is copied before it is stored as a key, so it may be mutable. The least recently
+ * used entries are evicted when the size limit is reached.
+ */
+public final class FieldSetCache<V> {
+
+    private final Cache<Set<String>, V> cache;
+    private final Function<Set<String>, V> factory;
+
+    public FieldSetCache(long maxSize, Function<Set<String>, V> factory) {
+        this.cache = Caffeine.newBuilder().maximumSize(maxSize).build();
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the cached value for the given field set, or builds and caches a new one.
+     */
+    public V get(Collection<String> fields) {
+        V value = fields instanceof Set ? cache.getIfPresent(fields) : null;
+        if (value == null) {
+            value = cache.get(Collections.unmodifiableSet(new HashSet<>(fields)), factory);
+        }
+        return value;
+    }
+
+    public long size() {
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+}
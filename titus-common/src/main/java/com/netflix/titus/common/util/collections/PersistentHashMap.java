@@ -0,0 +1,513 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.common.util.collections;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Immutable map implemented as a hash array mapped trie (HAMT). Each modification produces a new version of the map,
+ * which shares all unchanged trie nodes with the previous version. As a result single key updates cost O(log32(n)) in
+ * time and allocation, instead of O(n) required to copy a regular {@link HashMap}.
+ * <p>
+ * Null keys and null values are not allowed.
+ *
+ * @param <K> type of keys. They must have a correct implementations of <tt>equals()</tt> and <tt>hashCode()</tt>
+ * @param <V> type of values
+ */
+public final class PersistentHashMap<K, V> {
+
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(BitmapNode.EMPTY, 0);
+
+    private final Node<K, V> root;
+    private final int size;
+
+    private PersistentHashMap(Node<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public V get(K key) {
+        Preconditions.checkNotNull(key, "null key");
+        return root.find(0, key.hashCode(), key);
+    }
+
+    public Optional<V> find(K key) {
+        return Optional.ofNullable(get(key));
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns a new map version with the given key/value pair added or replaced. If the key is already associated
+     * with the same value instance, this map is returned.
+     */
+    public PersistentHashMap<K, V> put(K key, V value) {
+        Preconditions.checkNotNull(key, "null key");
+        Preconditions.checkNotNull(value, "null value");
+
+        AddedFlag added = new AddedFlag();
+        Node<K, V> newRoot = root.put(0, key.hashCode(), key, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(newRoot, added.value ? size + 1 : size);
+    }
+
+    /**
+     * Returns a new map version without the given key. If the key is not present, this map is returned.
+     */
+    public PersistentHashMap<K, V> remove(K key) {
+        Preconditions.checkNotNull(key, "null key");
+
+        Node<K, V> newRoot = root.remove(0, key.hashCode(), key);
+        if (newRoot == root) {
+            return this;
+        }
+        if (newRoot == null) {
+            return empty();
+        }
+        return new PersistentHashMap<>(newRoot, size - 1);
+    }
+
+    /**
+     * Visits all entries in an unspecified, but stable for a given map version, order.
+     */
+    public void forEach(BiConsumer<K, V> consumer) {
+        root.forEach(consumer);
+    }
+
+    /**
+     * Reports all differences between this map and its previous version. For each added, updated (a different value
+     * instance) or removed key, the consumer is called with the previous value (null if added) and the current
+     * value (null if removed). Sub-tries shared by both versions are skipped, so the cost is proportional to the
+     * number of changes, not the map size.
+     */
+    public void diff(PersistentHashMap<K, V> previous, BiConsumer<V, V> changeConsumer) {
+        diffNodes(previous.root, root, changeConsumer);
+    }
+
+    public List<K> keys() {
+        List<K> result = new ArrayList<>(size);
+        forEach((k, v) -> result.add(k));
+        return result;
+    }
+
+    public List<V> values() {
+        List<V> result = new ArrayList<>(size);
+        forEach((k, v) -> result.add(v));
+        return result;
+    }
+
+    public Map<K, V> toMap() {
+        Map<K, V> result = new HashMap<>();
+        forEach(result::put);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PersistentHashMap<K, V> other = (PersistentHashMap<K, V>) o;
+        if (size != other.size) {
+            return false;
+        }
+        return toMap().equals(other.toMap());
+    }
+
+    @Override
+    public int hashCode() {
+        int[] hash = new int[1];
+        forEach((k, v) -> hash[0] += k.hashCode() ^ v.hashCode());
+        return hash[0];
+    }
+
+    @Override
+    public String toString() {
+        return "PersistentHashMap" + toMap();
+    }
+
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    public static <K, V> PersistentHashMap<K, V> of(Map<K, V> map) {
+        PersistentHashMap<K, V> result = empty();
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            result = result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    private static <K, V> void diffNodes(Node<K, V> previous, Node<K, V> current, BiConsumer<V, V> changeConsumer) {
+        if (previous == current) {
+            return;
+        }
+        if (previous instanceof BitmapNode && current instanceof BitmapNode) {
+            BitmapNode<K, V> previousBitmap = (BitmapNode<K, V>) previous;
+            BitmapNode<K, V> currentBitmap = (BitmapNode<K, V>) current;
+            int bits = previousBitmap.bitmap | currentBitmap.bitmap;
+            while (bits != 0) {
+                int bit = Integer.lowestOneBit(bits);
+                bits ^= bit;
+                diffSlots(previousBitmap, currentBitmap, bit, changeConsumer);
+            }
+            return;
+        }
+        diffEntries(previous, current, changeConsumer);
+    }
+
+    private static <K, V> void diffSlots(BitmapNode<K, V> previous, BitmapNode<K, V> current, int bit, BiConsumer<V, V> changeConsumer) {
+        Object previousKey = null;
+        Object previousValue = null;
+        if ((previous.bitmap & bit) != 0) {
+            int idx = previous.index(bit);
+            previousKey = previous.array[2 * idx];
+            previousValue = previous.array[2 * idx + 1];
+        }
+        Object currentKey = null;
+        Object currentValue = null;
+        if ((current.bitmap & bit) != 0) {
+            int idx = current.index(bit);
+            currentKey = current.array[2 * idx];
+            currentValue = current.array[2 * idx + 1];
+        }
+        if (previousKey == currentKey && previousValue == currentValue) {
+            return;
+        }
+        if (previousKey == null && currentKey == null && previousValue != null && currentValue != null) {
+            diffNodes((Node<K, V>) previousValue, (Node<K, V>) currentValue, changeConsumer);
+            return;
+        }
+        diffEntries(asNode(previousKey, previousValue), asNode(currentKey, currentValue), changeConsumer);
+    }
+
+    private static <K, V> Node<K, V> asNode(Object keyOrNull, Object valueOrNode) {
+        if (valueOrNode == null) {
+            return null;
+        }
+        if (keyOrNull == null) {
+            return (Node<K, V>) valueOrNode;
+        }
+        return new CollisionNode<>(keyOrNull.hashCode(), new Object[]{keyOrNull, valueOrNode});
+    }
+
+    private static <K, V> void diffEntries(Node<K, V> previous, Node<K, V> current, BiConsumer<V, V> changeConsumer) {
+        Map<K, V> previousEntries = new HashMap<>();
+        if (previous != null) {
+            previous.forEach(previousEntries::put);
+        }
+        if (current != null) {
+            current.forEach((key, value) -> {
+                V previousValue = previousEntries.remove(key);
+                if (previousValue != value) {
+                    changeConsumer.accept(previousValue, value);
+                }
+            });
+        }
+        previousEntries.values().forEach(value -> changeConsumer.accept(value, null));
+    }
+
+    private static int bitPosition(int hash, int shift) {
+        return 1 << ((hash >>> shift) & LEVEL_MASK);
+    }
+
+    private static class AddedFlag {
+        private boolean value;
+    }
+
+    private interface Node<K, V> {
+
+        V find(int shift, int hash, Object key);
+
+        /**
+         * Returns this node if the key/value pair is already present.
+         */
+        Node<K, V> put(int shift, int hash, K key, V value, AddedFlag added);
+
+        /**
+         * Returns this node if the key is not present, or null if the removed entry was the last one.
+         */
+        Node<K, V> remove(int shift, int hash, Object key);
+
+        /**
+         * If a node holds exactly one key/value pair, returns it as two element array. Otherwise returns null.
+         */
+        Object[] singleEntry();
+
+        void forEach(BiConsumer<K, V> consumer);
+    }
+
+    /**
+     * Trie node with up to 32 slots. Each occupied slot is a pair in the array, with either (key, value) or
+     * (null, sub-node) entries. The bitmap tells which slots are occupied, so the array is kept dense.
+     */
+    private static final class BitmapNode<K, V> implements Node<K, V> {
+
+        private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] array;
+
+        private BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public V find(int shift, int hash, Object key) {
+            int bit = bitPosition(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int idx = index(bit);
+            Object keyOrNull = array[2 * idx];
+            Object valueOrNode = array[2 * idx + 1];
+            if (keyOrNull == null) {
+                return ((Node<K, V>) valueOrNode).find(shift + BITS_PER_LEVEL, hash, key);
+            }
+            return key.equals(keyOrNull) ? (V) valueOrNode : null;
+        }
+
+        @Override
+        public Node<K, V> put(int shift, int hash, K key, V value, AddedFlag added) {
+            int bit = bitPosition(hash, shift);
+            int idx = index(bit);
+
+            if ((bitmap & bit) == 0) {
+                added.value = true;
+                int count = Integer.bitCount(bitmap);
+                Object[] newArray = new Object[2 * (count + 1)];
+                System.arraycopy(array, 0, newArray, 0, 2 * idx);
+                newArray[2 * idx] = key;
+                newArray[2 * idx + 1] = value;
+                System.arraycopy(array, 2 * idx, newArray, 2 * (idx + 1), 2 * (count - idx));
+                return new BitmapNode<>(bitmap | bit, newArray);
+            }
+
+            Object keyOrNull = array[2 * idx];
+            Object valueOrNode = array[2 * idx + 1];
+
+            if (keyOrNull == null) {
+                Node<K, V> subNode = (Node<K, V>) valueOrNode;
+                Node<K, V> newSubNode = subNode.put(shift + BITS_PER_LEVEL, hash, key, value, added);
+                return newSubNode == subNode ? this : replaceSlot(idx, null, newSubNode);
+            }
+            if (key.equals(keyOrNull)) {
+                return valueOrNode == value ? this : replaceSlot(idx, keyOrNull, value);
+            }
+
+            added.value = true;
+            Node<K, V> newSubNode = createSubNode(shift + BITS_PER_LEVEL, (K) keyOrNull, (V) valueOrNode, hash, key, value);
+            return replaceSlot(idx, null, newSubNode);
+        }
+
+        @Override
+        public Node<K, V> remove(int shift, int hash, Object key) {
+            int bit = bitPosition(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int idx = index(bit);
+            Object keyOrNull = array[2 * idx];
+            Object valueOrNode = array[2 * idx + 1];
+
+            if (keyOrNull == null) {
+                Node<K, V> subNode = (Node<K, V>) valueOrNode;
+                Node<K, V> newSubNode = subNode.remove(shift + BITS_PER_LEVEL, hash, key);
+                if (newSubNode == subNode) {
+                    return this;
+                }
+                if (newSubNode == null) {
+                    return removeSlot(bit, idx);
+                }
+                // Pull single entries up, so the trie does not degenerate into long chains after removals.
+                Object[] single = newSubNode.singleEntry();
+                if (single != null) {
+                    return replaceSlot(idx, single[0], single[1]);
+                }
+                return replaceSlot(idx, null, newSubNode);
+            }
+            if (key.equals(keyOrNull)) {
+                return removeSlot(bit, idx);
+            }
+            return this;
+        }
+
+        @Override
+        public Object[] singleEntry() {
+            if (array.length == 2 && array[0] != null) {
+                return array;
+            }
+            return null;
+        }
+
+        @Override
+        public void forEach(BiConsumer<K, V> consumer) {
+            for (int i = 0; i < array.length; i += 2) {
+                Object keyOrNull = array[i];
+                if (keyOrNull == null) {
+                    ((Node<K, V>) array[i + 1]).forEach(consumer);
+                } else {
+                    consumer.accept((K) keyOrNull, (V) array[i + 1]);
+                }
+            }
+        }
+
+        private BitmapNode<K, V> replaceSlot(int idx, Object keyOrNull, Object valueOrNode) {
+            Object[] newArray = array.clone();
+            newArray[2 * idx] = keyOrNull;
+            newArray[2 * idx + 1] = valueOrNode;
+            return new BitmapNode<>(bitmap, newArray);
+        }
+
+        private BitmapNode<K, V> removeSlot(int bit, int idx) {
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, 2 * idx);
+            System.arraycopy(array, 2 * (idx + 1), newArray, 2 * idx, newArray.length - 2 * idx);
+            return new BitmapNode<>(bitmap ^ bit, newArray);
+        }
+
+        private static <K, V> Node<K, V> createSubNode(int shift, K key1, V value1, int hash2, K key2, V value2) {
+            int hash1 = key1.hashCode();
+            if (hash1 == hash2) {
+                return new CollisionNode<>(hash1, new Object[]{key1, value1, key2, value2});
+            }
+            AddedFlag ignore = new AddedFlag();
+            return ((Node<K, V>) EMPTY)
+                    .put(shift, hash1, key1, value1, ignore)
+                    .put(shift, hash2, key2, value2, ignore);
+        }
+    }
+
+    /**
+     * Leaf node holding keys with identical hash codes.
+     */
+    private static final class CollisionNode<K, V> implements Node<K, V> {
+
+        private final int hash;
+        private final Object[] array;
+
+        private CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public V find(int shift, int hash, Object key) {
+            if (hash != this.hash) {
+                return null;
+            }
+            int idx = indexOf(key);
+            return idx < 0 ? null : (V) array[idx + 1];
+        }
+
+        @Override
+        public Node<K, V> put(int shift, int hash, K key, V value, AddedFlag added) {
+            if (hash != this.hash) {
+                // Nest this node in a bitmap node, and let it resolve the new key placement.
+                BitmapNode<K, V> parent = new BitmapNode<>(bitPosition(this.hash, shift), new Object[]{null, this});
+                return parent.put(shift, hash, key, value, added);
+            }
+            int idx = indexOf(key);
+            if (idx >= 0) {
+                if (array[idx + 1] == value) {
+                    return this;
+                }
+                Object[] newArray = array.clone();
+                newArray[idx + 1] = value;
+                return new CollisionNode<>(hash, newArray);
+            }
+            added.value = true;
+            Object[] newArray = new Object[array.length + 2];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            return new CollisionNode<>(hash, newArray);
+        }
+
+        @Override
+        public Node<K, V> remove(int shift, int hash, Object key) {
+            if (hash != this.hash) {
+                return this;
+            }
+            int idx = indexOf(key);
+            if (idx < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, idx);
+            System.arraycopy(array, idx + 2, newArray, idx, newArray.length - idx);
+            return new CollisionNode<>(hash, newArray);
+        }
+
+        @Override
+        public Object[] singleEntry() {
+            return array.length == 2 ? array : null;
+        }
+
+        @Override
+        public void forEach(BiConsumer<K, V> consumer) {
+            for (int i = 0; i < array.length; i += 2) {
+                consumer.accept((K) array[i], (V) array[i + 1]);
+            }
+        }
+    }
+}
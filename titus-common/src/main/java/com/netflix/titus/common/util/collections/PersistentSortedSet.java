@@ -0,0 +1,299 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.common.util.collections;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Immutable sorted set implemented as a persistent AVL tree, with each node augmented with its subtree size. Each
+ * modification produces a new version of the set, which shares all untouched nodes with the previous version.
+ * Insertion, removal and positional access cost O(log(n)). The comparator must be consistent with equals, as
+ * elements comparing as equal replace each other.
+ */
+public final class PersistentSortedSet<T> {
+
+    private final Comparator<T> comparator;
+    private final Node<T> root;
+    private final List<T> listView;
+
+    private PersistentSortedSet(Comparator<T> comparator, Node<T> root) {
+        this.comparator = comparator;
+        this.root = root;
+        this.listView = new ListView();
+    }
+
+    public Comparator<T> getComparator() {
+        return comparator;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public T get(int index) {
+        Preconditions.checkElementIndex(index, size());
+        Node<T> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.value;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    public boolean contains(T value) {
+        Node<T> node = root;
+        while (node != null) {
+            int c = comparator.compare(value, node.value);
+            if (c == 0) {
+                return true;
+            }
+            node = c < 0 ? node.left : node.right;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of elements strictly lower than the given value. If the value belongs to this set, this
+     * is its position. Otherwise it is the position at which it would be inserted.
+     */
+    public int rank(T value) {
+        int rank = 0;
+        Node<T> node = root;
+        while (node != null) {
+            if (comparator.compare(value, node.value) <= 0) {
+                node = node.left;
+            } else {
+                rank += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Returns a new version of this set with the given value added. A value equal according to the comparator is
+     * replaced. If the same value instance is already present, this set is returned.
+     */
+    public PersistentSortedSet<T> insert(T value) {
+        Preconditions.checkNotNull(value, "null value");
+        Node<T> newRoot = insert(root, value);
+        return newRoot == root ? this : new PersistentSortedSet<>(comparator, newRoot);
+    }
+
+    /**
+     * Returns a new version of this set without the given value. If the value is not present, this set is returned.
+     */
+    public PersistentSortedSet<T> remove(T value) {
+        Preconditions.checkNotNull(value, "null value");
+        Node<T> newRoot = remove(root, value);
+        return newRoot == root ? this : new PersistentSortedSet<>(comparator, newRoot);
+    }
+
+    /**
+     * Returns an immutable list view of this set. The view is created once per set version, and positional access
+     * to it costs O(log(n)).
+     */
+    public List<T> asList() {
+        return listView;
+    }
+
+    public Iterator<T> iterator(int fromIndex) {
+        return new InOrderIterator<>(root, fromIndex);
+    }
+
+    @Override
+    public String toString() {
+        return "PersistentSortedSet" + listView;
+    }
+
+    public static <T> PersistentSortedSet<T> empty(Comparator<T> comparator) {
+        return new PersistentSortedSet<>(comparator, null);
+    }
+
+    private Node<T> insert(Node<T> node, T value) {
+        if (node == null) {
+            return new Node<>(value, null, null);
+        }
+        int c = comparator.compare(value, node.value);
+        if (c == 0) {
+            return node.value == value ? node : new Node<>(value, node.left, node.right);
+        }
+        if (c < 0) {
+            Node<T> newLeft = insert(node.left, value);
+            return newLeft == node.left ? node : balance(node.value, newLeft, node.right);
+        }
+        Node<T> newRight = insert(node.right, value);
+        return newRight == node.right ? node : balance(node.value, node.left, newRight);
+    }
+
+    private Node<T> remove(Node<T> node, T value) {
+        if (node == null) {
+            return null;
+        }
+        int c = comparator.compare(value, node.value);
+        if (c < 0) {
+            Node<T> newLeft = remove(node.left, value);
+            return newLeft == node.left ? node : balance(node.value, newLeft, node.right);
+        }
+        if (c > 0) {
+            Node<T> newRight = remove(node.right, value);
+            return newRight == node.right ? node : balance(node.value, node.left, newRight);
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node<T> min = node.right;
+        while (min.left != null) {
+            min = min.left;
+        }
+        return balance(min.value, node.left, removeMin(node.right));
+    }
+
+    private static <T> Node<T> removeMin(Node<T> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.value, removeMin(node.left), node.right);
+    }
+
+    private static <T> Node<T> balance(T value, Node<T> left, Node<T> right) {
+        int diff = height(left) - height(right);
+        if (diff > 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(left.value, left.left, new Node<>(value, left.right, right));
+            }
+            return new Node<>(
+                    left.right.value,
+                    new Node<>(left.value, left.left, left.right.left),
+                    new Node<>(value, left.right.right, right)
+            );
+        }
+        if (diff < -1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(right.value, new Node<>(value, left, right.left), right.right);
+            }
+            return new Node<>(
+                    right.left.value,
+                    new Node<>(value, left, right.left.left),
+                    new Node<>(right.value, right.left.right, right.right)
+            );
+        }
+        return new Node<>(value, left, right);
+    }
+
+    private static int height(Node<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node<T> {
+
+        private final T value;
+        private final Node<T> left;
+        private final Node<T> right;
+        private final int height;
+        private final int size;
+
+        private Node(T value, Node<T> left, Node<T> right) {
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    private static final class InOrderIterator<T> implements Iterator<T> {
+
+        private final Deque<Node<T>> stack = new ArrayDeque<>();
+
+        private InOrderIterator(Node<T> root, int fromIndex) {
+            // Descend to the starting position, keeping on the stack only the nodes that are still to be visited.
+            Node<T> node = root;
+            int index = fromIndex;
+            while (node != null) {
+                int leftSize = size(node.left);
+                if (index <= leftSize) {
+                    stack.push(node);
+                    node = node.left;
+                } else {
+                    index -= leftSize + 1;
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<T> node = stack.pop();
+            for (Node<T> next = node.right; next != null; next = next.left) {
+                stack.push(next);
+            }
+            return node.value;
+        }
+    }
+
+    private class ListView extends AbstractList<T> {
+
+        @Override
+        public T get(int index) {
+            return PersistentSortedSet.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return PersistentSortedSet.this.size();
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return PersistentSortedSet.this.iterator(0);
+        }
+    }
+}
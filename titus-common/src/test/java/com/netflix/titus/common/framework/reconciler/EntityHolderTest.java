@@ -65,4 +65,18 @@ public class EntityHolderTest {
         assertThat(first(rootV2.getChildren()).getId()).isEqualTo("myChild2");
         assertThat(child1.getId()).isEqualTo("myChild1");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testFindNestedChild() throws Exception {
+        EntityHolder rootV1 = newRoot("myRoot", "as")
+                .addChild(newRoot("myChild1", "a1").addChild(newRoot("myGrandChild", "g1")))
+                .addChild(newRoot("myChild2", "a2"));
+
+        assertThat(rootV1.findChildById("myGrandChild")).isPresent();
+        assertThat(rootV1.findById("myChild2")).isPresent();
+
+        EntityHolder rootV2 = rootV1.addChild(newRoot("myChild1", "a1_v2"));
+        assertThat(rootV2.findChildById("myGrandChild")).isEmpty();
+        assertThat(rootV2.getChildren()).hasSize(2);
+    }
+}
@@ -32,6 +32,7 @@ import com.netflix.titus.testkit.rx.ExtTestSubscriber;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import rx.observers.AssertableSubscriber;
 import rx.schedulers.Schedulers;
 import rx.schedulers.TestScheduler;
@@ -181,6 +182,30 @@ public class DefaultReconciliationFrameworkTest {
         assertThat(eventSubscriber.takeNext().getMessage()).isEqualTo("event2");
     }
 
+    @Test
+    public void testIdleEnginesAreVisitedOnlyWhenReady() {
+        when(engine1.triggerActions()).thenReturn(false);
+        framework.newEngine(EntityHolder.newRoot("myRoot1", "myEntity1")).subscribe();
+        testScheduler.triggerActions();
+
+        ArgumentCaptor<Runnable> readyListenerCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(engine1, times(1)).setReadyListener(readyListenerCaptor.capture());
+        verify(engine1, times(1)).emitEvents();
+
+        // Idle engine is not visited in active iterations
+        testScheduler.advanceTimeBy(ACTIVE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        verify(engine1, times(1)).emitEvents();
+
+        // Until it signals readiness
+        readyListenerCaptor.getValue().run();
+        testScheduler.advanceTimeBy(ACTIVE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        verify(engine1, times(2)).emitEvents();
+
+        // Or a full cycle is run
+        testScheduler.advanceTimeBy(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        verify(engine1, times(3)).emitEvents();
+    }
+
     private SimpleReconcilerEvent newEvent(String message) {
         return new SimpleReconcilerEvent(EventType.Changed, message, Optional.empty());
     }
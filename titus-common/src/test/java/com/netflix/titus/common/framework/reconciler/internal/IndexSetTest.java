@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.common.framework.reconciler.internal;
+
+import java.util.Collections;
+import java.util.Comparator;
+
+import com.netflix.titus.common.framework.reconciler.EntityHolder;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IndexSetTest {
+
+    private static final String INDEX_ID = "byEntity";
+
+    private final IndexSet<EntityHolder> emptyIndexSet = IndexSet.newIndexSet(
+            Collections.singletonMap(INDEX_ID, Comparator.comparing(EntityHolder::<String>getEntity)),
+            EntityHolder::getId
+    );
+
+    @Test
+    public void testAddUpdateRemove() throws Exception {
+        IndexSet<EntityHolder> indexSet = emptyIndexSet.add(asList(
+                EntityHolder.newRoot("id1", "c"),
+                EntityHolder.newRoot("id2", "a"),
+                EntityHolder.newRoot("id3", "b")
+        ));
+        assertThat(indexSet.getOrdered(INDEX_ID).stream().map(EntityHolder::getId)).containsExactly("id2", "id3", "id1");
+
+        // Update changes the position of an item in the index
+        indexSet = indexSet.add(Collections.singletonList(EntityHolder.newRoot("id1", "0")));
+        assertThat(indexSet.getOrdered(INDEX_ID).stream().map(EntityHolder::getId)).containsExactly("id1", "id2", "id3");
+
+        indexSet = indexSet.remove(asList("id2", "unknownId"));
+        assertThat(indexSet.getOrdered(INDEX_ID).stream().map(EntityHolder::getId)).containsExactly("id1", "id3");
+        assertThat(indexSet.findById("id2")).isEmpty();
+    }
+
+    @Test
+    public void testItemsWithEqualOrderAreKept() throws Exception {
+        IndexSet<EntityHolder> indexSet = emptyIndexSet.add(asList(
+                EntityHolder.newRoot("id2", "a"),
+                EntityHolder.newRoot("id1", "a")
+        ));
+        assertThat(indexSet.getOrdered(INDEX_ID).stream().map(EntityHolder::getId)).containsExactly("id1", "id2");
+    }
+}
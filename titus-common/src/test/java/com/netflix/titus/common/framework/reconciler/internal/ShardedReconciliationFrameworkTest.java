@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.common.framework.reconciler.internal;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableMap;
+import com.netflix.spectator.api.DefaultRegistry;
+import com.netflix.titus.common.framework.reconciler.EntityHolder;
+import com.netflix.titus.common.framework.reconciler.ReconciliationEngine;
+import com.netflix.titus.common.framework.reconciler.internal.SimpleReconcilerEvent.EventType;
+import com.netflix.titus.testkit.rx.ExtTestSubscriber;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rx.schedulers.Schedulers;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ShardedReconciliationFrameworkTest {
+
+    private static final int SHARD_COUNT = 4;
+    private static final int ENGINE_COUNT = 20;
+    private static final long IDLE_TIMEOUT_MS = 100;
+    private static final long ACTIVE_TIMEOUT_MS = 20;
+    private static final int STOP_TIMEOUT_MS = 1_000;
+
+    private final TestScheduler testScheduler = Schedulers.test();
+
+    private final Map<Object, Comparator<EntityHolder>> indexComparators = ImmutableMap.<Object, Comparator<EntityHolder>>builder()
+            .put("ascending", Comparator.comparing(EntityHolder::getEntity))
+            .put("descending", Comparator.<EntityHolder, String>comparing(EntityHolder::getEntity).reversed())
+            .build();
+
+    private final PublishSubject<SimpleReconcilerEvent> engineEvents = PublishSubject.create();
+
+    private final ShardedReconciliationFramework<SimpleReconcilerEvent> framework = new ShardedReconciliationFramework<>(
+            SHARD_COUNT,
+            Collections.emptyList(),
+            this::newEngine,
+            IDLE_TIMEOUT_MS,
+            ACTIVE_TIMEOUT_MS,
+            indexComparators,
+            new DefaultRegistry(),
+            Optional.of(testScheduler)
+    );
+
+    @Before
+    public void setUp() {
+        framework.start();
+    }
+
+    @After
+    public void tearDown() {
+        framework.stop(STOP_TIMEOUT_MS);
+    }
+
+    @Test
+    public void testEnginesAreDistributedAndGloballyVisible() {
+        for (int i = 0; i < ENGINE_COUNT; i++) {
+            framework.newEngine(EntityHolder.newRoot("myRoot" + i, String.format("myEntity%02d", i))
+                    .addChild(EntityHolder.newRoot("myChild" + i, "child"))
+            ).subscribe();
+        }
+        testScheduler.triggerActions();
+
+        for (int i = 0; i < ENGINE_COUNT; i++) {
+            assertThat(framework.findEngineByRootId("myRoot" + i)).isPresent();
+            assertThat(framework.findEngineByChildId("myChild" + i)).isPresent();
+        }
+
+        assertThat(framework.orderedView("ascending")).hasSize(ENGINE_COUNT);
+        assertThat(framework.orderedView("ascending").get(0).<String>getEntity()).isEqualTo("myEntity00");
+        assertThat(framework.orderedView("descending").get(0).<String>getEntity()).isEqualTo("myEntity19");
+
+        // Unchanged index produces the same view
+        assertThat(framework.orderedView("ascending")).isSameAs(framework.orderedView("ascending"));
+    }
+
+    @Test
+    public void testRemovedEngineIsUnindexed() {
+        for (int i = 0; i < ENGINE_COUNT; i++) {
+            framework.newEngine(EntityHolder.newRoot("myRoot" + i, String.format("myEntity%02d", i))
+                    .addChild(EntityHolder.newRoot("myChild" + i, "child"))
+            ).subscribe();
+        }
+        testScheduler.triggerActions();
+
+        ReconciliationEngine<SimpleReconcilerEvent> removed = framework.findEngineByRootId("myRoot0").get();
+        framework.removeEngine(removed).subscribe();
+        testScheduler.advanceTimeBy(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        assertThat(framework.findEngineByRootId("myRoot0")).isNotPresent();
+        assertThat(framework.findEngineByChildId("myChild0")).isNotPresent();
+        assertThat(framework.findEngineByChildId("myChild1")).isPresent();
+        assertThat(framework.orderedView("ascending")).hasSize(ENGINE_COUNT - 1);
+        assertThat(framework.orderedView("ascending").get(0).<String>getEntity()).isEqualTo("myEntity01");
+    }
+
+    @Test
+    public void testEventsFromAllShardsAreMerged() {
+        for (int i = 0; i < ENGINE_COUNT; i++) {
+            framework.newEngine(EntityHolder.newRoot("myRoot" + i, "myEntity" + i)).subscribe();
+        }
+        testScheduler.triggerActions();
+
+        ExtTestSubscriber<SimpleReconcilerEvent> eventSubscriber = new ExtTestSubscriber<>();
+        framework.events().subscribe(eventSubscriber);
+
+        engineEvents.onNext(new SimpleReconcilerEvent(EventType.Changed, "event1", Optional.empty()));
+        assertThat(eventSubscriber.takeNext().getMessage()).isEqualTo("event1");
+    }
+
+    private InternalReconciliationEngine<SimpleReconcilerEvent> newEngine(EntityHolder bootstrapModel) {
+        InternalReconciliationEngine<SimpleReconcilerEvent> engine = mock(InternalReconciliationEngine.class);
+        when(engine.getReferenceView()).thenReturn(bootstrapModel);
+        when(engine.events()).thenReturn(engineEvents.asObservable());
+        return engine;
+    }
+}
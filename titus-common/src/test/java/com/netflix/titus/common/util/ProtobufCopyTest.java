@@ -18,6 +18,8 @@ package com.netflix.titus.common.util;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
 import com.google.protobuf.DescriptorProtos;
 import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
@@ -179,6 +181,20 @@ public class ProtobufCopyTest {
         }
     }
 
+    @Test
+    public void testProjectionIsCompiledOncePerFieldSet() throws Exception {
+        Set<String> fields = asSet("objectField.stringField2", "objectArrayField.stringField2");
+        DynamicMessage first = ProtobufCopy.copy(OUTER_VALUE, fields);
+        long cachedCount = ProtobufCopy.getCachedProjectionCount();
+
+        DynamicMessage second = ProtobufCopy.<DynamicMessage>projectionOf(new HashSet<>(fields)).apply(OUTER_VALUE);
+        assertThat(second).isEqualTo(first);
+        assertThat(ProtobufCopy.getCachedProjectionCount()).isEqualTo(cachedCount);
+
+        assertFieldHasNoValue((DynamicMessage) second.getField(OUTER_FIELD_1), INNER_FIELD_1);
+        assertFieldHasValue((DynamicMessage) second.getField(OUTER_FIELD_1), INNER_FIELD_2);
+    }
+
     private void assertFieldHasValue(DynamicMessage entity, FieldDescriptor field) {
         Object value = entity.getField(field);
         assertThat(value).isNotNull();
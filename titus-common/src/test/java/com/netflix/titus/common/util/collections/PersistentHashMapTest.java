@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.common.util.collections;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PersistentHashMapTest {
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        PersistentHashMap<String, String> empty = PersistentHashMap.empty();
+        PersistentHashMap<String, String> v1 = empty.put("a", "1").put("b", "2");
+        PersistentHashMap<String, String> v2 = v1.put("a", "1_v2");
+        PersistentHashMap<String, String> v3 = v2.remove("b");
+
+        assertThat(empty.isEmpty()).isTrue();
+        assertThat(v1.size()).isEqualTo(2);
+        assertThat(v1.get("a")).isEqualTo("1");
+        assertThat(v2.get("a")).isEqualTo("1_v2");
+        assertThat(v2.size()).isEqualTo(2);
+        assertThat(v3.size()).isEqualTo(1);
+        assertThat(v3.containsKey("b")).isFalse();
+        assertThat(v3.find("b")).isEmpty();
+    }
+
+    @Test
+    public void testNoOpUpdatesReturnSameInstance() throws Exception {
+        String value = "1";
+        PersistentHashMap<String, String> map = PersistentHashMap.<String, String>empty().put("a", value);
+
+        assertThat(map.put("a", value)).isSameAs(map);
+        assertThat(map.remove("b")).isSameAs(map);
+    }
+
+    @Test
+    public void testHashCollisions() throws Exception {
+        CollidingKey k1 = new CollidingKey("k1");
+        CollidingKey k2 = new CollidingKey("k2");
+        CollidingKey k3 = new CollidingKey("k3");
+
+        PersistentHashMap<CollidingKey, String> map = PersistentHashMap.<CollidingKey, String>empty()
+                .put(k1, "v1")
+                .put(k2, "v2")
+                .put(k3, "v3")
+                .put(new CollidingKey("k4"), "v4");
+        assertThat(map.size()).isEqualTo(4);
+        assertThat(map.get(k2)).isEqualTo("v2");
+
+        PersistentHashMap<CollidingKey, String> removed = map.remove(k1).remove(k2);
+        assertThat(removed.size()).isEqualTo(2);
+        assertThat(removed.get(k1)).isNull();
+        assertThat(removed.get(k3)).isEqualTo("v3");
+    }
+
+    @Test
+    public void testRandomUpdatesPreserveOlderVersions() throws Exception {
+        Random random = new Random(123);
+        PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+        Map<Integer, Integer> expected = new HashMap<>();
+
+        List<PersistentHashMap<Integer, Integer>> versions = new ArrayList<>();
+        List<Map<Integer, Integer>> expectedVersions = new ArrayList<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(2_000) * (random.nextBoolean() ? 1 : -65_537);
+            if (random.nextInt(3) == 0) {
+                map = map.remove(key);
+                expected.remove(key);
+            } else {
+                map = map.put(key, i);
+                expected.put(key, i);
+            }
+            if (i % 1_000 == 0) {
+                versions.add(map);
+                expectedVersions.add(new HashMap<>(expected));
+            }
+            assertThat(map.size()).isEqualTo(expected.size());
+        }
+
+        assertThat(map.toMap()).isEqualTo(expected);
+        for (int i = 0; i < versions.size(); i++) {
+            assertThat(versions.get(i).toMap()).isEqualTo(expectedVersions.get(i));
+        }
+    }
+
+    @Test
+    public void testDiff() throws Exception {
+        PersistentHashMap<Integer, String> previous = PersistentHashMap.empty();
+        for (int i = 0; i < 1_000; i++) {
+            previous = previous.put(i, "v" + i);
+        }
+        PersistentHashMap<Integer, String> current = previous.remove(1).put(2, "v2_new").put(1_000, "v1000");
+
+        List<String> changes = new ArrayList<>();
+        current.diff(previous, (before, after) -> changes.add(before + "->" + after));
+
+        assertThat(changes).containsExactlyInAnyOrder("v1->null", "v2->v2_new", "null->v1000");
+    }
+
+    @Test
+    public void testEqualityIgnoresInsertionOrder() throws Exception {
+        PersistentHashMap<String, String> map1 = PersistentHashMap.<String, String>empty().put("a", "1").put("b", "2");
+        PersistentHashMap<String, String> map2 = PersistentHashMap.<String, String>empty().put("b", "2").put("a", "1");
+
+        assertThat(map1).isEqualTo(map2);
+        assertThat(map1.hashCode()).isEqualTo(map2.hashCode());
+    }
+
+    private static class CollidingKey {
+
+        private final String name;
+
+        private CollidingKey(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 42;
+        }
+    }
+}
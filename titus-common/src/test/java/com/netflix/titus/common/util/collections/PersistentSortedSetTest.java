@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.common.util.collections;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PersistentSortedSetTest {
+
+    private final PersistentSortedSet<Integer> empty = PersistentSortedSet.empty(Comparator.<Integer>naturalOrder());
+
+    @Test
+    public void testInsertRemove() throws Exception {
+        PersistentSortedSet<Integer> v1 = empty.insert(3).insert(1).insert(2);
+        PersistentSortedSet<Integer> v2 = v1.remove(2);
+
+        assertThat(v1.asList()).containsExactly(1, 2, 3);
+        assertThat(v2.asList()).containsExactly(1, 3);
+        assertThat(v2.contains(2)).isFalse();
+        assertThat(v2.remove(2)).isSameAs(v2);
+    }
+
+    @Test
+    public void testPositionalAccess() throws Exception {
+        PersistentSortedSet<Integer> set = empty;
+        for (int i = 0; i < 100; i++) {
+            set = set.insert(i * 2);
+        }
+
+        assertThat(set.get(10)).isEqualTo(20);
+        assertThat(set.rank(20)).isEqualTo(10);
+        assertThat(set.rank(21)).isEqualTo(11);
+        assertThat(set.rank(-1)).isEqualTo(0);
+
+        Iterator<Integer> it = set.iterator(98);
+        assertThat(it.next()).isEqualTo(196);
+        assertThat(it.next()).isEqualTo(198);
+        assertThat(it.hasNext()).isFalse();
+    }
+
+    @Test
+    public void testRandomUpdates() throws Exception {
+        Random random = new Random(123);
+        PersistentSortedSet<Integer> set = empty;
+        TreeSet<Integer> expected = new TreeSet<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            int value = random.nextInt(2_000);
+            if (random.nextBoolean()) {
+                set = set.insert(value);
+                expected.add(value);
+            } else {
+                set = set.remove(value);
+                expected.remove(value);
+            }
+        }
+
+        List<Integer> expectedList = new ArrayList<>(expected);
+        assertThat(set.asList()).isEqualTo(expectedList);
+        for (int i = 0; i < expectedList.size(); i += 50) {
+            assertThat(set.get(i)).isEqualTo(expectedList.get(i));
+        }
+    }
+}
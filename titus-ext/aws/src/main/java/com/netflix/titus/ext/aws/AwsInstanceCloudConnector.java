@@ -161,11 +161,22 @@ public class AwsInstanceCloudConnector implements InstanceCloudConnector {
             return Observable.just(Collections.emptyList());
         }
 
-        DescribeAutoScalingGroupsRequest request = new DescribeAutoScalingGroupsRequest().withAutoScalingGroupNames(instanceGroupIds);
-        Observable<DescribeAutoScalingGroupsResult> observable = toObservable(request, autoScalingClient::describeAutoScalingGroupsAsync);
-        return observable.map(
-                response -> toInstanceGroups(response.getAutoScalingGroups())
-        ).timeout(configuration.getAwsRequestTimeoutMs(), TimeUnit.MILLISECONDS);
+        // A response holds at most one page of auto scaling groups, so each request asks for no more than a page.
+        List<Observable<List<InstanceGroup>>> chunkObservable = CollectionsExt.chop(instanceGroupIds, AWS_PAGE_MAX).stream()
+                .map(chunk -> {
+                    DescribeAutoScalingGroupsRequest request = new DescribeAutoScalingGroupsRequest()
+                            .withAutoScalingGroupNames(chunk)
+                            .withMaxRecords(AWS_PAGE_MAX);
+                    Observable<DescribeAutoScalingGroupsResult> observable = toObservable(request, autoScalingClient::describeAutoScalingGroupsAsync);
+                    return observable.map(response -> toInstanceGroups(response.getAutoScalingGroups()));
+                })
+                .collect(Collectors.toList());
+        return Observable.merge(chunkObservable, AWS_PARALLELISM)
+                .timeout(configuration.getAwsRequestTimeoutMs(), TimeUnit.MILLISECONDS)
+                .reduce(new ArrayList<>(), (acc, result) -> {
+                    acc.addAll(result);
+                    return acc;
+                });
     }
 
     @Override
@@ -70,6 +70,36 @@ public class EmbeddedCassandraStoreFactory {
         public boolean isTracingEnabled() {
             return false;
         }
+
+        @Override
+        public boolean isTaskWriteBatchingEnabled() {
+            return false;
+        }
+
+        @Override
+        public int getTaskWriteBatchSize() {
+            return 20;
+        }
+
+        @Override
+        public boolean isBinaryEncodingEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isLocalSnapshotEnabled() {
+            return false;
+        }
+
+        @Override
+        public String getLocalSnapshotDirectory() {
+            return "";
+        }
+
+        @Override
+        public long getLocalSnapshotIntervalMs() {
+            return 0;
+        }
     };
 
     private final Session session;
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.ext.cassandra.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.JobFunctions;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
+import com.netflix.titus.api.jobmanager.model.job.ext.ServiceJobExt;
+import com.netflix.titus.api.json.ObjectMappers;
+import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
+import com.netflix.titus.testkit.model.job.JobGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the JSON and binary (Smile) encodings of job and task records, as stored by {@link CassandraJobStore}.
+ * The decode benchmarks correspond to the job store bootstrap work during leader election. Bytes stored in both
+ * formats are reported for real data by the 'jobRecordFormatMigration' tool command. Run with
+ * <tt>./gradlew :titus-ext-cassandra:jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JobStoreRecordCodecBenchmark {
+
+    private static final int RECORD_COUNT = 100;
+
+    @Param({"job", "task"})
+    public String recordType;
+
+    private final ObjectMapper jsonMapper = ObjectMappers.storeMapper();
+    private final ObjectMapper binaryMapper = ObjectMappers.binaryStoreMapper();
+
+    private Class<?> entityType;
+    private List<Object> entities;
+    private List<byte[]> jsonRecords;
+    private List<byte[]> binaryRecords;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<Job<ServiceJobExt>> jobs = JobGenerator.serviceJobs(JobDescriptorGenerator.oneTaskServiceJobDescriptor()).toList(RECORD_COUNT);
+        List<Object> entities = new ArrayList<>();
+        if (recordType.equals("job")) {
+            this.entityType = Job.class;
+            entities.addAll(jobs);
+        } else {
+            this.entityType = Task.class;
+            jobs.forEach(job -> entities.add(JobFunctions.changeTaskStatus(JobGenerator.serviceTasks(job).getValue(), TaskState.Started, "", "")));
+        }
+        this.entities = entities;
+
+        this.jsonRecords = new ArrayList<>();
+        this.binaryRecords = new ArrayList<>();
+        for (Object entity : entities) {
+            jsonRecords.add(ObjectMappers.writeValueAsBytes(jsonMapper, entity));
+            binaryRecords.add(ObjectMappers.writeValueAsBytes(binaryMapper, entity));
+        }
+    }
+
+    @Benchmark
+    public Object decodeJson() {
+        next = (next + 1) % RECORD_COUNT;
+        return ObjectMappers.readValue(jsonMapper, jsonRecords.get(next), entityType);
+    }
+
+    @Benchmark
+    public Object decodeBinary() {
+        next = (next + 1) % RECORD_COUNT;
+        return ObjectMappers.readValue(binaryMapper, binaryRecords.get(next), entityType);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() {
+        next = (next + 1) % RECORD_COUNT;
+        return ObjectMappers.writeValueAsBytes(jsonMapper, entities.get(next));
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        next = (next + 1) % RECORD_COUNT;
+        return ObjectMappers.writeValueAsBytes(binaryMapper, entities.get(next));
+    }
+}
@@ -153,24 +153,37 @@ class QueryOperations {
         );
     }
 
+    public <T> Observable<T> executeRawRangeRowQuery(PreparedStatement statement, Function<Row, T> rowMapper) {
+        List<Observable<T>> allQueries = tokenRanges.stream()
+                .map(range -> statement.bind().setToken("min", range.getStart()).setToken("max", range.getEnd()))
+                .map(boundStatement -> executeRowQueryInternal(boundStatement, rowMapper).onBackpressureBuffer())
+                .collect(Collectors.toList());
+        return Observable.merge(allQueries);
+    }
+
     private Observable<Pair<Object, Object>> executeQueryInternal2(String keyName, String valueName, BoundStatement boundStatement, Optional<Class<?>> type) {
+        return executeRowQueryInternal(boundStatement, row -> {
+            Object key = row.getObject(keyName);
+            if (!type.isPresent()) {
+                String value = row.getString(valueName);
+                return Pair.of(key, value);
+            }
+            Class<?> entityType = type.get();
+            Object value = row.get(valueName, entityType);
+            return Pair.of(key, value);
+        });
+    }
+
+    private <T> Observable<T> executeRowQueryInternal(BoundStatement boundStatement, Function<Row, T> rowMapper) {
         boundStatement.setFetchSize(pageSize);
         return FuturePaginatedQuery.paginatedQuery(
                 () -> session.executeAsync(boundStatement),
                 ResultSet::fetchMoreResults,
                 (rs, total) -> {
                     int remaining = rs.getAvailableWithoutFetching();
-                    List<Pair<Object, Object>> pageItems = new ArrayList<>(remaining);
+                    List<T> pageItems = new ArrayList<>(remaining);
                     for (Row row : rs) {
-                        Object key = row.getObject(keyName);
-                        if (!type.isPresent()) {
-                            String value = row.getString(valueName);
-                            pageItems.add(Pair.of(key, value));
-                        } else {
-                            Class<?> entityType = type.get();
-                            Object value = row.get(valueName, entityType);
-                            pageItems.add(Pair.of(key, value));
-                        }
+                        pageItems.add(rowMapper.apply(row));
                         if (--remaining == 0) {
                             break;
                         }
@@ -16,15 +16,18 @@
 
 package com.netflix.titus.ext.cassandra.store;
 
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -35,6 +38,7 @@ import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.TableMetadata;
 import com.datastax.driver.core.exceptions.DriverException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.util.concurrent.FutureCallback;
@@ -52,6 +56,7 @@ import com.netflix.titus.api.json.ObjectMappers;
 import com.netflix.titus.common.framework.fit.FitFramework;
 import com.netflix.titus.common.framework.fit.FitInjection;
 import com.netflix.titus.common.runtime.TitusRuntime;
+import com.netflix.titus.common.util.CollectionsExt;
 import com.netflix.titus.common.util.guice.annotation.ProxyConfiguration;
 import com.netflix.titus.common.util.tuple.Either;
 import com.netflix.titus.common.util.tuple.Pair;
@@ -61,6 +66,7 @@ import rx.Completable;
 import rx.Emitter;
 import rx.Observable;
 import rx.exceptions.Exceptions;
+import rx.schedulers.Schedulers;
 
 import static com.netflix.titus.common.util.guice.ProxyType.Logging;
 import static com.netflix.titus.common.util.guice.ProxyType.Spectator;
@@ -78,11 +84,11 @@ public class CassandraJobStore implements JobStore {
     // SELECT Queries
     private static final String RETRIEVE_ACTIVE_JOB_ID_BUCKETS_STRING = "SELECT distinct bucket FROM active_job_ids";
     private static final String RETRIEVE_ACTIVE_JOB_IDS_STRING = "SELECT job_id FROM active_job_ids WHERE bucket = ?;";
-    private static final String RETRIEVE_ACTIVE_JOB_STRING = "SELECT value FROM active_jobs WHERE job_id = ?;";
+    private static final String RETRIEVE_ACTIVE_JOB_STRING = "SELECT value, format, binary_value FROM active_jobs WHERE job_id = ?;";
     private static final String RETRIEVE_ARCHIVED_JOB_STRING = "SELECT value FROM archived_jobs WHERE job_id = ?;";
     private static final String RETRIEVE_ACTIVE_TASK_IDS_FOR_JOB_STRING = "SELECT task_id FROM active_task_ids WHERE job_id = ?;";
     private static final String RETRIEVE_ARCHIVED_TASK_IDS_FOR_JOB_STRING = "SELECT task_id FROM archived_task_ids WHERE job_id = ?;";
-    private static final String RETRIEVE_ACTIVE_TASK_STRING = "SELECT value FROM active_tasks WHERE task_id = ?;";
+    private static final String RETRIEVE_ACTIVE_TASK_STRING = "SELECT value, format, binary_value FROM active_tasks WHERE task_id = ?;";
     private static final String RETRIEVE_ARCHIVED_TASK_STRING = "SELECT value FROM archived_tasks WHERE task_id = ?;";
 
     private final PreparedStatement retrieveActiveJobIdBucketsStatement;
@@ -96,10 +102,10 @@ public class CassandraJobStore implements JobStore {
 
     // INSERT Queries
     private static final String INSERT_ACTIVE_JOB_ID_STRING = "INSERT INTO active_job_ids (bucket, job_id) VALUES (?, ?);";
-    private static final String INSERT_ACTIVE_JOB_STRING = "INSERT INTO active_jobs (job_id, value) VALUES (?, ?);";
+    private static final String INSERT_ACTIVE_JOB_STRING = "INSERT INTO active_jobs (job_id, value, format, binary_value) VALUES (?, ?, ?, ?);";
     private static final String INSERT_ARCHIVED_JOB_STRING = "INSERT INTO archived_jobs (job_id, value) VALUES (?, ?);";
     private static final String INSERT_ACTIVE_TASK_ID_STRING = "INSERT INTO active_task_ids (job_id, task_id) VALUES (?, ?);";
-    private static final String INSERT_ACTIVE_TASK_STRING = "INSERT INTO active_tasks (task_id, value) VALUES (?, ?);";
+    private static final String INSERT_ACTIVE_TASK_STRING = "INSERT INTO active_tasks (task_id, value, format, binary_value) VALUES (?, ?, ?, ?);";
     private static final String INSERT_ARCHIVED_TASK_ID_STRING = "INSERT INTO archived_task_ids (job_id, task_id) VALUES (?, ?);";
     private static final String INSERT_ARCHIVED_TASK_STRING = "INSERT INTO archived_tasks (task_id, value) VALUES (?, ?);";
 
@@ -122,13 +128,21 @@ public class CassandraJobStore implements JobStore {
     private final PreparedStatement deleteActiveTaskIdStatement;
     private final PreparedStatement deleteActiveTaskStatement;
 
+    // Local snapshot marker queries
+    private static final String RETRIEVE_SNAPSHOT_MARKER_STRING = "SELECT marker, revision FROM store_snapshot_markers WHERE store_name = ?;";
+    private static final String INSERT_SNAPSHOT_MARKER_STRING = "INSERT INTO store_snapshot_markers (store_name, marker, revision) VALUES (?, ?, ?);";
+
     private final TitusRuntime titusRuntime;
     private final Session session;
     private final ObjectMapper mapper;
+    private final JobStoreRecordCodec codec;
     private final BalancedBucketManager<String> activeJobIdsBucketManager;
     private final CassandraStoreConfiguration configuration;
     private final Optional<FitInjection> fitDriverInjection;
     private final Optional<FitInjection> fitBadDataInjection;
+    private final Optional<TaskWriteCoalescer> taskWriteCoalescer;
+    private final JobStoreMarker storeMarker;
+    private final Optional<LocalJobSnapshotManager> localSnapshotManager;
 
     @Inject
     public CassandraJobStore(CassandraStoreConfiguration configuration, Session session, TitusRuntime titusRuntime) {
@@ -166,8 +180,13 @@ public class CassandraJobStore implements JobStore {
         }
 
         this.mapper = mapper;
+        this.codec = new JobStoreRecordCodec(mapper, ObjectMappers.binaryStoreMapper());
         this.activeJobIdsBucketManager = new BalancedBucketManager<>(initialBucketCount, maxBucketSize, METRIC_NAME_ROOT, titusRuntime.getRegistry());
 
+        checkRecordFormatColumns(session, "active_jobs");
+        checkRecordFormatColumns(session, "active_tasks");
+        checkStoreMarkerTable(session);
+
         retrieveActiveJobIdBucketsStatement = session.prepare(RETRIEVE_ACTIVE_JOB_ID_BUCKETS_STRING);
         retrieveActiveJobIdsStatement = session.prepare(RETRIEVE_ACTIVE_JOB_IDS_STRING);
         retrieveActiveJobStatement = session.prepare(RETRIEVE_ACTIVE_JOB_STRING);
@@ -189,6 +208,67 @@ public class CassandraJobStore implements JobStore {
         deleteActiveJobStatement = session.prepare(DELETE_ACTIVE_JOB_STRING);
         deleteActiveTaskIdStatement = session.prepare(DELETE_ACTIVE_TASK_ID_STRING);
         deleteActiveTaskStatement = session.prepare(DELETE_ACTIVE_TASK_STRING);
+
+        if (configuration.isTaskWriteBatchingEnabled()) {
+            this.taskWriteCoalescer = Optional.of(new TaskWriteCoalescer(
+                    Math.max(1, configuration.getTaskWriteBatchSize()),
+                    getConcurrencyLimit(),
+                    this::writeTaskBatch,
+                    titusRuntime.getRegistry(),
+                    Schedulers.computation()
+            ));
+        } else {
+            this.taskWriteCoalescer = Optional.empty();
+        }
+
+        // The store marker is rotated on each leader activation, also if the local snapshot is disabled, so a snapshot
+        // taken on another node is never restored after this leader changed the store content.
+        PreparedStatement retrieveSnapshotMarkerStatement = session.prepare(RETRIEVE_SNAPSHOT_MARKER_STRING);
+        PreparedStatement insertSnapshotMarkerStatement = session.prepare(INSERT_SNAPSHOT_MARKER_STRING);
+        this.storeMarker = new JobStoreMarker(
+                this::execute,
+                () -> retrieveSnapshotMarkerStatement.bind(JobStoreMarker.STORE_NAME),
+                (marker, revision) -> insertSnapshotMarkerStatement.bind(JobStoreMarker.STORE_NAME, marker, revision)
+        );
+        if (configuration.isLocalSnapshotEnabled()) {
+            this.localSnapshotManager = Optional.of(new LocalJobSnapshotManager(
+                    Paths.get(configuration.getLocalSnapshotDirectory(), LocalJobSnapshotManager.SNAPSHOT_FILE_NAME),
+                    Math.max(1_000, configuration.getLocalSnapshotIntervalMs()),
+                    storeMarker,
+                    titusRuntime.getRegistry(),
+                    Schedulers.io()
+            ));
+        } else {
+            this.localSnapshotManager = Optional.empty();
+        }
+    }
+
+    private static void checkRecordFormatColumns(Session session, String table) {
+        if (!JobStoreRecordCodec.hasRecordFormatColumns(session, table)) {
+            throw new IllegalStateException(String.format(
+                    "Table %s in keyspace %s has no '%s' and '%s' columns. Apply the schema upgrade from %s before starting this version",
+                    table, session.getLoggedKeyspace(), JobStoreRecordCodec.FORMAT_COLUMN, JobStoreRecordCodec.BINARY_VALUE_COLUMN,
+                    JobStoreRecordCodec.SCHEMA_UPGRADE_CQL_FILE
+            ));
+        }
+    }
+
+    private static void checkStoreMarkerTable(Session session) {
+        TableMetadata tableMetadata = session.getCluster().getMetadata()
+                .getKeyspace(session.getLoggedKeyspace())
+                .getTable("store_snapshot_markers");
+        if (tableMetadata == null || tableMetadata.getColumn("revision") == null) {
+            throw new IllegalStateException(String.format(
+                    "Keyspace %s has no store_snapshot_markers table with a 'revision' column. Apply the schema upgrade from %s before starting this version",
+                    session.getLoggedKeyspace(), JobStoreMarker.SCHEMA_UPGRADE_CQL_FILE
+            ));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        taskWriteCoalescer.ifPresent(TaskWriteCoalescer::shutdown);
+        localSnapshotManager.ifPresent(LocalJobSnapshotManager::shutdown);
     }
 
     @Override
@@ -224,67 +304,45 @@ public class CassandraJobStore implements JobStore {
                         completables.add(completable);
                     }
                     return Completable.merge(Observable.from(completables), getConcurrencyLimit()).toObservable();
-                })).toCompletable();
+                })).toCompletable()
+                .andThen(localSnapshotManager.map(LocalJobSnapshotManager::activate).orElseGet(storeMarker::rotate));
     }
 
+    /**
+     * Retrieves all active jobs. If a valid local snapshot is available, jobs recorded in it are taken from the
+     * snapshot, and only the remaining ones are read from Cassandra.
+     */
     @Override
     public Observable<Pair<List<Job<?>>, Integer>> retrieveJobs() {
-        Observable result = Observable.fromCallable(() -> {
-            List<String> jobIds = activeJobIdsBucketManager.getItems();
-            return jobIds.stream().map(retrieveActiveJobStatement::bind).map(this::execute).collect(Collectors.toList());
-        }).flatMap(observables -> Observable.merge(observables, getConcurrencyLimit()).flatMapIterable(resultSet -> {
-            List<Row> allRows = resultSet.all();
-            if (allRows.isEmpty()) {
-                logger.debug("Job id with no record");
-                return Collections.emptyList();
+        return Observable.defer(() -> {
+            List<Job<?>> restoredJobs = new ArrayList<>();
+            List<Observable<ResultSet>> observables = new ArrayList<>();
+            for (String jobId : activeJobIdsBucketManager.getItems()) {
+                Optional<Job<?>> restoredJob = localSnapshotManager.flatMap(manager -> manager.getRestoredJob(jobId));
+                if (restoredJob.isPresent()) {
+                    restoredJobs.add(restoredJob.get());
+                } else {
+                    observables.add(execute(retrieveActiveJobStatement.bind(jobId)));
+                }
             }
-            return allRows.stream()
-                    .map(row -> row.getString(0))
-                    .map(value -> {
-                        String effectiveValue;
-                        if (fitBadDataInjection.isPresent()) {
-                            effectiveValue = fitBadDataInjection.get().afterImmediate(JobStoreFitAction.ErrorKind.CorruptedRawJobRecords.name(), value);
-                        } else {
-                            effectiveValue = value;
-                        }
-
-                        Job<?> job;
-                        try {
-                            job = ObjectMappers.readValue(mapper, effectiveValue, Job.class);
-                        } catch (Exception e) {
-                            logger.error("Cannot map serialized job data to Job class: {}", effectiveValue, e);
-                            return Either.ofError(e);
-                        }
-
-                        // TODO Remove this code when there are no more jobs with missing migration data (caused by a bug in ServiceJobExt builder).
-                        if (job.getJobDescriptor().getExtensions() instanceof ServiceJobExt) {
-                            Job<ServiceJobExt> serviceJob = (Job<ServiceJobExt>) job;
-                            ServiceJobExt ext = serviceJob.getJobDescriptor().getExtensions();
-                            if (ext.getMigrationPolicy() == null) {
-                                titusRuntime.getCodePointTracker().markReachable("Corrupted task migration record in Cassandra: " + job.getId());
-                                ServiceJobExt fixedExt = ext.toBuilder().withMigrationPolicy(SystemDefaultMigrationPolicy.newBuilder().build()).build();
-                                logger.warn("Service job with no migration policy defined. Setting system default: {}", job.getId());
-                                job = serviceJob.toBuilder().withJobDescriptor(
-                                        serviceJob.getJobDescriptor().toBuilder().withExtensions(fixedExt).build()
-                                ).build();
-                            }
-                        }
-
-                        if (!fitBadDataInjection.isPresent()) {
-                            return Either.ofValue(job);
-                        }
-
-                        Job<?> effectiveJob = fitBadDataInjection.get().afterImmediate(JobStoreFitAction.ErrorKind.CorruptedJobRecords.name(), job);
-                        return Either.ofValue(effectiveJob);
-                    })
-                    .collect(Collectors.toList());
-        })).toList().map(everything -> {
-            List<Job> goodJobs = (List<Job>) everything.stream().filter(Either::hasValue).map(Either::getValue).collect(Collectors.toList());
-            int errors = everything.size() - goodJobs.size();
-            return Pair.of(goodJobs, errors);
+            return Observable.merge(observables, getConcurrencyLimit()).flatMapIterable(resultSet -> {
+                List<Row> allRows = resultSet.all();
+                if (allRows.isEmpty()) {
+                    logger.debug("Job id with no record");
+                    return Collections.<Either<Job<?>, Throwable>>emptyList();
+                }
+                return allRows.stream().map(this::decodeJobRow).collect(Collectors.toList());
+            }).toList().map(everything -> {
+                List<Job<?>> goodJobs = new ArrayList<>(restoredJobs);
+                everything.stream().filter(Either::hasValue).forEach(either -> goodJobs.add(either.getValue()));
+                int errors = everything.size() - (goodJobs.size() - restoredJobs.size());
+                localSnapshotManager.ifPresent(manager -> {
+                    manager.jobsRestored(restoredJobs.size());
+                    manager.jobsLoaded(goodJobs);
+                });
+                return Pair.of(goodJobs, errors);
+            });
         });
-
-        return result;
     }
 
     @Override
@@ -297,8 +355,7 @@ public class CassandraJobStore implements JobStore {
             if (row == null) {
                 throw JobStoreException.jobDoesNotExist(jobId);
             }
-            String value = row.getString(0);
-            return (Job<?>) ObjectMappers.readValue(mapper, value, Job.class);
+            return (Job<?>) codec.decode(row, Job.class);
         }));
     }
 
@@ -307,17 +364,16 @@ public class CassandraJobStore implements JobStore {
         return Observable.fromCallable((Callable<Statement>) () -> {
             String jobId = job.getId();
             checkIfJobAlreadyExists(jobId);
-            String jobJsonString = ObjectMappers.writeValueAsString(mapper, job);
+            Statement jobStatement = codec.bind(insertActiveJobStatement, jobId, job, getRecordFormat());
             int bucket = activeJobIdsBucketManager.getNextBucket();
             activeJobIdsBucketManager.addItem(bucket, jobId);
-            Statement jobStatement = insertActiveJobStatement.bind(jobId, jobJsonString);
             Statement jobIdStatement = insertActiveJobIdStatement.bind(bucket, jobId);
 
             BatchStatement batchStatement = new BatchStatement();
             batchStatement.add(jobStatement);
             batchStatement.add(jobIdStatement);
             return batchStatement;
-        }).flatMap(statement -> execute(statement).doOnError(throwable -> activeJobIdsBucketManager.deleteItem(job.getId())))
+        }).flatMap(statement -> executeWrite(statement, LocalJobSnapshotManager.changes().updateJob(job)).doOnError(throwable -> activeJobIdsBucketManager.deleteItem(job.getId())))
                 .toCompletable();
     }
 
@@ -326,9 +382,8 @@ public class CassandraJobStore implements JobStore {
         return Observable.fromCallable((Callable<Statement>) () -> {
             String jobId = job.getId();
             checkIfJobIsActive(jobId);
-            String jobJsonString = ObjectMappers.writeValueAsString(mapper, job);
-            return insertActiveJobStatement.bind(jobId, jobJsonString);
-        }).flatMap(this::execute).toCompletable();
+            return codec.bind(insertActiveJobStatement, jobId, job, getRecordFormat());
+        }).flatMap(statement -> executeWrite(statement, LocalJobSnapshotManager.changes().updateJob(job))).toCompletable();
     }
 
     @Override
@@ -349,7 +404,7 @@ public class CassandraJobStore implements JobStore {
             return Completable.merge(Observable.from(completables), getConcurrencyLimit()).toObservable();
         })).toList().flatMap(ignored -> {
             BatchStatement statement = getArchiveJobBatchStatement(job);
-            return execute(statement);
+            return executeWrite(statement, LocalJobSnapshotManager.changes().removeJob(job.getId()));
         }).flatMap(ignored -> {
             activeJobIdsBucketManager.deleteItem(job.getId());
             return Observable.empty();
@@ -381,23 +436,24 @@ public class CassandraJobStore implements JobStore {
                     })
                     .collect(Collectors.toList());
 
-            List<Observable<ResultSet>> observables = taskIds.stream().map(retrieveActiveTaskStatement::bind).map(this::execute).collect(Collectors.toList());
+            List<Task> restoredTasks = new ArrayList<>();
+            List<Observable<ResultSet>> observables = new ArrayList<>();
+            for (String taskId : taskIds) {
+                Optional<Task> restoredTask = localSnapshotManager.flatMap(manager -> manager.getRestoredTask(taskId));
+                if (restoredTask.isPresent()) {
+                    restoredTasks.add(restoredTask.get());
+                } else {
+                    observables.add(execute(retrieveActiveTaskStatement.bind(taskId)));
+                }
+            }
+            localSnapshotManager.ifPresent(manager -> manager.tasksRestored(restoredTasks.size()));
 
             return Observable.merge(observables, getConcurrencyLimit()).flatMapIterable(tasksResultSet -> {
                 List<Either<Task, Throwable>> tasks = new ArrayList<>();
                 for (Row row : tasksResultSet.all()) {
-                    String value = row.getString(0);
-
-                    String effectiveValue;
-                    if (fitBadDataInjection.isPresent()) {
-                        effectiveValue = fitBadDataInjection.get().afterImmediate(JobStoreFitAction.ErrorKind.CorruptedRawTaskRecords.name(), value);
-                    } else {
-                        effectiveValue = value;
-                    }
-
                     Task task;
                     try {
-                        task = ObjectMappers.readValue(mapper, effectiveValue, Task.class);
+                        task = decodeActiveRecord(row, Task.class, JobStoreFitAction.ErrorKind.CorruptedRawTaskRecords);
 
                         if (!fitBadDataInjection.isPresent()) {
                             tasks.add(Either.ofValue(task));
@@ -408,15 +464,16 @@ public class CassandraJobStore implements JobStore {
                             tasks.add(Either.ofValue(effectiveTask));
                         }
                     } catch (Exception e) {
-                        logger.error("Cannot map serialized task data to Task class: {}", effectiveValue, e);
+                        logger.error("Cannot map serialized task data to Task class: {}", row, e);
                         tasks.add(Either.ofError(e));
                     }
                 }
                 return tasks;
-            });
+            }).startWith(restoredTasks.stream().map(Either::<Task, Throwable>ofValue).collect(Collectors.toList()));
         })).toList().map(taskErrorPairs -> {
             List<Task> tasks = taskErrorPairs.stream().filter(Either::hasValue).map(Either::getValue).collect(Collectors.toList());
             int errors = (int) taskErrorPairs.stream().filter(Either::hasError).count();
+            localSnapshotManager.ifPresent(manager -> manager.tasksLoaded(tasks));
             return Pair.of(tasks, errors);
         });
     }
@@ -427,8 +484,7 @@ public class CassandraJobStore implements JobStore {
                 .flatMap(statement -> execute(statement).flatMap(resultSet -> {
                     Row row = resultSet.one();
                     if (row != null) {
-                        String value = row.getString(0);
-                        Task task = ObjectMappers.readValue(mapper, value, Task.class);
+                        Task task = codec.decode(row, Task.class);
                         return Observable.just(task);
                     } else {
                         return Observable.error(JobStoreException.taskDoesNotExist(taskId));
@@ -442,8 +498,7 @@ public class CassandraJobStore implements JobStore {
             String jobId = task.getJobId();
             String taskId = task.getId();
             checkIfJobIsActive(jobId);
-            String taskJsonString = ObjectMappers.writeValueAsString(mapper, task);
-            Statement taskStatement = insertActiveTaskStatement.bind(taskId, taskJsonString);
+            Statement taskStatement = codec.bind(insertActiveTaskStatement, taskId, task, getRecordFormat());
             Statement taskIdStatement = insertActiveTaskIdStatement.bind(jobId, taskId);
 
             BatchStatement batchStatement = new BatchStatement();
@@ -451,47 +506,75 @@ public class CassandraJobStore implements JobStore {
             batchStatement.add(taskIdStatement);
 
             return batchStatement;
-        }).flatMap(this::execute).toCompletable();
+        }).flatMap(statement -> executeWrite(statement, LocalJobSnapshotManager.changes().updateTask(task))).toCompletable();
     }
 
     @Override
     public Completable updateTask(Task task) {
+        if (taskWriteCoalescer.isPresent()) {
+            return Completable.defer(() -> {
+                checkIfJobIsActive(task.getJobId());
+                return taskWriteCoalescer.get().write(task);
+            });
+        }
         return Observable.fromCallable((Callable<Statement>) () -> {
             String jobId = task.getJobId();
             String taskId = task.getId();
             checkIfJobIsActive(jobId);
-            String taskJsonString = ObjectMappers.writeValueAsString(mapper, task);
-            return insertActiveTaskStatement.bind(taskId, taskJsonString);
-        }).flatMap(this::execute).toCompletable();
+            return codec.bind(insertActiveTaskStatement, taskId, task, getRecordFormat());
+        }).flatMap(statement -> executeWrite(statement, LocalJobSnapshotManager.changes().updateTask(task))).toCompletable();
+    }
+
+    @Override
+    public Completable updateTasks(List<Task> tasks) {
+        if (taskWriteCoalescer.isPresent()) {
+            return Completable.merge(tasks.stream().map(this::updateTask).collect(Collectors.toList()));
+        }
+        return Observable.fromCallable(() -> {
+            Map<String, List<Task>> tasksByJobId = tasks.stream().collect(Collectors.groupingBy(Task::getJobId));
+            tasksByJobId.keySet().forEach(this::checkIfJobIsActive);
+            int batchSize = Math.max(1, configuration.getTaskWriteBatchSize());
+            return tasksByJobId.values().stream()
+                    .flatMap(jobTasks -> CollectionsExt.chop(jobTasks, batchSize).stream())
+                    .map(this::writeTaskBatch)
+                    .collect(Collectors.toList());
+        }).flatMap(completables -> Completable.merge(Observable.from(completables), getConcurrencyLimit()).toObservable()).toCompletable();
     }
 
     @Override
     public Completable replaceTask(Task oldTask, Task newTask) {
-        return Observable.fromCallable((Callable<Statement>) () -> {
+        return cancelTaskWrites(oldTask).andThen(Observable.fromCallable((Callable<Statement>) () -> {
             String jobId = newTask.getJobId();
             checkIfJobIsActive(jobId);
             String taskId = newTask.getId();
-            String taskJsonString = ObjectMappers.writeValueAsString(mapper, newTask);
 
             BatchStatement batchStatement = getArchiveTaskBatchStatement(oldTask);
 
-            Statement insertTaskStatement = insertActiveTaskStatement.bind(taskId, taskJsonString);
+            Statement insertTaskStatement = codec.bind(insertActiveTaskStatement, taskId, newTask, getRecordFormat());
             Statement insertTaskIdStatement = insertActiveTaskIdStatement.bind(jobId, taskId);
 
             batchStatement.add(insertTaskStatement);
             batchStatement.add(insertTaskIdStatement);
 
             return batchStatement;
-        }).flatMap(this::execute).toCompletable();
+        }).flatMap(statement -> executeWrite(statement, LocalJobSnapshotManager.changes().removeTask(oldTask.getId()).updateTask(newTask))).toCompletable());
     }
 
     @Override
     public Completable deleteTask(Task task) {
-        return Observable.fromCallable((Callable<Statement>) () -> {
+        return cancelTaskWrites(task).andThen(Observable.fromCallable((Callable<Statement>) () -> {
             String jobId = task.getJobId();
             checkIfJobIsActive(jobId);
             return getArchiveTaskBatchStatement(task);
-        }).flatMap(this::execute).toCompletable();
+        }).flatMap(statement -> executeWrite(statement, LocalJobSnapshotManager.changes().removeTask(task.getId()))).toCompletable());
+    }
+
+    /**
+     * Drops pending batched updates of a task that is about to be archived, and waits for its in-flight batch
+     * write if there is one, so the active task record is not written back after the archive batch.
+     */
+    private Completable cancelTaskWrites(Task task) {
+        return taskWriteCoalescer.map(coalescer -> coalescer.cancel(task.getId())).orElse(Completable.complete());
     }
 
     @Override
@@ -520,6 +603,15 @@ public class CassandraJobStore implements JobStore {
                 }));
     }
 
+    @Override
+    public Observable<String> retrieveArchivedTaskIdsForJob(String jobId) {
+        return Observable.fromCallable(() -> retrieveArchivedTaskIdsForJobStatement.bind(jobId).setFetchSize(Integer.MAX_VALUE))
+                .flatMap(statement -> execute(statement).flatMapIterable(taskIdsResultSet -> taskIdsResultSet.all().stream()
+                        .map(row -> row.getString(0))
+                        .collect(Collectors.toList())
+                ));
+    }
+
     @Override
     public Observable<Task> retrieveArchivedTask(String taskId) {
         return Observable.fromCallable((Callable<Statement>) () -> retrieveArchivedTaskStatement.bind(taskId))
@@ -535,6 +627,53 @@ public class CassandraJobStore implements JobStore {
                 }));
     }
 
+    private Either<Job<?>, Throwable> decodeJobRow(Row row) {
+        Job<?> job;
+        try {
+            job = decodeActiveRecord(row, Job.class, JobStoreFitAction.ErrorKind.CorruptedRawJobRecords);
+        } catch (Exception e) {
+            logger.error("Cannot map serialized job data to Job class: {}", row, e);
+            return Either.ofError(e);
+        }
+
+        // TODO Remove this code when there are no more jobs with missing migration data (caused by a bug in ServiceJobExt builder).
+        if (job.getJobDescriptor().getExtensions() instanceof ServiceJobExt) {
+            Job<ServiceJobExt> serviceJob = (Job<ServiceJobExt>) job;
+            ServiceJobExt ext = serviceJob.getJobDescriptor().getExtensions();
+            if (ext.getMigrationPolicy() == null) {
+                titusRuntime.getCodePointTracker().markReachable("Corrupted task migration record in Cassandra: " + job.getId());
+                ServiceJobExt fixedExt = ext.toBuilder().withMigrationPolicy(SystemDefaultMigrationPolicy.newBuilder().build()).build();
+                logger.warn("Service job with no migration policy defined. Setting system default: {}", job.getId());
+                job = serviceJob.toBuilder().withJobDescriptor(
+                        serviceJob.getJobDescriptor().toBuilder().withExtensions(fixedExt).build()
+                ).build();
+            }
+        }
+
+        if (!fitBadDataInjection.isPresent()) {
+            return Either.ofValue(job);
+        }
+
+        Job<?> effectiveJob = fitBadDataInjection.get().afterImmediate(JobStoreFitAction.ErrorKind.CorruptedJobRecords.name(), job);
+        return Either.ofValue(effectiveJob);
+    }
+
+    private int getRecordFormat() {
+        return configuration.isBinaryEncodingEnabled() ? JobStoreRecordCodec.FORMAT_SMILE : JobStoreRecordCodec.FORMAT_JSON;
+    }
+
+    /**
+     * Decodes a job or task record from an active table. The raw data corruption injection works on JSON text, so
+     * it is applied to JSON encoded records only.
+     */
+    private <T> T decodeActiveRecord(Row row, Class<T> type, JobStoreFitAction.ErrorKind rawDataCorruptionKind) {
+        if (fitBadDataInjection.isPresent() && codec.getFormat(row) == JobStoreRecordCodec.FORMAT_JSON) {
+            String effectiveValue = fitBadDataInjection.get().afterImmediate(rawDataCorruptionKind.name(), row.getString(JobStoreRecordCodec.VALUE_COLUMN));
+            return ObjectMappers.readValue(mapper, effectiveValue, type);
+        }
+        return codec.decode(row, type);
+    }
+
     private boolean isJobActive(String jobId) {
         return activeJobIdsBucketManager.itemExists(jobId);
     }
@@ -575,6 +714,31 @@ public class CassandraJobStore implements JobStore {
         return batchStatement;
     }
 
+    /**
+     * Writes tasks in one unlogged batch. The callers pass tasks of a single job only, to keep the coordinator fan-out
+     * of a batch bounded. Each task row is in its own partition, so the batch saves client round
+     * trips, but is not atomic.
+     */
+    private Completable writeTaskBatch(List<Task> tasks) {
+        return Observable.fromCallable((Callable<Statement>) () -> {
+            BatchStatement batchStatement = new BatchStatement(BatchStatement.Type.UNLOGGED);
+            int format = getRecordFormat();
+            for (Task task : tasks) {
+                batchStatement.add(codec.bind(insertActiveTaskStatement, task.getId(), task, format));
+            }
+            return batchStatement;
+        }).flatMap(statement -> executeWrite(statement, LocalJobSnapshotManager.changes().updateTasks(tasks))).toCompletable();
+    }
+
+    /**
+     * Executes a statement modifying active job or task records, so the changes are tracked by the local snapshot.
+     */
+    private Observable<ResultSet> executeWrite(Statement statement, LocalJobSnapshotManager.Changes changes) {
+        return localSnapshotManager
+                .map(manager -> manager.trackWrite(execute(statement), changes))
+                .orElseGet(() -> execute(statement));
+    }
+
     private Observable<ResultSet> execute(Statement statement) {
         return Observable.<ResultSet>create(
                 emitter -> {
@@ -47,4 +47,48 @@ public interface CassandraStoreConfiguration {
      */
     @DefaultValue("false")
     boolean isTracingEnabled();
+
+    /**
+     * If set, task updates are written in batches. An update is never delayed: it is written immediately when the
+     * store is idle, and otherwise together with the other updates received while the previous batches were in
+     * flight. At most {@link #getConcurrencyLimit()} batches are in flight at a time.
+     */
+    @DefaultValue("false")
+    boolean isTaskWriteBatchingEnabled();
+
+    /**
+     * Maximum number of tasks written in a single batch statement, when task write batching is enabled. Also bounds
+     * the batches written by {@link CassandraJobStore#updateTasks(java.util.List)} when it is disabled.
+     */
+    @DefaultValue("20")
+    int getTaskWriteBatchSize();
+
+    /**
+     * If set, active job and task records are written in the binary Smile format instead of JSON. Records in both
+     * formats are always readable, but this flag should be turned on only after all instances are upgraded to a
+     * version that can read binary records.
+     */
+    @DefaultValue("false")
+    boolean isBinaryEncodingEnabled();
+
+    /**
+     * If set, active job and task records are periodically saved to a snapshot file on the local disk. When this
+     * node becomes the leader, records that have not changed since the snapshot was taken are restored from it,
+     * instead of being read from Cassandra one by one.
+     */
+    @DefaultValue("false")
+    boolean isLocalSnapshotEnabled();
+
+    /**
+     * Directory in which the local job store snapshot is kept.
+     */
+    @DefaultValue("/var/tmp/titus-master")
+    String getLocalSnapshotDirectory();
+
+    /**
+     * How often the local job store snapshot is written. A snapshot is written only if records changed since the
+     * previous one.
+     */
+    @DefaultValue("60000")
+    long getLocalSnapshotIntervalMs();
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.ext.cassandra.store;
+
+import java.util.UUID;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.netflix.titus.common.util.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Completable;
+import rx.Observable;
+
+/**
+ * Marker and revision of the job store content, kept in the 'store_snapshot_markers' table. Each leader increments
+ * the revision, and replaces the marker with a random value when it is activated, whether or not the local snapshot
+ * is enabled. A local snapshot can therefore match the store only if no other leader was activated since it was
+ * taken.
+ */
+class JobStoreMarker {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobStoreMarker.class);
+
+    static final String STORE_NAME = "jobs";
+
+    /**
+     * CQL script creating the marker table in an existing keyspace.
+     */
+    static final String SCHEMA_UPGRADE_CQL_FILE = "store_snapshot_markers.cql";
+
+    private final Function<Statement, Observable<ResultSet>> executor;
+    private final Supplier<Statement> retrieveStatementFactory;
+    private final BiFunction<String, Long, Statement> insertStatementFactory;
+
+    JobStoreMarker(Function<Statement, Observable<ResultSet>> executor,
+                   Supplier<Statement> retrieveStatementFactory,
+                   BiFunction<String, Long, Statement> insertStatementFactory) {
+        this.executor = executor;
+        this.retrieveStatementFactory = retrieveStatementFactory;
+        this.insertStatementFactory = insertStatementFactory;
+    }
+
+    /**
+     * Reads the current marker and revision. The marker is null, and the revision 0, if none was written yet.
+     */
+    Observable<Pair<String, Long>> read() {
+        return Observable.defer(() -> executor.apply(retrieveStatementFactory.get())).map(resultSet -> {
+            Row row = resultSet.one();
+            if (row == null) {
+                return Pair.<String, Long>of(null, 0L);
+            }
+            return Pair.<String, Long>of(row.getString(0), row.isNull(1) ? 0L : row.getLong(1));
+        });
+    }
+
+    Completable write(String marker, long revision) {
+        return Observable.defer(() -> executor.apply(insertStatementFactory.apply(marker, revision))).toCompletable();
+    }
+
+    /**
+     * Writes a new random marker with the next revision. Called on leader activation, when the local snapshot
+     * is not enabled.
+     */
+    Completable rotate() {
+        return read().flatMap(current -> {
+            long revision = current.getRight() + 1;
+            logger.info("Activating job store revision {}", revision);
+            return write(newMarker(), revision).toObservable();
+        }).toCompletable();
+    }
+
+    static String newMarker() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.ext.cassandra.store;
+
+import java.nio.ByteBuffer;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.titus.api.json.ObjectMappers;
+
+/**
+ * Encoding of job and task records in the active tables. A record is stored either as JSON text in the 'value'
+ * column, or in the binary Smile format in the 'binary_value' column. The 'format' column tells which one is set.
+ * Records written before the format column was added have it unset, and are read as JSON.
+ */
+public class JobStoreRecordCodec {
+
+    public static final String VALUE_COLUMN = "value";
+    public static final String FORMAT_COLUMN = "format";
+    public static final String BINARY_VALUE_COLUMN = "binary_value";
+
+    public static final int FORMAT_JSON = 0;
+    public static final int FORMAT_SMILE = 1;
+
+    /**
+     * CQL script adding the record format columns to the active tables of an existing keyspace.
+     */
+    public static final String SCHEMA_UPGRADE_CQL_FILE = "record_format_columns.cql";
+
+    private static final JobStoreRecordCodec DEFAULT = new JobStoreRecordCodec(ObjectMappers.storeMapper(), ObjectMappers.binaryStoreMapper());
+
+    private final ObjectMapper jsonMapper;
+    private final ObjectMapper binaryMapper;
+
+    public JobStoreRecordCodec(ObjectMapper jsonMapper, ObjectMapper binaryMapper) {
+        this.jsonMapper = jsonMapper;
+        this.binaryMapper = binaryMapper;
+    }
+
+    public static JobStoreRecordCodec getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns true if the given table in the session keyspace has the record format columns.
+     */
+    public static boolean hasRecordFormatColumns(Session session, String table) {
+        TableMetadata tableMetadata = session.getCluster().getMetadata()
+                .getKeyspace(session.getLoggedKeyspace())
+                .getTable(table);
+        return tableMetadata != null
+                && tableMetadata.getColumn(FORMAT_COLUMN) != null
+                && tableMetadata.getColumn(BINARY_VALUE_COLUMN) != null;
+    }
+
+    /**
+     * Binds the given statement with the record key, followed by the value, format and binary_value columns.
+     * A binary record clears the JSON value, so no stale copy of the record is kept after the format change. A JSON
+     * record leaves the binary_value column unset, to avoid writing a tombstone on each update while the binary
+     * format is not enabled. A stale binary value is ignored, as the format column points to the JSON value.
+     */
+    public BoundStatement bind(PreparedStatement insertStatement, String id, Object entity, int format) {
+        if (format == FORMAT_SMILE) {
+            return insertStatement.bind(id, null, FORMAT_SMILE, ByteBuffer.wrap(ObjectMappers.writeValueAsBytes(binaryMapper, entity)));
+        }
+        return insertStatement.bind()
+                .setString(0, id)
+                .setString(1, ObjectMappers.writeValueAsString(jsonMapper, entity))
+                .setInt(2, FORMAT_JSON);
+    }
+
+    public int getFormat(Row row) {
+        if (!row.getColumnDefinitions().contains(FORMAT_COLUMN) || row.isNull(FORMAT_COLUMN)) {
+            return FORMAT_JSON;
+        }
+        return row.getInt(FORMAT_COLUMN);
+    }
+
+    public <T> T decode(Row row, Class<T> type) {
+        int format = getFormat(row);
+        switch (format) {
+            case FORMAT_JSON:
+                return ObjectMappers.readValue(jsonMapper, row.getString(VALUE_COLUMN), type);
+            case FORMAT_SMILE:
+                return ObjectMappers.readValue(binaryMapper, toBytes(row.getBytes(BINARY_VALUE_COLUMN)), type);
+        }
+        throw new IllegalStateException("Unknown record format: " + format);
+    }
+
+    /**
+     * Returns the record as JSON text, converting it if it is stored in the binary format.
+     */
+    public String decodeAsJson(Row row, Class<?> type) {
+        if (getFormat(row) == FORMAT_JSON) {
+            return row.getString(VALUE_COLUMN);
+        }
+        return ObjectMappers.writeValueAsString(jsonMapper, decode(row, type));
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        ByteBuffer duplicate = buffer.duplicate();
+        byte[] bytes = new byte[duplicate.remaining()];
+        duplicate.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.ext.cassandra.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.json.ObjectMappers;
+
+/**
+ * Active job and task records saved in a local file, together with the store marker and revision that were current
+ * when the records were captured. The file is a sequence of length prefixed records encoded in the binary Smile format,
+ * followed by a CRC32 checksum of the whole content. A snapshot file that is truncated, or fails the checksum
+ * verification is rejected.
+ */
+class LocalJobSnapshot {
+
+    private static final int MAGIC = 0x544A534E; // 'TJSN'
+    private static final int VERSION = 2;
+
+    private static final byte JOB_RECORD = 1;
+    private static final byte TASK_RECORD = 2;
+
+    private static final int CHECKSUM_SIZE = 8;
+
+    private static final ObjectMapper MAPPER = ObjectMappers.binaryStoreMapper();
+
+    private final String marker;
+    private final long revision;
+    private final long timestamp;
+    private final Map<String, Job<?>> jobs;
+    private final Map<String, Task> tasks;
+
+    LocalJobSnapshot(String marker, long revision, long timestamp, Map<String, Job<?>> jobs, Map<String, Task> tasks) {
+        this.marker = marker;
+        this.revision = revision;
+        this.timestamp = timestamp;
+        this.jobs = Collections.unmodifiableMap(jobs);
+        this.tasks = Collections.unmodifiableMap(tasks);
+    }
+
+    String getMarker() {
+        return marker;
+    }
+
+    long getRevision() {
+        return revision;
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    Map<String, Job<?>> getJobs() {
+        return jobs;
+    }
+
+    Map<String, Task> getTasks() {
+        return tasks;
+    }
+
+    /**
+     * Writes the snapshot to a temporary file first, which replaces the given one only after it is fully written,
+     * and synced to the disk.
+     *
+     * @return the snapshot file size
+     */
+    long writeTo(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileOutputStream fileOutput = new FileOutputStream(tmpFile.toFile())) {
+            CRC32 checksum = new CRC32();
+            DataOutputStream output = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fileOutput, 64 * 1024), checksum));
+
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            writeBytes(output, marker.getBytes(StandardCharsets.UTF_8));
+            output.writeLong(revision);
+            output.writeLong(timestamp);
+            output.writeInt(jobs.size() + tasks.size());
+            for (Job<?> job : jobs.values()) {
+                output.writeByte(JOB_RECORD);
+                writeBytes(output, ObjectMappers.writeValueAsBytes(MAPPER, job));
+            }
+            for (Task task : tasks.values()) {
+                output.writeByte(TASK_RECORD);
+                writeBytes(output, ObjectMappers.writeValueAsBytes(MAPPER, task));
+            }
+            output.flush();
+
+            // The checksum is not a part of the checksummed content, so it is written directly to the file stream.
+            ByteBuffer checksumBuffer = ByteBuffer.allocate(CHECKSUM_SIZE).putLong(0, checksum.getValue());
+            fileOutput.write(checksumBuffer.array());
+            fileOutput.getFD().sync();
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(file);
+    }
+
+    /**
+     * Reads a snapshot from a memory mapped file.
+     *
+     * @return the snapshot or {@link Optional#empty()} if the file does not exist
+     * @throws IOException if the file cannot be read, or its content is corrupted
+     */
+    static Optional<LocalJobSnapshot> readFrom(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < CHECKSUM_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid snapshot file size: " + size);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            int contentSize = (int) size - CHECKSUM_SIZE;
+            CRC32 checksum = new CRC32();
+            ByteBuffer content = buffer.duplicate();
+            content.limit(contentSize);
+            checksum.update(content);
+            if (checksum.getValue() != buffer.getLong(contentSize)) {
+                throw new IOException("Snapshot file checksum mismatch: " + file);
+            }
+
+            content = buffer.duplicate();
+            content.limit(contentSize);
+            return Optional.of(read(content));
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted snapshot file: " + file, e);
+        }
+    }
+
+    private static LocalJobSnapshot read(ByteBuffer content) throws IOException {
+        if (content.getInt() != MAGIC) {
+            throw new IOException("Not a job store snapshot file");
+        }
+        int version = content.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot file version: " + version);
+        }
+        String marker = new String(readBytes(content), StandardCharsets.UTF_8);
+        long revision = content.getLong();
+        long timestamp = content.getLong();
+
+        int recordCount = content.getInt();
+        Map<String, Job<?>> jobs = new HashMap<>();
+        Map<String, Task> tasks = new HashMap<>();
+        for (int i = 0; i < recordCount; i++) {
+            byte recordType = content.get();
+            byte[] value = readBytes(content);
+            switch (recordType) {
+                case JOB_RECORD:
+                    Job<?> job = ObjectMappers.readValue(MAPPER, value, Job.class);
+                    jobs.put(job.getId(), job);
+                    break;
+                case TASK_RECORD:
+                    Task task = ObjectMappers.readValue(MAPPER, value, Task.class);
+                    tasks.put(task.getId(), task);
+                    break;
+                default:
+                    throw new IOException("Unknown snapshot record type: " + recordType);
+            }
+        }
+        return new LocalJobSnapshot(marker, revision, timestamp, jobs, tasks);
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte[] readBytes(ByteBuffer content) {
+        byte[] bytes = new byte[content.getInt()];
+        content.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.ext.cassandra.store;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.datastax.driver.core.ResultSet;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Gauge;
+import com.netflix.spectator.api.Registry;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.common.util.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Completable;
+import rx.Observable;
+import rx.Scheduler;
+
+/**
+ * Keeps a copy of the active job and task records written to, or loaded from the store, and periodically saves
+ * it to a local snapshot file. The snapshot can be used by the next leader on this node, if the store content
+ * has not changed since the snapshot was taken. This is tracked with the {@link JobStoreMarker}:
+ * <ul>
+ * <li>on activation, a leader increments the store revision and writes a new random marker, before any write</li>
+ * <li>after a snapshot is saved, its marker is written to the store, with the current revision</li>
+ * <li>before the first write following a snapshot, the store marker is replaced with a new random value, and the
+ * write is issued only after the marker update succeeds</li>
+ * </ul>
+ * The activation step is done by every leader, also when the local snapshot is disabled. A snapshot matching both
+ * the store marker and revision was therefore taken by the last activated leader, after its last change. A snapshot
+ * is taken only when no writes are in flight, so the copy is consistent with the store content. Records whose
+ * write fails are dropped from the copy, as the store content is unknown for them.
+ */
+class LocalJobSnapshotManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalJobSnapshotManager.class);
+
+    static final String METRIC_ROOT = "titusMaster.jobManager.cassandra.localSnapshot.";
+
+    static final String SNAPSHOT_FILE_NAME = "jobStore.snapshot";
+
+    private final Path snapshotFile;
+    private final long intervalMs;
+    private final JobStoreMarker storeMarker;
+    private final Registry registry;
+    private final Scheduler.Worker worker;
+
+    private volatile Observable<Optional<LocalJobSnapshot>> preloadedSnapshot;
+    private volatile Optional<LocalJobSnapshot> restoredSnapshot = Optional.empty();
+
+    private final ConcurrentMap<String, Job<?>> jobs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Task> tasks = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean activated = new AtomicBoolean();
+    private final Object lock = new Object();
+
+    // Guarded by lock. The marker is replaced on activation, so writes issued before it are not expected. If they
+    // happen, the first one must replace the marker, as it may match a snapshot taken by a previous leader.
+    private boolean markOnNextWrite = true;
+    private long revision;
+    private int inFlightWrites;
+    private long startedWrites;
+    private long writesAtLastSnapshot = -1;
+    private Completable markerUpdates = Completable.complete();
+
+    private final Counter restoredJobsCounter;
+    private final Counter restoredTasksCounter;
+    private final Counter snapshotWriteErrorsCounter;
+    private final Gauge snapshotSizeBytesGauge;
+    private final Gauge snapshotRecordsGauge;
+    private final Gauge snapshotWriteTimeMsGauge;
+
+    LocalJobSnapshotManager(Path snapshotFile,
+                            long intervalMs,
+                            JobStoreMarker storeMarker,
+                            Registry registry,
+                            Scheduler scheduler) {
+        this.snapshotFile = snapshotFile;
+        this.intervalMs = intervalMs;
+        this.storeMarker = storeMarker;
+        this.registry = registry;
+        this.worker = scheduler.createWorker();
+
+        this.restoredJobsCounter = registry.counter(METRIC_ROOT + "restoredJobs");
+        this.restoredTasksCounter = registry.counter(METRIC_ROOT + "restoredTasks");
+        this.snapshotWriteErrorsCounter = registry.counter(METRIC_ROOT + "writeErrors");
+        this.snapshotSizeBytesGauge = registry.gauge(METRIC_ROOT + "sizeBytes");
+        this.snapshotRecordsGauge = registry.gauge(METRIC_ROOT + "records");
+        this.snapshotWriteTimeMsGauge = registry.gauge(METRIC_ROOT + "writeTimeMs");
+
+        // Load the snapshot right away, so it is ready by the time this node becomes the leader.
+        this.preloadedSnapshot = Observable.fromCallable(this::loadSnapshotFile).subscribeOn(scheduler).cache();
+        preloadedSnapshot.subscribe(ignored -> {
+        }, e -> logger.warn("Local job store snapshot preload failure", e));
+    }
+
+    void shutdown() {
+        worker.unsubscribe();
+    }
+
+    /**
+     * Resolves the snapshot that can be used in place of the store records, activates the next store revision, and
+     * starts taking snapshots periodically. Must be called before the records are loaded from the store, and before
+     * the first write. Fails if the new store revision cannot be written.
+     */
+    Completable activate() {
+        return preloadedSnapshot.flatMap(snapshotOpt -> storeMarker.read().map(current -> {
+            String currentMarker = current.getLeft();
+            long currentRevision = current.getRight();
+            if (!snapshotOpt.isPresent()) {
+                return Pair.of(snapshotOpt, currentRevision);
+            }
+            LocalJobSnapshot snapshot = snapshotOpt.get();
+            if (snapshot.getMarker().equals(currentMarker) && snapshot.getRevision() == currentRevision) {
+                logger.info("Restoring job store records from the local snapshot taken at {} (revision {}): jobs={}, tasks={}",
+                        snapshot.getTimestamp(), currentRevision, snapshot.getJobs().size(), snapshot.getTasks().size()
+                );
+                return Pair.of(snapshotOpt, currentRevision);
+            }
+            logger.info("Local job store snapshot is outdated (snapshot marker={}, revision={}; store marker={}, revision={}); loading all records from the store",
+                    snapshot.getMarker(), snapshot.getRevision(), currentMarker, currentRevision
+            );
+            return Pair.of(Optional.<LocalJobSnapshot>empty(), currentRevision);
+        })).flatMap(snapshotAndRevision -> {
+            if (!activated.compareAndSet(false, true)) {
+                return Observable.empty();
+            }
+            this.restoredSnapshot = snapshotAndRevision.getLeft();
+            this.preloadedSnapshot = Observable.just(Optional.empty());
+
+            long newRevision = snapshotAndRevision.getRight() + 1;
+            Completable activation;
+            synchronized (lock) {
+                revision = newRevision;
+                markOnNextWrite = false;
+                markerUpdates = chainMarkerUpdate(storeMarker.write(JobStoreMarker.newMarker(), revision), () -> {
+                    synchronized (lock) {
+                        markOnNextWrite = true;
+                    }
+                });
+                activation = markerUpdates;
+            }
+            logger.info("Activating job store revision {}", newRevision);
+            worker.schedulePeriodically(this::takeSnapshot, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+            return activation.toObservable();
+        }).toCompletable();
+    }
+
+    /**
+     * Returns a job record from the restored snapshot, if the snapshot is valid and contains it. The snapshot is
+     * used only until the first write, after which it may no longer reflect the store content.
+     */
+    Optional<Job<?>> getRestoredJob(String jobId) {
+        return restoredSnapshot.flatMap(snapshot -> Optional.ofNullable(snapshot.getJobs().get(jobId)));
+    }
+
+    /**
+     * Returns a task record from the restored snapshot, if the snapshot is valid and contains it.
+     */
+    Optional<Task> getRestoredTask(String taskId) {
+        return restoredSnapshot.flatMap(snapshot -> Optional.ofNullable(snapshot.getTasks().get(taskId)));
+    }
+
+    void jobsRestored(int count) {
+        restoredJobsCounter.increment(count);
+    }
+
+    void tasksRestored(int count) {
+        restoredTasksCounter.increment(count);
+    }
+
+    /**
+     * Adds records read from the store. Reads that complete after the first write are ignored, as they could
+     * overwrite the result of a concurrent write with an older record value.
+     */
+    void jobsLoaded(Collection<Job<?>> loadedJobs) {
+        synchronized (lock) {
+            if (startedWrites == 0) {
+                loadedJobs.forEach(job -> jobs.putIfAbsent(job.getId(), job));
+            }
+        }
+    }
+
+    void tasksLoaded(Collection<Task> loadedTasks) {
+        synchronized (lock) {
+            if (startedWrites == 0) {
+                loadedTasks.forEach(task -> tasks.putIfAbsent(task.getId(), task));
+            }
+        }
+    }
+
+    /**
+     * Tracks a store write, and applies the given changes to the record copy when the write succeeds.
+     */
+    Observable<ResultSet> trackWrite(Observable<ResultSet> write, Changes changes) {
+        return Observable.defer(() -> {
+            Completable markerUpdate = beforeWrite();
+            AtomicBoolean done = new AtomicBoolean();
+            return markerUpdate.andThen(write)
+                    .doOnCompleted(() -> {
+                        if (done.compareAndSet(false, true)) {
+                            afterWrite(changes, true);
+                        }
+                    })
+                    .doOnError(e -> {
+                        if (done.compareAndSet(false, true)) {
+                            afterWrite(changes, false);
+                        }
+                    })
+                    .doOnUnsubscribe(() -> {
+                        if (done.compareAndSet(false, true)) {
+                            afterWrite(changes, false);
+                        }
+                    });
+        });
+    }
+
+    static Changes changes() {
+        return new Changes();
+    }
+
+    private Completable beforeWrite() {
+        synchronized (lock) {
+            inFlightWrites++;
+            startedWrites++;
+            restoredSnapshot = Optional.empty();
+            if (markOnNextWrite) {
+                markOnNextWrite = false;
+                markerUpdates = chainMarkerUpdate(storeMarker.write(JobStoreMarker.newMarker(), revision), () -> {
+                    synchronized (lock) {
+                        markOnNextWrite = true;
+                    }
+                });
+            }
+            return markerUpdates;
+        }
+    }
+
+    private void afterWrite(Changes changes, boolean succeeded) {
+        synchronized (lock) {
+            inFlightWrites--;
+            if (succeeded) {
+                changes.apply(jobs, tasks);
+            } else {
+                changes.invalidate(jobs, tasks);
+            }
+        }
+    }
+
+    private void takeSnapshot() {
+        LocalJobSnapshot snapshot;
+        long writesAtSnapshot;
+        synchronized (lock) {
+            if (inFlightWrites > 0 || startedWrites == writesAtLastSnapshot) {
+                return;
+            }
+            writesAtSnapshot = startedWrites;
+            snapshot = new LocalJobSnapshot(JobStoreMarker.newMarker(), revision, registry.clock().wallTime(), new HashMap<>(jobs), new HashMap<>(tasks));
+        }
+
+        long startTime = registry.clock().wallTime();
+        long size;
+        try {
+            size = snapshot.writeTo(snapshotFile);
+        } catch (Exception e) {
+            logger.warn("Cannot write the local job store snapshot to {}", snapshotFile, e);
+            snapshotWriteErrorsCounter.increment();
+            return;
+        }
+        snapshotWriteTimeMsGauge.set(registry.clock().wallTime() - startTime);
+        snapshotSizeBytesGauge.set(size);
+        snapshotRecordsGauge.set(snapshot.getJobs().size() + snapshot.getTasks().size());
+
+        synchronized (lock) {
+            writesAtLastSnapshot = writesAtSnapshot;
+
+            // If a write started while the snapshot was being saved, the snapshot is already outdated.
+            if (startedWrites != writesAtSnapshot) {
+                logger.debug("Store changed while the local snapshot was saved; not publishing its marker");
+                return;
+            }
+            markOnNextWrite = true;
+            markerUpdates = chainMarkerUpdate(storeMarker.write(snapshot.getMarker(), snapshot.getRevision()), () -> {
+            });
+        }
+        logger.debug("Local job store snapshot saved: jobs={}, tasks={}, sizeBytes={}", snapshot.getJobs().size(), snapshot.getTasks().size(), size);
+    }
+
+    /**
+     * Marker updates are chained, so they are applied in the store in the same order as they were requested.
+     */
+    private Completable chainMarkerUpdate(Completable markerUpdate, Runnable onError) {
+        Completable next = markerUpdates.onErrorComplete()
+                .andThen(markerUpdate)
+                .toObservable()
+                .cache()
+                .toCompletable();
+        next.subscribe(() -> {
+        }, e -> {
+            logger.warn("Cannot update the job store snapshot marker: {}", e.getMessage());
+            onError.run();
+        });
+        return next;
+    }
+
+    private Optional<LocalJobSnapshot> loadSnapshotFile() {
+        try {
+            long startTime = registry.clock().wallTime();
+            Optional<LocalJobSnapshot> snapshot = LocalJobSnapshot.readFrom(snapshotFile);
+            snapshot.ifPresent(s -> logger.info("Loaded local job store snapshot from {} in {}ms: jobs={}, tasks={}",
+                    snapshotFile, registry.clock().wallTime() - startTime, s.getJobs().size(), s.getTasks().size()
+            ));
+            return snapshot;
+        } catch (Exception e) {
+            logger.warn("Ignoring unreadable local job store snapshot {}: {}", snapshotFile, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Record changes made by a single store write.
+     */
+    static class Changes {
+
+        private final List<Job<?>> updatedJobs = new ArrayList<>();
+        private final List<Task> updatedTasks = new ArrayList<>();
+        private final List<String> removedJobIds = new ArrayList<>();
+        private final List<String> removedTaskIds = new ArrayList<>();
+
+        Changes updateJob(Job<?> job) {
+            updatedJobs.add(job);
+            return this;
+        }
+
+        Changes removeJob(String jobId) {
+            removedJobIds.add(jobId);
+            return this;
+        }
+
+        Changes updateTask(Task task) {
+            updatedTasks.add(task);
+            return this;
+        }
+
+        Changes updateTasks(List<Task> tasks) {
+            updatedTasks.addAll(tasks);
+            return this;
+        }
+
+        Changes removeTask(String taskId) {
+            removedTaskIds.add(taskId);
+            return this;
+        }
+
+        private void apply(ConcurrentMap<String, Job<?>> jobs, ConcurrentMap<String, Task> tasks) {
+            removedJobIds.forEach(jobs::remove);
+            removedTaskIds.forEach(tasks::remove);
+            updatedJobs.forEach(job -> jobs.put(job.getId(), job));
+            updatedTasks.forEach(task -> tasks.put(task.getId(), task));
+        }
+
+        private void invalidate(ConcurrentMap<String, Job<?>> jobs, ConcurrentMap<String, Task> tasks) {
+            removedJobIds.forEach(jobs::remove);
+            removedTaskIds.forEach(tasks::remove);
+            updatedJobs.forEach(job -> jobs.remove(job.getId()));
+            updatedTasks.forEach(task -> tasks.remove(task.getId()));
+        }
+    }
+}
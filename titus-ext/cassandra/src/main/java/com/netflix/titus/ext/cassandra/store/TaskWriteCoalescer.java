@@ -0,0 +1,280 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.ext.cassandra.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.DistributionSummary;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Timer;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.common.util.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Completable;
+import rx.CompletableEmitter;
+import rx.Scheduler;
+
+/**
+ * Writes task updates in batches, without delaying them. An update is written immediately if fewer than
+ * the concurrency limit batches are in flight. Otherwise it waits, and is written together with other updates
+ * of the same job collected in the meantime, in a batch of bounded size, as soon as one of the in-flight batches
+ * completes. The batch size therefore grows with the load only, and there is no added latency when the store is idle.
+ * A batch never mixes tasks of different jobs.
+ * <p>
+ * A task is never part of two in-flight batches, so its updates are written in order. If a task is updated
+ * again before its previous version is written, the pending version is replaced with the latest one. Each caller
+ * gets its own completion signal, which is emitted when the batch containing its update (or a newer version of
+ * the same task) is written.
+ */
+class TaskWriteCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskWriteCoalescer.class);
+
+    static final String METRIC_ROOT = "titusMaster.jobManager.cassandra.taskWrites.";
+
+    private final int maxBatchSize;
+    private final int concurrencyLimit;
+    private final Function<List<Task>, Completable> batchWriter;
+    private final Scheduler scheduler;
+
+    private final Counter coalescedCounter;
+    private final Counter savedRoundTripsCounter;
+    private final DistributionSummary batchSizeSummary;
+    private final Timer latencyTimer;
+
+    private final Object lock = new Object();
+
+    // Guarded by lock.
+    private final Map<String, PendingWrite> pendingWrites = new LinkedHashMap<>();
+    private final Map<String, InFlightBatch> inFlightBatchesByTaskId = new HashMap<>();
+    private int inFlightBatches;
+    private boolean shutdown;
+
+    TaskWriteCoalescer(int maxBatchSize,
+                       int concurrencyLimit,
+                       Function<List<Task>, Completable> batchWriter,
+                       Registry registry,
+                       Scheduler scheduler) {
+        this.maxBatchSize = maxBatchSize;
+        this.concurrencyLimit = concurrencyLimit;
+        this.batchWriter = batchWriter;
+        this.scheduler = scheduler;
+
+        this.coalescedCounter = registry.counter(METRIC_ROOT + "coalesced");
+        this.savedRoundTripsCounter = registry.counter(METRIC_ROOT + "savedRoundTrips");
+        this.batchSizeSummary = registry.distributionSummary(METRIC_ROOT + "batchSize");
+        this.latencyTimer = registry.timer(METRIC_ROOT + "latency");
+    }
+
+    Completable write(Task task) {
+        return Completable.fromEmitter(emitter -> {
+            synchronized (lock) {
+                if (shutdown) {
+                    emitter.onError(new IllegalStateException("Task write coalescer is shut down"));
+                    return;
+                }
+                PendingWrite pendingWrite = pendingWrites.get(task.getId());
+                if (pendingWrite == null) {
+                    pendingWrites.put(task.getId(), new PendingWrite(task, emitter, scheduler.now()));
+                } else {
+                    pendingWrite.update(task, emitter, scheduler.now());
+                    coalescedCounter.increment();
+                }
+            }
+            drain();
+        });
+    }
+
+    /**
+     * Drops a pending update of a task, which is about to be archived or deleted, so it is not written back after
+     * the task removal. Callers waiting for the dropped update are completed. The returned completable completes
+     * when no write of the task is in flight anymore, so the removal can be safely written after it.
+     */
+    Completable cancel(String taskId) {
+        return Completable.fromEmitter(emitter -> {
+            PendingWrite pendingWrite;
+            boolean inFlight;
+            synchronized (lock) {
+                pendingWrite = pendingWrites.remove(taskId);
+                InFlightBatch inFlightBatch = inFlightBatchesByTaskId.get(taskId);
+                inFlight = inFlightBatch != null;
+                if (inFlight) {
+                    inFlightBatch.fences.add(emitter);
+                }
+            }
+            if (pendingWrite != null) {
+                pendingWrite.complete();
+            }
+            if (!inFlight) {
+                emitter.onCompleted();
+            }
+        });
+    }
+
+    /**
+     * Fails all pending updates. Batches already in flight are completed normally.
+     */
+    void shutdown() {
+        List<PendingWrite> dropped;
+        synchronized (lock) {
+            shutdown = true;
+            dropped = new ArrayList<>(pendingWrites.values());
+            pendingWrites.clear();
+        }
+        IllegalStateException error = new IllegalStateException("Task write coalescer is shut down");
+        dropped.forEach(pendingWrite -> pendingWrite.fail(error));
+    }
+
+    /**
+     * Starts new batches, while there are pending updates, and the concurrency limit is not reached.
+     */
+    private void drain() {
+        List<InFlightBatch> toStart = new ArrayList<>();
+        synchronized (lock) {
+            while (!shutdown && inFlightBatches < concurrencyLimit) {
+                InFlightBatch batch = takeBatch();
+                if (batch == null) {
+                    break;
+                }
+                inFlightBatches++;
+                toStart.add(batch);
+            }
+        }
+        toStart.forEach(this::writeBatch);
+    }
+
+    /**
+     * Takes up to {@link #maxBatchSize} pending updates of the job owning the oldest writable update, in their
+     * arrival order, skipping tasks with a write in flight. Returns null if there is nothing to write. Must be
+     * called with the lock held.
+     */
+    private InFlightBatch takeBatch() {
+        List<PendingWrite> writes = new ArrayList<>();
+        String jobId = null;
+        Iterator<PendingWrite> it = pendingWrites.values().iterator();
+        while (it.hasNext() && writes.size() < maxBatchSize) {
+            PendingWrite pendingWrite = it.next();
+            Task task = pendingWrite.getTask();
+            if (inFlightBatchesByTaskId.containsKey(task.getId())) {
+                continue;
+            }
+            if (jobId == null) {
+                jobId = task.getJobId();
+            } else if (!jobId.equals(task.getJobId())) {
+                continue;
+            }
+            writes.add(pendingWrite);
+            it.remove();
+        }
+        if (writes.isEmpty()) {
+            return null;
+        }
+        InFlightBatch batch = new InFlightBatch(writes);
+        writes.forEach(pendingWrite -> inFlightBatchesByTaskId.put(pendingWrite.getTask().getId(), batch));
+        return batch;
+    }
+
+    private void writeBatch(InFlightBatch batch) {
+        List<Task> tasks = batch.writes.stream().map(PendingWrite::getTask).collect(Collectors.toList());
+        Completable write;
+        try {
+            write = batchWriter.apply(tasks);
+        } catch (Exception e) {
+            write = Completable.error(e);
+        }
+        write.subscribe(
+                () -> {
+                    batchSizeSummary.record(tasks.size());
+                    savedRoundTripsCounter.increment(tasks.size() - 1);
+                    onBatchFinished(batch);
+                    batch.writes.forEach(PendingWrite::complete);
+                    drain();
+                },
+                e -> {
+                    logger.warn("Failed to write a batch of {} tasks: {}", tasks.size(), e.getMessage());
+                    onBatchFinished(batch);
+                    batch.writes.forEach(pendingWrite -> pendingWrite.fail(e));
+                    drain();
+                }
+        );
+    }
+
+    private void onBatchFinished(InFlightBatch batch) {
+        List<CompletableEmitter> fences;
+        synchronized (lock) {
+            inFlightBatches--;
+            batch.writes.forEach(pendingWrite -> inFlightBatchesByTaskId.remove(pendingWrite.getTask().getId()));
+            fences = new ArrayList<>(batch.fences);
+        }
+        fences.forEach(CompletableEmitter::onCompleted);
+    }
+
+    private static class InFlightBatch {
+
+        private final List<PendingWrite> writes;
+
+        /**
+         * Cancellations waiting for this batch to finish. Guarded by the coalescer lock.
+         */
+        private final List<CompletableEmitter> fences = new ArrayList<>();
+
+        private InFlightBatch(List<PendingWrite> writes) {
+            this.writes = writes;
+        }
+    }
+
+    private class PendingWrite {
+
+        private Task task;
+        private final List<Pair<CompletableEmitter, Long>> waiters = new ArrayList<>();
+
+        private PendingWrite(Task task, CompletableEmitter emitter, long timestamp) {
+            update(task, emitter, timestamp);
+        }
+
+        private Task getTask() {
+            return task;
+        }
+
+        private void update(Task task, CompletableEmitter emitter, long timestamp) {
+            this.task = task;
+            waiters.add(Pair.of(emitter, timestamp));
+        }
+
+        private void complete() {
+            long now = scheduler.now();
+            waiters.forEach(waiter -> {
+                latencyTimer.record(now - waiter.getRight(), TimeUnit.MILLISECONDS);
+                waiter.getLeft().onCompleted();
+            });
+        }
+
+        private void fail(Throwable error) {
+            waiters.forEach(waiter -> waiter.getLeft().onError(error));
+        }
+    }
+}
@@ -23,6 +23,7 @@ import com.netflix.titus.ext.cassandra.tool.command.CreateKeyspaceCommand;
 import com.netflix.titus.ext.cassandra.tool.command.DeleteKeyspaceCommand;
 import com.netflix.titus.ext.cassandra.tool.command.JobCopyCommand;
 import com.netflix.titus.ext.cassandra.tool.command.JobReconcilerCommand;
+import com.netflix.titus.ext.cassandra.tool.command.JobRecordFormatMigrationCommand;
 import com.netflix.titus.ext.cassandra.tool.command.JobSnapshotDownloadCommand;
 import com.netflix.titus.ext.cassandra.tool.command.JobSnapshotUploadCommand;
 import com.netflix.titus.ext.cassandra.tool.command.JobTruncateCommand;
@@ -46,6 +47,7 @@ public class CassTool extends AbstractCassTool {
             .put("createKeyspace", new CreateKeyspaceCommand())
             .put("deleteKeyspace", new DeleteKeyspaceCommand())
             .put("testStoreLoad", new TestStoreLoadCommand())
+            .put("jobRecordFormatMigration", new JobRecordFormatMigrationCommand())
             .build();
 
     public CassTool(String[] args) {
@@ -17,6 +17,7 @@
 package com.netflix.titus.ext.cassandra.tool;
 
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import com.datastax.driver.core.BoundStatement;
@@ -26,8 +27,12 @@ import com.datastax.driver.core.Session;
 import com.datastax.driver.core.TableMetadata;
 import com.datastax.driver.core.exceptions.TruncateException;
 import com.google.common.base.Preconditions;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.common.util.CollectionsExt;
 import com.netflix.titus.common.util.tuple.Pair;
 import com.netflix.titus.ext.cassandra.executor.AsyncCassandraExecutor;
+import com.netflix.titus.ext.cassandra.store.JobStoreRecordCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Observable;
@@ -41,6 +46,14 @@ public class CassandraUtils {
     public static final int PAGE_SIZE = 1000;
     public static final int SPLIT = 2;
 
+    /**
+     * Columns of the active job/task tables, that hold the binary form of a record. Two column table operations
+     * expose these records as JSON text in the value column.
+     */
+    private static final Set<String> RECORD_ENCODING_COLUMNS = CollectionsExt.asSet(
+            JobStoreRecordCodec.FORMAT_COLUMN, JobStoreRecordCodec.BINARY_VALUE_COLUMN
+    );
+
     public static void truncateTable(CommandContext context, String table) {
         for (int i = 0; i < 3; i++) {
             if (truncateTableInternal(context, table)) {
@@ -85,6 +98,7 @@ public class CassandraUtils {
         List<String> valueColumns = tableMetadata.getColumns().stream()
                 .map(ColumnMetadata::getName)
                 .filter(c -> !c.equals(primaryKey))
+                .filter(c -> !RECORD_ENCODING_COLUMNS.contains(c))
                 .collect(Collectors.toList());
         Preconditions.checkState(valueColumns.size() == 1, "Expected one non primary key column, and is: %s", valueColumns);
         String valueColumn = valueColumns.get(0);
@@ -101,7 +115,17 @@ public class CassandraUtils {
                 String.format("SELECT * FROM %s WHERE token(%s) > :min AND token(%s) <= :max", table, primaryKey, primaryKey)
         );
         AsyncCassandraExecutor executor = new AsyncCassandraExecutor(sourceSession, PAGE_SIZE, SPLIT);
-        return executor.rawRangeQuery2(primaryKey, valueColumn, queryAllStatement);
+        if (!hasRecordEncodingColumns(sourceSession, table)) {
+            return executor.rawRangeQuery2(primaryKey, valueColumn, queryAllStatement);
+        }
+
+        Class<?> entityType = CassandraSchemas.ACTIVE_JOBS_TABLE.equals(table) ? Job.class : Task.class;
+        JobStoreRecordCodec codec = JobStoreRecordCodec.getDefault();
+        return executor.rawRangeRowQuery(queryAllStatement, row -> Pair.of(row.getObject(primaryKey), codec.decodeAsJson(row, entityType)));
+    }
+
+    public static boolean hasRecordEncodingColumns(Session session, String table) {
+        return JobStoreRecordCodec.hasRecordFormatColumns(session, table);
     }
 
     public static long writeIntoTwoColumnTable(Session targetSession, String table, Observable<Pair<Object, Object>> sourceData) {
@@ -109,8 +133,12 @@ public class CassandraUtils {
         String primaryKey = columnNames.getLeft();
         String valueColumn = columnNames.getRight();
 
-        PreparedStatement insertStatement = targetSession.prepare(
-                String.format("INSERT INTO %s (%s, %s) VALUES (?, ?)", table, primaryKey, valueColumn)
+        // Records are written as JSON text. In tables with the binary encoding columns, the format is set explicitly,
+        // so an overwritten binary record is not read back instead of the new value.
+        PreparedStatement insertStatement = targetSession.prepare(hasRecordEncodingColumns(targetSession, table)
+                ? String.format("INSERT INTO %s (%s, %s, %s, %s) VALUES (?, ?, %s, null)", table, primaryKey, valueColumn,
+                JobStoreRecordCodec.FORMAT_COLUMN, JobStoreRecordCodec.BINARY_VALUE_COLUMN, JobStoreRecordCodec.FORMAT_JSON)
+                : String.format("INSERT INTO %s (%s, %s) VALUES (?, ?)", table, primaryKey, valueColumn)
         );
 
         AsyncCassandraExecutor executor = new AsyncCassandraExecutor(targetSession, PAGE_SIZE, SPLIT);
@@ -88,7 +88,7 @@ public class CreateKeyspaceCommand implements Command {
         }
 
         String replication = commandLine.getOptionValue("replication");
-        List<String> cqlStatements = convertFileToCqlQueries();
+        List<String> cqlStatements = convertFileToCqlQueries(TABLES_CQL_FILE);
 
         for (String keyspace : keyspaces) {
             logger.info("Creating keyspace: {}", keyspace);
@@ -102,9 +102,9 @@ public class CreateKeyspaceCommand implements Command {
         }
     }
 
-    private List<String> convertFileToCqlQueries() throws IOException {
-        InputStream fileResourceAsStream = IOExt.getFileResourceAsStream(TABLES_CQL_FILE);
-        Preconditions.checkNotNull(fileResourceAsStream, TABLES_CQL_FILE + " was not found");
+    static List<String> convertFileToCqlQueries(String cqlFile) throws IOException {
+        InputStream fileResourceAsStream = IOExt.getFileResourceAsStream(cqlFile);
+        Preconditions.checkNotNull(fileResourceAsStream, cqlFile + " was not found");
         List<String> lines = IOExt.readLines(new InputStreamReader(fileResourceAsStream));
         List<String> cqlQueries = new ArrayList<>();
         StringBuilder cqlQuery = new StringBuilder();
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.ext.cassandra.tool.command;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.json.ObjectMappers;
+import com.netflix.titus.ext.cassandra.executor.AsyncCassandraExecutor;
+import com.netflix.titus.ext.cassandra.store.JobStoreRecordCodec;
+import com.netflix.titus.ext.cassandra.tool.CassandraSchemas;
+import com.netflix.titus.ext.cassandra.tool.CassandraUtils;
+import com.netflix.titus.ext.cassandra.tool.Command;
+import com.netflix.titus.ext.cassandra.tool.CommandContext;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.netflix.titus.ext.cassandra.store.JobStoreRecordCodec.BINARY_VALUE_COLUMN;
+import static com.netflix.titus.ext.cassandra.store.JobStoreRecordCodec.FORMAT_COLUMN;
+import static com.netflix.titus.ext.cassandra.store.JobStoreRecordCodec.FORMAT_JSON;
+import static com.netflix.titus.ext.cassandra.store.JobStoreRecordCodec.FORMAT_SMILE;
+import static com.netflix.titus.ext.cassandra.store.JobStoreRecordCodec.VALUE_COLUMN;
+
+/**
+ * Re-encodes active job and task records in the given format. Tables without the record format columns are upgraded
+ * first with {@link JobStoreRecordCodec#SCHEMA_UPGRADE_CQL_FILE}.
+ * <p>
+ * Records are rewritten with plain updates, like the ones issued by the master, so a record updated by an active
+ * master between the read and the rewrite would be reverted to its older version. The command must therefore be run
+ * only when all Titus masters using the keyspace are stopped, which must be confirmed with the 'mastersStopped'
+ * option. Records not migrated are still readable, and are rewritten in the configured format on their next update.
+ */
+public class JobRecordFormatMigrationCommand implements Command {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobRecordFormatMigrationCommand.class);
+
+    private static final int DEFAULT_RATE_LIMIT = 500;
+    private static final int MAX_IN_FLIGHT_UPDATES = 100;
+
+    @Override
+    public String getDescription() {
+        return "Re-encode active job and task records in JSON or binary format";
+    }
+
+    @Override
+    public CommandType getCommandType() {
+        return CommandType.TargetKeySpace;
+    }
+
+    @Override
+    public Options getOptions() {
+        Options options = new Options();
+        options.addOption(Option.builder("f")
+                .longOpt("format")
+                .desc("The target record format (json or binary)")
+                .hasArg()
+                .required()
+                .build());
+        options.addOption(Option.builder("s")
+                .longOpt("mastersStopped")
+                .desc("Confirms that all Titus masters using the keyspace are stopped")
+                .build());
+        options.addOption(Option.builder("r")
+                .longOpt("rate")
+                .desc("The maximum number of records re-encoded per second (default " + DEFAULT_RATE_LIMIT + ")")
+                .hasArg()
+                .build());
+        return options;
+    }
+
+    @Override
+    public void execute(CommandContext context) throws Exception {
+        CommandLine commandLine = context.getCommandLine();
+        String formatName = commandLine.getOptionValue("format");
+        Preconditions.checkArgument(formatName.equals("json") || formatName.equals("binary"), "Unknown record format: %s", formatName);
+        Preconditions.checkArgument(commandLine.hasOption('s'),
+                "Records can be re-encoded only when all Titus masters are stopped; confirm it with the 'mastersStopped' option");
+        int targetFormat = formatName.equals("binary") ? FORMAT_SMILE : FORMAT_JSON;
+        RateLimiter rateLimiter = RateLimiter.create(Integer.parseInt(commandLine.getOptionValue("rate", "" + DEFAULT_RATE_LIMIT)));
+
+        upgradeSchema(context.getTargetSession());
+        migrateTable(context, CassandraSchemas.ACTIVE_JOBS_TABLE, "job_id", Job.class, targetFormat, rateLimiter);
+        migrateTable(context, CassandraSchemas.ACTIVE_TASKS_TABLE, "task_id", Task.class, targetFormat, rateLimiter);
+    }
+
+    private void upgradeSchema(Session session) throws IOException {
+        if (CassandraUtils.hasRecordEncodingColumns(session, CassandraSchemas.ACTIVE_JOBS_TABLE)
+                && CassandraUtils.hasRecordEncodingColumns(session, CassandraSchemas.ACTIVE_TASKS_TABLE)) {
+            return;
+        }
+        logger.info("Adding the record format columns to the active job and task tables");
+        for (String cqlStatement : CreateKeyspaceCommand.convertFileToCqlQueries(JobStoreRecordCodec.SCHEMA_UPGRADE_CQL_FILE)) {
+            session.execute(cqlStatement);
+        }
+    }
+
+    private void migrateTable(CommandContext context,
+                              String table,
+                              String keyColumn,
+                              Class<?> entityType,
+                              int targetFormat,
+                              RateLimiter rateLimiter) throws InterruptedException {
+        Session session = context.getTargetSession();
+        AsyncCassandraExecutor executor = context.getTargetCassandraExecutor();
+        PreparedStatement updateRecordStatement = session.prepare(String.format(
+                "UPDATE %s SET %s = ?, %s = ?, %s = ? WHERE %s = ?", table, VALUE_COLUMN, FORMAT_COLUMN, BINARY_VALUE_COLUMN, keyColumn
+        ));
+        PreparedStatement queryAllStatement = session.prepare(String.format(
+                "SELECT %s, %s, %s, %s FROM %s WHERE token(%s) > :min AND token(%s) <= :max",
+                keyColumn, VALUE_COLUMN, FORMAT_COLUMN, BINARY_VALUE_COLUMN, table, keyColumn, keyColumn
+        ));
+
+        JobStoreRecordCodec codec = JobStoreRecordCodec.getDefault();
+        MigrationStats stats = new MigrationStats();
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT_UPDATES);
+
+        Iterable<Row> rows = executor.rawRangeRowQuery(queryAllStatement, row -> row).toBlocking().toIterable();
+        for (Row row : rows) {
+            stats.scanned.incrementAndGet();
+            int sourceFormat = codec.getFormat(row);
+            if (sourceFormat == targetFormat) {
+                stats.skipped.incrementAndGet();
+                continue;
+            }
+
+            String key = row.getString(keyColumn);
+            BoundStatement statement;
+            try {
+                Object entity = codec.decode(row, entityType);
+                byte[] jsonValue = ObjectMappers.writeValueAsBytes(ObjectMappers.storeMapper(), entity);
+                byte[] binaryValue = ObjectMappers.writeValueAsBytes(ObjectMappers.binaryStoreMapper(), entity);
+                stats.jsonBytes.addAndGet(jsonValue.length);
+                stats.binaryBytes.addAndGet(binaryValue.length);
+
+                statement = updateRecordStatement.bind().setString(3, key);
+                if (targetFormat == FORMAT_SMILE) {
+                    statement.setToNull(0).setInt(1, FORMAT_SMILE).setBytes(2, ByteBuffer.wrap(binaryValue));
+                } else {
+                    statement.setString(0, new String(jsonValue, StandardCharsets.UTF_8)).setInt(1, FORMAT_JSON).setToNull(2);
+                }
+            } catch (Exception e) {
+                logger.warn("Cannot decode record {} in table {}", key, table, e);
+                stats.failed.incrementAndGet();
+                continue;
+            }
+
+            rateLimiter.acquire();
+            inFlight.acquire();
+            ResultSetFuture future = session.executeAsync(statement);
+            Futures.addCallback(future, new FutureCallback<ResultSet>() {
+                @Override
+                public void onSuccess(ResultSet result) {
+                    stats.migrated.incrementAndGet();
+                    inFlight.release();
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    logger.warn("Cannot update record {} in table {}: {}", key, table, error.getMessage());
+                    stats.failed.incrementAndGet();
+                    inFlight.release();
+                }
+            }, MoreExecutors.directExecutor());
+        }
+        inFlight.acquire(MAX_IN_FLIGHT_UPDATES);
+
+        logger.info("Re-encoded table {}: scanned={}, migrated={}, alreadyInTargetFormat={}, failed={}, jsonBytes={}, binaryBytes={}",
+                table, stats.scanned, stats.migrated, stats.skipped, stats.failed, stats.jsonBytes, stats.binaryBytes
+        );
+    }
+
+    private static class MigrationStats {
+        private final AtomicLong scanned = new AtomicLong();
+        private final AtomicLong migrated = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong jsonBytes = new AtomicLong();
+        private final AtomicLong binaryBytes = new AtomicLong();
+    }
+}
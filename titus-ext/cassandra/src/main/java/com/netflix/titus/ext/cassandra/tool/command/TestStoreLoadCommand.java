@@ -19,15 +19,20 @@ package com.netflix.titus.ext.cassandra.tool.command;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.datastax.driver.core.Session;
+import com.netflix.spectator.api.Registry;
 import com.netflix.titus.api.jobmanager.model.job.BatchJobTask;
 import com.netflix.titus.api.jobmanager.model.job.Job;
 import com.netflix.titus.api.jobmanager.model.job.JobDescriptor;
+import com.netflix.titus.api.jobmanager.model.job.JobFunctions;
 import com.netflix.titus.api.jobmanager.model.job.JobStatus;
 import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
 import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
 import com.netflix.titus.api.jobmanager.store.JobStore;
+import com.netflix.titus.common.runtime.TitusRuntime;
 import com.netflix.titus.common.runtime.TitusRuntimes;
 import com.netflix.titus.common.util.tuple.Pair;
 import com.netflix.titus.ext.cassandra.store.CassandraJobStore;
@@ -39,6 +44,7 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rx.Completable;
 import rx.Observable;
 
 import static com.netflix.titus.api.jobmanager.model.job.JobState.Accepted;
@@ -47,33 +53,7 @@ public class TestStoreLoadCommand implements Command {
 
     private static final Logger logger = LoggerFactory.getLogger(TestStoreLoadCommand.class);
     private static final int MAX_RETRIEVE_TASK_CONCURRENCY = 1_000;
-
-    private static final CassandraStoreConfiguration CONFIGURATION = new CassandraStoreConfiguration() {
-        @Override
-        public boolean isFailOnInconsistentAgentData() {
-            return true;
-        }
-
-        @Override
-        public boolean isFailOnInconsistentLoadBalancerData() {
-            return false;
-        }
-
-        @Override
-        public boolean isFailOnInconsistentSchedulerData() {
-            return false;
-        }
-
-        @Override
-        public int getConcurrencyLimit() {
-            return MAX_RETRIEVE_TASK_CONCURRENCY;
-        }
-
-        @Override
-        public boolean isTracingEnabled() {
-            return false;
-        }
-    };
+    private static final String TASK_WRITES_METRIC_ROOT = "titusMaster.jobManager.cassandra.taskWrites.";
 
     @Override
     public String getDescription() {
@@ -112,6 +92,19 @@ public class TestStoreLoadCommand implements Command {
                 .hasArg()
                 .required()
                 .build());
+        options.addOption(Option.builder("u")
+                .longOpt("updates")
+                .desc("The number of successive updates per task to write after the load iterations (default 0)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("w")
+                .longOpt("batchWrites")
+                .desc("Write task updates in batches")
+                .build());
+        options.addOption(Option.builder("b")
+                .longOpt("binary")
+                .desc("Write job and task records in the binary format")
+                .build());
         return options;
     }
 
@@ -124,6 +117,9 @@ public class TestStoreLoadCommand implements Command {
         Integer tasks = Integer.valueOf(commandLine.getOptionValue("tasks"));
         Integer concurrency = Integer.valueOf(commandLine.getOptionValue("concurrency"));
         Integer iterations = Integer.valueOf(commandLine.getOptionValue("iterations"));
+        int updates = Integer.parseInt(commandLine.getOptionValue("updates", "0"));
+        boolean batchWrites = commandLine.hasOption('w');
+        boolean binaryEncoding = commandLine.hasOption('b');
         Session session = commandContext.getTargetSession();
 
         boolean keyspaceExists = session.getCluster().getMetadata().getKeyspace(keyspace) != null;
@@ -133,7 +129,8 @@ public class TestStoreLoadCommand implements Command {
         }
         session.execute("USE " + keyspace);
 
-        JobStore titusStore = new CassandraJobStore(CONFIGURATION, session, TitusRuntimes.internal());
+        TitusRuntime titusRuntime = TitusRuntimes.internal();
+        JobStore titusStore = new CassandraJobStore(newConfiguration(batchWrites, binaryEncoding), session, titusRuntime);
 
         // Create jobs and tasks
         long jobStartTime = System.currentTimeMillis();
@@ -180,6 +177,106 @@ public class TestStoreLoadCommand implements Command {
         }
 
         logger.info("Average load time: {}[ms]", loadTotalTime / iterations);
+
+        if (updates > 0) {
+            runTaskUpdates(titusStore, titusRuntime.getRegistry(), updates, concurrency, batchWrites);
+        }
+    }
+
+    /**
+     * Writes a sequence of state updates for each task. As in the job manager, an update of a task is issued only
+     * after its previous update completed, and updates of different tasks run concurrently. Reports the write
+     * throughput and latency, and the number of writes saved by batching if enabled.
+     */
+    private void runTaskUpdates(JobStore titusStore, Registry registry, int updates, int concurrency, boolean batchWrites) {
+        List<Task> tasks = titusStore.init().andThen(titusStore.retrieveJobs().flatMap(retrievedJobsAndErrors ->
+                Observable.from(retrievedJobsAndErrors.getLeft())
+                        .flatMap(job -> titusStore.retrieveTasksForJob(job.getId()), MAX_RETRIEVE_TASK_CONCURRENCY)
+                        .flatMapIterable(Pair::getLeft)
+        )).toList().toBlocking().first();
+
+        AtomicLong totalLatencyMs = new AtomicLong();
+        List<Completable> taskUpdates = new ArrayList<>();
+        for (Task task : tasks) {
+            List<Completable> updateSequence = new ArrayList<>();
+            for (int i = 0; i < updates; i++) {
+                Task updated = JobFunctions.changeTaskStatus(task, TaskState.Launched, "loadTest", "Load test update " + i);
+                updateSequence.add(Completable.defer(() -> {
+                    long startTime = System.currentTimeMillis();
+                    return titusStore.updateTask(updated).doOnCompleted(() -> totalLatencyMs.addAndGet(System.currentTimeMillis() - startTime));
+                }));
+            }
+            taskUpdates.add(Completable.concat(updateSequence));
+        }
+
+        long startTime = System.currentTimeMillis();
+        Completable.merge(Observable.from(taskUpdates), concurrency).await();
+        long elapsedMs = System.currentTimeMillis() - startTime;
+
+        int writes = tasks.size() * updates;
+        logger.info("Wrote {} task updates in {}[ms] ({} updates/sec), average update latency {}[ms], batchWrites={}, savedWrites={}",
+                writes, elapsedMs, writes * 1000L / Math.max(1, elapsedMs), totalLatencyMs.get() / Math.max(1, writes), batchWrites,
+                (long) registry.counter(TASK_WRITES_METRIC_ROOT + "savedWrites").count()
+        );
+    }
+
+    private static CassandraStoreConfiguration newConfiguration(boolean batchWrites, boolean binaryEncoding) {
+        return new CassandraStoreConfiguration() {
+            @Override
+            public boolean isFailOnInconsistentAgentData() {
+                return true;
+            }
+
+            @Override
+            public boolean isFailOnInconsistentLoadBalancerData() {
+                return false;
+            }
+
+            @Override
+            public boolean isFailOnInconsistentSchedulerData() {
+                return false;
+            }
+
+            @Override
+            public int getConcurrencyLimit() {
+                return MAX_RETRIEVE_TASK_CONCURRENCY;
+            }
+
+            @Override
+            public boolean isTracingEnabled() {
+                return false;
+            }
+
+            @Override
+            public boolean isTaskWriteBatchingEnabled() {
+                return batchWrites;
+            }
+
+            @Override
+            public int getTaskWriteBatchSize() {
+                return 20;
+            }
+
+            @Override
+            public boolean isBinaryEncodingEnabled() {
+                return binaryEncoding;
+            }
+
+            @Override
+            public boolean isLocalSnapshotEnabled() {
+                return false;
+            }
+
+            @Override
+            public String getLocalSnapshotDirectory() {
+                return "";
+            }
+
+            @Override
+            public long getLocalSnapshotIntervalMs() {
+                return 0;
+            }
+        };
     }
 
     private Observable<Void> createJobAndTasksObservable(int tasks, JobStore store) {
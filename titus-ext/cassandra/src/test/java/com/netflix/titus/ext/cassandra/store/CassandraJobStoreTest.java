@@ -16,11 +16,15 @@
 
 package com.netflix.titus.ext.cassandra.store;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.netflix.titus.api.jobmanager.model.job.BatchJobTask;
 import com.netflix.titus.api.jobmanager.model.job.Job;
@@ -36,7 +40,9 @@ import com.netflix.titus.api.jobmanager.model.job.ext.ServiceJobExt;
 import com.netflix.titus.api.jobmanager.model.job.retry.ExponentialBackoffRetryPolicy;
 import com.netflix.titus.api.jobmanager.store.JobStore;
 import com.netflix.titus.api.json.ObjectMappers;
+import com.netflix.titus.common.runtime.TitusRuntime;
 import com.netflix.titus.common.runtime.TitusRuntimes;
+import com.netflix.titus.common.util.AwaitExt;
 import com.netflix.titus.common.util.tuple.Pair;
 import com.netflix.titus.testkit.junit.category.IntegrationNotParallelizableTest;
 import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
@@ -46,6 +52,7 @@ import org.cassandraunit.dataset.cql.ClassPathCQLDataSet;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
 import rx.Completable;
 import rx.Observable;
 
@@ -72,7 +79,13 @@ public class CassandraJobStoreTest {
             STARTUP_TIMEOUT_MS
     );
 
-    private static final CassandraStoreConfiguration CONFIGURATION = new CassandraStoreConfiguration() {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private volatile boolean binaryEncodingEnabled;
+    private volatile boolean localSnapshotEnabled;
+
+    private final CassandraStoreConfiguration configuration = new CassandraStoreConfiguration() {
         @Override
         public boolean isFailOnInconsistentAgentData() {
             return true;
@@ -97,6 +110,36 @@ public class CassandraJobStoreTest {
         public boolean isTracingEnabled() {
             return false;
         }
+
+        @Override
+        public boolean isTaskWriteBatchingEnabled() {
+            return false;
+        }
+
+        @Override
+        public int getTaskWriteBatchSize() {
+            return 20;
+        }
+
+        @Override
+        public boolean isBinaryEncodingEnabled() {
+            return binaryEncodingEnabled;
+        }
+
+        @Override
+        public boolean isLocalSnapshotEnabled() {
+            return localSnapshotEnabled;
+        }
+
+        @Override
+        public String getLocalSnapshotDirectory() {
+            return temporaryFolder.getRoot().getAbsolutePath();
+        }
+
+        @Override
+        public long getLocalSnapshotIntervalMs() {
+            return 1_000;
+        }
     };
 
     @Test
@@ -286,6 +329,139 @@ public class CassandraJobStoreTest {
         assertThat(newTask).isEqualTo(newRetrievedTask);
     }
 
+    @Test
+    public void testUpdateTasksOfMultipleJobs() {
+        JobStore store = getJobStore();
+        store.init().await();
+        List<Task> newTasks = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Job<BatchJobExt> job = createBatchJobObject();
+            store.storeJob(job).await();
+            for (int j = 0; j < 25; j++) {
+                Task task = createTaskObject(job);
+                store.storeTask(task).await();
+                newTasks.add(BatchJobTask.newBuilder((BatchJobTask) task)
+                        .withStatus(TaskStatus.newBuilder().withState(TaskState.Launched).build())
+                        .build());
+            }
+        }
+        store.updateTasks(newTasks).await();
+        for (Task newTask : newTasks) {
+            assertThat(store.retrieveTask(newTask.getId()).toBlocking().first()).isEqualTo(newTask);
+        }
+    }
+
+    @Test
+    public void testJsonAndBinaryRecordsAreReadable() {
+        Session session = cassandraCqlUnit.getSession();
+        JobStore store = getJobStore(session);
+        store.init().await();
+        Job<BatchJobExt> jsonJob = createBatchJobObject();
+        store.storeJob(jsonJob).await();
+        Task jsonTask = createTaskObject(jsonJob);
+        store.storeTask(jsonTask).await();
+
+        binaryEncodingEnabled = true;
+        Job<BatchJobExt> binaryJob = createBatchJobObject();
+        store.storeJob(binaryJob).await();
+        Task binaryTask = createTaskObject(binaryJob);
+        store.storeTask(binaryTask).await();
+        // Switch an existing record from JSON to binary format.
+        Task updatedJsonTask = BatchJobTask.newBuilder((BatchJobTask) jsonTask)
+                .withStatus(TaskStatus.newBuilder().withState(TaskState.Launched).build())
+                .build();
+        store.updateTask(updatedJsonTask).await();
+
+        ResultSet resultSet = session.execute("SELECT value, format FROM active_tasks WHERE task_id = ?", updatedJsonTask.getId());
+        assertThat(resultSet.one().getInt("format")).isEqualTo(JobStoreRecordCodec.FORMAT_SMILE);
+
+        JobStore newStore = getJobStore(session);
+        newStore.init().await();
+        Pair<List<Job<?>>, Integer> jobsAndErrors = newStore.retrieveJobs().toBlocking().first();
+        assertThat(jobsAndErrors.getRight()).isEqualTo(0);
+        assertThat(jobsAndErrors.getLeft()).containsOnly(jsonJob, binaryJob);
+        assertThat(newStore.retrieveTasksForJob(jsonJob.getId()).toBlocking().first().getLeft()).containsExactly(updatedJsonTask);
+        assertThat(newStore.retrieveTasksForJob(binaryJob.getId()).toBlocking().first().getLeft()).containsExactly(binaryTask);
+    }
+
+    @Test
+    public void testRecordsAreRestoredFromLocalSnapshot() throws Exception {
+        localSnapshotEnabled = true;
+        Session session = cassandraCqlUnit.getSession();
+        CassandraJobStore store = (CassandraJobStore) getJobStore(session);
+        store.init().await();
+        Job<BatchJobExt> job = createBatchJobObject();
+        store.storeJob(job).await();
+        Task task = createTaskObject(job);
+        store.storeTask(task).await();
+        awaitPublishedLocalSnapshot(session);
+        store.shutdown();
+
+        TitusRuntime titusRuntime = TitusRuntimes.internal();
+        JobStore newStore = getJobStore(session, titusRuntime);
+        newStore.init().await();
+        assertThat(newStore.retrieveJobs().toBlocking().first().getLeft()).containsExactly(job);
+        assertThat(newStore.retrieveTasksForJob(job.getId()).toBlocking().first().getLeft()).containsExactly(task);
+        assertThat(titusRuntime.getRegistry().counter(LocalJobSnapshotManager.METRIC_ROOT + "restoredJobs").count()).isEqualTo(1);
+        assertThat(titusRuntime.getRegistry().counter(LocalJobSnapshotManager.METRIC_ROOT + "restoredTasks").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testLocalSnapshotIsNotUsedAfterStoreChange() throws Exception {
+        localSnapshotEnabled = true;
+        Session session = cassandraCqlUnit.getSession();
+        CassandraJobStore store = (CassandraJobStore) getJobStore(session);
+        store.init().await();
+        Job<BatchJobExt> job = createBatchJobObject();
+        store.storeJob(job).await();
+        Task task = createTaskObject(job);
+        store.storeTask(task).await();
+        awaitPublishedLocalSnapshot(session);
+        store.shutdown();
+
+        Task updatedTask = BatchJobTask.newBuilder((BatchJobTask) task)
+                .withStatus(TaskStatus.newBuilder().withState(TaskState.Launched).build())
+                .build();
+        store.updateTask(updatedTask).await();
+
+        TitusRuntime titusRuntime = TitusRuntimes.internal();
+        JobStore newStore = getJobStore(session, titusRuntime);
+        newStore.init().await();
+        assertThat(newStore.retrieveJobs().toBlocking().first().getLeft()).containsExactly(job);
+        assertThat(newStore.retrieveTasksForJob(job.getId()).toBlocking().first().getLeft()).containsExactly(updatedTask);
+        assertThat(titusRuntime.getRegistry().counter(LocalJobSnapshotManager.METRIC_ROOT + "restoredTasks").count()).isEqualTo(0);
+    }
+
+    @Test
+    public void testLocalSnapshotIsNotUsedAfterLeaderWithLocalSnapshotDisabled() throws Exception {
+        localSnapshotEnabled = true;
+        Session session = cassandraCqlUnit.getSession();
+        CassandraJobStore store = (CassandraJobStore) getJobStore(session);
+        store.init().await();
+        Job<BatchJobExt> job = createBatchJobObject();
+        store.storeJob(job).await();
+        Task task = createTaskObject(job);
+        store.storeTask(task).await();
+        awaitPublishedLocalSnapshot(session);
+        store.shutdown();
+
+        // A leader with the local snapshot disabled still rotates the store marker on activation.
+        localSnapshotEnabled = false;
+        JobStore noSnapshotStore = getJobStore(session);
+        noSnapshotStore.init().await();
+        Task updatedTask = BatchJobTask.newBuilder((BatchJobTask) task)
+                .withStatus(TaskStatus.newBuilder().withState(TaskState.Launched).build())
+                .build();
+        noSnapshotStore.updateTask(updatedTask).await();
+
+        localSnapshotEnabled = true;
+        TitusRuntime titusRuntime = TitusRuntimes.internal();
+        JobStore newStore = getJobStore(session, titusRuntime);
+        newStore.init().await();
+        assertThat(newStore.retrieveTasksForJob(job.getId()).toBlocking().first().getLeft()).containsExactly(updatedTask);
+        assertThat(titusRuntime.getRegistry().counter(LocalJobSnapshotManager.METRIC_ROOT + "restoredTasks").count()).isEqualTo(0);
+    }
+
     @Test
     public void testReplaceTask() {
         JobStore store = getJobStore();
@@ -369,13 +545,34 @@ public class CassandraJobStoreTest {
     }
 
     private JobStore getJobStore(Session session) {
+        return getJobStore(session, TitusRuntimes.internal());
+    }
+
+    private JobStore getJobStore(Session session, TitusRuntime titusRuntime) {
         if (session == null) {
             session = cassandraCqlUnit.getSession();
         }
-        return new CassandraJobStore(CONFIGURATION, session, TitusRuntimes.internal(), ObjectMappers.storeMapper(),
+        return new CassandraJobStore(configuration, session, titusRuntime, ObjectMappers.storeMapper(),
                 INITIAL_BUCKET_COUNT, MAX_BUCKET_SIZE);
     }
 
+    /**
+     * Waits until a local snapshot is saved, and its marker is written to the store.
+     */
+    private void awaitPublishedLocalSnapshot(Session session) throws InterruptedException {
+        Path snapshotFile = temporaryFolder.getRoot().toPath().resolve(LocalJobSnapshotManager.SNAPSHOT_FILE_NAME);
+        boolean published = AwaitExt.awaitUntil(() -> {
+            try {
+                Optional<LocalJobSnapshot> snapshot = LocalJobSnapshot.readFrom(snapshotFile);
+                Row row = session.execute("SELECT marker FROM store_snapshot_markers WHERE store_name = ?", JobStoreMarker.STORE_NAME).one();
+                return snapshot.isPresent() && row != null && snapshot.get().getMarker().equals(row.getString(0));
+            } catch (Exception e) {
+                return false;
+            }
+        }, 30, TimeUnit.SECONDS);
+        assertThat(published).isTrue();
+    }
+
     private Job<BatchJobExt> createBatchJobObject() {
         return JobGenerator.batchJobs(JobDescriptorGenerator.oneTaskBatchJobDescriptor()).getValue();
     }
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.ext.cassandra.store;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
+import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
+import com.netflix.titus.testkit.model.job.JobGenerator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class LocalJobSnapshotTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Job<BatchJobExt> job = JobGenerator.batchJobs(JobDescriptorGenerator.oneTaskBatchJobDescriptor()).getValue();
+    private final Task task = JobGenerator.batchTasks(job).getValue();
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("snapshots").resolve("test.snapshot");
+        LocalJobSnapshot snapshot = newSnapshot();
+        assertThat(snapshot.writeTo(file)).isGreaterThan(0);
+
+        LocalJobSnapshot restored = LocalJobSnapshot.readFrom(file).orElseThrow(() -> new AssertionError("snapshot not found"));
+        assertThat(restored.getMarker()).isEqualTo("marker#1");
+        assertThat(restored.getRevision()).isEqualTo(7);
+        assertThat(restored.getTimestamp()).isEqualTo(123);
+        assertThat(restored.getJobs()).containsEntry(job.getId(), job).hasSize(1);
+        assertThat(restored.getTasks()).containsEntry(task.getId(), task).hasSize(1);
+    }
+
+    @Test
+    public void testMissingFile() throws Exception {
+        assertThat(LocalJobSnapshot.readFrom(temporaryFolder.getRoot().toPath().resolve("missing.snapshot"))).isEmpty();
+    }
+
+    @Test
+    public void testCorruptedFileIsRejected() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("test.snapshot");
+        newSnapshot().writeTo(file);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw")) {
+            long position = randomAccessFile.length() / 2;
+            randomAccessFile.seek(position);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(position);
+            randomAccessFile.write(value ^ 0xFF);
+        }
+
+        try {
+            Optional<LocalJobSnapshot> restored = LocalJobSnapshot.readFrom(file);
+            fail("Expected checksum error, but got: " + restored);
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("checksum");
+        }
+    }
+
+    private LocalJobSnapshot newSnapshot() {
+        Map<String, Job<?>> jobs = Collections.singletonMap(job.getId(), job);
+        Map<String, Task> tasks = Collections.singletonMap(task.getId(), task);
+        return new LocalJobSnapshot("marker#1", 7, 123, jobs, tasks);
+    }
+}
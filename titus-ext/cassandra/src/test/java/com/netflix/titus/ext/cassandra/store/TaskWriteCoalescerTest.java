@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.ext.cassandra.store;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.netflix.spectator.api.DefaultRegistry;
+import com.netflix.spectator.api.Registry;
+import com.netflix.titus.api.jobmanager.model.job.BatchJobTask;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.JobFunctions;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
+import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
+import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
+import com.netflix.titus.testkit.model.job.JobGenerator;
+import org.junit.Test;
+import rx.Completable;
+import rx.CompletableEmitter;
+import rx.observers.AssertableSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TaskWriteCoalescerTest {
+
+    private static final int MAX_BATCH_SIZE = 2;
+    private static final int CONCURRENCY_LIMIT = 1;
+
+    private final TestScheduler testScheduler = new TestScheduler();
+    private final Registry registry = new DefaultRegistry();
+
+    private final List<List<Task>> writtenBatches = new ArrayList<>();
+    private final List<CompletableEmitter> inFlightWrites = new ArrayList<>();
+
+    private final TaskWriteCoalescer coalescer = new TaskWriteCoalescer(MAX_BATCH_SIZE, CONCURRENCY_LIMIT, this::writeBatch, registry, testScheduler);
+
+    private final Job<BatchJobExt> job = JobGenerator.batchJobs(
+            JobFunctions.changeBatchJobSize(JobDescriptorGenerator.oneTaskBatchJobDescriptor(), 4)
+    ).getValue();
+
+    @Test
+    public void testUpdateIsWrittenImmediatelyWhenIdle() {
+        BatchJobTask task = JobGenerator.batchTasks(job).getValue();
+        AssertableSubscriber<Void> subscriber = coalescer.write(task).test();
+
+        assertThat(writtenBatches).hasSize(1);
+        assertThat(writtenBatches.get(0)).containsExactly(task);
+
+        completeNextWrite();
+        subscriber.assertCompleted();
+    }
+
+    @Test
+    public void testUpdatesReceivedWhileBatchIsInFlightAreWrittenInBoundedBatches() {
+        List<BatchJobTask> tasks = JobGenerator.batchTasks(job).toList(4);
+        List<AssertableSubscriber<Void>> subscribers = new ArrayList<>();
+        tasks.forEach(task -> subscribers.add(coalescer.write(task).test()));
+
+        assertThat(writtenBatches).hasSize(1);
+        completeNextWrite();
+        assertThat(writtenBatches).hasSize(2);
+        assertThat(writtenBatches.get(1)).containsExactly(tasks.get(1), tasks.get(2));
+        completeNextWrite();
+        assertThat(writtenBatches).hasSize(3);
+        assertThat(writtenBatches.get(2)).containsExactly(tasks.get(3));
+        completeNextWrite();
+
+        subscribers.forEach(AssertableSubscriber::assertCompleted);
+        assertThat(registry.counter(TaskWriteCoalescer.METRIC_ROOT + "savedRoundTrips").count()).isEqualTo(1);
+        assertThat(registry.counter(TaskWriteCoalescer.METRIC_ROOT + "coalesced").count()).isEqualTo(0);
+    }
+
+    @Test
+    public void testPendingUpdatesOfSameTaskCollapseToLatestVersion() {
+        BatchJobTask task = JobGenerator.batchTasks(job).getValue();
+        Task launched = JobFunctions.changeTaskStatus(task, TaskState.Launched, "", "");
+        Task startInitiated = JobFunctions.changeTaskStatus(task, TaskState.StartInitiated, "", "");
+        Task started = JobFunctions.changeTaskStatus(task, TaskState.Started, "", "");
+
+        AssertableSubscriber<Void> first = coalescer.write(launched).test();
+        AssertableSubscriber<Void> second = coalescer.write(startInitiated).test();
+        AssertableSubscriber<Void> third = coalescer.write(started).test();
+
+        completeNextWrite();
+        first.assertCompleted();
+        second.assertNoTerminalEvent();
+
+        assertThat(writtenBatches).hasSize(2);
+        assertThat(writtenBatches.get(1)).containsExactly(started);
+        completeNextWrite();
+        second.assertCompleted();
+        third.assertCompleted();
+        assertThat(registry.counter(TaskWriteCoalescer.METRIC_ROOT + "coalesced").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testBatchContainsTasksOfOneJobOnly() {
+        Job<BatchJobExt> otherJob = JobGenerator.batchJobs(job.getJobDescriptor()).toList(2).get(1);
+        List<BatchJobTask> tasks = JobGenerator.batchTasks(job).toList(3);
+        BatchJobTask otherTask = JobGenerator.batchTasks(otherJob).getValue();
+
+        coalescer.write(tasks.get(0)).test();
+        coalescer.write(tasks.get(1)).test();
+        coalescer.write(otherTask).test();
+        coalescer.write(tasks.get(2)).test();
+
+        completeNextWrite();
+        assertThat(writtenBatches).hasSize(2);
+        assertThat(writtenBatches.get(1)).containsExactly(tasks.get(1), tasks.get(2));
+        completeNextWrite();
+        assertThat(writtenBatches).hasSize(3);
+        assertThat(writtenBatches.get(2)).containsExactly(otherTask);
+    }
+
+    @Test
+    public void testTaskIsNotInTwoInFlightBatches() {
+        TaskWriteCoalescer coalescer = new TaskWriteCoalescer(MAX_BATCH_SIZE, 2, this::writeBatch, registry, testScheduler);
+        BatchJobTask task = JobGenerator.batchTasks(job).getValue();
+        Task started = JobFunctions.changeTaskStatus(task, TaskState.Started, "", "");
+
+        coalescer.write(task).test();
+        coalescer.write(started).test();
+        assertThat(writtenBatches).hasSize(1);
+
+        completeNextWrite();
+        assertThat(writtenBatches).hasSize(2);
+        assertThat(writtenBatches.get(1)).containsExactly(started);
+    }
+
+    @Test
+    public void testBatchWriteErrorIsPropagatedToAllWaiters() {
+        List<BatchJobTask> tasks = JobGenerator.batchTasks(job).toList(3);
+        coalescer.write(tasks.get(0)).test();
+        AssertableSubscriber<Void> second = coalescer.write(tasks.get(1)).test();
+        AssertableSubscriber<Void> third = coalescer.write(tasks.get(2)).test();
+
+        completeNextWrite();
+        inFlightWrites.remove(0).onError(new RuntimeException("simulated store error"));
+
+        second.assertError(RuntimeException.class);
+        third.assertError(RuntimeException.class);
+    }
+
+    @Test
+    public void testCancelledPendingUpdateIsNotWritten() {
+        List<BatchJobTask> tasks = JobGenerator.batchTasks(job).toList(2);
+        coalescer.write(tasks.get(0)).test();
+        AssertableSubscriber<Void> subscriber = coalescer.write(tasks.get(1)).test();
+
+        coalescer.cancel(tasks.get(1).getId()).test().assertCompleted();
+        subscriber.assertCompleted();
+
+        completeNextWrite();
+        assertThat(writtenBatches).hasSize(1);
+    }
+
+    @Test
+    public void testCancelWaitsForInFlightWrite() {
+        BatchJobTask task = JobGenerator.batchTasks(job).getValue();
+        coalescer.write(task).test();
+
+        AssertableSubscriber<Void> cancelSubscriber = coalescer.cancel(task.getId()).test();
+        cancelSubscriber.assertNoTerminalEvent();
+
+        completeNextWrite();
+        cancelSubscriber.assertCompleted();
+    }
+
+    private Completable writeBatch(List<Task> tasks) {
+        return Completable.fromEmitter(emitter -> {
+            writtenBatches.add(tasks);
+            inFlightWrites.add(emitter);
+        });
+    }
+
+    private void completeNextWrite() {
+        assertThat(inFlightWrites).isNotEmpty();
+        inFlightWrites.remove(0).onCompleted();
+    }
+}
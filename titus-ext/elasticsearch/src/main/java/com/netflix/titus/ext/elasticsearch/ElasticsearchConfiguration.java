@@ -36,4 +36,53 @@ public interface ElasticsearchConfiguration {
 
     @DefaultValue("yyyyMM")
     String getTaskDocumentEsIndexDateSuffixPattern();
+
+    /**
+     * Directory in which task documents are spooled before they are indexed, so they are not lost if the process
+     * restarts. If empty, the documents are kept in memory only.
+     */
+    @DefaultValue("/var/tmp/titus-master/elasticsearch")
+    String getSpoolDirectory();
+
+    /**
+     * Size of the spool file of a single index.
+     */
+    @DefaultValue("67108864")
+    int getSpoolSegmentSizeBytes();
+
+    /**
+     * Maximum number of task documents waiting to be indexed in a single index. When exceeded, the oldest documents
+     * are dropped.
+     */
+    @DefaultValue("100000")
+    int getSpoolMaxDocuments();
+
+    /**
+     * Spool files not modified for longer than this are deleted on startup, instead of being replayed.
+     */
+    @DefaultValue("86400000")
+    long getSpoolMaxAgeMs();
+
+    /**
+     * Interval at which the spooled documents are sent to Elasticsearch. Updates of the same task within this
+     * interval are sent as a single document.
+     */
+    @DefaultValue("5000")
+    long getFlushIntervalMs();
+
+    @DefaultValue("100")
+    int getBulkMinSize();
+
+    @DefaultValue("5000")
+    int getBulkMaxSize();
+
+    /**
+     * Bulk requests that take longer than this are followed by smaller ones, and those that complete in less than
+     * half of this time are followed by larger ones.
+     */
+    @DefaultValue("2000")
+    long getBulkTargetLatencyMs();
+
+    @DefaultValue("2")
+    int getMaxConcurrentBulks();
 }
@@ -16,56 +16,114 @@
 
 package com.netflix.titus.ext.elasticsearch;
 
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Gauge;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Timer;
 import com.netflix.titus.api.jobmanager.model.job.Job;
 import com.netflix.titus.api.jobmanager.model.job.Task;
 import com.netflix.titus.api.jobmanager.model.job.event.TaskUpdateEvent;
 import com.netflix.titus.api.jobmanager.service.V3JobOperations;
 import com.netflix.titus.common.runtime.TitusRuntime;
+import com.netflix.titus.common.util.StringExt;
 import com.netflix.titus.common.util.guice.annotation.Activator;
 import com.netflix.titus.common.util.rx.ObservableExt;
+import com.netflix.titus.common.util.time.Clock;
+import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.ext.elasticsearch.TaskDocumentSpool.SpooledDocument;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.rest.RestStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Observable;
+import rx.Scheduler;
+import rx.Subscription;
 import rx.schedulers.Schedulers;
 
 import static com.netflix.titus.ext.elasticsearch.ElasticsearchModule.TASK_DOCUMENT_CONTEXT;
 
+/**
+ * Publishes task documents to Elasticsearch. Task updates are written to a bounded spool of the current index, where
+ * repeated updates of the same task are coalesced. The spool is flushed periodically with bulk requests. The bulk size
+ * is adjusted to the observed bulk latency, and the number of concurrent bulk requests is limited, so a slow
+ * Elasticsearch cluster results in a growing spool, and eventually in dropped documents, instead of an unbounded
+ * memory usage.
+ * <p>
+ * Documents are indexed with the task status timestamp as an external version, so a document replayed from a spool
+ * file after a restart, or retried after a newer one was indexed, does not replace the newer one.
+ */
 @Singleton
 public class ElasticsearchTaskDocumentPublisher {
     private static final Logger logger = LoggerFactory.getLogger(ElasticsearchTaskDocumentPublisher.class);
 
-    private static final int TIME_TO_BUFFER_MS = 10_000;
-    private static final int COUNT_TO_BUFFER = 1_000;
+    private static final String METRIC_ROOT = "titusMaster.elasticsearch.taskDocuments.";
+
     private static final String DEFAULT_DOC_TYPE = "default";
+    private static final String SPOOL_FILE_SUFFIX = ".spool";
+
+    private static final int INITIAL_BULK_SIZE = 1_000;
+    private static final int EVENT_BUFFER_SIZE = 16_384;
 
     private final ElasticsearchConfiguration configuration;
     private final V3JobOperations v3JobOperations;
     private final Client client;
     private final Map<String, String> taskDocumentContext;
     private final TitusRuntime titusRuntime;
+    private final Clock clock;
     private final ObjectMapper objectMapper;
     private final SimpleDateFormat indexDateFormat;
     private final SimpleDateFormat taskDateFormat;
+    private final Scheduler.Worker worker;
+
+    private final ConcurrentMap<String, TaskDocumentSpool> spools = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlightBulks = new AtomicInteger();
+    private volatile String currentIndexName;
+    private volatile int bulkSize;
+
+    private final Counter droppedCounter;
+    private final Counter coalescedCounter;
+    private final Counter indexedCounter;
+    private final Counter failedCounter;
+    private final Counter outdatedCounter;
+    private final Timer bulkLatencyTimer;
+    private final Gauge spoolDepthGauge;
+    private final Gauge inFlightBulksGauge;
+    private final Gauge bulkSizeGauge;
+    private final Gauge indexingLagGauge;
+
+    private Subscription eventSubscription;
 
     @Inject
     public ElasticsearchTaskDocumentPublisher(ElasticsearchConfiguration configuration,
@@ -73,11 +131,23 @@ public class ElasticsearchTaskDocumentPublisher {
                                               Client client,
                                               @Named(TASK_DOCUMENT_CONTEXT) Map<String, String> taskDocumentContext,
                                               TitusRuntime titusRuntime) {
+        this(configuration, v3JobOperations, client, taskDocumentContext, titusRuntime, Schedulers.computation());
+    }
+
+    @VisibleForTesting
+    ElasticsearchTaskDocumentPublisher(ElasticsearchConfiguration configuration,
+                                       V3JobOperations v3JobOperations,
+                                       Client client,
+                                       Map<String, String> taskDocumentContext,
+                                       TitusRuntime titusRuntime,
+                                       Scheduler scheduler) {
         this.configuration = configuration;
         this.v3JobOperations = v3JobOperations;
         this.client = client;
         this.taskDocumentContext = taskDocumentContext;
         this.titusRuntime = titusRuntime;
+        this.clock = titusRuntime.getClock();
+        this.worker = scheduler.createWorker();
 
         this.objectMapper = new ObjectMapper();
         objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
@@ -85,88 +155,308 @@ public class ElasticsearchTaskDocumentPublisher {
         this.indexDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
         this.taskDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
         this.taskDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        this.bulkSize = clampBulkSize(INITIAL_BULK_SIZE);
+
+        Registry registry = titusRuntime.getRegistry();
+        this.droppedCounter = registry.counter(METRIC_ROOT + "dropped");
+        this.coalescedCounter = registry.counter(METRIC_ROOT + "coalesced");
+        this.indexedCounter = registry.counter(METRIC_ROOT + "indexed");
+        this.failedCounter = registry.counter(METRIC_ROOT + "failed");
+        this.outdatedCounter = registry.counter(METRIC_ROOT + "outdated");
+        this.bulkLatencyTimer = registry.timer(METRIC_ROOT + "bulkLatency");
+        this.spoolDepthGauge = registry.gauge(METRIC_ROOT + "spoolDepth");
+        this.inFlightBulksGauge = registry.gauge(METRIC_ROOT + "inFlightBulks");
+        this.bulkSizeGauge = registry.gauge(METRIC_ROOT + "bulkSize");
+        this.indexingLagGauge = registry.gauge(METRIC_ROOT + "indexingLagMs");
     }
 
     @Activator
     public void enterActiveMode() {
+        restoreSpools();
+
         logger.info("Starting the task streams to publish task documents to elasticsearch");
-        v3TasksStream().buffer(TIME_TO_BUFFER_MS, TimeUnit.MILLISECONDS, COUNT_TO_BUFFER)
-                .observeOn(Schedulers.io())
+        // Documents are spooled outside of the job manager event loop. If spooling cannot keep up, the new events
+        // are dropped, instead of being buffered without a limit.
+        this.eventSubscription = v3TasksStream()
+                .onBackpressureDrop(taskDocument -> droppedCounter.increment())
+                .observeOn(Schedulers.io(), EVENT_BUFFER_SIZE)
                 .subscribe(
-                        this::publishTaskDocuments,
+                        this::spool,
                         e -> logger.error("Unable to publish task documents to elasticsearch: ", e),
                         () -> logger.info("Finished publishing task documents to elasticsearch")
                 );
+
+        long flushIntervalMs = Math.max(1, configuration.getFlushIntervalMs());
+        worker.schedulePeriodically(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
     }
 
-    private Observable<TaskDocument> v3TasksStream() {
-        Observable<Optional<TaskDocument>> optionalTaskDocuments = v3JobOperations.observeJobs()
+    @PreDestroy
+    public void shutdown() {
+        ObservableExt.safeUnsubscribe(eventSubscription);
+        worker.unsubscribe();
+        spools.values().forEach(spool -> spool.close(false));
+    }
+
+    private Observable<Pair<TaskDocument, Long>> v3TasksStream() {
+        Observable<Optional<Pair<TaskDocument, Long>>> optionalTaskDocuments = v3JobOperations.observeJobs()
                 .filter(event -> event instanceof TaskUpdateEvent)
                 .cast(TaskUpdateEvent.class)
                 .map(event -> {
                     Task task = event.getCurrentTask();
                     Job<?> job = event.getCurrentJob();
                     TaskDocument taskDocument = TaskDocument.fromV3Task(task, job, taskDateFormat, taskDocumentContext);
-                    return Optional.of(taskDocument);
+                    return Optional.of(Pair.of(taskDocument, task.getStatus().getTimestamp()));
                 });
         return titusRuntime.persistentStream(ObservableExt.fromOptionalObservable(optionalTaskDocuments));
     }
 
-    private void publishTaskDocuments(List<TaskDocument> taskDocuments) {
-        if (configuration.isEnabled() && !taskDocuments.isEmpty()) {
-            Map<String, String> documentsToIndex = new HashMap<>();
-            for (TaskDocument taskDocument : taskDocuments) {
-                String documentId = taskDocument.getInstanceId();
-                try {
-                    String documentAsJson = objectMapper.writeValueAsString(taskDocument);
-                    documentsToIndex.put(documentId, documentAsJson);
-                } catch (Exception e) {
-                    logger.warn("Unable to convert document with id: {} to json with error: ", documentId, e);
+    private void spool(Pair<TaskDocument, Long> taskDocumentAndVersion) {
+        if (!configuration.isEnabled()) {
+            return;
+        }
+        TaskDocument taskDocument = taskDocumentAndVersion.getLeft();
+        String documentId = taskDocument.getInstanceId();
+        String documentJson;
+        try {
+            documentJson = objectMapper.writeValueAsString(taskDocument);
+        } catch (Exception e) {
+            logger.warn("Unable to convert document with id: {} to json with error: ", documentId, e);
+            return;
+        }
+        String indexName = getEsIndexName();
+        this.currentIndexName = indexName;
+        spools.computeIfAbsent(indexName, this::newSpool).add(documentId, documentJson, taskDocumentAndVersion.getRight(), clock.wallTime());
+    }
+
+    /**
+     * Loads the documents left in the spool files by the previous run. Files older than the configured maximum age
+     * are deleted instead.
+     */
+    private void restoreSpools() {
+        if (StringExt.isEmpty(configuration.getSpoolDirectory())) {
+            return;
+        }
+        Path spoolDirectory = Paths.get(configuration.getSpoolDirectory());
+        if (!Files.isDirectory(spoolDirectory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDirectory, "*" + SPOOL_FILE_SUFFIX)) {
+            long minModificationTime = clock.wallTime() - configuration.getSpoolMaxAgeMs();
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < minModificationTime) {
+                    logger.warn("Deleting the spool file {}, which is older than {}ms", file, configuration.getSpoolMaxAgeMs());
+                    Files.deleteIfExists(file);
+                    continue;
                 }
+                String fileName = file.getFileName().toString();
+                String indexName = fileName.substring(0, fileName.length() - SPOOL_FILE_SUFFIX.length());
+                spools.computeIfAbsent(indexName, this::newSpool);
             }
+        } catch (IOException e) {
+            logger.warn("Cannot read the spool directory {}", spoolDirectory, e);
+        }
+    }
 
-            if (!documentsToIndex.isEmpty()) {
-                logger.info("Attempting to index {} task documents to elasticsearch", documentsToIndex.size());
-                BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
-                for (Map.Entry<String, String> entry : documentsToIndex.entrySet()) {
-                    String documentId = entry.getKey();
-                    String documentJson = entry.getValue();
-                    IndexRequestBuilder indexRequestBuilder = client.prepareIndex(getEsIndexName(), DEFAULT_DOC_TYPE, documentId)
-                            .setSource(documentJson);
-                    bulkRequestBuilder.add(indexRequestBuilder);
-                    logger.debug("Indexing task document with id: {} and json: {}", documentId, documentJson);
-                }
+    private TaskDocumentSpool newSpool(String indexName) {
+        Optional<TaskDocumentSpoolSegment> segment = Optional.empty();
+        Map<String, SpooledDocument> recovered = new LinkedHashMap<>();
+        if (StringExt.isNotEmpty(configuration.getSpoolDirectory())) {
+            Path file = Paths.get(configuration.getSpoolDirectory(), indexName + SPOOL_FILE_SUFFIX);
+            try {
+                segment = Optional.of(TaskDocumentSpoolSegment.open(file, configuration.getSpoolSegmentSizeBytes(), clock.wallTime(), recovered));
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Cannot open the spool file {}; task documents of index {} are kept in memory only", file, indexName, e);
+            }
+        }
 
-                bulkRequestBuilder.execute(new ActionListener<BulkResponse>() {
-                    @Override
-                    public void onResponse(BulkResponse bulkItemResponses) {
-                        BulkItemResponse[] items = bulkItemResponses.getItems();
-                        if (items != null) {
-                            int successCount = 0;
-                            for (BulkItemResponse bulkItemResponse : items) {
-                                if (!bulkItemResponse.isFailed()) {
-                                    String documentJson = documentsToIndex.get(bulkItemResponse.getId());
-                                    logger.debug("Successfully indexed task document with id: {} and json: {}", bulkItemResponse.getId(), documentJson);
-                                    successCount++;
-                                }
-                            }
-                            logger.info("Successfully indexed {} out of {} task documents", successCount, items.length);
-                        }
-                        if (bulkItemResponses.hasFailures()) {
-                            logger.error(bulkItemResponses.buildFailureMessage());
+        TaskDocumentSpool spool = new TaskDocumentSpool(indexName, configuration.getSpoolMaxDocuments(), segment, droppedCounter, coalescedCounter);
+        if (!recovered.isEmpty()) {
+            logger.info("Recovered {} task documents of index {} from the spool file", recovered.size(), indexName);
+            spool.restore(recovered);
+        }
+        return spool;
+    }
+
+    /**
+     * Sends the spooled documents, as long as the number of concurrent bulk requests is below the limit. Called only
+     * from the worker, so the check and increment of the in-flight bulk counter do not race with each other.
+     */
+    private void flush() {
+        try {
+            if (configuration.isEnabled()) {
+                int maxConcurrentBulks = Math.max(1, configuration.getMaxConcurrentBulks());
+                for (TaskDocumentSpool spool : spools.values()) {
+                    while (inFlightBulks.get() < maxConcurrentBulks) {
+                        List<SpooledDocument> documents = spool.take(bulkSize);
+                        if (documents.isEmpty()) {
+                            break;
                         }
+                        sendBulk(spool, documents);
                     }
+                }
+            }
+            removeDrainedSpools();
+            updateGauges();
+        } catch (Exception e) {
+            logger.warn("Unexpected error when flushing the task document spool", e);
+        }
+    }
+
+    private void sendBulk(TaskDocumentSpool spool, List<SpooledDocument> documents) {
+        BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+        for (SpooledDocument document : documents) {
+            bulkRequestBuilder.add(client.prepareIndex(spool.getIndexName(), DEFAULT_DOC_TYPE, document.getDocumentId())
+                    .setVersion(document.getVersion())
+                    .setVersionType(VersionType.EXTERNAL_GTE)
+                    .setSource(document.getDocumentJson()));
+        }
+
+        logger.debug("Attempting to index {} task documents to elasticsearch index {}", documents.size(), spool.getIndexName());
+        inFlightBulks.incrementAndGet();
+        long startTime = clock.wallTime();
+        try {
+            bulkRequestBuilder.execute(new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(BulkResponse bulkItemResponses) {
+                    onBulkResponse(spool, documents, bulkItemResponses, clock.wallTime() - startTime);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    logger.error("Error in indexing task documents with error: ", e);
+                    spool.retry(documents);
+                    failedCounter.increment(documents.size());
+                    onBulkCompleted(clock.wallTime() - startTime, true);
+                }
+            });
+        } catch (Exception e) {
+            logger.error("Cannot send the bulk request with task documents: ", e);
+            spool.retry(documents);
+            failedCounter.increment(documents.size());
+            onBulkCompleted(clock.wallTime() - startTime, true);
+        }
+    }
 
-                    @Override
-                    public void onFailure(Throwable e) {
-                        logger.error("Error in indexing task documents with error: ", e);
+    private void onBulkResponse(TaskDocumentSpool spool, List<SpooledDocument> documents, BulkResponse bulkItemResponses, long latencyMs) {
+        Set<String> retryableIds = new HashSet<>();
+        Set<String> rejectedIds = new HashSet<>();
+        Set<String> outdatedIds = new HashSet<>();
+        if (bulkItemResponses.hasFailures()) {
+            for (BulkItemResponse item : bulkItemResponses.getItems()) {
+                if (item.isFailed()) {
+                    RestStatus status = item.getFailure().getStatus();
+                    if (status == RestStatus.CONFLICT) {
+                        // A newer version of the document is already indexed.
+                        outdatedIds.add(item.getId());
+                    } else if (isRetryable(status)) {
+                        retryableIds.add(item.getId());
+                    } else {
+                        rejectedIds.add(item.getId());
                     }
-                });
+                }
+            }
+        }
+
+        List<SpooledDocument> completed = new ArrayList<>(documents.size());
+        List<SpooledDocument> toRetry = new ArrayList<>(retryableIds.size());
+        for (SpooledDocument document : documents) {
+            if (retryableIds.contains(document.getDocumentId())) {
+                toRetry.add(document);
+            } else {
+                completed.add(document);
             }
         }
+
+        // Documents rejected for reasons other than the cluster load would be rejected again, so they are not retried.
+        spool.acknowledge(completed);
+        spool.retry(toRetry);
+
+        if (!retryableIds.isEmpty() || !rejectedIds.isEmpty()) {
+            logger.error(bulkItemResponses.buildFailureMessage());
+        }
+
+        int indexedCount = completed.size() - rejectedIds.size() - outdatedIds.size();
+        indexedCounter.increment(indexedCount);
+        outdatedCounter.increment(outdatedIds.size());
+        failedCounter.increment(toRetry.size() + rejectedIds.size());
+        logger.info("Successfully indexed {} out of {} task documents", indexedCount, documents.size());
+
+        onBulkCompleted(latencyMs, !toRetry.isEmpty());
+    }
+
+    private void onBulkCompleted(long latencyMs, boolean overloaded) {
+        bulkLatencyTimer.record(latencyMs, TimeUnit.MILLISECONDS);
+        this.bulkSize = nextBulkSize(
+                bulkSize,
+                latencyMs,
+                overloaded,
+                configuration.getBulkTargetLatencyMs(),
+                configuration.getBulkMinSize(),
+                configuration.getBulkMaxSize()
+        );
+        inFlightBulks.decrementAndGet();
+
+        // Keep draining the spool while Elasticsearch keeps up. After a failure, wait for the next flush interval.
+        if (!overloaded) {
+            worker.schedule(this::flush);
+        }
+    }
+
+    private void removeDrainedSpools() {
+        spools.forEach((indexName, spool) -> {
+            if (!indexName.equals(currentIndexName) && spool.isEmpty() && spools.remove(indexName, spool)) {
+                spool.close(true);
+            }
+        });
+    }
+
+    private void updateGauges() {
+        long depth = 0;
+        long oldestTimestamp = Long.MAX_VALUE;
+        for (TaskDocumentSpool spool : spools.values()) {
+            depth += spool.getDepth();
+            Optional<Long> spoolOldest = spool.getOldestTimestamp();
+            if (spoolOldest.isPresent()) {
+                oldestTimestamp = Math.min(oldestTimestamp, spoolOldest.get());
+            }
+        }
+        spoolDepthGauge.set(depth);
+        inFlightBulksGauge.set(inFlightBulks.get());
+        bulkSizeGauge.set(bulkSize);
+        indexingLagGauge.set(oldestTimestamp == Long.MAX_VALUE ? 0 : Math.max(0, clock.wallTime() - oldestTimestamp));
+    }
+
+    private static boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE;
+    }
+
+    private int clampBulkSize(int size) {
+        return clamp(size, configuration.getBulkMinSize(), configuration.getBulkMaxSize());
     }
 
     private String getEsIndexName() {
         return configuration.getTaskDocumentEsIndexName() + indexDateFormat.format(new Date());
     }
+
+    /**
+     * Computes the size of the next bulk request. It is halved when the last request failed under load, or took longer
+     * than the target latency, and grows by 10% when the request completed in less than half of the target latency.
+     */
+    @VisibleForTesting
+    static int nextBulkSize(int currentSize, long latencyMs, boolean overloaded, long targetLatencyMs, int minSize, int maxSize) {
+        int nextSize;
+        if (overloaded || latencyMs > targetLatencyMs) {
+            nextSize = currentSize / 2;
+        } else if (latencyMs < targetLatencyMs / 2) {
+            nextSize = currentSize + Math.max(1, currentSize / 10);
+        } else {
+            nextSize = currentSize;
+        }
+        return clamp(nextSize, minSize, maxSize);
+    }
+
+    private static int clamp(int size, int minSize, int maxSize) {
+        int min = Math.max(1, minSize);
+        return Math.max(min, Math.min(Math.max(min, maxSize), size));
+    }
 }
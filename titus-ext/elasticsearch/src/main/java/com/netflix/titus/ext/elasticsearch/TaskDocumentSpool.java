@@ -0,0 +1,268 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.ext.elasticsearch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.netflix.spectator.api.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Task documents waiting to be indexed in a single Elasticsearch index. A task changes state many times in a short
+ * period, so only the latest document of each task is kept. The number of documents is bounded; when the spool
+ * is full, the oldest pending documents are dropped. If a segment file is provided, each document is also written
+ * to it, so the spool content can be recovered after a restart.
+ * <p>
+ * Documents taken for indexing stay in the spool until their bulk request completes. Failed documents are put back,
+ * unless a newer version of the same document was added in the meantime. Each document carries the version under
+ * which it is indexed, so a document replayed from the segment file does not replace a newer one already indexed.
+ * All methods are synchronized, as the
+ * spool is accessed both from the event stream, and from the bulk response callbacks.
+ */
+class TaskDocumentSpool {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskDocumentSpool.class);
+
+    /**
+     * Fraction of the segment size, to which the spool content is reduced, when it does not fit into the segment.
+     */
+    private static final double SEGMENT_LOW_WATER_MARK = 0.75;
+
+    private final String indexName;
+    private final int maxDocuments;
+    private final Optional<TaskDocumentSpoolSegment> segment;
+
+    private final LinkedHashMap<String, SpooledDocument> pending = new LinkedHashMap<>();
+    private final Map<String, SpooledDocument> inFlight = new HashMap<>();
+
+    private final Counter droppedCounter;
+    private final Counter coalescedCounter;
+
+    TaskDocumentSpool(String indexName,
+                      int maxDocuments,
+                      Optional<TaskDocumentSpoolSegment> segment,
+                      Counter droppedCounter,
+                      Counter coalescedCounter) {
+        this.indexName = indexName;
+        this.maxDocuments = Math.max(1, maxDocuments);
+        this.segment = segment;
+        this.droppedCounter = droppedCounter;
+        this.coalescedCounter = coalescedCounter;
+    }
+
+    String getIndexName() {
+        return indexName;
+    }
+
+    /**
+     * Adds a document. If a document with the same id is already pending, it is replaced, but keeps its position
+     * in the queue, and its original timestamp.
+     */
+    synchronized void add(String documentId, String documentJson, long version, long timestamp) {
+        SpooledDocument previous = pending.get(documentId);
+        if (previous != null) {
+            pending.put(documentId, new SpooledDocument(documentId, documentJson, version, previous.getTimestamp()));
+            coalescedCounter.increment();
+        } else {
+            while (pending.size() + inFlight.size() >= maxDocuments && !pending.isEmpty()) {
+                dropOldest();
+            }
+            pending.put(documentId, new SpooledDocument(documentId, documentJson, version, timestamp));
+        }
+        segment.ifPresent(s -> appendToSegment(s, documentId, version, documentJson));
+    }
+
+    /**
+     * Adds documents recovered from the segment file. They are already in the file, so are not written again.
+     */
+    synchronized void restore(Map<String, SpooledDocument> documents) {
+        documents.forEach((documentId, document) -> {
+            if (pending.size() + inFlight.size() >= maxDocuments) {
+                droppedCounter.increment();
+            } else {
+                pending.put(documentId, document);
+            }
+        });
+    }
+
+    /**
+     * Takes up to the given number of the oldest pending documents for indexing.
+     */
+    synchronized List<SpooledDocument> take(int maxCount) {
+        List<SpooledDocument> taken = new ArrayList<>(Math.min(maxCount, pending.size()));
+        Iterator<SpooledDocument> it = pending.values().iterator();
+        while (it.hasNext() && taken.size() < maxCount) {
+            SpooledDocument document = it.next();
+            it.remove();
+            inFlight.put(document.getDocumentId(), document);
+            taken.add(document);
+        }
+        return taken;
+    }
+
+    /**
+     * Removes documents which were indexed.
+     */
+    synchronized void acknowledge(List<SpooledDocument> documents) {
+        documents.forEach(document -> inFlight.remove(document.getDocumentId(), document));
+        if (isEmpty()) {
+            segment.ifPresent(TaskDocumentSpoolSegment::reset);
+        }
+    }
+
+    /**
+     * Puts back documents, which could not be indexed. They are still in the segment file, so are not written again.
+     */
+    synchronized void retry(List<SpooledDocument> documents) {
+        documents.forEach(document -> {
+            if (inFlight.remove(document.getDocumentId(), document)) {
+                pending.putIfAbsent(document.getDocumentId(), document);
+            }
+        });
+    }
+
+    synchronized boolean isEmpty() {
+        return pending.isEmpty() && inFlight.isEmpty();
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    synchronized int getDepth() {
+        return pending.size() + inFlight.size();
+    }
+
+    /**
+     * Returns the timestamp of the oldest document, which is not indexed yet.
+     */
+    synchronized Optional<Long> getOldestTimestamp() {
+        // Documents put back after a failed bulk request are behind newer ones, so all of them are checked.
+        long oldest = Long.MAX_VALUE;
+        for (SpooledDocument document : pending.values()) {
+            oldest = Math.min(oldest, document.getTimestamp());
+        }
+        for (SpooledDocument document : inFlight.values()) {
+            oldest = Math.min(oldest, document.getTimestamp());
+        }
+        return oldest == Long.MAX_VALUE ? Optional.empty() : Optional.of(oldest);
+    }
+
+    synchronized void close(boolean deleteSegment) {
+        segment.ifPresent(s -> {
+            if (deleteSegment) {
+                s.delete();
+            } else {
+                s.close();
+            }
+        });
+    }
+
+    /**
+     * When the segment file is full, it is rewritten with the documents that are still in the spool. If the documents
+     * do not fit even then, the oldest ones are dropped at once, until the remaining ones fill the segment up to its
+     * low-water mark, so the segment is rewritten once, and not after each dropped document.
+     */
+    private void appendToSegment(TaskDocumentSpoolSegment s, String documentId, long version, String documentJson) {
+        if (s.append(documentId, version, documentJson) || rewriteSegment(s)) {
+            return;
+        }
+
+        long lowWaterMark = (long) (s.getSizeBytes() * SEGMENT_LOW_WATER_MARK);
+        long totalBytes = 0;
+        for (SpooledDocument document : inFlight.values()) {
+            totalBytes += TaskDocumentSpoolSegment.recordSize(document.getDocumentId(), document.getDocumentJson());
+        }
+        for (SpooledDocument document : pending.values()) {
+            totalBytes += TaskDocumentSpoolSegment.recordSize(document.getDocumentId(), document.getDocumentJson());
+        }
+        Iterator<SpooledDocument> it = pending.values().iterator();
+        while (totalBytes > lowWaterMark && it.hasNext()) {
+            SpooledDocument document = it.next();
+            totalBytes -= TaskDocumentSpoolSegment.recordSize(document.getDocumentId(), document.getDocumentJson());
+            it.remove();
+            droppedCounter.increment();
+        }
+
+        if (!rewriteSegment(s)) {
+            logger.warn("Task document {} does not fit into the spool segment file {}", documentId, s.getFile());
+        }
+    }
+
+    private boolean rewriteSegment(TaskDocumentSpoolSegment s) {
+        s.reset();
+        for (SpooledDocument document : inFlight.values()) {
+            if (!s.append(document.getDocumentId(), document.getVersion(), document.getDocumentJson())) {
+                return false;
+            }
+        }
+        for (SpooledDocument document : pending.values()) {
+            if (!s.append(document.getDocumentId(), document.getVersion(), document.getDocumentJson())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void dropOldest() {
+        Iterator<SpooledDocument> it = pending.values().iterator();
+        it.next();
+        it.remove();
+        droppedCounter.increment();
+    }
+
+    static class SpooledDocument {
+
+        private final String documentId;
+        private final String documentJson;
+        private final long version;
+        private final long timestamp;
+
+        SpooledDocument(String documentId, String documentJson, long version, long timestamp) {
+            this.documentId = documentId;
+            this.documentJson = documentJson;
+            this.version = version;
+            this.timestamp = timestamp;
+        }
+
+        String getDocumentId() {
+            return documentId;
+        }
+
+        String getDocumentJson() {
+            return documentJson;
+        }
+
+        /**
+         * Version under which the document is indexed, which is the timestamp of the task status.
+         */
+        long getVersion() {
+            return version;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
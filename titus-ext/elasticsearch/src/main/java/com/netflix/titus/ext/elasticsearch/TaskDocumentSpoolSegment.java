@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.ext.elasticsearch;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.netflix.titus.ext.elasticsearch.TaskDocumentSpool.SpooledDocument;
+
+/**
+ * A fixed size, memory mapped file, to which task documents are appended before they are indexed. The file starts
+ * with a format marker, followed by the records. Each record is a length prefixed document id, the document version,
+ * and a length prefixed document JSON. The last record is always followed by a zero length marker, so the records
+ * can be read back after a restart, even if the file was reset and partially overwritten. A file without the format
+ * marker is discarded. The file content is written back to the disk by the operating system, so the spooled
+ * documents survive a process crash, but not a crash of the host itself.
+ */
+class TaskDocumentSpoolSegment {
+
+    private static final int FORMAT_MARKER = 0x54445332;
+
+    private static final int HEADER_SIZE = 4;
+    private static final int LENGTH_SIZE = 4;
+    private static final int VERSION_SIZE = 8;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private int position;
+
+    private TaskDocumentSpoolSegment(Path file, FileChannel channel, MappedByteBuffer buffer) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    int getUsedBytes() {
+        return position;
+    }
+
+    int getSizeBytes() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Appends a document to the segment.
+     *
+     * @return false if there is not enough space left in the segment
+     */
+    boolean append(String documentId, long version, String documentJson) {
+        byte[] idBytes = documentId.getBytes(StandardCharsets.UTF_8);
+        byte[] jsonBytes = documentJson.getBytes(StandardCharsets.UTF_8);
+        int recordSize = 2 * LENGTH_SIZE + VERSION_SIZE + idBytes.length + jsonBytes.length;
+        if (idBytes.length == 0 || position + recordSize + LENGTH_SIZE > buffer.capacity()) {
+            return false;
+        }
+
+        // The end marker is written first, so the previous records remain readable until the new one is complete.
+        buffer.putInt(position + recordSize, 0);
+        buffer.position(position + LENGTH_SIZE);
+        buffer.put(idBytes);
+        buffer.putLong(version);
+        buffer.putInt(jsonBytes.length);
+        buffer.put(jsonBytes);
+        buffer.putInt(position, idBytes.length);
+        position += recordSize;
+        return true;
+    }
+
+    /**
+     * Discards all records.
+     */
+    void reset() {
+        buffer.putInt(HEADER_SIZE, 0);
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * Returns the number of bytes taken by a document record in the segment.
+     */
+    static int recordSize(String documentId, String documentJson) {
+        return 2 * LENGTH_SIZE + VERSION_SIZE
+                + documentId.getBytes(StandardCharsets.UTF_8).length
+                + documentJson.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    void delete() {
+        close();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * Opens an existing segment file, or creates a new one.
+     *
+     * @param recovered receives the documents found in an existing file, with the latest version of each document,
+     *                  and the given timestamp
+     */
+    static TaskDocumentSpoolSegment open(Path file, int sizeBytes, long timestamp, Map<String, SpooledDocument> recovered) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            int size = (int) Math.max(sizeBytes, Math.min(Integer.MAX_VALUE, channel.size()));
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            TaskDocumentSpoolSegment segment = new TaskDocumentSpoolSegment(file, channel, buffer);
+            if (buffer.getInt(0) == FORMAT_MARKER) {
+                segment.readAll(timestamp, recovered);
+            } else {
+                buffer.putInt(0, FORMAT_MARKER);
+                segment.reset();
+            }
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads all records up to the end marker, or up to the first record that is not valid.
+     */
+    private void readAll(long timestamp, Map<String, SpooledDocument> recovered) {
+        Map<String, SpooledDocument> documents = new LinkedHashMap<>();
+        int offset = HEADER_SIZE;
+        while (offset + LENGTH_SIZE <= buffer.capacity()) {
+            int idLength = buffer.getInt(offset);
+            if (idLength <= 0 || offset + 2 * LENGTH_SIZE + VERSION_SIZE + idLength > buffer.capacity()) {
+                break;
+            }
+            long version = buffer.getLong(offset + LENGTH_SIZE + idLength);
+            int jsonLength = buffer.getInt(offset + LENGTH_SIZE + idLength + VERSION_SIZE);
+            int recordSize = 2 * LENGTH_SIZE + VERSION_SIZE + idLength + jsonLength;
+            if (jsonLength < 0 || offset + recordSize + LENGTH_SIZE > buffer.capacity()) {
+                break;
+            }
+            String documentId = readString(offset + LENGTH_SIZE, idLength);
+            String documentJson = readString(offset + 2 * LENGTH_SIZE + VERSION_SIZE + idLength, jsonLength);
+            documents.remove(documentId);
+            documents.put(documentId, new SpooledDocument(documentId, documentJson, version, timestamp));
+            offset += recordSize;
+        }
+        this.position = offset;
+        recovered.putAll(documents);
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.position(offset);
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
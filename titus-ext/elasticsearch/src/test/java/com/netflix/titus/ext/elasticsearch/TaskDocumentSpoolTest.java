@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.ext.elasticsearch;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import com.netflix.spectator.api.DefaultRegistry;
+import com.netflix.spectator.api.Registry;
+import com.netflix.titus.ext.elasticsearch.TaskDocumentSpool.SpooledDocument;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TaskDocumentSpoolTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Registry registry = new DefaultRegistry();
+
+    @Test
+    public void testUpdatesOfSameTaskAreCoalesced() {
+        TaskDocumentSpool spool = newSpool(10, Optional.empty());
+        spool.add("task1", "{\"state\":\"Launched\"}", 1, 1);
+        spool.add("task2", "{\"state\":\"Launched\"}", 2, 2);
+        spool.add("task1", "{\"state\":\"Started\"}", 3, 3);
+
+        List<SpooledDocument> taken = spool.take(10);
+        assertThat(taken.stream().map(SpooledDocument::getDocumentId).collect(Collectors.toList())).containsExactly("task1", "task2");
+        assertThat(taken.get(0).getDocumentJson()).isEqualTo("{\"state\":\"Started\"}");
+        assertThat(taken.get(0).getTimestamp()).isEqualTo(1);
+        assertThat(registry.counter("coalesced").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testOldestDocumentsAreDroppedWhenFull() {
+        TaskDocumentSpool spool = newSpool(2, Optional.empty());
+        spool.add("task1", "{}", 1, 1);
+        spool.add("task2", "{}", 2, 2);
+        spool.add("task3", "{}", 3, 3);
+
+        assertThat(spool.getDepth()).isEqualTo(2);
+        assertThat(spool.getOldestTimestamp()).contains(2L);
+        assertThat(registry.counter("dropped").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFailedDocumentsAreRetriedUnlessUpdated() {
+        TaskDocumentSpool spool = newSpool(10, Optional.empty());
+        spool.add("task1", "{\"version\":1}", 1, 1);
+        spool.add("task2", "{\"version\":1}", 2, 2);
+        List<SpooledDocument> taken = spool.take(10);
+
+        spool.add("task1", "{\"version\":2}", 3, 3);
+        spool.retry(taken);
+
+        Map<String, String> pending = spool.take(10).stream()
+                .collect(Collectors.toMap(SpooledDocument::getDocumentId, SpooledDocument::getDocumentJson));
+        assertThat(pending).containsEntry("task1", "{\"version\":2}").containsEntry("task2", "{\"version\":1}").hasSize(2);
+    }
+
+    @Test
+    public void testSegmentRecovery() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("spool").resolve("tasks.spool");
+
+        TaskDocumentSpool spool = newSpool(10, Optional.of(TaskDocumentSpoolSegment.open(file, 4096, 0, new LinkedHashMap<>())));
+        spool.add("task1", "{\"version\":1}", 1, 1);
+        spool.add("task2", "{\"version\":1}", 2, 2);
+        spool.add("task1", "{\"version\":2}", 3, 3);
+        spool.close(false);
+
+        Map<String, SpooledDocument> recovered = new LinkedHashMap<>();
+        TaskDocumentSpoolSegment segment = TaskDocumentSpoolSegment.open(file, 4096, 4, recovered);
+        assertThat(recovered).containsOnlyKeys("task1", "task2");
+        assertThat(recovered.get("task1").getDocumentJson()).isEqualTo("{\"version\":2}");
+        assertThat(recovered.get("task1").getVersion()).isEqualTo(3);
+        assertThat(recovered.get("task1").getTimestamp()).isEqualTo(4);
+        assertThat(recovered.get("task2").getDocumentJson()).isEqualTo("{\"version\":1}");
+        assertThat(recovered.get("task2").getVersion()).isEqualTo(2);
+
+        // Once all documents are indexed, the segment is reset, and nothing is recovered from it.
+        TaskDocumentSpool restored = newSpool(10, Optional.of(segment));
+        restored.restore(recovered);
+        restored.acknowledge(restored.take(10));
+        restored.close(false);
+
+        Map<String, SpooledDocument> recoveredAfterReset = new LinkedHashMap<>();
+        TaskDocumentSpoolSegment.open(file, 4096, 5, recoveredAfterReset).close();
+        assertThat(recoveredAfterReset).isEmpty();
+    }
+
+    @Test
+    public void testFullSegmentIsRewrittenWithRemainingDocuments() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("tasks.spool");
+        TaskDocumentSpoolSegment segment = TaskDocumentSpoolSegment.open(file, 256, 0, new LinkedHashMap<>());
+        TaskDocumentSpool spool = newSpool(100, Optional.of(segment));
+
+        // The same document is updated many times, so the segment fills up, but the spool holds a single document.
+        for (int i = 0; i < 100; i++) {
+            spool.add("task1", "{\"version\":" + i + '}', i, i);
+        }
+        assertThat(segment.getUsedBytes()).isLessThan(segment.getSizeBytes());
+        spool.close(false);
+
+        Map<String, SpooledDocument> recovered = new LinkedHashMap<>();
+        TaskDocumentSpoolSegment.open(file, 256, 0, recovered).close();
+        assertThat(recovered).containsOnlyKeys("task1");
+        assertThat(recovered.get("task1").getDocumentJson()).isEqualTo("{\"version\":99}");
+        assertThat(recovered.get("task1").getVersion()).isEqualTo(99);
+    }
+
+    @Test
+    public void testOldestDocumentsAreDroppedInBulkWhenSegmentIsFull() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("tasks.spool");
+        TaskDocumentSpoolSegment segment = TaskDocumentSpoolSegment.open(file, 1024, 0, new LinkedHashMap<>());
+        TaskDocumentSpool spool = newSpool(1000, Optional.of(segment));
+
+        String documentJson = "{\"state\":\"Launched\"}";
+        int recordSize = TaskDocumentSpoolSegment.recordSize("task00", documentJson);
+        int fullCount = 0;
+        while (registry.counter("dropped").count() == 0) {
+            spool.add(String.format("task%02d", fullCount), documentJson, fullCount, fullCount);
+            fullCount++;
+        }
+
+        // More than one document is dropped at once, down to the low-water mark of the segment size.
+        assertThat(registry.counter("dropped").count()).isGreaterThan(1);
+        assertThat(spool.getDepth() * recordSize).isLessThanOrEqualTo((int) (segment.getSizeBytes() * 0.75));
+        assertThat(spool.take(1000).stream().map(SpooledDocument::getDocumentId)).contains(String.format("task%02d", fullCount - 1));
+    }
+
+    @Test
+    public void testSegmentInOtherFormatIsDiscarded() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("tasks.spool");
+        Files.write(file, new byte[]{0, 0, 0, 5, 't', 'a', 's', 'k', '1', 0, 0, 0, 2, '{', '}', 0, 0, 0, 0});
+
+        Map<String, SpooledDocument> recovered = new LinkedHashMap<>();
+        TaskDocumentSpoolSegment segment = TaskDocumentSpoolSegment.open(file, 256, 0, recovered);
+        assertThat(recovered).isEmpty();
+        assertThat(segment.append("task1", 1, "{}")).isTrue();
+        segment.close();
+
+        TaskDocumentSpoolSegment.open(file, 256, 0, recovered).close();
+        assertThat(recovered).containsOnlyKeys("task1");
+    }
+
+    @Test
+    public void testNextBulkSize() {
+        assertThat(ElasticsearchTaskDocumentPublisher.nextBulkSize(1000, 100, false, 2000, 100, 5000)).isEqualTo(1100);
+        assertThat(ElasticsearchTaskDocumentPublisher.nextBulkSize(1000, 1500, false, 2000, 100, 5000)).isEqualTo(1000);
+        assertThat(ElasticsearchTaskDocumentPublisher.nextBulkSize(1000, 2500, false, 2000, 100, 5000)).isEqualTo(500);
+        assertThat(ElasticsearchTaskDocumentPublisher.nextBulkSize(1000, 100, true, 2000, 100, 5000)).isEqualTo(500);
+        assertThat(ElasticsearchTaskDocumentPublisher.nextBulkSize(150, 100, true, 2000, 100, 5000)).isEqualTo(100);
+        assertThat(ElasticsearchTaskDocumentPublisher.nextBulkSize(5000, 100, false, 2000, 100, 5000)).isEqualTo(5000);
+    }
+
+    private TaskDocumentSpool newSpool(int maxDocuments, Optional<TaskDocumentSpoolSegment> segment) {
+        return new TaskDocumentSpool("tasks", maxDocuments, segment, registry.counter("dropped"), registry.counter("coalesced"));
+    }
+}
@@ -18,6 +18,7 @@ package com.netflix.titus.federation.service;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -26,6 +27,7 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import com.netflix.titus.api.federation.model.Cell;
+import com.netflix.titus.api.service.TitusServiceException;
 import com.netflix.titus.common.util.tuple.Either;
 import io.grpc.ManagedChannel;
 import io.grpc.stub.AbstractStub;
@@ -35,6 +37,7 @@ import rx.Observable;
 import static com.netflix.titus.runtime.endpoint.common.grpc.GrpcUtil.createRequestObservable;
 import static com.netflix.titus.runtime.endpoint.common.grpc.GrpcUtil.createSimpleClientResponseObserver;
 import static com.netflix.titus.federation.service.CellConnectorUtil.stubs;
+import static com.netflix.titus.federation.service.CellConnectorUtil.toStub;
 
 @Singleton
 class AggregatingCellClient {
@@ -89,6 +92,21 @@ class AggregatingCellClient {
         return Observable.merge(results);
     }
 
+    /**
+     * Call a service on a single {@link Cell}. Emits {@link TitusServiceException} with
+     * {@link TitusServiceException.ErrorCode#CELL_NOT_FOUND} error code if the cell is no longer configured.
+     */
+    <STUB extends AbstractStub<STUB>, RespT> Observable<CellResponse<STUB, RespT>> callCell(
+            Cell cell,
+            Function<ManagedChannel, STUB> stubFactory,
+            BiConsumer<STUB, StreamObserver<RespT>> fnCall) {
+        Optional<STUB> client = toStub(cell, connector, stubFactory);
+        if (!client.isPresent()) {
+            return Observable.error(TitusServiceException.cellNotFound(cell.getName()));
+        }
+        return callSingleCell(client.get(), fnCall).map(result -> new CellResponse<>(cell, client.get(), result));
+    }
+
     private <STUB extends AbstractStub<STUB>, RespT>
     Observable<RespT> callSingleCell(STUB client, BiConsumer<STUB, StreamObserver<RespT>> fnCall) {
         return createRequestObservable(emitter -> {
@@ -24,6 +24,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -52,9 +53,7 @@ import com.netflix.titus.grpc.protogen.JobProcessesUpdate;
 import com.netflix.titus.grpc.protogen.JobQuery;
 import com.netflix.titus.grpc.protogen.JobQueryResult;
 import com.netflix.titus.grpc.protogen.JobStatusUpdate;
-import com.netflix.titus.grpc.protogen.Pagination;
 import com.netflix.titus.grpc.protogen.Task;
-import com.netflix.titus.grpc.protogen.TaskId;
 import com.netflix.titus.grpc.protogen.TaskKillRequest;
 import com.netflix.titus.grpc.protogen.TaskQuery;
 import com.netflix.titus.grpc.protogen.TaskQueryResult;
@@ -72,8 +71,6 @@ import rx.Observable;
 import static com.netflix.titus.api.jobmanager.JobAttributes.JOB_ATTRIBUTES_STACK;
 import static com.netflix.titus.api.jobmanager.TaskAttributes.TASK_ATTRIBUTES_STACK;
 import static com.netflix.titus.federation.service.CellConnectorUtil.callToCell;
-import static com.netflix.titus.federation.service.PageAggregationUtil.combinePagination;
-import static com.netflix.titus.federation.service.PageAggregationUtil.takeCombinedPage;
 import static com.netflix.titus.runtime.endpoint.common.grpc.CommonGrpcModelConverters.emptyGrpcPagination;
 import static com.netflix.titus.runtime.endpoint.common.grpc.GrpcUtil.createRequestObservable;
 import static com.netflix.titus.runtime.endpoint.common.grpc.GrpcUtil.createWrappedStub;
@@ -93,6 +90,7 @@ public class AggregatingJobManagementClient implements JobManagementClient {
     private AggregatingJobManagementServiceHelper jobManagementServiceHelper;
     private final CellRouter router;
     private final CallMetadataResolver callMetadataResolver;
+    private final CellLocationCache cellLocationCache;
 
     @Inject
     public AggregatingJobManagementClient(GrpcConfiguration grpcConfiguration,
@@ -101,7 +99,8 @@ public class AggregatingJobManagementClient implements JobManagementClient {
                                           CellRouter router,
                                           CallMetadataResolver callMetadataResolver,
                                           AggregatingCellClient aggregatingClient,
-                                          AggregatingJobManagementServiceHelper jobManagementServiceHelper) {
+                                          AggregatingJobManagementServiceHelper jobManagementServiceHelper,
+                                          CellLocationCache cellLocationCache) {
 
         this.grpcConfiguration = grpcConfiguration;
         this.federationConfiguration = federationConfiguration;
@@ -110,6 +109,7 @@ public class AggregatingJobManagementClient implements JobManagementClient {
         this.callMetadataResolver = callMetadataResolver;
         this.aggregatingClient = aggregatingClient;
         this.jobManagementServiceHelper = jobManagementServiceHelper;
+        this.cellLocationCache = cellLocationCache;
     }
 
     @Override
@@ -133,7 +133,7 @@ public class AggregatingJobManagementClient implements JobManagementClient {
                     emitter::onCompleted
             );
             client.createJob(withStackName, streamObserver);
-        }, grpcConfiguration.getRequestTimeoutMs());
+        }, grpcConfiguration.getRequestTimeoutMs()).doOnNext(jobId -> cellLocationCache.putJob(jobId, cell));
     }
 
     @Override
@@ -196,46 +196,31 @@ public class AggregatingJobManagementClient implements JobManagementClient {
     }
 
     private Observable<JobQueryResult> findJobsWithCursorPagination(JobQuery request, Set<String> fields) {
-        return aggregatingClient.call(JobManagementServiceGrpc::newStub, findJobsInCell(request))
-                .map(CellResponse::getResult)
-                .map(this::addStackName)
-                .reduce(this::combineJobResults)
-                .map(combinedResults -> {
-                    Pair<List<Job>, Pagination> combinedPage = takeCombinedPage(
-                            request.getPage(),
-                            combinedResults.getItemsList(),
-                            combinedResults.getPagination(),
-                            JobManagerCursors.jobCursorOrderComparator(),
-                            JobManagerCursors::newCursorFrom
-                    );
-
-                    if (!CollectionsExt.isNullOrEmpty(fields)) {
-                        combinedPage = combinedPage.mapLeft(jobs -> jobs.stream()
-                                .map(job -> ProtobufCopy.copy(job, fields))
-                                .collect(Collectors.toList())
-                        );
-                    }
-
-                    return JobQueryResult.newBuilder()
-                            .addAllItems(combinedPage.getLeft())
-                            .setPagination(combinedPage.getRight())
-                            .build();
-                });
+        return CellPageMerger.mergePages(
+                request.getPage(),
+                connector.getChannels().keySet(),
+                JobManagerCursors.jobCursorOrderComparator(),
+                JobManagerCursors::newCursorFrom,
+                (cell, page) -> aggregatingClient.callCell(cell, JobManagementServiceGrpc::newStub, findJobsInCell(request.toBuilder().setPage(page).build()))
+                        .doOnNext(response -> cellLocationCache.putJobs(response.getResult().getItemsList(), response.getCell()))
+                        .map(response -> Pair.of(response.getResult().getItemsList(), response.getResult().getPagination()))
+        ).map(mergedPage -> {
+            // only the items that made it to the page are decorated
+            List<Job> jobs = mergedPage.getLeft().stream()
+                    .map(this::addStackName)
+                    .map(CollectionsExt.isNullOrEmpty(fields) ? Function.<Job>identity() : ProtobufCopy.<Job>projectionOf(fields))
+                    .collect(Collectors.toList());
+            return JobQueryResult.newBuilder()
+                    .addAllItems(jobs)
+                    .setPagination(mergedPage.getRight())
+                    .build();
+        });
     }
 
     private ClientCall<JobQueryResult> findJobsInCell(JobQuery request) {
         return (client, streamObserver) -> wrap(client).findJobs(request, streamObserver);
     }
 
-    private JobQueryResult combineJobResults(JobQueryResult one, JobQueryResult other) {
-        Pagination pagination = combinePagination(one.getPagination(), other.getPagination());
-        return JobQueryResult.newBuilder()
-                .setPagination(pagination)
-                .addAllItems(one.getItemsList())
-                .addAllItems(other.getItemsList())
-                .build();
-    }
-
     @Override
     public Observable<JobChangeNotification> observeJob(String jobId) {
         JobId request = JobId.newBuilder().setId(jobId).build();
@@ -254,7 +239,9 @@ public class AggregatingJobManagementClient implements JobManagementClient {
                     () -> emitter.onNext(buildJobSnapshotEndMarker())
             );
             clients.forEach((cell, client) -> {
-                StreamObserver<JobChangeNotification> streamObserver = new FilterOutFirstMarker(emitter, markersEmitted);
+                StreamObserver<JobChangeNotification> streamObserver = new FilterOutFirstMarker(emitter, markersEmitted,
+                        notification -> cellLocationCache.putAll(notification, cell)
+                );
                 wrapWithNoDeadline(client).observeJobs(Empty.getDefaultInstance(), streamObserver);
             });
         });
@@ -273,21 +260,7 @@ public class AggregatingJobManagementClient implements JobManagementClient {
 
     @Override
     public Observable<Task> findTask(String taskId) {
-        return findTaskInAllCells(taskId).map(CellResponse::getResult).map(this::addStackName);
-    }
-
-    private Observable<CellResponse<JobManagementServiceStub, Task>> findTaskInAllCells(String taskId) {
-        return aggregatingClient.callExpectingErrors(JobManagementServiceGrpc::newStub, findTaskInCell(taskId))
-                .reduce(ResponseMerger.singleValue())
-                .flatMap(response -> response.getResult()
-                        .map(v -> Observable.just(CellResponse.ofValue(response)))
-                        .onErrorGet(Observable::error)
-                );
-    }
-
-    private ClientCall<Task> findTaskInCell(String taskId) {
-        TaskId id = TaskId.newBuilder().setId(taskId).build();
-        return (client, streamObserver) -> wrap(client).findTask(id, streamObserver);
+        return jobManagementServiceHelper.findTaskInAllCells(taskId).map(CellResponse::getResult).map(this::addStackName);
     }
 
     @Override
@@ -316,65 +289,40 @@ public class AggregatingJobManagementClient implements JobManagementClient {
     }
 
     private Observable<TaskQueryResult> findTasksWithCursorPagination(TaskQuery request, Set<String> fields) {
-        return aggregatingClient.call(JobManagementServiceGrpc::newStub, findTasksInCell(request))
-                .map(CellResponse::getResult)
-                .map(this::addStackName)
-                .reduce(this::combineTaskResults)
-                .map(combinedResults -> {
-                    Pair<List<Task>, Pagination> combinedPage = takeCombinedPage(
-                            request.getPage(),
-                            combinedResults.getItemsList(),
-                            combinedResults.getPagination(),
-                            JobManagerCursors.taskCursorOrderComparator(),
-                            JobManagerCursors::newCursorFrom
-                    );
-
-                    if (!CollectionsExt.isNullOrEmpty(fields)) {
-                        combinedPage = combinedPage.mapLeft(tasks -> tasks.stream()
-                                .map(task -> ProtobufCopy.copy(task, fields))
-                                .collect(Collectors.toList())
-                        );
-                    }
-
-                    return TaskQueryResult.newBuilder()
-                            .addAllItems(combinedPage.getLeft())
-                            .setPagination(combinedPage.getRight())
-                            .build();
-                });
+        return CellPageMerger.mergePages(
+                request.getPage(),
+                connector.getChannels().keySet(),
+                JobManagerCursors.taskCursorOrderComparator(),
+                JobManagerCursors::newCursorFrom,
+                (cell, page) -> aggregatingClient.callCell(cell, JobManagementServiceGrpc::newStub, findTasksInCell(request.toBuilder().setPage(page).build()))
+                        .doOnNext(response -> cellLocationCache.putTasks(response.getResult().getItemsList(), response.getCell()))
+                        .map(response -> Pair.of(response.getResult().getItemsList(), response.getResult().getPagination()))
+        ).map(mergedPage -> {
+            // only the items that made it to the page are decorated
+            List<Task> tasks = mergedPage.getLeft().stream()
+                    .map(this::addStackName)
+                    .map(CollectionsExt.isNullOrEmpty(fields) ? Function.<Task>identity() : ProtobufCopy.<Task>projectionOf(fields))
+                    .collect(Collectors.toList());
+            return TaskQueryResult.newBuilder()
+                    .addAllItems(tasks)
+                    .setPagination(mergedPage.getRight())
+                    .build();
+        });
     }
 
     private ClientCall<TaskQueryResult> findTasksInCell(TaskQuery request) {
         return (client, streamObserver) -> wrap(client).findTasks(request, streamObserver);
     }
 
-    private TaskQueryResult combineTaskResults(TaskQueryResult one, TaskQueryResult other) {
-        Pagination pagination = combinePagination(one.getPagination(), other.getPagination());
-        return TaskQueryResult.newBuilder()
-                .setPagination(pagination)
-                .addAllItems(one.getItemsList())
-                .addAllItems(other.getItemsList())
-                .build();
-    }
-
     @Override
     public Completable killTask(TaskKillRequest request) {
-        Observable<Empty> result = findTaskInAllCells(request.getTaskId())
+        Observable<Empty> result = jobManagementServiceHelper.findTaskInAllCells(request.getTaskId())
                 .flatMap(response -> singleCellCall(response.getCell(),
                         (client, streamObserver) -> client.killTask(request, streamObserver))
                 );
         return result.toCompletable();
     }
 
-    private JobQueryResult addStackName(JobQueryResult result) {
-        List<Job> withStackName = result.getItemsList().stream().map(this::addStackName).collect(Collectors.toList());
-        return result.toBuilder().clearItems().addAllItems(withStackName).build();
-    }
-
-    private TaskQueryResult addStackName(TaskQueryResult result) {
-        List<Task> withStackName = result.getItemsList().stream().map(this::addStackName).collect(Collectors.toList());
-        return result.toBuilder().clearItems().addAllItems(withStackName).build();
-    }
-
     private JobDescriptor addStackName(JobDescriptor jobDescriptor) {
         return jobDescriptor.toBuilder()
                 .putAttributes(JOB_ATTRIBUTES_STACK, federationConfiguration.getStack())
@@ -15,16 +15,24 @@
  */
 package com.netflix.titus.federation.service;
 
+import java.util.Optional;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import com.netflix.titus.api.federation.model.Cell;
+import com.netflix.titus.api.service.TitusServiceException;
 import com.netflix.titus.runtime.endpoint.metadata.CallMetadataResolver;
 import com.netflix.titus.federation.startup.GrpcConfiguration;
 import com.netflix.titus.grpc.protogen.Job;
 import com.netflix.titus.grpc.protogen.JobId;
 import com.netflix.titus.grpc.protogen.JobManagementServiceGrpc;
 import com.netflix.titus.grpc.protogen.JobManagementServiceGrpc.JobManagementServiceStub;
+import com.netflix.titus.grpc.protogen.Task;
+import com.netflix.titus.grpc.protogen.TaskId;
+import io.grpc.Status;
 import io.grpc.stub.AbstractStub;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
@@ -40,23 +48,88 @@ public class AggregatingJobManagementServiceHelper {
     private AggregatingCellClient aggregatingCellClient;
     private final GrpcConfiguration grpcConfiguration;
     private final CallMetadataResolver callMetadataResolver;
+    private final CellLocationCache cellLocationCache;
 
     @Inject
     public AggregatingJobManagementServiceHelper(AggregatingCellClient aggregatingCellClient,
                                                  GrpcConfiguration grpcConfiguration,
-                                                 CallMetadataResolver callMetadataResolver) {
+                                                 CallMetadataResolver callMetadataResolver,
+                                                 CellLocationCache cellLocationCache) {
         this.aggregatingCellClient = aggregatingCellClient;
         this.grpcConfiguration = grpcConfiguration;
         this.callMetadataResolver = callMetadataResolver;
-
+        this.cellLocationCache = cellLocationCache;
     }
 
     private <STUB extends AbstractStub<STUB>> STUB wrap(STUB stub) {
         return createWrappedStub(stub, callMetadataResolver, grpcConfiguration.getRequestTimeoutMs());
     }
 
+    /**
+     * Finds the cell owning the job. If the cell is known from an earlier request, only that cell is asked. Otherwise,
+     * or if the job is not found there, the request is sent to all cells.
+     */
     public Observable<CellResponse<JobManagementServiceStub, Job>> findJobInAllCells(String jobId) {
-        return aggregatingCellClient.callExpectingErrors(JobManagementServiceGrpc::newStub, findJobInCell(jobId))
+        return findInCells(
+                jobId,
+                findJobInCell(jobId),
+                cellLocationCache::findJobCell,
+                cellLocationCache::invalidateJob,
+                response -> cellLocationCache.putJob(jobId, response.getCell())
+        );
+    }
+
+    /**
+     * Equivalent of {@link #findJobInAllCells(String)} for tasks.
+     */
+    public Observable<CellResponse<JobManagementServiceStub, Task>> findTaskInAllCells(String taskId) {
+        return findInCells(
+                taskId,
+                findTaskInCell(taskId),
+                cellLocationCache::findTaskCell,
+                cellLocationCache::invalidateTask,
+                response -> cellLocationCache.putTask(response.getResult(), response.getCell())
+        );
+    }
+
+    public ClientCall<Job> findJobInCell(String jobId) {
+        JobId id = JobId.newBuilder().setId(jobId).build();
+        return (client, streamObserver) -> wrap(client).findJob(id, streamObserver);
+    }
+
+    public ClientCall<Task> findTaskInCell(String taskId) {
+        TaskId id = TaskId.newBuilder().setId(taskId).build();
+        return (client, streamObserver) -> wrap(client).findTask(id, streamObserver);
+    }
+
+    private <T> Observable<CellResponse<JobManagementServiceStub, T>> findInCells(String id,
+                                                                               ClientCall<T> clientCall,
+                                                                               Function<String, Optional<Cell>> locationResolver,
+                                                                               Consumer<String> locationInvalidator,
+                                                                               Consumer<CellResponse<JobManagementServiceStub, T>> locationRecorder) {
+        return Observable.defer(() -> {
+            Observable<CellResponse<JobManagementServiceStub, T>> allCells = Observable.defer(() -> {
+                cellLocationCache.recordBroadcast();
+                return findInAllCells(clientCall);
+            });
+            Observable<CellResponse<JobManagementServiceStub, T>> result = locationResolver.apply(id)
+                    .map(cell -> aggregatingCellClient.callCell(cell, JobManagementServiceGrpc::newStub, clientCall)
+                            .onErrorResumeNext(error -> {
+                                if (!isStaleLocation(error)) {
+                                    return Observable.error(error);
+                                }
+                                logger.debug("Entity {} not found in its last known cell {}; asking all cells", id, cell);
+                                locationInvalidator.accept(id);
+                                return allCells;
+                            })
+                    )
+                    .orElse(allCells);
+            return result.doOnNext(locationRecorder::accept);
+        });
+    }
+
+    private <T> Observable<CellResponse<JobManagementServiceStub, T>> findInAllCells(ClientCall<T> clientCall) {
+        return aggregatingCellClient.callExpectingErrors(JobManagementServiceGrpc::newStub, clientCall)
                 .reduce(ResponseMerger.singleValue())
                 .flatMap(response -> response.getResult()
                         .map(v -> Observable.just(CellResponse.ofValue(response)))
@@ -64,9 +137,11 @@ public class AggregatingJobManagementServiceHelper {
                 );
     }
 
-    public ClientCall<Job> findJobInCell(String jobId) {
-        JobId id = JobId.newBuilder().setId(jobId).build();
-        return (client, streamObserver) -> wrap(client).findJob(id, streamObserver);
+    private static boolean isStaleLocation(Throwable error) {
+        if (error instanceof TitusServiceException) {
+            return ((TitusServiceException) error).getErrorCode() == TitusServiceException.ErrorCode.CELL_NOT_FOUND;
+        }
+        return Status.fromThrowable(error).getCode() == Status.Code.NOT_FOUND;
     }
 
     public interface ClientCall<T> extends BiConsumer<JobManagementServiceStub, StreamObserver<T>> {
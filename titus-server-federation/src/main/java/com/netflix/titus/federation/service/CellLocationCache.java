@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.federation.service;
+
+import java.util.Optional;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Registry;
+import com.netflix.titus.api.federation.model.Cell;
+import com.netflix.titus.common.runtime.TitusRuntime;
+import com.netflix.titus.common.util.cache.Cache;
+import com.netflix.titus.common.util.cache.Caches;
+import com.netflix.titus.federation.startup.TitusFederationConfiguration;
+import com.netflix.titus.grpc.protogen.Job;
+import com.netflix.titus.grpc.protogen.JobChangeNotification;
+import com.netflix.titus.grpc.protogen.Task;
+
+/**
+ * Remembers in which cell a job or a task is located, so requests for a single entity can be sent to one cell,
+ * instead of being broadcast to all of them. Jobs never move between cells, so an entry stays valid until the cell
+ * reports the entity as not found, in which case it is invalidated by the caller.
+ */
+@Singleton
+public class CellLocationCache {
+
+    private static final String METRIC_ROOT = "titus.federation.cellLocation.";
+
+    private final Cache<String, Cell> jobCells;
+    private final Cache<String, Cell> taskCells;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter invalidationCounter;
+    private final Counter routedRequestCounter;
+    private final Counter broadcastRequestCounter;
+
+    @Inject
+    public CellLocationCache(TitusFederationConfiguration configuration, TitusRuntime titusRuntime) {
+        Registry registry = titusRuntime.getRegistry();
+        long maxSize = Math.max(1, configuration.getCellLocationCacheMaxSize());
+        this.jobCells = Caches.instrumentedCacheWithMaxSize(maxSize, METRIC_ROOT + "jobs", registry);
+        this.taskCells = Caches.instrumentedCacheWithMaxSize(maxSize, METRIC_ROOT + "tasks", registry);
+
+        this.hitCounter = registry.counter(METRIC_ROOT + "hits");
+        this.missCounter = registry.counter(METRIC_ROOT + "misses");
+        this.invalidationCounter = registry.counter(METRIC_ROOT + "invalidations");
+        this.routedRequestCounter = registry.counter(METRIC_ROOT + "requests", "routing", "singleCell");
+        this.broadcastRequestCounter = registry.counter(METRIC_ROOT + "requests", "routing", "allCells");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobCells.shutdown();
+        taskCells.shutdown();
+    }
+
+    public Optional<Cell> findJobCell(String jobId) {
+        return lookup(jobCells, jobId);
+    }
+
+    public Optional<Cell> findTaskCell(String taskId) {
+        return lookup(taskCells, taskId);
+    }
+
+    public void putJob(String jobId, Cell cell) {
+        jobCells.put(jobId, cell);
+    }
+
+    public void putTask(Task task, Cell cell) {
+        taskCells.put(task.getId(), cell);
+        if (!task.getJobId().isEmpty()) {
+            jobCells.put(task.getJobId(), cell);
+        }
+    }
+
+    public void putAll(JobChangeNotification notification, Cell cell) {
+        switch (notification.getNotificationCase()) {
+            case JOBUPDATE:
+                putJob(notification.getJobUpdate().getJob().getId(), cell);
+                break;
+            case TASKUPDATE:
+                putTask(notification.getTaskUpdate().getTask(), cell);
+                break;
+        }
+    }
+
+    public void putJobs(Iterable<Job> jobs, Cell cell) {
+        jobs.forEach(job -> putJob(job.getId(), cell));
+    }
+
+    public void putTasks(Iterable<Task> tasks, Cell cell) {
+        tasks.forEach(task -> putTask(task, cell));
+    }
+
+    public void invalidateJob(String jobId) {
+        jobCells.invalidate(jobId);
+        invalidationCounter.increment();
+    }
+
+    public void invalidateTask(String taskId) {
+        taskCells.invalidate(taskId);
+        invalidationCounter.increment();
+    }
+
+    /**
+     * Records a request sent to all cells, because the entity location was not known, or was stale.
+     */
+    public void recordBroadcast() {
+        broadcastRequestCounter.increment();
+    }
+
+    private Optional<Cell> lookup(Cache<String, Cell> cache, String id) {
+        Cell cell = cache.getIfPresent(id);
+        if (cell == null) {
+            missCounter.increment();
+            return Optional.empty();
+        }
+        hitCounter.increment();
+        routedRequestCounter.increment();
+        return Optional.of(cell);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.federation.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.netflix.titus.api.federation.model.Cell;
+import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.grpc.protogen.Page;
+import com.netflix.titus.grpc.protogen.Pagination;
+import rx.Observable;
+
+/**
+ * Merges cursor paginated query results from many cells into a single page. All cells order their items with the same
+ * cursor comparator, so the result of each cell is a sorted stream, and the requested page is the head of a k-way
+ * merge of those streams. Each cell is first asked only for its share of the page (with some headroom). If a cell
+ * which has more data runs out of buffered items before the page is complete, its next chunk is fetched, starting
+ * after the last item it returned.
+ * <p>
+ * The cursor of a merged page is the cursor of its last item. As the order is the same in all cells, it is a valid
+ * position in each of them, and is passed to them unchanged with the next page request.
+ */
+final class CellPageMerger<T> {
+
+    /**
+     * Cells are asked for at least this many items in the first round, as small requests cost about the same as
+     * empty ones, while each additional round adds the full cell latency to the query.
+     */
+    private static final int MIN_INITIAL_CHUNK_SIZE = 10;
+
+    interface CellPageFetcher<T> {
+        Observable<Pair<List<T>, Pagination>> fetch(Cell cell, Page page);
+    }
+
+    private final Page requested;
+    private final int pageSize;
+    private final Function<T, String> cursorFactory;
+    private final CellPageFetcher<T> fetcher;
+
+    private final List<CellStream> streams;
+    private final PriorityQueue<CellStream> heap;
+    private final List<T> pageItems;
+
+    private CellPageMerger(Page requested,
+                           Collection<Cell> cells,
+                           Comparator<T> cursorComparator,
+                           Function<T, String> cursorFactory,
+                           CellPageFetcher<T> fetcher) {
+        this.requested = requested;
+        this.pageSize = requested.getPageSize();
+        this.cursorFactory = cursorFactory;
+        this.fetcher = fetcher;
+        this.streams = cells.stream().map(CellStream::new).collect(Collectors.toList());
+        this.heap = new PriorityQueue<>(
+                Math.max(1, streams.size()),
+                (first, second) -> cursorComparator.compare(first.peek(), second.peek())
+        );
+        this.pageItems = new ArrayList<>(pageSize);
+    }
+
+    /**
+     * Emits the items of the requested page (in the cursor order), and its pagination data. The requested page size
+     * must be greater than zero.
+     */
+    static <T> Observable<Pair<List<T>, Pagination>> mergePages(Page requested,
+                                                               Collection<Cell> cells,
+                                                               Comparator<T> cursorComparator,
+                                                               Function<T, String> cursorFactory,
+                                                               CellPageFetcher<T> fetcher) {
+        return Observable.defer(() -> new CellPageMerger<>(requested, cells, cursorComparator, cursorFactory, fetcher).merge());
+    }
+
+    private Observable<Pair<List<T>, Pagination>> merge() {
+        return fetchAndMerge(streams, initialChunkSize(pageSize, streams.size()));
+    }
+
+    private Observable<Pair<List<T>, Pagination>> fetchAndMerge(List<CellStream> toFetch, int chunkSize) {
+        List<Observable<Pair<CellStream, Pair<List<T>, Pagination>>>> requests = toFetch.stream()
+                .map(stream -> fetcher.fetch(stream.cell, stream.nextPage(chunkSize)).map(result -> Pair.of(stream, result)))
+                .collect(Collectors.toList());
+
+        return Observable.merge(requests).toList().flatMap(results -> {
+            results.forEach(result -> {
+                CellStream stream = result.getLeft();
+                stream.append(result.getRight());
+                if (stream.hasBuffered()) {
+                    heap.add(stream);
+                }
+            });
+            return mergeBuffered();
+        });
+    }
+
+    private Observable<Pair<List<T>, Pagination>> mergeBuffered() {
+        while (pageItems.size() < pageSize && !heap.isEmpty()) {
+            CellStream next = heap.poll();
+            pageItems.add(next.take());
+
+            if (next.hasBuffered()) {
+                heap.add(next);
+            } else if (next.hasMore && pageItems.size() < pageSize) {
+                // The next item of this cell may precede the buffered items of the other cells.
+                return fetchAndMerge(Collections.singletonList(next), pageSize - pageItems.size());
+            }
+        }
+        return Observable.just(Pair.of(pageItems, buildPagination()));
+    }
+
+    private Pagination buildPagination() {
+        int totalItems = 0;
+        int itemsUpToCursor = 0;
+        boolean hasMore = false;
+        for (CellStream stream : streams) {
+            totalItems += stream.totalItems;
+            itemsUpToCursor += stream.itemsBefore + stream.taken;
+            hasMore = hasMore || stream.hasBuffered() || stream.hasMore;
+        }
+        int firstItemPosition = Math.max(0, itemsUpToCursor - pageItems.size());
+
+        return Pagination.newBuilder()
+                .setCurrentPage(Page.newBuilder(requested).setPageNumber(firstItemPosition / pageSize))
+                .setHasMore(hasMore)
+                .setTotalItems(totalItems)
+                .setTotalPages((totalItems + pageSize - 1) / pageSize)
+                .setCursor(pageItems.isEmpty() ? "" : cursorFactory.apply(pageItems.get(pageItems.size() - 1)))
+                .setCursorPosition(Math.max(0, itemsUpToCursor - 1))
+                .build();
+    }
+
+    static int initialChunkSize(int pageSize, int cellCount) {
+        if (cellCount <= 1) {
+            return pageSize;
+        }
+        // Twice the even share of each cell, so pages are usually completed in a single round.
+        int evenShareWithHeadroom = (2 * pageSize + cellCount - 1) / cellCount;
+        return Math.min(pageSize, Math.max(MIN_INITIAL_CHUNK_SIZE, evenShareWithHeadroom));
+    }
+
+    private class CellStream {
+
+        private final Cell cell;
+        private final Deque<T> buffered = new ArrayDeque<>();
+
+        private boolean hasMore = true;
+        private T lastFetched;
+        private boolean initialized;
+
+        /**
+         * Number of the cell items that precede the first item fetched from it.
+         */
+        private int itemsBefore;
+        private int totalItems;
+        private int taken;
+
+        private CellStream(Cell cell) {
+            this.cell = cell;
+        }
+
+        private Page nextPage(int chunkSize) {
+            Page.Builder builder = requested.toBuilder().setPageSize(chunkSize);
+            if (lastFetched != null) {
+                builder.setPageNumber(0).setCursor(cursorFactory.apply(lastFetched));
+            }
+            return builder.build();
+        }
+
+        private void append(Pair<List<T>, Pagination> result) {
+            List<T> items = result.getLeft();
+            Pagination pagination = result.getRight();
+            if (!initialized) {
+                // The cursor position of a cell points to its last returned item, or to its last item if nothing
+                // follows the requested cursor.
+                totalItems = pagination.getTotalItems();
+                itemsBefore = items.isEmpty() ? totalItems : Math.max(0, pagination.getCursorPosition() - items.size() + 1);
+                initialized = true;
+            }
+            buffered.addAll(items);
+            if (!items.isEmpty()) {
+                lastFetched = items.get(items.size() - 1);
+            }
+            hasMore = pagination.getHasMore() && !items.isEmpty();
+        }
+
+        private boolean hasBuffered() {
+            return !buffered.isEmpty();
+        }
+
+        private T peek() {
+            return buffered.peekFirst();
+        }
+
+        private T take() {
+            taken++;
+            return buffered.pollFirst();
+        }
+    }
+}
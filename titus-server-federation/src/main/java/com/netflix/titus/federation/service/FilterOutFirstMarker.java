@@ -17,6 +17,7 @@
 package com.netflix.titus.federation.service;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
 
 import com.google.protobuf.Empty;
 import com.netflix.titus.runtime.endpoint.common.grpc.GrpcUtil;
@@ -28,17 +29,22 @@ import rx.Emitter;
 
 /**
  * Filter out the first <tt>marker</tt> from a source stream, decrementing a {@link CountDownLatch} when it is received.
+ * All other notifications are also passed to the given listener, before being emitted.
  */
 class FilterOutFirstMarker implements ClientResponseObserver<Empty, JobChangeNotification> {
 
     private final Emitter<JobChangeNotification> emitter;
     private final CountDownLatch latch;
+    private final Consumer<JobChangeNotification> notificationListener;
 
     private volatile boolean markerReceived = false;
 
-    FilterOutFirstMarker(Emitter<JobChangeNotification> destination, CountDownLatch markersReceived) {
+    FilterOutFirstMarker(Emitter<JobChangeNotification> destination,
+                         CountDownLatch markersReceived,
+                         Consumer<JobChangeNotification> notificationListener) {
         this.emitter = destination;
         this.latch = markersReceived;
+        this.notificationListener = notificationListener;
     }
 
     @Override
@@ -53,6 +59,7 @@ class FilterOutFirstMarker implements ClientResponseObserver<Empty, JobChangeNot
             latch.countDown();
             return;
         }
+        notificationListener.accept(value);
         emitter.onNext(value);
     }
 
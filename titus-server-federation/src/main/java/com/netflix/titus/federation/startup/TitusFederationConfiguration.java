@@ -30,4 +30,10 @@ public interface TitusFederationConfiguration {
 
     @DefaultValue("cell1=(app1.*|app2.*);cell2=(.*)")
     String getRoutingRules();
+
+    /**
+     * Maximum number of job and task ids, for which the cell location is remembered.
+     */
+    @DefaultValue("100000")
+    long getCellLocationCacheMaxSize();
 }
@@ -26,6 +26,7 @@ import java.util.Optional;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -34,6 +35,7 @@ import com.google.common.collect.Iterables;
 import com.netflix.titus.api.federation.model.Cell;
 import com.netflix.titus.api.model.Page;
 import com.netflix.titus.api.service.TitusServiceException;
+import com.netflix.titus.common.runtime.TitusRuntimes;
 import com.netflix.titus.common.util.CollectionsExt;
 import com.netflix.titus.common.util.time.Clocks;
 import com.netflix.titus.common.util.time.TestClock;
@@ -64,6 +66,7 @@ import com.netflix.titus.runtime.jobmanager.JobManagerCursors;
 import com.netflix.titus.testkit.grpc.TestStreamObserver;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
 import io.grpc.testing.GrpcServerRule;
 import org.junit.After;
 import org.junit.Before;
@@ -103,6 +106,7 @@ public class AggregatingJobManagementClientTest {
 
     private String stackName;
     private AggregatingJobManagementClient service;
+    private CellLocationCache cellLocationCache;
     private List<Cell> cells;
     private Map<Cell, GrpcServerRule> cellToServiceMap;
     private TestClock clock;
@@ -118,6 +122,7 @@ public class AggregatingJobManagementClientTest {
         TitusFederationConfiguration titusFederationConfiguration = mock(TitusFederationConfiguration.class);
         when(titusFederationConfiguration.getStack()).thenReturn(stackName);
         when(titusFederationConfiguration.getCells()).thenReturn("one=1;two=2");
+        when(titusFederationConfiguration.getCellLocationCacheMaxSize()).thenReturn(1000L);
         when(titusFederationConfiguration.getRoutingRules()).thenReturn("one=(app1.*|app2.*);two=(app3.*)");
 
         CellInfoResolver cellInfoResolver = new DefaultCellInfoResolver(titusFederationConfiguration);
@@ -139,6 +144,7 @@ public class AggregatingJobManagementClientTest {
 
         final AggregatingCellClient aggregatingCellClient = new AggregatingCellClient(connector);
         final AnonymousCallMetadataResolver anonymousCallMetadataResolver = new AnonymousCallMetadataResolver();
+        cellLocationCache = new CellLocationCache(titusFederationConfiguration, TitusRuntimes.internal());
         service = new AggregatingJobManagementClient(
                 grpcConfiguration,
                 titusFederationConfiguration,
@@ -146,7 +152,8 @@ public class AggregatingJobManagementClientTest {
                 cellRouter,
                 anonymousCallMetadataResolver,
                 aggregatingCellClient,
-                new AggregatingJobManagementServiceHelper(aggregatingCellClient, grpcConfiguration, anonymousCallMetadataResolver)
+                new AggregatingJobManagementServiceHelper(aggregatingCellClient, grpcConfiguration, anonymousCallMetadataResolver, cellLocationCache),
+                cellLocationCache
         );
 
         clock = Clocks.test();
@@ -375,6 +382,61 @@ public class AggregatingJobManagementClientTest {
         testSubscriber.assertValue(expected);
     }
 
+    @Test
+    public void findJobRecordsCellLocation() {
+        List<Job> cellOneSnapshot = new ArrayList<>(dataGenerator.newServiceJobs(3, V3GrpcModelConverters::toGrpcJob));
+        cellOne.getServiceRegistry().addService(new CellWithFixedJobsService(cellOneSnapshot, cellOneUpdates.serialize()));
+        cellTwo.getServiceRegistry().addService(new CellWithFixedJobsService(Collections.emptyList(), cellTwoUpdates.serialize()));
+
+        Job expected = cellOneSnapshot.get(0);
+        assertThat(cellLocationCache.findJobCell(expected.getId())).isEmpty();
+
+        AssertableSubscriber<Job> testSubscriber = service.findJob(expected.getId()).test();
+        testSubscriber.awaitTerminalEvent(1, TimeUnit.SECONDS);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertValue(withStackName(expected));
+        assertThat(cellLocationCache.findJobCell(expected.getId())).contains(cells.get(0));
+    }
+
+    @Test
+    public void findJobWithStaleCellLocation() {
+        List<Job> cellOneSnapshot = new ArrayList<>(dataGenerator.newServiceJobs(3, V3GrpcModelConverters::toGrpcJob));
+        cellOne.getServiceRegistry().addService(new CellWithFixedJobsService(cellOneSnapshot, cellOneUpdates.serialize()));
+        cellTwo.getServiceRegistry().addService(new CellWithFixedJobsService(Collections.emptyList(), cellTwoUpdates.serialize()));
+
+        Job expected = cellOneSnapshot.get(0);
+        cellLocationCache.putJob(expected.getId(), cells.get(1));
+
+        AssertableSubscriber<Job> testSubscriber = service.findJob(expected.getId()).test();
+        testSubscriber.awaitTerminalEvent(1, TimeUnit.SECONDS);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertValue(withStackName(expected));
+        assertThat(cellLocationCache.findJobCell(expected.getId())).contains(cells.get(0));
+    }
+
+    @Test
+    public void findJobInKnownCellDoesNotBroadcast() {
+        List<Job> cellOneSnapshot = new ArrayList<>(dataGenerator.newServiceJobs(3, V3GrpcModelConverters::toGrpcJob));
+        cellOne.getServiceRegistry().addService(new CellWithFixedJobsService(cellOneSnapshot, cellOneUpdates.serialize()));
+        AtomicInteger cellTwoRequests = new AtomicInteger();
+        cellTwo.getServiceRegistry().addService(new JobManagementServiceGrpc.JobManagementServiceImplBase() {
+            @Override
+            public void findJob(JobId request, StreamObserver<Job> responseObserver) {
+                cellTwoRequests.incrementAndGet();
+                responseObserver.onError(NOT_FOUND.asRuntimeException());
+            }
+        });
+
+        Job expected = cellOneSnapshot.get(0);
+        cellLocationCache.putJob(expected.getId(), cells.get(0));
+
+        AssertableSubscriber<Job> testSubscriber = service.findJob(expected.getId()).test();
+        testSubscriber.awaitTerminalEvent(1, TimeUnit.SECONDS);
+        testSubscriber.assertNoErrors();
+        testSubscriber.assertValue(withStackName(expected));
+        assertThat(cellTwoRequests.get()).isZero();
+    }
+
     @Test
     public void findJobWithFailingCell() {
         Random random = new Random();
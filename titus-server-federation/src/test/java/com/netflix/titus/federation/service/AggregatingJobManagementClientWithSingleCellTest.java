@@ -28,6 +28,7 @@ import java.util.stream.Collectors;
 import com.google.common.collect.ImmutableMap;
 import com.netflix.titus.api.federation.model.Cell;
 import com.netflix.titus.api.model.Page;
+import com.netflix.titus.common.runtime.TitusRuntimes;
 import com.netflix.titus.common.util.time.Clocks;
 import com.netflix.titus.common.util.time.TestClock;
 import com.netflix.titus.federation.startup.GrpcConfiguration;
@@ -78,6 +79,7 @@ public class AggregatingJobManagementClientWithSingleCellTest {
         TitusFederationConfiguration titusFederationConfiguration = mock(TitusFederationConfiguration.class);
         when(titusFederationConfiguration.getStack()).thenReturn(stackName);
         when(titusFederationConfiguration.getCells()).thenReturn("one=1");
+        when(titusFederationConfiguration.getCellLocationCacheMaxSize()).thenReturn(1000L);
         when(titusFederationConfiguration.getRoutingRules()).thenReturn("one=(app1.*|app2.*);two=(app3.*)");
 
         CellInfoResolver cellInfoResolver = new DefaultCellInfoResolver(titusFederationConfiguration);
@@ -96,6 +98,7 @@ public class AggregatingJobManagementClientWithSingleCellTest {
 
         final AggregatingCellClient aggregatingCellClient = new AggregatingCellClient(connector);
         final AnonymousCallMetadataResolver anonymousCallMetadataResolver = new AnonymousCallMetadataResolver();
+        CellLocationCache cellLocationCache = new CellLocationCache(titusFederationConfiguration, TitusRuntimes.internal());
         service = new AggregatingJobManagementClient(
                 grpcClientConfiguration,
                 titusFederationConfiguration,
@@ -103,7 +106,8 @@ public class AggregatingJobManagementClientWithSingleCellTest {
                 cellRouter,
                 anonymousCallMetadataResolver,
                 aggregatingCellClient,
-                new AggregatingJobManagementServiceHelper(aggregatingCellClient, grpcClientConfiguration, anonymousCallMetadataResolver)
+                new AggregatingJobManagementServiceHelper(aggregatingCellClient, grpcClientConfiguration, anonymousCallMetadataResolver, cellLocationCache),
+                cellLocationCache
         );
 
         clock = Clocks.test();
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.federation.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.netflix.titus.api.federation.model.Cell;
+import com.netflix.titus.api.model.PaginationUtil;
+import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.grpc.protogen.Page;
+import com.netflix.titus.grpc.protogen.Pagination;
+import io.grpc.Status;
+import org.junit.Test;
+import rx.Observable;
+import rx.observers.AssertableSubscriber;
+
+import static com.netflix.titus.runtime.endpoint.common.grpc.CommonGrpcModelConverters.toGrpcPagination;
+import static com.netflix.titus.runtime.endpoint.common.grpc.CommonGrpcModelConverters.toPage;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CellPageMergerTest {
+
+    private static final Comparator<Integer> COMPARATOR = Integer::compare;
+
+    private final Map<Cell, List<Integer>> cellItems = new LinkedHashMap<>();
+    private final Map<Cell, List<Integer>> requestedPageSizes = new HashMap<>();
+
+    @Test
+    public void testWalkAllPagesWithSkewedCells() {
+        // most items are in the first cell, so its buffered items run out before pages are complete
+        addCell("one", IntStream.range(0, 100).filter(i -> i % 10 != 0).boxed().collect(Collectors.toList()));
+        addCell("two", IntStream.range(0, 100).filter(i -> i % 10 == 0).boxed().collect(Collectors.toList()));
+        addCell("three", Collections.emptyList());
+
+        List<Integer> walked = walkAllPages(30);
+        assertThat(walked).isEqualTo(IntStream.range(0, 100).boxed().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testWalkAllPagesWithSmallPageSize() {
+        addCell("one", Arrays.asList(0, 3, 6, 9));
+        addCell("two", Arrays.asList(1, 4, 7));
+        addCell("three", Arrays.asList(2, 5, 8));
+
+        assertThat(walkAllPages(1)).isEqualTo(IntStream.range(0, 10).boxed().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testEvenlyDistributedPageIsMergedInOneRound() {
+        for (int cellIdx = 0; cellIdx < 4; cellIdx++) {
+            int offset = cellIdx;
+            addCell("cell" + cellIdx, IntStream.range(0, 100).map(i -> i * 4 + offset).boxed().collect(Collectors.toList()));
+        }
+
+        Pair<List<Integer>, Pagination> result = fetchPage(Page.newBuilder().setPageSize(100).build());
+        assertThat(result.getLeft()).isEqualTo(IntStream.range(0, 100).boxed().collect(Collectors.toList()));
+        assertThat(result.getRight().getHasMore()).isTrue();
+        assertThat(result.getRight().getTotalItems()).isEqualTo(400);
+        assertThat(result.getRight().getCursorPosition()).isEqualTo(99);
+
+        // each cell was asked once, for twice its even share of the page
+        requestedPageSizes.values().forEach(sizes -> assertThat(sizes).containsExactly(50));
+    }
+
+    @Test
+    public void testAllCellsEmpty() {
+        addCell("one", Collections.emptyList());
+        addCell("two", Collections.emptyList());
+
+        Pair<List<Integer>, Pagination> result = fetchPage(Page.newBuilder().setPageSize(10).build());
+        assertThat(result.getLeft()).isEmpty();
+        assertThat(result.getRight().getHasMore()).isFalse();
+        assertThat(result.getRight().getTotalItems()).isZero();
+        assertThat(result.getRight().getCursor()).isEmpty();
+    }
+
+    @Test
+    public void testCellErrorIsPropagated() {
+        addCell("one", Arrays.asList(1, 2, 3));
+        Cell failing = new Cell("failing", "failing:7001");
+
+        AssertableSubscriber<Pair<List<Integer>, Pagination>> testSubscriber = CellPageMerger.mergePages(
+                Page.newBuilder().setPageSize(10).build(),
+                Arrays.asList(cellItems.keySet().iterator().next(), failing),
+                COMPARATOR,
+                String::valueOf,
+                (cell, page) -> cell == failing ? Observable.error(Status.INTERNAL.asRuntimeException()) : fetchFromCell(cell, page)
+        ).test();
+
+        testSubscriber.awaitTerminalEvent();
+        testSubscriber.assertError(Status.INTERNAL.asRuntimeException().getClass());
+    }
+
+    @Test
+    public void testInitialChunkSize() {
+        assertThat(CellPageMerger.initialChunkSize(100, 1)).isEqualTo(100);
+        assertThat(CellPageMerger.initialChunkSize(100, 2)).isEqualTo(100);
+        assertThat(CellPageMerger.initialChunkSize(100, 8)).isEqualTo(25);
+        assertThat(CellPageMerger.initialChunkSize(100, 50)).isEqualTo(10);
+        assertThat(CellPageMerger.initialChunkSize(5, 50)).isEqualTo(5);
+    }
+
+    private List<Integer> walkAllPages(int pageSize) {
+        List<Integer> walked = new ArrayList<>();
+        Page page = Page.newBuilder().setPageSize(pageSize).build();
+        int expectedPageNumber = 0;
+        while (true) {
+            Pair<List<Integer>, Pagination> result = fetchPage(page);
+            Pagination pagination = result.getRight();
+            walked.addAll(result.getLeft());
+
+            assertThat(pagination.getCurrentPage().getPageNumber()).isEqualTo(expectedPageNumber++);
+            assertThat(pagination.getCursorPosition()).isEqualTo(walked.size() - 1);
+            if (!pagination.getHasMore()) {
+                return walked;
+            }
+            assertThat(result.getLeft()).hasSize(pageSize);
+            page = page.toBuilder().setCursor(pagination.getCursor()).build();
+        }
+    }
+
+    private Pair<List<Integer>, Pagination> fetchPage(Page page) {
+        return CellPageMerger.mergePages(page, cellItems.keySet(), COMPARATOR, String::valueOf, this::fetchFromCell)
+                .toBlocking()
+                .first();
+    }
+
+    private Observable<Pair<List<Integer>, Pagination>> fetchFromCell(Cell cell, Page page) {
+        requestedPageSizes.computeIfAbsent(cell, c -> new ArrayList<>()).add(page.getPageSize());
+        Pair<List<Integer>, com.netflix.titus.api.model.Pagination> result = PaginationUtil.takePageWithCursor(
+                toPage(page), cellItems.get(cell), COMPARATOR, CellPageMergerTest::indexOf, String::valueOf
+        );
+        return Observable.just(Pair.of(result.getLeft(), toGrpcPagination(result.getRight())));
+    }
+
+    private void addCell(String name, List<Integer> items) {
+        cellItems.put(new Cell(name, name + ":7001"), items);
+    }
+
+    private static Optional<Integer> indexOf(List<Integer> sorted, String cursor) {
+        int value = Integer.parseInt(cursor);
+        int idx = Collections.binarySearch(sorted, value);
+        return Optional.of(idx >= 0 ? idx : Math.max(-1, -idx - 2));
+    }
+}
@@ -37,4 +37,44 @@ public interface JobManagerConfiguration {
      */
     @DefaultValue("10000")
     int getMinDiskSizeMB();
+
+    /**
+     * @return the maximum amount of memory in bytes used by the cache of archived jobs and tasks. The budget is shared
+     * between the job, task, and per job task id caches.
+     */
+    @DefaultValue("67108864")
+    long getArchiveCacheMaxSizeBytes();
+
+    /**
+     * @return the maximum number of job and task ids remembered as not present in the archive.
+     */
+    @DefaultValue("10000")
+    long getArchiveCacheNotFoundMaxSize();
+
+    /**
+     * @return how long a job or task id is remembered as not present in the archive.
+     */
+    @DefaultValue("30000")
+    long getArchiveCacheNotFoundTtlMs();
+
+    /**
+     * @return true if job and task queries should be answered from a local replica of the master's active job
+     * data set. Applies only if enabled at the gateway startup.
+     */
+    @DefaultValue("false")
+    boolean isLocalReplicaEnabled();
+
+    /**
+     * @return the maximum time since the local replica applied the last event or keep-alive received from the master.
+     * Queries are forwarded to the master when the replica is more stale than that.
+     */
+    @DefaultValue("2000")
+    long getLocalReplicaMaxStalenessMs();
+
+    /**
+     * @return the interval at which the master is asked to send keep-alives in the job event stream of the local
+     * replica. It must be well below {@link #getLocalReplicaMaxStalenessMs()}.
+     */
+    @DefaultValue("500")
+    long getLocalReplicaKeepAliveIntervalMs();
 }
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.gateway.service.v3.internal;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Registry;
+import com.netflix.titus.api.jobmanager.store.JobStore;
+import com.netflix.titus.api.jobmanager.store.JobStoreException;
+import com.netflix.titus.common.runtime.TitusRuntime;
+import com.netflix.titus.common.util.cache.Cache;
+import com.netflix.titus.common.util.cache.Caches;
+import com.netflix.titus.gateway.MetricConstants;
+import com.netflix.titus.gateway.service.v3.JobManagerConfiguration;
+import com.netflix.titus.grpc.protogen.Job;
+import com.netflix.titus.grpc.protogen.Task;
+import com.netflix.titus.runtime.endpoint.common.LogStorageInfo;
+import com.netflix.titus.runtime.endpoint.v3.grpc.V3GrpcModelConverters;
+import rx.Observable;
+
+/**
+ * Read-through cache of archived jobs and tasks. Archived records never change, so they are cached without expiry,
+ * in their GRPC form to avoid repeating the model conversion. The caches are bounded by the serialized size of their
+ * entries. Ids not found in the archive are remembered for a short time, as clients tend to poll for them repeatedly.
+ * Concurrent loads of the same record are coalesced into a single store query.
+ * <p>
+ * A job's task list is read from the store as a list of archived task ids, which are resolved through the task cache.
+ * The id list is cached only when the job itself is already archived. Tasks are archived before their job, so
+ * the task list of a job that is not archived yet may still grow.
+ */
+@Singleton
+public class ArchivedJobCache {
+
+    private static final String METRIC_ROOT = MetricConstants.METRIC_ROOT + "archiveCache.";
+
+    private static final int MAX_CONCURRENT_TASKS_TO_RETRIEVE = 10;
+
+    /**
+     * Each entry in the id list cache carries object and array overhead on top of the id characters.
+     */
+    private static final int TASK_ID_OVERHEAD_BYTES = 48;
+
+    private final JobStore store;
+    private final LogStorageInfo<com.netflix.titus.api.jobmanager.model.job.Task> logStorageInfo;
+
+    private final Cache<String, Job> jobCache;
+    private final Cache<String, Task> taskCache;
+    private final Cache<String, List<String>> taskIdsCache;
+    private final Cache<String, Boolean> notFoundJobCache;
+    private final Cache<String, Boolean> notFoundTaskCache;
+
+    private final ConcurrentMap<String, Observable<?>> pendingLoads = new ConcurrentHashMap<>();
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter notFoundHitCounter;
+    private final Counter coalescedCounter;
+
+    @Inject
+    public ArchivedJobCache(JobManagerConfiguration configuration,
+                            JobStore store,
+                            LogStorageInfo<com.netflix.titus.api.jobmanager.model.job.Task> logStorageInfo,
+                            TitusRuntime titusRuntime) {
+        this.store = store;
+        this.logStorageInfo = logStorageInfo;
+
+        Registry registry = titusRuntime.getRegistry();
+        long maxSizeBytes = Math.max(1, configuration.getArchiveCacheMaxSizeBytes());
+        long notFoundMaxSize = Math.max(1, configuration.getArchiveCacheNotFoundMaxSize());
+        long notFoundTtlMs = Math.max(1, configuration.getArchiveCacheNotFoundTtlMs());
+
+        // Tasks outnumber jobs by far, so they get the largest share of the memory budget.
+        this.jobCache = Caches.instrumentedCacheWithMaxWeight(
+                Math.max(1, maxSizeBytes / 4), (id, job) -> id.length() + job.getSerializedSize(), METRIC_ROOT + "jobs", registry
+        );
+        this.taskCache = Caches.instrumentedCacheWithMaxWeight(
+                Math.max(1, maxSizeBytes / 2), (id, task) -> id.length() + task.getSerializedSize(), METRIC_ROOT + "tasks", registry
+        );
+        this.taskIdsCache = Caches.instrumentedCacheWithMaxWeight(
+                Math.max(1, maxSizeBytes / 4), ArchivedJobCache::weighTaskIds, METRIC_ROOT + "taskIds", registry
+        );
+        this.notFoundJobCache = Caches.instrumentedCacheWithMaxSizeAndTtl(notFoundMaxSize, notFoundTtlMs, METRIC_ROOT + "notFoundJobs", registry);
+        this.notFoundTaskCache = Caches.instrumentedCacheWithMaxSizeAndTtl(notFoundMaxSize, notFoundTtlMs, METRIC_ROOT + "notFoundTasks", registry);
+
+        this.hitCounter = registry.counter(METRIC_ROOT + "hits");
+        this.missCounter = registry.counter(METRIC_ROOT + "misses");
+        this.notFoundHitCounter = registry.counter(METRIC_ROOT + "notFoundHits");
+        this.coalescedCounter = registry.counter(METRIC_ROOT + "coalescedLoads");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobCache.shutdown();
+        taskCache.shutdown();
+        taskIdsCache.shutdown();
+        notFoundJobCache.shutdown();
+        notFoundTaskCache.shutdown();
+    }
+
+    /**
+     * Emits the archived job, or {@link JobStoreException} with {@link JobStoreException.ErrorCode#JOB_DOES_NOT_EXIST}
+     * error code if the job is not archived.
+     */
+    public Observable<Job> getJob(String jobId) {
+        return Observable.defer(() -> {
+            if (notFoundJobCache.getIfPresent(jobId) != null) {
+                notFoundHitCounter.increment();
+                return Observable.error(JobStoreException.jobDoesNotExist(jobId));
+            }
+            return loadJob(jobId).doOnError(error -> {
+                if (isNotFound(error, JobStoreException.ErrorCode.JOB_DOES_NOT_EXIST)) {
+                    notFoundJobCache.put(jobId, true);
+                }
+            });
+        });
+    }
+
+    /**
+     * Emits the archived task, or {@link JobStoreException} with {@link JobStoreException.ErrorCode#TASK_DOES_NOT_EXIST}
+     * error code if the task is not archived.
+     */
+    public Observable<Task> getTask(String taskId) {
+        return Observable.defer(() -> {
+            if (notFoundTaskCache.getIfPresent(taskId) != null) {
+                notFoundHitCounter.increment();
+                return Observable.error(JobStoreException.taskDoesNotExist(taskId));
+            }
+            return loadTask(taskId).doOnError(error -> {
+                if (isNotFound(error, JobStoreException.ErrorCode.TASK_DOES_NOT_EXIST)) {
+                    notFoundTaskCache.put(taskId, true);
+                }
+            });
+        });
+    }
+
+    /**
+     * Emits all archived tasks of a job.
+     */
+    public Observable<Task> getTasksForJob(String jobId) {
+        return Observable.defer(() -> {
+            List<String> taskIds = taskIdsCache.getIfPresent(jobId);
+            if (taskIds != null) {
+                hitCounter.increment();
+                return loadTasks(taskIds);
+            }
+            missCounter.increment();
+            return coalesce("jobTasks:" + jobId, () -> loadTasksForJob(jobId)).flatMapIterable(tasks -> tasks);
+        });
+    }
+
+    private Observable<Job> loadJob(String jobId) {
+        return Observable.defer(() -> {
+            Job cached = jobCache.getIfPresent(jobId);
+            if (cached != null) {
+                hitCounter.increment();
+                return Observable.just(cached);
+            }
+            missCounter.increment();
+            return coalesce("job:" + jobId, () -> store.retrieveArchivedJob(jobId)
+                    .map(V3GrpcModelConverters::toGrpcJob)
+                    .doOnNext(job -> jobCache.put(jobId, job))
+            );
+        });
+    }
+
+    private Observable<Task> loadTask(String taskId) {
+        return Observable.defer(() -> {
+            Task cached = taskCache.getIfPresent(taskId);
+            if (cached != null) {
+                hitCounter.increment();
+                return Observable.just(cached);
+            }
+            missCounter.increment();
+            return coalesce("task:" + taskId, () -> store.retrieveArchivedTask(taskId)
+                    .map(this::toGrpcTask)
+                    .doOnNext(task -> taskCache.put(taskId, task))
+            );
+        });
+    }
+
+    /**
+     * The job is checked first, as only the task list of an archived job is complete. Task records already in the
+     * task cache are not read again.
+     */
+    private Observable<List<Task>> loadTasksForJob(String jobId) {
+        Observable<Boolean> jobArchived = loadJob(jobId)
+                .map(job -> true)
+                .onErrorResumeNext(error -> isNotFound(error, JobStoreException.ErrorCode.JOB_DOES_NOT_EXIST)
+                        ? Observable.just(false)
+                        : Observable.error(error)
+                );
+        return jobArchived.flatMap(archived -> store.retrieveArchivedTaskIdsForJob(jobId)
+                .toList()
+                .doOnNext(taskIds -> {
+                    if (archived) {
+                        taskIdsCache.put(jobId, taskIds);
+                    }
+                })
+                .flatMap(taskIds -> loadTasks(taskIds).toList())
+        );
+    }
+
+    /**
+     * Resolves task ids through the task cache. A task whose record is gone (for example expired in the store)
+     * is skipped.
+     */
+    private Observable<Task> loadTasks(List<String> taskIds) {
+        return Observable.from(taskIds).flatMap(
+                taskId -> loadTask(taskId).onErrorResumeNext(error -> isNotFound(error, JobStoreException.ErrorCode.TASK_DOES_NOT_EXIST)
+                        ? Observable.empty()
+                        : Observable.error(error)
+                ),
+                MAX_CONCURRENT_TASKS_TO_RETRIEVE
+        );
+    }
+
+    /**
+     * Shares a single load of the given key with all callers that ask for it while the load is in progress.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Observable<T> coalesce(String key, Supplier<Observable<T>> loader) {
+        AtomicReference<Observable<T>> loadRef = new AtomicReference<>();
+        Observable<T> load = loader.get()
+                .doOnTerminate(() -> pendingLoads.remove(key, loadRef.get()))
+                .cache();
+        loadRef.set(load);
+
+        Observable<?> pending = pendingLoads.putIfAbsent(key, load);
+        if (pending != null) {
+            coalescedCounter.increment();
+            return (Observable<T>) pending;
+        }
+        return load;
+    }
+
+    private Task toGrpcTask(com.netflix.titus.api.jobmanager.model.job.Task task) {
+        return V3GrpcModelConverters.toGrpcTask(task, logStorageInfo);
+    }
+
+    @VisibleForTesting
+    int getPendingLoadCount() {
+        return pendingLoads.size();
+    }
+
+    private static boolean isNotFound(Throwable error, JobStoreException.ErrorCode errorCode) {
+        return error instanceof JobStoreException && ((JobStoreException) error).getErrorCode() == errorCode;
+    }
+
+    private static int weighTaskIds(String jobId, List<String> taskIds) {
+        int weight = jobId.length();
+        for (String taskId : taskIds) {
+            weight += taskId.length() + TASK_ID_OVERHEAD_BYTES;
+        }
+        return weight;
+    }
+}
@@ -19,6 +19,7 @@ package com.netflix.titus.gateway.service.v3.internal;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
@@ -31,7 +32,6 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Sets;
 import com.netflix.titus.api.jobmanager.model.job.JobFunctions;
 import com.netflix.titus.api.jobmanager.model.job.TaskState;
-import com.netflix.titus.api.jobmanager.store.JobStore;
 import com.netflix.titus.api.jobmanager.store.JobStoreException;
 import com.netflix.titus.api.model.Page;
 import com.netflix.titus.api.model.Pagination;
@@ -45,6 +45,8 @@ import com.netflix.titus.gateway.service.v3.JobManagerConfiguration;
 import com.netflix.titus.grpc.protogen.Job;
 import com.netflix.titus.grpc.protogen.JobId;
 import com.netflix.titus.grpc.protogen.JobManagementServiceGrpc.JobManagementServiceStub;
+import com.netflix.titus.grpc.protogen.JobQuery;
+import com.netflix.titus.grpc.protogen.JobQueryResult;
 import com.netflix.titus.grpc.protogen.Task;
 import com.netflix.titus.grpc.protogen.TaskId;
 import com.netflix.titus.grpc.protogen.TaskQuery;
@@ -52,9 +54,7 @@ import com.netflix.titus.grpc.protogen.TaskQueryResult;
 import com.netflix.titus.runtime.connector.GrpcClientConfiguration;
 import com.netflix.titus.runtime.connector.jobmanager.client.GrpcJobManagementClient;
 import com.netflix.titus.runtime.connector.jobmanager.client.JobManagementClientDelegate;
-import com.netflix.titus.runtime.endpoint.common.LogStorageInfo;
 import com.netflix.titus.runtime.endpoint.metadata.CallMetadataResolver;
-import com.netflix.titus.runtime.endpoint.v3.grpc.V3GrpcModelConverters;
 import com.netflix.titus.runtime.connector.jobmanager.JobManagementClient;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
@@ -81,27 +81,32 @@ public class GatewayJobManagementClient extends JobManagementClientDelegate {
     private final GrpcClientConfiguration configuration;
     private final JobManagementServiceStub client;
     private final CallMetadataResolver callMetadataResolver;
-    private final JobStore store;
-    private final LogStorageInfo<com.netflix.titus.api.jobmanager.model.job.Task> logStorageInfo;
+    private final ArchivedJobCache archivedJobCache;
+    private final LocalJobQueryProcessor localJobQueryProcessor;
 
     @Inject
     public GatewayJobManagementClient(GrpcClientConfiguration configuration,
                                       JobManagerConfiguration jobManagerConfiguration,
                                       JobManagementServiceStub client,
                                       CallMetadataResolver callMetadataResolver,
-                                      JobStore store,
-                                      LogStorageInfo<com.netflix.titus.api.jobmanager.model.job.Task> logStorageInfo,
+                                      ArchivedJobCache archivedJobCache,
+                                      LocalJobQueryProcessor localJobQueryProcessor,
                                       @Named(JOB_STRICT_SANITIZER) EntitySanitizer entitySanitizer) {
         super(new GrpcJobManagementClient(client, callMetadataResolver, new ExtendedJobSanitizer(jobManagerConfiguration, entitySanitizer), configuration));
         this.configuration = configuration;
         this.client = client;
         this.callMetadataResolver = callMetadataResolver;
-        this.store = store;
-        this.logStorageInfo = logStorageInfo;
+        this.archivedJobCache = archivedJobCache;
+        this.localJobQueryProcessor = localJobQueryProcessor;
     }
 
     @Override
     public Observable<Job> findJob(String jobId) {
+        Optional<Job> localJob = localJobQueryProcessor.findJob(jobId);
+        if (localJob.isPresent()) {
+            return Observable.just(localJob.get());
+        }
+
         Observable<Job> observable = createRequestObservable(emitter -> {
             StreamObserver<Job> streamObserver = createSimpleClientResponseObserver(emitter);
             createWrappedStub(client, callMetadataResolver, configuration.getRequestTimeout()).findJob(JobId.newBuilder().setId(jobId).build(), streamObserver);
@@ -117,8 +122,20 @@ public class GatewayJobManagementClient extends JobManagementClientDelegate {
         }).timeout(configuration.getRequestTimeout(), TimeUnit.MILLISECONDS);
     }
 
+    @Override
+    public Observable<JobQueryResult> findJobs(JobQuery jobQuery) {
+        return localJobQueryProcessor.findJobs(jobQuery)
+                .map(Observable::just)
+                .orElseGet(() -> super.findJobs(jobQuery));
+    }
+
     @Override
     public Observable<Task> findTask(String taskId) {
+        Optional<Task> localTask = localJobQueryProcessor.findTask(taskId);
+        if (localTask.isPresent()) {
+            return Observable.just(localTask.get());
+        }
+
         Observable<Task> observable = createRequestObservable(emitter -> {
             StreamObserver<Task> streamObserver = createSimpleClientResponseObserver(emitter);
             createWrappedStub(client, callMetadataResolver, configuration.getRequestTimeout()).findTask(TaskId.newBuilder().setId(taskId).build(), streamObserver);
@@ -138,10 +155,12 @@ public class GatewayJobManagementClient extends JobManagementClientDelegate {
 
     @Override
     public Observable<TaskQueryResult> findTasks(TaskQuery taskQuery) {
-        Observable<TaskQueryResult> observable = createRequestObservable(emitter -> {
-            StreamObserver<TaskQueryResult> streamObserver = createSimpleClientResponseObserver(emitter);
-            createWrappedStub(client, callMetadataResolver, configuration.getRequestTimeout()).findTasks(taskQuery, streamObserver);
-        }, configuration.getRequestTimeout());
+        Observable<TaskQueryResult> observable = localJobQueryProcessor.findTasks(taskQuery)
+                .map(Observable::just)
+                .orElseGet(() -> createRequestObservable(emitter -> {
+                    StreamObserver<TaskQueryResult> streamObserver = createSimpleClientResponseObserver(emitter);
+                    createWrappedStub(client, callMetadataResolver, configuration.getRequestTimeout()).findTasks(taskQuery, streamObserver);
+                }, configuration.getRequestTimeout()));
 
         observable = observable.flatMap(result -> {
             Map<String, String> filteringCriteriaMap = taskQuery.getFilteringCriteriaMap();
@@ -161,7 +180,7 @@ public class GatewayJobManagementClient extends JobManagementClientDelegate {
     }
 
     private Observable<Job> retrieveArchivedJob(String jobId) {
-        return store.retrieveArchivedJob(jobId)
+        return archivedJobCache.getJob(jobId)
                 .onErrorResumeNext(e -> {
                     if (e instanceof JobStoreException) {
                         JobStoreException storeException = (JobStoreException) e;
@@ -170,14 +189,13 @@ public class GatewayJobManagementClient extends JobManagementClientDelegate {
                         }
                     }
                     return Observable.error(TitusServiceException.unexpected("Not able to retrieve the job: %s (%s)", jobId, ExceptionExt.toMessageChain(e)));
-                }).map(V3GrpcModelConverters::toGrpcJob);
+                });
     }
 
     private Observable<List<Task>> retrieveArchivedTasksForJobs(Set<String> jobIds) {
-        return Observable.fromCallable(() -> jobIds.stream().map(store::retrieveArchivedTasksForJob).collect(Collectors.toList()))
+        return Observable.fromCallable(() -> jobIds.stream().map(archivedJobCache::getTasksForJob).collect(Collectors.toList()))
                 .flatMap(observables -> Observable.merge(observables, MAX_CONCURRENT_JOBS_TO_RETRIEVE))
                 //TODO add filtering here but need to decide how to do this because most criteria is based on the job and not the task
-                .map(task -> V3GrpcModelConverters.toGrpcTask(task, logStorageInfo))
                 .toSortedList((first, second) -> Long.compare(first.getStatus().getTimestamp(), second.getStatus().getTimestamp()));
     }
 
@@ -198,7 +216,7 @@ public class GatewayJobManagementClient extends JobManagementClientDelegate {
     }
 
     private Observable<Task> retrieveArchivedTask(String taskId) {
-        return store.retrieveArchivedTask(taskId)
+        return archivedJobCache.getTask(taskId)
                 .onErrorResumeNext(e -> {
                     if (e instanceof JobStoreException) {
                         JobStoreException storeException = (JobStoreException) e;
@@ -207,7 +225,7 @@ public class GatewayJobManagementClient extends JobManagementClientDelegate {
                         }
                     }
                     return Observable.error(TitusServiceException.unexpected("Not able to retrieve the task: %s (%s)", taskId, ExceptionExt.toMessageChain(e)));
-                }).map(task -> V3GrpcModelConverters.toGrpcTask(task, logStorageInfo));
+                });
     }
 
     @VisibleForTesting
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.gateway.service.v3.internal;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.netflix.spectator.api.Registry;
+import com.netflix.titus.api.model.Pagination;
+import com.netflix.titus.api.model.PaginationUtil;
+import com.netflix.titus.common.model.sanitizer.EntitySanitizer;
+import com.netflix.titus.common.runtime.TitusRuntime;
+import com.netflix.titus.common.util.ProtobufCopy;
+import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.gateway.MetricConstants;
+import com.netflix.titus.gateway.service.v3.JobManagerConfiguration;
+import com.netflix.titus.grpc.protogen.Job;
+import com.netflix.titus.grpc.protogen.JobDescriptor.JobSpecCase;
+import com.netflix.titus.grpc.protogen.JobManagementServiceGrpc.JobManagementServiceStub;
+import com.netflix.titus.grpc.protogen.JobQuery;
+import com.netflix.titus.grpc.protogen.JobQueryResult;
+import com.netflix.titus.grpc.protogen.JobStatus;
+import com.netflix.titus.grpc.protogen.Page;
+import com.netflix.titus.grpc.protogen.Task;
+import com.netflix.titus.grpc.protogen.TaskQuery;
+import com.netflix.titus.grpc.protogen.TaskQueryResult;
+import com.netflix.titus.grpc.protogen.TaskStatus;
+import com.netflix.titus.runtime.connector.GrpcClientConfiguration;
+import com.netflix.titus.runtime.connector.jobmanager.JobDataReplicator;
+import com.netflix.titus.runtime.connector.jobmanager.JobSnapshot;
+import com.netflix.titus.runtime.connector.jobmanager.client.GrpcJobManagementClient;
+import com.netflix.titus.runtime.connector.jobmanager.replicator.DefaultJobDataReplicator;
+import com.netflix.titus.runtime.endpoint.JobQueryCriteria;
+import com.netflix.titus.runtime.endpoint.common.LogStorageInfo;
+import com.netflix.titus.runtime.endpoint.metadata.CallMetadataResolver;
+import com.netflix.titus.runtime.endpoint.metadata.V3HeaderInterceptor;
+import com.netflix.titus.runtime.endpoint.v3.grpc.V3GrpcModelConverters;
+import com.netflix.titus.runtime.endpoint.v3.grpc.query.V3JobQueryCriteriaEvaluator;
+import com.netflix.titus.runtime.endpoint.v3.grpc.query.V3TaskQueryCriteriaEvaluator;
+import com.netflix.titus.runtime.jobmanager.JobManagerCursors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.netflix.titus.api.jobmanager.model.job.sanitizer.JobSanitizerBuilder.JOB_STRICT_SANITIZER;
+import static com.netflix.titus.runtime.connector.jobmanager.JobManagementClient.JOB_MINIMUM_FIELD_SET;
+import static com.netflix.titus.runtime.connector.jobmanager.JobManagementClient.TASK_MINIMUM_FIELD_SET;
+import static com.netflix.titus.runtime.endpoint.common.grpc.CommonGrpcModelConverters.toGrpcPagination;
+import static com.netflix.titus.runtime.endpoint.common.grpc.CommonGrpcModelConverters.toJobQueryCriteria;
+import static com.netflix.titus.runtime.endpoint.common.grpc.CommonGrpcModelConverters.toPage;
+
+/**
+ * Answers job and task queries from a local replica of the master's active job data set, with the same filtering
+ * and cursor pagination semantics as the master. Each method returns {@link Optional#empty()} if the query must be
+ * forwarded to the master instead, which is the case when:
+ * <ul>
+ * <li>the local replica is disabled, or not initialized yet</li>
+ * <li>the replica did not apply an event or a keep-alive from the master event stream for longer than
+ * {@link JobManagerConfiguration#getLocalReplicaMaxStalenessMs()}</li>
+ * <li>the query may match finished jobs or tasks, which are not kept in the replica; this is the case when the
+ * state criteria include the finished state, or when there are no state criteria at all</li>
+ * <li>the query is invalid, so the master can report the error</li>
+ * <li>a job or task is not found locally, as it may have been created after the last replica update</li>
+ * </ul>
+ * The replicator blocks until the initial snapshot is loaded, so it is created in a background thread, and the gateway
+ * forwards all queries until it is ready.
+ */
+@Singleton
+public class LocalJobQueryProcessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalJobQueryProcessor.class);
+
+    private static final String METRIC_ROOT = MetricConstants.METRIC_ROOT + "jobReplica.";
+
+    private final JobManagerConfiguration configuration;
+    private final LogStorageInfo<com.netflix.titus.api.jobmanager.model.job.Task> logStorageInfo;
+    private final TitusRuntime titusRuntime;
+    private final Registry registry;
+
+    private volatile JobDataReplicator replicator;
+    private volatile boolean shutdown;
+
+    @Inject
+    public LocalJobQueryProcessor(JobManagerConfiguration configuration,
+                                  GrpcClientConfiguration grpcClientConfiguration,
+                                  JobManagementServiceStub client,
+                                  CallMetadataResolver callMetadataResolver,
+                                  @Named(JOB_STRICT_SANITIZER) EntitySanitizer entitySanitizer,
+                                  LogStorageInfo<com.netflix.titus.api.jobmanager.model.job.Task> logStorageInfo,
+                                  TitusRuntime titusRuntime) {
+        this(configuration, logStorageInfo, titusRuntime);
+        if (configuration.isLocalReplicaEnabled()) {
+            startReplicator(() -> new DefaultJobDataReplicator(
+                    new GrpcJobManagementClient(
+                            V3HeaderInterceptor.attachKeepAliveInterval(client, configuration.getLocalReplicaKeepAliveIntervalMs()),
+                            callMetadataResolver,
+                            entitySanitizer,
+                            grpcClientConfiguration
+                    ),
+                    titusRuntime
+            ));
+        }
+    }
+
+    @VisibleForTesting
+    LocalJobQueryProcessor(JobManagerConfiguration configuration,
+                           JobDataReplicator replicator,
+                           LogStorageInfo<com.netflix.titus.api.jobmanager.model.job.Task> logStorageInfo,
+                           TitusRuntime titusRuntime) {
+        this(configuration, logStorageInfo, titusRuntime);
+        this.replicator = replicator;
+    }
+
+    private LocalJobQueryProcessor(JobManagerConfiguration configuration,
+                                   LogStorageInfo<com.netflix.titus.api.jobmanager.model.job.Task> logStorageInfo,
+                                   TitusRuntime titusRuntime) {
+        this.configuration = configuration;
+        this.logStorageInfo = logStorageInfo;
+        this.titusRuntime = titusRuntime;
+        this.registry = titusRuntime.getRegistry();
+
+        registry.gauge(METRIC_ROOT + "stalenessMs", this, self -> {
+            JobDataReplicator current = self.replicator;
+            return current == null ? -1 : current.getCheckpointStalenessMs();
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.shutdown = true;
+        JobDataReplicator current = replicator;
+        if (current instanceof DefaultJobDataReplicator) {
+            ((DefaultJobDataReplicator) current).shutdown();
+        }
+    }
+
+    public Optional<JobQueryResult> findJobs(JobQuery jobQuery) {
+        return execute("findJobs", () -> {
+            JobQueryCriteria<TaskStatus.TaskState, JobSpecCase> criteria = toJobQueryCriteria(jobQuery);
+            if (!isValid(jobQuery.getPage()) || !excludesFinishedJobs(criteria)) {
+                return Optional.empty();
+            }
+            return getFreshSnapshot().map(snapshot -> {
+                V3JobQueryCriteriaEvaluator predicate = new V3JobQueryCriteriaEvaluator(criteria, titusRuntime);
+                List<com.netflix.titus.api.jobmanager.model.job.Job<?>> matchingJobs = snapshot.getJobsAndTasks().stream()
+                        .filter(predicate)
+                        .map(Pair::getLeft)
+                        .collect(Collectors.toList());
+
+                Pair<List<com.netflix.titus.api.jobmanager.model.job.Job<?>>, Pagination> page = PaginationUtil.selectPageWithCursor(
+                        toPage(jobQuery.getPage()),
+                        matchingJobs,
+                        JobManagerCursors.coreJobCursorOrderComparator(),
+                        JobManagerCursors::coreJobCursorReference,
+                        JobManagerCursors::newCursorFromCoreJob
+                );
+
+                Set<String> fields = toFieldSet(jobQuery.getFieldsList(), JOB_MINIMUM_FIELD_SET);
+                List<Job> grpcJobs = page.getLeft().stream()
+                        .map(V3GrpcModelConverters::toGrpcJob)
+                        .map(fields.isEmpty() ? Function.<Job>identity() : ProtobufCopy.<Job>projectionOf(fields))
+                        .collect(Collectors.toList());
+                return JobQueryResult.newBuilder()
+                        .addAllItems(grpcJobs)
+                        .setPagination(toGrpcPagination(page.getRight()))
+                        .build();
+            });
+        });
+    }
+
+    public Optional<TaskQueryResult> findTasks(TaskQuery taskQuery) {
+        return execute("findTasks", () -> {
+            JobQueryCriteria<TaskStatus.TaskState, JobSpecCase> criteria = toJobQueryCriteria(taskQuery);
+            if (!isValid(taskQuery.getPage()) || !excludesFinishedTasks(criteria)) {
+                return Optional.empty();
+            }
+            return getFreshSnapshot().map(snapshot -> {
+                V3TaskQueryCriteriaEvaluator predicate = new V3TaskQueryCriteriaEvaluator(criteria, titusRuntime);
+                List<com.netflix.titus.api.jobmanager.model.job.Task> matchingTasks = snapshot.getJobsAndTasks().stream()
+                        .flatMap(LocalJobQueryProcessor::toJobTaskPairs)
+                        .filter(predicate)
+                        .map(Pair::getRight)
+                        .collect(Collectors.toList());
+
+                Pair<List<com.netflix.titus.api.jobmanager.model.job.Task>, Pagination> page = PaginationUtil.selectPageWithCursor(
+                        toPage(taskQuery.getPage()),
+                        matchingTasks,
+                        JobManagerCursors.coreTaskCursorOrderComparator(),
+                        JobManagerCursors::coreTaskCursorReference,
+                        JobManagerCursors::newCursorFromCoreTask
+                );
+
+                Set<String> fields = toFieldSet(taskQuery.getFieldsList(), TASK_MINIMUM_FIELD_SET);
+                List<Task> grpcTasks = page.getLeft().stream()
+                        .map(task -> V3GrpcModelConverters.toGrpcTask(task, logStorageInfo))
+                        .map(fields.isEmpty() ? Function.<Task>identity() : ProtobufCopy.<Task>projectionOf(fields))
+                        .collect(Collectors.toList());
+                return TaskQueryResult.newBuilder()
+                        .addAllItems(grpcTasks)
+                        .setPagination(toGrpcPagination(page.getRight()))
+                        .build();
+            });
+        });
+    }
+
+    public Optional<Job> findJob(String jobId) {
+        return execute("findJob", () -> getFreshSnapshot()
+                .flatMap(snapshot -> snapshot.findJob(jobId))
+                .map(V3GrpcModelConverters::toGrpcJob)
+        );
+    }
+
+    public Optional<Task> findTask(String taskId) {
+        return execute("findTask", () -> getFreshSnapshot()
+                .flatMap(snapshot -> snapshot.findTaskById(taskId))
+                .map(jobAndTask -> V3GrpcModelConverters.toGrpcTask(jobAndTask.getRight(), logStorageInfo))
+        );
+    }
+
+    private <T> Optional<T> execute(String method, Supplier<Optional<T>> query) {
+        Optional<T> result;
+        try {
+            result = query.get();
+        } catch (Exception e) {
+            // For example an invalid cursor value. The master reports the error back to the client.
+            logger.debug("Cannot execute {} query on the local replica", method, e);
+            result = Optional.empty();
+        }
+        registry.counter(METRIC_ROOT + "reads", "method", method, "source", result.isPresent() ? "local" : "master").increment();
+        return result;
+    }
+
+    private Optional<JobSnapshot> getFreshSnapshot() {
+        JobDataReplicator current = replicator;
+        if (current == null || !configuration.isLocalReplicaEnabled()) {
+            return Optional.empty();
+        }
+        if (current.getCheckpointStalenessMs() > configuration.getLocalReplicaMaxStalenessMs()) {
+            registry.counter(METRIC_ROOT + "staleReplica").increment();
+            return Optional.empty();
+        }
+        return Optional.of(current.getCurrent());
+    }
+
+    private void startReplicator(Supplier<JobDataReplicator> replicatorFactory) {
+        Thread thread = new Thread(() -> {
+            try {
+                JobDataReplicator newReplicator = replicatorFactory.get();
+                if (shutdown && newReplicator instanceof DefaultJobDataReplicator) {
+                    ((DefaultJobDataReplicator) newReplicator).shutdown();
+                    return;
+                }
+                this.replicator = newReplicator;
+                logger.info("Local job replica initialized; serving job queries locally");
+            } catch (Exception e) {
+                logger.error("Cannot initialize the local job replica; all job queries are forwarded to the master", e);
+            }
+        }, "gateway-job-replica-init");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static Stream<Pair<com.netflix.titus.api.jobmanager.model.job.Job<?>, com.netflix.titus.api.jobmanager.model.job.Task>> toJobTaskPairs(
+            Pair<com.netflix.titus.api.jobmanager.model.job.Job<?>, List<com.netflix.titus.api.jobmanager.model.job.Task>> jobAndTasks) {
+        return jobAndTasks.getRight().stream().map(task -> Pair.of(jobAndTasks.getLeft(), task));
+    }
+
+    /**
+     * Finished jobs and tasks are removed from the replica, so queries for them are answered by the master.
+     */
+    /**
+     * A job query cannot match a finished job, if it filters by a job state other than finished, or by task states
+     * not including finished (a finished job has finished tasks only).
+     */
+    private static boolean excludesFinishedJobs(JobQueryCriteria<TaskStatus.TaskState, JobSpecCase> criteria) {
+        boolean byJobState = criteria.getJobState().map(jobState -> jobState != JobStatus.JobState.Finished).orElse(false);
+        return byJobState || excludesFinishedTasks(criteria);
+    }
+
+    private static boolean excludesFinishedTasks(JobQueryCriteria<TaskStatus.TaskState, JobSpecCase> criteria) {
+        Set<TaskStatus.TaskState> taskStates = criteria.getTaskStates();
+        return !taskStates.isEmpty() && !taskStates.contains(TaskStatus.TaskState.Finished);
+    }
+
+    private static boolean isValid(Page page) {
+        return page != null && page.getPageSize() > 0 && page.getPageNumber() >= 0;
+    }
+
+    private static Set<String> toFieldSet(List<String> fields, Set<String> minimumFields) {
+        if (fields.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> result = new HashSet<>(fields);
+        result.addAll(minimumFields);
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.gateway.service.v3.internal;
+
+import java.util.List;
+
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
+import com.netflix.titus.api.jobmanager.store.JobStore;
+import com.netflix.titus.api.jobmanager.store.JobStoreException;
+import com.netflix.titus.common.runtime.TitusRuntimes;
+import com.netflix.titus.gateway.service.v3.JobManagerConfiguration;
+import com.netflix.titus.runtime.endpoint.common.EmptyLogStorageInfo;
+import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
+import com.netflix.titus.testkit.model.job.JobGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rx.Observable;
+import rx.observers.AssertableSubscriber;
+import rx.subjects.PublishSubject;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ArchivedJobCacheTest {
+
+    private final JobManagerConfiguration configuration = mock(JobManagerConfiguration.class);
+    private final JobStore store = mock(JobStore.class);
+
+    private final Job<BatchJobExt> job = JobGenerator.batchJobs(JobDescriptorGenerator.oneTaskBatchJobDescriptor()).getValue();
+    private final List<Task> tasks = JobGenerator.batchTasks(job).getAndApply(2).getRight();
+
+    private ArchivedJobCache cache;
+
+    @Before
+    public void setUp() {
+        when(configuration.getArchiveCacheMaxSizeBytes()).thenReturn(1024 * 1024L);
+        when(configuration.getArchiveCacheNotFoundMaxSize()).thenReturn(100L);
+        when(configuration.getArchiveCacheNotFoundTtlMs()).thenReturn(60_000L);
+        cache = new ArchivedJobCache(configuration, store, EmptyLogStorageInfo.empty(), TitusRuntimes.internal());
+    }
+
+    @After
+    public void tearDown() {
+        cache.shutdown();
+    }
+
+    @Test
+    public void testArchivedJobIsCached() {
+        when(store.retrieveArchivedJob(job.getId())).thenReturn(Observable.<Job<?>>just(job));
+
+        assertThat(cache.getJob(job.getId()).toBlocking().first().getId()).isEqualTo(job.getId());
+        assertThat(cache.getJob(job.getId()).toBlocking().first().getId()).isEqualTo(job.getId());
+        verify(store, times(1)).retrieveArchivedJob(job.getId());
+    }
+
+    @Test
+    public void testMissingTaskIsRemembered() {
+        Task task = tasks.get(0);
+        when(store.retrieveArchivedTask(task.getId())).thenReturn(Observable.error(JobStoreException.taskDoesNotExist(task.getId())));
+
+        for (int i = 0; i < 2; i++) {
+            AssertableSubscriber<com.netflix.titus.grpc.protogen.Task> subscriber = cache.getTask(task.getId()).test();
+            subscriber.awaitTerminalEvent();
+            subscriber.assertError(JobStoreException.class);
+        }
+        verify(store, times(1)).retrieveArchivedTask(task.getId());
+    }
+
+    @Test
+    public void testConcurrentLoadsAreCoalesced() {
+        PublishSubject<Job<?>> storeSubject = PublishSubject.create();
+        when(store.retrieveArchivedJob(job.getId())).thenReturn(storeSubject);
+
+        AssertableSubscriber<com.netflix.titus.grpc.protogen.Job> first = cache.getJob(job.getId()).test();
+        AssertableSubscriber<com.netflix.titus.grpc.protogen.Job> second = cache.getJob(job.getId()).test();
+        assertThat(cache.getPendingLoadCount()).isEqualTo(1);
+
+        storeSubject.onNext(job);
+        storeSubject.onCompleted();
+
+        first.assertValueCount(1).assertCompleted();
+        second.assertValueCount(1).assertCompleted();
+        assertThat(cache.getPendingLoadCount()).isZero();
+        verify(store, times(1)).retrieveArchivedJob(job.getId());
+    }
+
+    @Test
+    public void testTaskListOfArchivedJobIsCached() {
+        when(store.retrieveArchivedJob(job.getId())).thenReturn(Observable.<Job<?>>just(job));
+        mockArchivedTasks();
+
+        assertThat(cache.getTasksForJob(job.getId()).toList().toBlocking().first()).hasSize(2);
+        assertThat(cache.getTasksForJob(job.getId()).toList().toBlocking().first()).hasSize(2);
+        verify(store, times(1)).retrieveArchivedTaskIdsForJob(job.getId());
+        tasks.forEach(task -> verify(store, times(1)).retrieveArchivedTask(task.getId()));
+    }
+
+    @Test
+    public void testTaskListOfActiveJobIsNotCached() {
+        when(store.retrieveArchivedJob(job.getId())).thenReturn(Observable.error(JobStoreException.jobDoesNotExist(job.getId())));
+        mockArchivedTasks();
+
+        assertThat(cache.getTasksForJob(job.getId()).toList().toBlocking().first()).hasSize(2);
+        assertThat(cache.getTasksForJob(job.getId()).toList().toBlocking().first()).hasSize(2);
+        verify(store, times(2)).retrieveArchivedTaskIdsForJob(job.getId());
+
+        // Task records are resolved through the task cache, also when the task list is not cached.
+        tasks.forEach(task -> verify(store, times(1)).retrieveArchivedTask(task.getId()));
+        verify(store, times(0)).retrieveArchivedTasksForJob(job.getId());
+
+        // An active job must not be remembered as missing, as it is archived once it finishes.
+        when(store.retrieveArchivedJob(job.getId())).thenReturn(Observable.<Job<?>>just(job));
+        assertThat(cache.getJob(job.getId()).toBlocking().first().getId()).isEqualTo(job.getId());
+    }
+
+    @Test
+    public void testMissingTaskRecordIsSkippedInTaskList() {
+        when(store.retrieveArchivedJob(job.getId())).thenReturn(Observable.<Job<?>>just(job));
+        mockArchivedTasks();
+        Task expired = tasks.get(1);
+        when(store.retrieveArchivedTask(expired.getId())).thenReturn(Observable.error(JobStoreException.taskDoesNotExist(expired.getId())));
+
+        List<com.netflix.titus.grpc.protogen.Task> result = cache.getTasksForJob(job.getId()).toList().toBlocking().first();
+        assertThat(result).hasSize(1);
+        assertThat(result.get(0).getId()).isEqualTo(tasks.get(0).getId());
+    }
+
+    private void mockArchivedTasks() {
+        when(store.retrieveArchivedTaskIdsForJob(job.getId())).thenReturn(Observable.from(tasks).map(Task::getId));
+        tasks.forEach(task -> when(store.retrieveArchivedTask(task.getId())).thenReturn(Observable.just(task)));
+    }
+}
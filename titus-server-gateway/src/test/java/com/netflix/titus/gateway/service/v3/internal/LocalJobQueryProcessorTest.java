@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.gateway.service.v3.internal;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
+import com.netflix.titus.common.runtime.TitusRuntimes;
+import com.netflix.titus.gateway.service.v3.JobManagerConfiguration;
+import com.netflix.titus.grpc.protogen.JobQuery;
+import com.netflix.titus.grpc.protogen.JobQueryResult;
+import com.netflix.titus.grpc.protogen.Page;
+import com.netflix.titus.grpc.protogen.TaskQuery;
+import com.netflix.titus.grpc.protogen.TaskQueryResult;
+import com.netflix.titus.runtime.connector.jobmanager.JobDataReplicator;
+import com.netflix.titus.runtime.connector.jobmanager.JobSnapshot;
+import com.netflix.titus.runtime.endpoint.common.EmptyLogStorageInfo;
+import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
+import com.netflix.titus.testkit.model.job.JobGenerator;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LocalJobQueryProcessorTest {
+
+    private static final int JOB_COUNT = 5;
+
+    private final JobManagerConfiguration configuration = mock(JobManagerConfiguration.class);
+    private final JobDataReplicator replicator = mock(JobDataReplicator.class);
+
+    private final Map<String, Job<?>> jobsById = new HashMap<>();
+    private final Map<String, List<Task>> tasksByJobId = new HashMap<>();
+
+    private LocalJobQueryProcessor processor;
+
+    @Before
+    public void setUp() {
+        when(configuration.isLocalReplicaEnabled()).thenReturn(true);
+        when(configuration.getLocalReplicaMaxStalenessMs()).thenReturn(1_000L);
+
+        List<Job<BatchJobExt>> jobs = JobGenerator.batchJobs(JobDescriptorGenerator.oneTaskBatchJobDescriptor()).getAndApply(JOB_COUNT).getRight();
+        for (Job<BatchJobExt> job : jobs) {
+            jobsById.put(job.getId(), job);
+            tasksByJobId.put(job.getId(), singletonList(JobGenerator.batchTasks(job).getValue()));
+        }
+        when(replicator.getCurrent()).thenReturn(new JobSnapshot(jobsById, tasksByJobId));
+
+        processor = new LocalJobQueryProcessor(configuration, replicator, EmptyLogStorageInfo.empty(), TitusRuntimes.internal());
+    }
+
+    @Test
+    public void testFindJobsWithCursorPagination() {
+        Set<String> jobIds = new HashSet<>();
+        JobQueryResult result = processor.findJobs(newJobQuery(Page.newBuilder().setPageSize(2).build())).get();
+        jobIds.addAll(toJobIds(result));
+        while (result.getPagination().getHasMore()) {
+            Page nextPage = Page.newBuilder().setPageSize(2).setCursor(result.getPagination().getCursor()).build();
+            result = processor.findJobs(newJobQuery(nextPage)).get();
+            jobIds.addAll(toJobIds(result));
+        }
+        assertThat(jobIds).isEqualTo(jobsById.keySet());
+    }
+
+    @Test
+    public void testFindTasksByJobId() {
+        String jobId = jobsById.keySet().iterator().next();
+        TaskQuery query = TaskQuery.newBuilder()
+                .setPage(Page.newBuilder().setPageSize(10))
+                .putFilteringCriteria("jobIds", jobId)
+                .putFilteringCriteria("taskStates", "Accepted")
+                .build();
+
+        TaskQueryResult result = processor.findTasks(query).get();
+        assertThat(result.getItemsList()).hasSize(1);
+        assertThat(result.getItems(0).getJobId()).isEqualTo(jobId);
+    }
+
+    @Test
+    public void testFindJobAndTask() {
+        Task task = tasksByJobId.values().iterator().next().get(0);
+        assertThat(processor.findJob(task.getJobId()).map(com.netflix.titus.grpc.protogen.Job::getId)).contains(task.getJobId());
+        assertThat(processor.findTask(task.getId()).map(com.netflix.titus.grpc.protogen.Task::getId)).contains(task.getId());
+
+        // Not found locally, so the master is asked.
+        assertThat(processor.findJob("missingJobId")).isEmpty();
+        assertThat(processor.findTask("missingTaskId")).isEmpty();
+    }
+
+    @Test
+    public void testStaleReplicaIsNotUsed() {
+        when(replicator.getCheckpointStalenessMs()).thenReturn(5_000L);
+        assertThat(processor.findJobs(newJobQuery(Page.newBuilder().setPageSize(2).build()))).isEmpty();
+    }
+
+    @Test
+    public void testFinishedJobAndTaskQueriesAreForwarded() {
+        JobQuery jobQuery = JobQuery.newBuilder()
+                .setPage(Page.newBuilder().setPageSize(10))
+                .putFilteringCriteria("jobState", "Finished")
+                .build();
+        assertThat(processor.findJobs(jobQuery)).isEmpty();
+
+        TaskQuery taskQuery = TaskQuery.newBuilder()
+                .setPage(Page.newBuilder().setPageSize(10))
+                .putFilteringCriteria("taskStates", "Started,Finished")
+                .build();
+        assertThat(processor.findTasks(taskQuery)).isEmpty();
+    }
+
+    @Test
+    public void testQueriesWithoutStateCriteriaAreForwarded() {
+        assertThat(processor.findJobs(JobQuery.newBuilder().setPage(Page.newBuilder().setPageSize(10)).build())).isEmpty();
+
+        String jobId = jobsById.keySet().iterator().next();
+        TaskQuery taskQuery = TaskQuery.newBuilder()
+                .setPage(Page.newBuilder().setPageSize(10))
+                .putFilteringCriteria("jobIds", jobId)
+                .build();
+        assertThat(processor.findTasks(taskQuery)).isEmpty();
+    }
+
+    @Test
+    public void testInvalidQueryIsForwarded() {
+        assertThat(processor.findJobs(newJobQuery(Page.newBuilder().setPageSize(0).build()))).isEmpty();
+        assertThat(processor.findJobs(newJobQuery(Page.newBuilder().setPageSize(2).setCursor("badCursor").build()))).isEmpty();
+    }
+
+    @Test
+    public void testDisabledReplicaIsNotUsed() {
+        when(configuration.isLocalReplicaEnabled()).thenReturn(false);
+        Optional<JobQueryResult> result = processor.findJobs(newJobQuery(Page.newBuilder().setPageSize(2).build()));
+        assertThat(result).isEmpty();
+    }
+
+    private JobQuery newJobQuery(Page page) {
+        return JobQuery.newBuilder().setPage(page).putFilteringCriteria("jobState", "Accepted").build();
+    }
+
+    private List<String> toJobIds(JobQueryResult result) {
+        return result.getItemsList().stream().map(com.netflix.titus.grpc.protogen.Job::getId).collect(Collectors.toList());
+    }
+}
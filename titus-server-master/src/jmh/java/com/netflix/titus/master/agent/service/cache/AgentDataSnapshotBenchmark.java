@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.agent.service.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.titus.api.agent.model.AgentInstance;
+import com.netflix.titus.api.agent.model.AgentInstanceGroup;
+import com.netflix.titus.api.agent.model.InstanceOverrideState;
+import com.netflix.titus.api.agent.model.InstanceOverrideStatus;
+import com.netflix.titus.api.model.Tier;
+import com.netflix.titus.testkit.model.agent.AgentGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Applies a sequence of single agent instance updates (override status changes, as done by operators and the
+ * evacuator) to an agent data snapshot of a large fleet. {@link #updateAgentInstances()} measures the snapshot updates
+ * only, and {@link #updateAgentInstancesAndRemoveSome()} mixes them with instance removals. Run with
+ * <tt>./gradlew :titus-server-master:jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AgentDataSnapshotBenchmark {
+
+    private static final int INSTANCES_PER_GROUP = 1_000;
+
+    @Param({"50000"})
+    public int agentCount;
+
+    @Param({"10000"})
+    public int updateCount;
+
+    private AgentDataSnapshot snapshot;
+    private List<AgentInstance> updates;
+
+    @Setup
+    public void setUp() {
+        int groupCount = Math.max(1, agentCount / INSTANCES_PER_GROUP);
+        List<AgentInstanceGroup> instanceGroups = AgentGenerator.agentServerGroups(Tier.Flex, INSTANCES_PER_GROUP).toList(groupCount);
+        List<AgentInstance> instances = new ArrayList<>(agentCount);
+        for (AgentInstanceGroup instanceGroup : instanceGroups) {
+            instances.addAll(AgentGenerator.agentInstances(instanceGroup).toList(INSTANCES_PER_GROUP));
+        }
+        this.snapshot = AgentDataSnapshot.initWithStaleDataSnapshot(instanceGroups, instances);
+
+        Random random = new Random(123);
+        InstanceOverrideState[] states = {InstanceOverrideState.Quarantined, InstanceOverrideState.None};
+        List<AgentInstance> updates = new ArrayList<>(updateCount);
+        for (int i = 0; i < updateCount; i++) {
+            AgentInstance instance = instances.get(random.nextInt(instances.size()));
+            updates.add(instance.toBuilder()
+                    .withOverrideStatus(InstanceOverrideStatus.newBuilder()
+                            .withState(states[i % states.length])
+                            .withDetail("benchmark")
+                            .withTimestamp(i)
+                            .build()
+                    )
+                    .build()
+            );
+        }
+        this.updates = updates;
+    }
+
+    @Benchmark
+    public AgentDataSnapshot updateAgentInstances() {
+        AgentDataSnapshot current = snapshot;
+        for (AgentInstance update : updates) {
+            current = current.updateAgentInstance(update);
+        }
+        return current;
+    }
+
+    @Benchmark
+    public AgentDataSnapshot updateAgentInstancesAndRemoveSome() {
+        AgentDataSnapshot current = snapshot;
+        for (int i = 0; i < updates.size(); i++) {
+            AgentInstance update = updates.get(i);
+            if (i % 10 == 0) {
+                current = current.removeInstances(update.getInstanceGroupId(), Collections.singleton(update.getId()));
+            } else {
+                current = current.updateAgentInstance(update);
+            }
+        }
+        return current;
+    }
+}
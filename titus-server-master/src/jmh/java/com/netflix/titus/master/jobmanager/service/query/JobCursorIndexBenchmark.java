@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.jobmanager.service.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.JobFunctions;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
+import com.netflix.titus.api.jobmanager.model.job.event.TaskUpdateEvent;
+import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
+import com.netflix.titus.api.jobmanager.service.V3JobOperations;
+import com.netflix.titus.api.model.Page;
+import com.netflix.titus.api.model.Pagination;
+import com.netflix.titus.api.model.PaginationUtil;
+import com.netflix.titus.common.runtime.TitusRuntimes;
+import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.grpc.protogen.JobDescriptor;
+import com.netflix.titus.grpc.protogen.TaskStatus;
+import com.netflix.titus.runtime.endpoint.JobQueryCriteria;
+import com.netflix.titus.runtime.jobmanager.JobManagerCursors;
+import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
+import com.netflix.titus.testkit.model.job.JobGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Walks all started tasks page by page with a cursor, as done by clients synchronizing the complete task state.
+ * {@link #walkWithCursorIndex()} reads the pages from {@link JobCursorIndex}, and {@link #walkWithPageSelection()}
+ * selects each page from the full task list, which is what a query not served by the index does. Run with
+ * <tt>./gradlew :titus-server-master:jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class JobCursorIndexBenchmark {
+
+    private static final int TASKS_PER_JOB = 1_000;
+
+    private static final JobQueryCriteria<TaskStatus.TaskState, JobDescriptor.JobSpecCase> CRITERIA = JobQueryCriteria.<TaskStatus.TaskState, JobDescriptor.JobSpecCase>newBuilder()
+            .withTaskStates(Collections.singleton(TaskStatus.TaskState.Started))
+            .build();
+
+    @Param({"500000"})
+    public int taskCount;
+
+    @Param({"500"})
+    public int pageSize;
+
+    private JobCursorIndex index;
+    private List<Task> tasks;
+
+    @Setup
+    public void setUp() {
+        JobCursorIndex index = new JobCursorIndex(mock(V3JobOperations.class), TitusRuntimes.internal());
+        index.rebuild();
+        List<Task> tasks = new ArrayList<>(taskCount);
+
+        List<Job<BatchJobExt>> jobs = JobGenerator.batchJobs(
+                JobFunctions.changeBatchJobSize(JobDescriptorGenerator.oneTaskBatchJobDescriptor(), TASKS_PER_JOB)
+        ).toList(Math.max(1, taskCount / TASKS_PER_JOB));
+        for (Job<BatchJobExt> job : jobs) {
+            for (Task task : JobGenerator.batchTasks(job).toList()) {
+                Task started = JobFunctions.changeTaskStatus(task, TaskState.Started, "", "");
+                index.onJobManagerEvent(TaskUpdateEvent.newTask(job, started));
+                tasks.add(started);
+            }
+        }
+        this.index = index;
+        this.tasks = tasks;
+    }
+
+    @Benchmark
+    public int walkWithCursorIndex() {
+        Page page = Page.newBuilder().withPageSize(pageSize).withCursor("").build();
+        int walked = 0;
+        while (true) {
+            Pair<List<Task>, Pagination> result = index.findTasks(CRITERIA, page).get();
+            walked += result.getLeft().size();
+            if (!result.getRight().hasMore()) {
+                return walked;
+            }
+            page = page.toBuilder().withCursor(result.getRight().getCursor()).build();
+        }
+    }
+
+    @Benchmark
+    public int walkWithPageSelection() {
+        Page page = Page.newBuilder().withPageSize(pageSize).withCursor("").build();
+        int walked = 0;
+        while (true) {
+            Pair<List<Task>, Pagination> result = PaginationUtil.selectPageWithCursor(
+                    page,
+                    tasks,
+                    JobManagerCursors.coreTaskCursorOrderComparator(),
+                    JobManagerCursors::coreTaskCursorReference,
+                    JobManagerCursors::newCursorFromCoreTask
+            );
+            walked += result.getLeft().size();
+            if (!result.getRight().hasMore()) {
+                return walked;
+            }
+            page = page.toBuilder().withCursor(result.getRight().getCursor()).build();
+        }
+    }
+}
@@ -28,6 +28,13 @@ public interface AgentManagementConfiguration {
     @DefaultValue("120000")
     long getFullCacheRefreshIntervalMs();
 
+    /**
+     * Maximum number of instance groups refreshed with a single cloud connector call. Values above 100 (the AWS
+     * auto scaling API page size limit) are reduced to 100.
+     */
+    @DefaultValue("50")
+    int getCacheRefreshBatchSize();
+
     @DefaultValue(".*")
     String getAgentInstanceGroupPattern();
 
@@ -17,10 +17,8 @@
 package com.netflix.titus.master.agent.service.cache;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.netflix.spectator.api.BasicTag;
@@ -29,7 +27,6 @@ import com.netflix.spectator.api.Registry;
 import com.netflix.spectator.api.Tag;
 import com.netflix.titus.api.agent.model.AgentInstance;
 import com.netflix.titus.api.agent.model.AgentInstanceGroup;
-import com.netflix.titus.common.util.CollectionsExt;
 import com.netflix.titus.master.MetricConstants;
 
 import static java.util.Arrays.asList;
@@ -41,48 +38,68 @@ class AgentCacheMetrics {
     private final Map<String, InstanceGroupMetrics> instanceGroupMetrics = new HashMap<>();
     private final Map<String, InstanceMetrics> instanceMetrics = new HashMap<>();
 
+    private AgentDataSnapshot lastSnapshot = new AgentDataSnapshot();
+
     AgentCacheMetrics(Registry registry) {
         this.registry = registry;
     }
 
+    /**
+     * Applies the changes since the previously refreshed snapshot. Snapshots share unchanged data, so the cost is
+     * proportional to the number of changed instance groups and instances, not to the agent fleet size.
+     */
     void refresh(AgentDataSnapshot snapshot) {
-        refreshInstanceGroupMetrics(snapshot);
-        refreshInstanceMetrics(snapshot);
+        AgentDataSnapshot previous = lastSnapshot;
+        this.lastSnapshot = snapshot;
+        refreshInstanceGroupMetrics(previous, snapshot);
+        refreshInstanceMetrics(previous, snapshot);
     }
 
-    private void refreshInstanceGroupMetrics(AgentDataSnapshot snapshot) {
-        Set<String> foundIds = new HashSet<>();
-        snapshot.getInstanceGroups().forEach(g -> {
-            foundIds.add(g.getId());
-            InstanceGroupMetrics current = this.instanceGroupMetrics.get(g.getId());
+    private void refreshInstanceGroupMetrics(AgentDataSnapshot previous, AgentDataSnapshot snapshot) {
+        snapshot.diffInstanceGroups(previous, (previousGroup, currentGroup) -> {
+            if (currentGroup == null) {
+                InstanceGroupMetrics removed = instanceGroupMetrics.remove(previousGroup.getId());
+                if (removed != null) {
+                    removed.remove();
+                }
+                return;
+            }
+            InstanceGroupMetrics current = instanceGroupMetrics.get(currentGroup.getId());
             if (current == null) {
-                instanceGroupMetrics.put(g.getId(), new InstanceGroupMetrics(g));
+                instanceGroupMetrics.put(currentGroup.getId(), new InstanceGroupMetrics(currentGroup));
             } else {
-                instanceGroupMetrics.put(g.getId(), current.apply(g));
+                instanceGroupMetrics.put(currentGroup.getId(), current.apply(currentGroup));
+            }
+            // Instance metrics are tagged with the instance group tier.
+            if (previousGroup != null && previousGroup.getTier() != currentGroup.getTier()) {
+                snapshot.getInstances(currentGroup.getId()).forEach(i -> refreshInstance(currentGroup, i));
             }
         });
-        CollectionsExt.copyAndRemove(instanceGroupMetrics.keySet(), foundIds).forEach(m ->
-                instanceGroupMetrics.remove(m).remove()
-        );
     }
 
-    private void refreshInstanceMetrics(AgentDataSnapshot snapshot) {
-        Set<String> foundIds = new HashSet<>();
-        snapshot.getInstanceGroups().forEach(
-                g -> snapshot.getInstances(g.getId())
-                        .forEach(i -> {
-                            foundIds.add(i.getId());
-                            InstanceMetrics current = this.instanceMetrics.get(i.getId());
-                            if (current == null) {
-                                instanceMetrics.put(i.getId(), new InstanceMetrics(g, i));
-                            } else {
-                                instanceMetrics.put(i.getId(), current.apply(g, i));
-                            }
-                        })
-        );
-        CollectionsExt.copyAndRemove(instanceMetrics.keySet(), foundIds).forEach(m ->
-                instanceMetrics.remove(m).remove()
-        );
+    private void refreshInstanceMetrics(AgentDataSnapshot previous, AgentDataSnapshot snapshot) {
+        snapshot.diffInstances(previous, (previousInstance, currentInstance) -> {
+            if (currentInstance == null) {
+                InstanceMetrics removed = instanceMetrics.remove(previousInstance.getId());
+                if (removed != null) {
+                    removed.remove();
+                }
+                return;
+            }
+            AgentInstanceGroup instanceGroup = snapshot.getInstanceGroup(currentInstance.getInstanceGroupId());
+            if (instanceGroup != null) {
+                refreshInstance(instanceGroup, currentInstance);
+            }
+        });
+    }
+
+    private void refreshInstance(AgentInstanceGroup instanceGroup, AgentInstance instance) {
+        InstanceMetrics current = this.instanceMetrics.get(instance.getId());
+        if (current == null) {
+            instanceMetrics.put(instance.getId(), new InstanceMetrics(instanceGroup, instance));
+        } else {
+            instanceMetrics.put(instance.getId(), current.apply(instanceGroup, instance));
+        }
     }
 
     private class InstanceGroupMetrics {
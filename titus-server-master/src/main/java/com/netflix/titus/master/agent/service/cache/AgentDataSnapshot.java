@@ -16,53 +16,73 @@
 
 package com.netflix.titus.master.agent.service.cache;
 
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.BiConsumer;
 
 import com.netflix.titus.api.agent.model.AgentInstance;
 import com.netflix.titus.api.agent.model.AgentInstanceGroup;
-import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.common.util.collections.PersistentHashMap;
 
+/**
+ * Immutable view of all instance groups and their instances. The data is kept in persistent maps, so a new snapshot
+ * shares all unchanged data with the previous one. An update of a single agent instance modifies only its instance
+ * group entry and the instance id index, instead of copying the whole agent fleet.
+ */
 class AgentDataSnapshot {
 
-    private final Set<String> instanceGroupIds;
-    private final List<AgentInstanceGroup> instanceGroups;
-    private final Map<String, Pair<AgentInstanceGroup, Set<AgentInstance>>> instanceGroupsById;
-    private final Map<String, AgentInstance> agentInstancesById;
+    private final PersistentHashMap<String, InstanceGroupEntry> instanceGroupsById;
+    private final PersistentHashMap<String, AgentInstance> agentInstancesById;
+
+    /**
+     * Instance group list and id set, created on first access. They do not change when only agent instances are
+     * updated, so are passed on to the next snapshot in that case.
+     */
+    private volatile List<AgentInstanceGroup> instanceGroups;
+    private volatile Set<String> instanceGroupIds;
 
     AgentDataSnapshot() {
-        this(Collections.emptyMap());
+        this(PersistentHashMap.empty(), PersistentHashMap.empty(), null, null);
     }
 
-    private AgentDataSnapshot(Map<String, Pair<AgentInstanceGroup, Set<AgentInstance>>> instanceGroupsById) {
-        this.instanceGroupsById = Collections.unmodifiableMap(instanceGroupsById);
-        this.instanceGroupIds = Collections.unmodifiableSet(new HashSet<>(instanceGroupsById.keySet()));
-        this.instanceGroups = Collections.unmodifiableList(new ArrayList<>(instanceGroupsById.values().stream().map(Pair::getLeft).collect(Collectors.toList())));
-        this.agentInstancesById = Collections.unmodifiableMap(instanceGroupsById.values().stream()
-                .flatMap(p -> p.getRight().stream())
-                .collect(Collectors.toMap(AgentInstance::getId, Function.identity()))
-        );
+    private AgentDataSnapshot(PersistentHashMap<String, InstanceGroupEntry> instanceGroupsById,
+                              PersistentHashMap<String, AgentInstance> agentInstancesById,
+                              List<AgentInstanceGroup> instanceGroups,
+                              Set<String> instanceGroupIds) {
+        this.instanceGroupsById = instanceGroupsById;
+        this.agentInstancesById = agentInstancesById;
+        this.instanceGroups = instanceGroups;
+        this.instanceGroupIds = instanceGroupIds;
     }
 
     List<AgentInstanceGroup> getInstanceGroups() {
-        return instanceGroups;
+        List<AgentInstanceGroup> result = instanceGroups;
+        if (result == null) {
+            List<AgentInstanceGroup> groups = new ArrayList<>(instanceGroupsById.size());
+            instanceGroupsById.forEach((id, entry) -> groups.add(entry.getInstanceGroup()));
+            result = Collections.unmodifiableList(groups);
+            this.instanceGroups = result;
+        }
+        return result;
     }
 
     AgentInstanceGroup getInstanceGroup(String instanceGroupId) {
-        Pair<AgentInstanceGroup, Set<AgentInstance>> pair = instanceGroupsById.get(instanceGroupId);
-        return pair == null ? null : pair.getLeft();
+        InstanceGroupEntry entry = instanceGroupsById.get(instanceGroupId);
+        return entry == null ? null : entry.getInstanceGroup();
     }
 
     Set<String> getInstanceGroupIds() {
-        return instanceGroupIds;
+        Set<String> result = instanceGroupIds;
+        if (result == null) {
+            result = Collections.unmodifiableSet(new HashSet<>(instanceGroupsById.keys()));
+            this.instanceGroupIds = result;
+        }
+        return result;
     }
 
     AgentInstance getInstance(String instanceId) {
@@ -70,75 +90,208 @@ class AgentDataSnapshot {
     }
 
     Set<AgentInstance> getInstances(String instanceGroupId) {
-        Pair<AgentInstanceGroup, Set<AgentInstance>> pair = instanceGroupsById.get(instanceGroupId);
-        return pair == null ? null : pair.getRight();
+        InstanceGroupEntry entry = instanceGroupsById.get(instanceGroupId);
+        return entry == null ? null : entry.getInstanceSet();
+    }
+
+    /**
+     * Reports all agent instances added, updated or removed since the given snapshot, with the same semantics as
+     * {@link PersistentHashMap#diff(PersistentHashMap, BiConsumer)}.
+     */
+    void diffInstances(AgentDataSnapshot previous, BiConsumer<AgentInstance, AgentInstance> changeConsumer) {
+        agentInstancesById.diff(previous.agentInstancesById, changeConsumer);
+    }
+
+    /**
+     * Reports all instance groups added, updated or removed since the given snapshot. Instance groups, which only
+     * had their agent instances changed, are not reported.
+     */
+    void diffInstanceGroups(AgentDataSnapshot previous, BiConsumer<AgentInstanceGroup, AgentInstanceGroup> changeConsumer) {
+        instanceGroupsById.diff(previous.instanceGroupsById, (previousEntry, currentEntry) -> {
+            AgentInstanceGroup previousGroup = previousEntry == null ? null : previousEntry.getInstanceGroup();
+            AgentInstanceGroup currentGroup = currentEntry == null ? null : currentEntry.getInstanceGroup();
+            if (previousGroup != currentGroup) {
+                changeConsumer.accept(previousGroup, currentGroup);
+            }
+        });
+    }
+
+    /**
+     * Replaces the instance group data, and keeps its agent instances.
+     */
+    AgentDataSnapshot updateInstanceGroup(AgentInstanceGroup agentInstanceGroup) {
+        InstanceGroupEntry previous = instanceGroupsById.get(agentInstanceGroup.getId());
+        PersistentHashMap<String, AgentInstance> instances = previous == null ? PersistentHashMap.empty() : previous.getInstances();
+        return new AgentDataSnapshot(
+                instanceGroupsById.put(agentInstanceGroup.getId(), new InstanceGroupEntry(agentInstanceGroup, instances)),
+                agentInstancesById,
+                null,
+                previous == null ? null : instanceGroupIds
+        );
     }
 
     AgentDataSnapshot updateInstanceGroup(AgentInstanceGroup agentInstanceGroup, Set<AgentInstance> agentInstances) {
-        Map<String, Pair<AgentInstanceGroup, Set<AgentInstance>>> newInstanceGroupsById = new HashMap<>(instanceGroupsById);
-        newInstanceGroupsById.put(agentInstanceGroup.getId(), Pair.of(agentInstanceGroup, agentInstances));
-        return new AgentDataSnapshot(newInstanceGroupsById);
+        InstanceGroupEntry previous = instanceGroupsById.get(agentInstanceGroup.getId());
+        PersistentHashMap<String, AgentInstance> instances = previous == null ? PersistentHashMap.empty() : previous.getInstances();
+        PersistentHashMap<String, AgentInstance> newAgentInstancesById = agentInstancesById;
+
+        // Only the differences are applied, so the instances which did not change are shared with this snapshot.
+        Set<String> newInstanceIds = new HashSet<>();
+        for (AgentInstance agentInstance : agentInstances) {
+            newInstanceIds.add(agentInstance.getId());
+            instances = instances.put(agentInstance.getId(), agentInstance);
+            newAgentInstancesById = newAgentInstancesById.put(agentInstance.getId(), agentInstance);
+        }
+        if (previous != null) {
+            for (String instanceId : previous.getInstances().keys()) {
+                if (!newInstanceIds.contains(instanceId)) {
+                    instances = instances.remove(instanceId);
+                    newAgentInstancesById = newAgentInstancesById.remove(instanceId);
+                }
+            }
+        }
+
+        return new AgentDataSnapshot(
+                instanceGroupsById.put(agentInstanceGroup.getId(), new InstanceGroupEntry(agentInstanceGroup, instances)),
+                newAgentInstancesById,
+                null,
+                previous == null ? null : instanceGroupIds
+        );
     }
 
     AgentDataSnapshot updateAgentInstance(AgentInstance agentInstance) {
         String instanceGroupId = agentInstance.getInstanceGroupId();
-        Pair<AgentInstanceGroup, Set<AgentInstance>> previous = instanceGroupsById.get(instanceGroupId);
+        InstanceGroupEntry previous = instanceGroupsById.get(instanceGroupId);
         if (previous == null) {
             return this;
         }
 
-        // Order matters. If an item is present in a set, it is not overwritten, so add the updated entity first.
-        Set<AgentInstance> instanceSet = new TreeSet<>(AgentInstance.idComparator());
-        instanceSet.add(agentInstance);
-        instanceSet.addAll(previous.getRight());
-
-        Map<String, Pair<AgentInstanceGroup, Set<AgentInstance>>> newInstanceGroupsById = new HashMap<>(instanceGroupsById);
-        newInstanceGroupsById.put(instanceGroupId, Pair.of(previous.getLeft(), instanceSet));
-
-        return new AgentDataSnapshot(newInstanceGroupsById);
+        InstanceGroupEntry updated = new InstanceGroupEntry(
+                previous.getInstanceGroup(),
+                previous.getInstances().put(agentInstance.getId(), agentInstance)
+        );
+        return new AgentDataSnapshot(
+                instanceGroupsById.put(instanceGroupId, updated),
+                agentInstancesById.put(agentInstance.getId(), agentInstance),
+                instanceGroups,
+                instanceGroupIds
+        );
     }
 
     AgentDataSnapshot removeInstanceGroup(String instanceGroupId) {
-        if (!instanceGroupsById.containsKey(instanceGroupId)) {
+        InstanceGroupEntry existing = instanceGroupsById.get(instanceGroupId);
+        if (existing == null) {
             return this;
         }
 
-        Map<String, Pair<AgentInstanceGroup, Set<AgentInstance>>> newInstanceGroupByIds = new HashMap<>(instanceGroupsById);
-        newInstanceGroupByIds.remove(instanceGroupId);
-
-        return new AgentDataSnapshot(newInstanceGroupByIds);
+        PersistentHashMap<String, AgentInstance> newAgentInstancesById = agentInstancesById;
+        for (String instanceId : existing.getInstances().keys()) {
+            newAgentInstancesById = newAgentInstancesById.remove(instanceId);
+        }
+        return new AgentDataSnapshot(instanceGroupsById.remove(instanceGroupId), newAgentInstancesById, null, null);
     }
 
     AgentDataSnapshot removeInstances(String instanceGroupId, Set<String> agentInstanceIds) {
-        Pair<AgentInstanceGroup, Set<AgentInstance>> existing = instanceGroupsById.get(instanceGroupId);
+        InstanceGroupEntry existing = instanceGroupsById.get(instanceGroupId);
         if (existing == null) {
             return this;
         }
 
-        Map<String, Pair<AgentInstanceGroup, Set<AgentInstance>>> newInstanceGroupsById = new HashMap<>(instanceGroupsById);
-        TreeSet<AgentInstance> newInstanceSet = new TreeSet<>(AgentInstance.idComparator());
-        existing.getRight().forEach(agentInstance -> {
-            if (!agentInstanceIds.contains(agentInstance.getId())) {
-                newInstanceSet.add(agentInstance);
+        PersistentHashMap<String, AgentInstance> instances = existing.getInstances();
+        PersistentHashMap<String, AgentInstance> newAgentInstancesById = agentInstancesById;
+        for (String instanceId : agentInstanceIds) {
+            if (instances.containsKey(instanceId)) {
+                instances = instances.remove(instanceId);
+                newAgentInstancesById = newAgentInstancesById.remove(instanceId);
             }
-        });
-        newInstanceGroupsById.put(instanceGroupId, Pair.of(existing.getLeft(), newInstanceSet));
+        }
+        if (instances == existing.getInstances()) {
+            return this;
+        }
 
-        return new AgentDataSnapshot(newInstanceGroupsById);
+        return new AgentDataSnapshot(
+                instanceGroupsById.put(instanceGroupId, new InstanceGroupEntry(existing.getInstanceGroup(), instances)),
+                newAgentInstancesById,
+                instanceGroups,
+                instanceGroupIds
+        );
     }
 
     static AgentDataSnapshot initWithStaleDataSnapshot(List<AgentInstanceGroup> persistedInstanceGroups, List<AgentInstance> persistedInstances) {
-        Map<String, Set<AgentInstance>> instancesByInstanceGroup = persistedInstances.stream()
-                .collect(Collectors.groupingBy(AgentInstance::getInstanceGroupId, Collectors.toSet()));
+        PersistentHashMap<String, InstanceGroupEntry> instanceGroupsById = PersistentHashMap.empty();
+        for (AgentInstanceGroup instanceGroup : persistedInstanceGroups) {
+            instanceGroupsById = instanceGroupsById.put(instanceGroup.getId(), new InstanceGroupEntry(instanceGroup, PersistentHashMap.empty()));
+        }
+
+        PersistentHashMap<String, AgentInstance> agentInstancesById = PersistentHashMap.empty();
+        for (AgentInstance agentInstance : persistedInstances) {
+            InstanceGroupEntry entry = instanceGroupsById.get(agentInstance.getInstanceGroupId());
+            if (entry != null) {
+                instanceGroupsById = instanceGroupsById.put(
+                        entry.getInstanceGroup().getId(),
+                        new InstanceGroupEntry(entry.getInstanceGroup(), entry.getInstances().put(agentInstance.getId(), agentInstance))
+                );
+                agentInstancesById = agentInstancesById.put(agentInstance.getId(), agentInstance);
+            }
+        }
+
+        return new AgentDataSnapshot(instanceGroupsById, agentInstancesById, null, null);
+    }
+
+    private static class InstanceGroupEntry {
+
+        private final AgentInstanceGroup instanceGroup;
+        private final PersistentHashMap<String, AgentInstance> instances;
+        private final Set<AgentInstance> instanceSet;
+
+        private InstanceGroupEntry(AgentInstanceGroup instanceGroup, PersistentHashMap<String, AgentInstance> instances) {
+            this.instanceGroup = instanceGroup;
+            this.instances = instances;
+            this.instanceSet = new InstanceSet(instances);
+        }
+
+        private AgentInstanceGroup getInstanceGroup() {
+            return instanceGroup;
+        }
+
+        private PersistentHashMap<String, AgentInstance> getInstances() {
+            return instances;
+        }
+
+        private Set<AgentInstance> getInstanceSet() {
+            return instanceSet;
+        }
+    }
+
+    /**
+     * Read only {@link Set} view of the instances of an instance group. Lookups are served by the underlying map, and
+     * the elements are copied only when the set is iterated.
+     */
+    private static class InstanceSet extends AbstractSet<AgentInstance> {
 
-        Map<String, Pair<AgentInstanceGroup, Set<AgentInstance>>> instanceGroupsById = persistedInstanceGroups.stream()
-                .map(sg -> {
-                    Set<AgentInstance> instances = instancesByInstanceGroup.get(sg.getId());
-                    instances = instances == null ? Collections.emptySet() : instances;
-                    return Pair.of(sg, instances);
-                }).collect(Collectors.toMap(p -> p.getLeft().getId(), Function.identity()));
+        private final PersistentHashMap<String, AgentInstance> instances;
 
+        private InstanceSet(PersistentHashMap<String, AgentInstance> instances) {
+            this.instances = instances;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof AgentInstance)) {
+                return false;
+            }
+            AgentInstance agentInstance = (AgentInstance) o;
+            return agentInstance.equals(instances.get(agentInstance.getId()));
+        }
 
-        return new AgentDataSnapshot(instanceGroupsById);
+        @Override
+        public Iterator<AgentInstance> iterator() {
+            return Collections.unmodifiableCollection(instances.values()).iterator();
+        }
+
+        @Override
+        public int size() {
+            return instances.size();
+        }
     }
 }
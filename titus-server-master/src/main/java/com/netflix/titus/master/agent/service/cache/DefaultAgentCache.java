@@ -162,7 +162,7 @@ public class DefaultAgentCache implements AgentCache {
                                     onEventLoop(() -> updateOnInstanceGroupInstanceCacheEvent(event.getResourceId()));
                                     break;
                                 case Instance:
-                                    // Ignore, as instance group, and its instances are refreshed at the same time
+                                    onEventLoop(() -> updateOnInstanceInstanceCacheEvent(event.getResourceId()));
                                     break;
                             }
                         },
@@ -212,11 +212,7 @@ public class DefaultAgentCache implements AgentCache {
     public Completable updateInstanceGroupStore(AgentInstanceGroup instanceGroup) {
         return onEventLoopWithSubscription(() -> {
             getInstanceGroup(instanceGroup.getId());
-            Set<AgentInstance> agentInstances = dataSnapshot.getInstances(instanceGroup.getId());
-            if (agentInstances == null) {
-                agentInstances = Collections.emptySet();
-            }
-            setDataSnapshot(dataSnapshot.updateInstanceGroup(instanceGroup, agentInstances));
+            setDataSnapshot(dataSnapshot.updateInstanceGroup(instanceGroup));
             eventSubject.onNext(new CacheUpdateEvent(CacheUpdateType.InstanceGroup, instanceGroup.getId()));
         }).concatWith(agentStore.storeAgentInstanceGroup(instanceGroup));
     }
@@ -284,6 +280,27 @@ public class DefaultAgentCache implements AgentCache {
         }
     }
 
+    /**
+     * Instance events are emitted only for instances with changed state, which still belong to the same instance group,
+     * so only this instance is updated. If the instance is not known yet, the whole instance group is synchronized.
+     */
+    private void updateOnInstanceInstanceCacheEvent(String instanceId) {
+        Instance instance = instanceCache.getAgentInstance(instanceId);
+        if (instance == null) {
+            return;
+        }
+        AgentInstance previous = dataSnapshot.getInstance(instanceId);
+        if (previous == null) {
+            if (dataSnapshot.getInstanceGroup(instance.getInstanceGroupId()) != null) {
+                syncInstanceGroupWithInstanceCache(instance.getInstanceGroupId());
+            }
+            return;
+        }
+
+        setDataSnapshot(dataSnapshot.updateAgentInstance(DataConverters.updateAgentInstance(previous, instance)));
+        eventSubject.onNext(new CacheUpdateEvent(CacheUpdateType.Instance, instanceId));
+    }
+
     private void syncInstanceGroupWithInstanceCache(String instanceGroupId) {
         InstanceGroup instanceGroup = instanceCache.getInstanceGroup(instanceGroupId);
 
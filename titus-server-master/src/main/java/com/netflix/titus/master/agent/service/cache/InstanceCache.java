@@ -18,12 +18,12 @@ package com.netflix.titus.master.agent.service.cache;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.regex.Pattern;
@@ -31,6 +31,8 @@ import java.util.stream.Collectors;
 
 import com.google.common.base.Strings;
 import com.netflix.spectator.api.BasicTag;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Id;
 import com.netflix.spectator.api.Registry;
 import com.netflix.spectator.api.Tag;
 import com.netflix.titus.api.agent.service.AgentManagementException;
@@ -57,7 +59,6 @@ import rx.subjects.PublishSubject;
 
 import static com.netflix.titus.common.util.spectator.SpectatorExt.continuousSubscriptionMetrics;
 import static com.netflix.titus.master.MetricConstants.METRIC_AGENT_CACHE;
-import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 
 /**
@@ -68,6 +69,13 @@ import static java.util.Collections.singletonList;
  * <li>Each known instance group (including instances) is refreshed every {@link AgentManagementConfiguration#getCacheRefreshIntervalMs()}</li>
  * <li>List of known instance groups is refreshed every {@link AgentManagementConfiguration#getFullCacheRefreshIntervalMs()} ()}</li>
  * </ul>
+ * Instance groups are refreshed in batches of {@link AgentManagementConfiguration#getCacheRefreshBatchSize()}, but
+ * not more than {@link #MAX_REFRESH_BATCH_SIZE}, with one connector call to load the instance groups. The instances
+ * of each instance group are then loaded by instance group id. An instance group missing from a batch result is looked
+ * up again on its own, and is removed from the cache only if the connector does not find it then either. The loaded
+ * data is compared with the cached data, and events are emitted only for actual changes. An instance group event is
+ * emitted if the instance group itself or its instance membership changed, and an instance event for each changed
+ * instance otherwise.
  */
 class InstanceCache {
 
@@ -79,6 +87,12 @@ class InstanceCache {
     private static final int BOOT_RETRY_COUNT = 10;
     private static final long BOOT_RETRY_DELAYS_MS = 1_000;
     private static final long MAX_REFRESH_TIMEOUT = 600_000;
+    private static final int MAX_CONCURRENT_BATCH_REFRESHES = 4;
+
+    /**
+     * Maximum number of instance groups returned in a single page by the AWS auto scaling API.
+     */
+    static final int MAX_REFRESH_BATCH_SIZE = 100;
 
     private final AgentManagementConfiguration configuration;
     private final InstanceCloudConnector connector;
@@ -93,7 +107,13 @@ class InstanceCache {
     private final PublishSubject<CacheUpdateEvent> eventSubject = PublishSubject.create();
 
     private ContinuousSubscriptionMetrics fullInstanceGroupRefreshMetricsTransformer;
-    private Map<String, ContinuousSubscriptionMetrics> instanceGroupRefreshMetricsTransformers = new ConcurrentHashMap<>();
+
+    private final Counter getInstanceGroupsCallCounter;
+    private final Counter getInstancesByInstanceGroupIdCallCounter;
+    private final Counter changedInstanceGroupCounter;
+    private final Counter unchangedInstanceGroupCounter;
+    private final Counter removedInstanceGroupCounter;
+    private final Counter changedInstanceCounter;
 
     private InstanceCache(AgentManagementConfiguration configuration,
                           InstanceCloudConnector connector,
@@ -109,9 +129,18 @@ class InstanceCache {
         List<Tag> tags = Collections.singletonList(new BasicTag("class", InstanceCache.class.getSimpleName()));
         fullInstanceGroupRefreshMetricsTransformer = continuousSubscriptionMetrics(METRIC_AGENT_CACHE + "fullInstanceGroupRefresh", tags, registry);
 
+        Id connectorCallsId = registry.createId(METRIC_AGENT_CACHE + "connectorCalls", tags);
+        this.getInstanceGroupsCallCounter = registry.counter(connectorCallsId.withTag("api", "getInstanceGroups"));
+        this.getInstancesByInstanceGroupIdCallCounter = registry.counter(connectorCallsId.withTag("api", "getInstancesByInstanceGroupId"));
+        Id instanceGroupRefreshId = registry.createId(METRIC_AGENT_CACHE + "instanceGroupRefresh", tags);
+        this.changedInstanceGroupCounter = registry.counter(instanceGroupRefreshId.withTag("result", "changed"));
+        this.unchangedInstanceGroupCounter = registry.counter(instanceGroupRefreshId.withTag("result", "unchanged"));
+        this.removedInstanceGroupCounter = registry.counter(instanceGroupRefreshId.withTag("result", "removed"));
+        this.changedInstanceCounter = registry.counter(registry.createId(METRIC_AGENT_CACHE + "changedInstances", tags));
+
         // Synchronously refresh information about the known instance groups
-        List<Completable> initialRefresh = knownInstanceGroups.stream().map(this::doInstanceGroupRefresh).collect(Collectors.toList());
-        Throwable error = Completable.merge(initialRefresh).timeout(BOOT_TIMEOUT_MS, TimeUnit.MILLISECONDS).retryWhen(RetryHandlerBuilder.retryHandler()
+        Completable initialRefresh = doInstanceGroupRefresh(new ArrayList<>(knownInstanceGroups));
+        Throwable error = initialRefresh.timeout(BOOT_TIMEOUT_MS, TimeUnit.MILLISECONDS).retryWhen(RetryHandlerBuilder.retryHandler()
                 .withRetryCount(BOOT_RETRY_COUNT)
                 .withDelay(BOOT_RETRY_DELAYS_MS, BOOT_RETRY_DELAYS_MS, TimeUnit.MILLISECONDS)
                 .withScheduler(scheduler)
@@ -168,7 +197,7 @@ class InstanceCache {
     void refreshInstanceGroup(String instanceGroupId) {
         InstanceGroup instanceGroup = cacheSnapshot.getInstanceGroup(instanceGroupId);
         if (instanceGroup != null) {
-            doInstanceGroupRefresh(instanceGroup).subscribe();
+            refreshInstanceGroupBatch(singletonList(instanceGroupId)).subscribe();
         }
     }
 
@@ -236,16 +265,6 @@ class InstanceCache {
                 .timeout(MAX_REFRESH_TIMEOUT, TimeUnit.MILLISECONDS);
     }
 
-    private Completable.Transformer getInstanceGroupRefreshMetricsTransform(String instanceGroupId) {
-        return instanceGroupRefreshMetricsTransformers.computeIfAbsent(instanceGroupId, k -> {
-            List<Tag> tags = asList(
-                    new BasicTag("class", InstanceCache.class.getSimpleName()),
-                    new BasicTag("instanceGroupId", instanceGroupId)
-            );
-            return continuousSubscriptionMetrics(METRIC_AGENT_CACHE + "instanceGroupRefresh", tags, registry);
-        }).asCompletable();
-    }
-
     private Optional<Pattern> getInstanceGroupPattern() {
         String patternValue = configuration.getAgentInstanceGroupPattern();
         try {
@@ -261,53 +280,101 @@ class InstanceCache {
     }
 
     private Completable doInstanceGroupRefresh() {
-        return ObservableExt.fromCallable(() -> cacheSnapshot.getInstanceGroups())
-                .flatMap(instanceGroup -> doInstanceGroupRefresh(instanceGroup).toObservable())
-                .toCompletable();
+        return Completable.defer(() -> doInstanceGroupRefresh(
+                cacheSnapshot.getInstanceGroups().stream().map(InstanceGroup::getId).collect(Collectors.toList())
+        ));
     }
 
-    private Completable doInstanceGroupRefresh(InstanceGroup instanceGroup) {
-        return doInstanceGroupRefresh(instanceGroup.getId());
+    private Completable doInstanceGroupRefresh(List<String> instanceGroupIds) {
+        if (instanceGroupIds.isEmpty()) {
+            return Completable.complete();
+        }
+        int batchSize = Math.min(MAX_REFRESH_BATCH_SIZE, Math.max(1, configuration.getCacheRefreshBatchSize()));
+        List<Completable> batches = CollectionsExt.chop(instanceGroupIds, batchSize).stream()
+                .map(this::refreshInstanceGroupBatch)
+                .collect(Collectors.toList());
+        return Completable.merge(Observable.from(batches), MAX_CONCURRENT_BATCH_REFRESHES);
     }
 
     /**
-     * Refreshes single instance group, and its instances. Updates cache and emits corresponding events.
+     * Refreshes a batch of instance groups, and their instances. Updates cache and emits corresponding events.
      * Never emits error, which is instead logged.
      */
-    private Completable doInstanceGroupRefresh(String instanceGroupId) {
-        Observable<Void> updateAction = connector.getInstanceGroups(singletonList(instanceGroupId))
-                .flatMap(result -> {
-                    if (result.isEmpty()) {
-                        onEventLoop("removeInstanceGroup", () -> {
-                            removeInstanceGroup(instanceGroupId);
-                            logger.info("Instance group: {} has been removed", instanceGroupId);
-                        });
-                        return Observable.empty();
-                    }
-
-                    InstanceGroup instanceGroup = result.get(0);
-
-                    return connector.getInstancesByInstanceGroupId(instanceGroup.getId())
-                            .doOnNext(updatedInstances -> onEventLoop("updateInstances", () -> {
-                                // update the instance ids on the instance group
-                                List<String> instanceIds = updatedInstances.stream().map(Instance::getId).sorted().collect(Collectors.toList());
-                                InstanceGroup updatedInstanceGroup = instanceGroup.toBuilder().withInstanceIds(instanceIds).build();
-                                updateCache(updatedInstanceGroup, updatedInstances);
-                            }))
-                            .ignoreElements()
-                            .cast(Void.class);
-                });
+    private Completable refreshInstanceGroupBatch(List<String> instanceGroupIds) {
+        Observable<Void> updateAction = connector.getInstanceGroups(instanceGroupIds)
+                .doOnSubscribe(getInstanceGroupsCallCounter::increment)
+                .flatMap(instanceGroups -> resolveMissingInstanceGroups(instanceGroupIds, instanceGroups))
+                .flatMap(instanceGroupsAndRemovedIds -> {
+                    List<String> removedIds = instanceGroupsAndRemovedIds.getRight();
+                    return Observable.from(instanceGroupsAndRemovedIds.getLeft())
+                            .concatMap(instanceGroup -> connector.getInstancesByInstanceGroupId(instanceGroup.getId())
+                                    .doOnSubscribe(getInstancesByInstanceGroupIdCallCounter::increment)
+                                    .map(instances -> Pair.of(instanceGroup, instances))
+                            )
+                            .toList()
+                            .doOnNext(instanceGroupsWithInstances ->
+                                    onEventLoop("updateInstanceGroups", () -> updateCache(instanceGroupsWithInstances, removedIds))
+                            );
+                })
+                .ignoreElements()
+                .cast(Void.class);
 
         Completable completable = updateAction.materialize().take(1).doOnNext(
                 result -> {
                     if (result.getKind() == Notification.Kind.OnError) {
-                        logger.warn("Instance group: {} refresh error", instanceGroupId, result.getThrowable());
+                        logger.warn("Instance groups: {} refresh error", instanceGroupIds, result.getThrowable());
                     }
                 }
         ).toCompletable();
 
-        return completable.compose(getInstanceGroupRefreshMetricsTransform(instanceGroupId))
-                .timeout(MAX_REFRESH_TIMEOUT, TimeUnit.MILLISECONDS);
+        return completable.timeout(MAX_REFRESH_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Looks up one by one the instance groups missing from a batch result, which may be incomplete. Returns all found
+     * instance groups, and the ids of the instance groups, which the connector did not find on their own.
+     */
+    private Observable<Pair<List<InstanceGroup>, List<String>>> resolveMissingInstanceGroups(List<String> requestedIds,
+                                                                                              List<InstanceGroup> instanceGroups) {
+        Set<String> foundIds = instanceGroups.stream().map(InstanceGroup::getId).collect(Collectors.toSet());
+        List<String> missingIds = requestedIds.stream().filter(id -> !foundIds.contains(id)).collect(Collectors.toList());
+        if (missingIds.isEmpty() || requestedIds.size() == 1) {
+            return Observable.just(Pair.of(instanceGroups, missingIds));
+        }
+        return Observable.from(missingIds)
+                .concatMap(missingId -> connector.getInstanceGroups(singletonList(missingId))
+                        .doOnSubscribe(getInstanceGroupsCallCounter::increment)
+                        .map(result -> Pair.of(missingId, result))
+                )
+                .toList()
+                .map(results -> {
+                    List<InstanceGroup> allFound = new ArrayList<>(instanceGroups);
+                    List<String> removedIds = new ArrayList<>();
+                    results.forEach(result -> {
+                        if (result.getRight().isEmpty()) {
+                            removedIds.add(result.getLeft());
+                        } else {
+                            allFound.addAll(result.getRight());
+                        }
+                    });
+                    return Pair.of(allFound, removedIds);
+                });
+    }
+
+    private void updateCache(List<Pair<InstanceGroup, List<Instance>>> instanceGroupsWithInstances, List<String> removedInstanceGroupIds) {
+        removedInstanceGroupIds.forEach(removedId -> {
+            removeInstanceGroup(removedId);
+            removedInstanceGroupCounter.increment();
+            logger.info("Instance group: {} has been removed", removedId);
+        });
+
+        instanceGroupsWithInstances.forEach(instanceGroupWithInstances -> {
+            InstanceGroup instanceGroup = instanceGroupWithInstances.getLeft();
+            List<Instance> updatedInstances = instanceGroupWithInstances.getRight();
+            // update the instance ids on the instance group
+            List<String> instanceIds = updatedInstances.stream().map(Instance::getId).sorted().collect(Collectors.toList());
+            updateCache(instanceGroup.toBuilder().withInstanceIds(instanceIds).build(), updatedInstances);
+        });
     }
 
     private void updateCache(InstanceGroup updatedInstanceGroup, List<Instance> updatedInstances) {
@@ -317,34 +384,46 @@ class InstanceCache {
         if (oldInstanceGroup == null) {
             this.cacheSnapshot = cacheSnapshot.updateInstanceGroup(updatedInstanceGroup);
             this.cacheSnapshot = cacheSnapshot.updateInstances(updatedInstances);
+            changedInstanceGroupCounter.increment();
             eventSubject.onNext(new CacheUpdateEvent(CacheUpdateType.InstanceGroup, instanceGroupId));
             return;
         }
 
         InstanceGroup effectiveInstanceGroup = decorate(updatedInstanceGroup, oldInstanceGroup);
         boolean instanceGroupChanged = !oldInstanceGroup.equals(effectiveInstanceGroup);
-        boolean instancesChanged = oldInstanceGroup.getInstanceIds().size() != updatedInstanceGroup.getInstanceIds().size();
-
-        if (!instancesChanged) {
-            for (Instance newInstance : updatedInstances) {
-                Instance oldInstance = cacheSnapshot.getAgentInstance(newInstance.getId());
-                if (oldInstance == null || !oldInstance.equals(newInstance)) {
-                    instancesChanged = true;
-                    break;
-                }
+
+        List<Instance> changedInstances = new ArrayList<>();
+        for (Instance newInstance : updatedInstances) {
+            if (!newInstance.equals(cacheSnapshot.getAgentInstance(newInstance.getId()))) {
+                changedInstances.add(newInstance);
             }
         }
 
+        if (!instanceGroupChanged && changedInstances.isEmpty()) {
+            unchangedInstanceGroupCounter.increment();
+            return;
+        }
+        changedInstanceGroupCounter.increment();
+        changedInstanceCounter.increment(changedInstances.size());
+
         if (instanceGroupChanged) {
-            logger.info("Refreshed cache state due to instance group: {} update", instanceGroupId);
             this.cacheSnapshot = cacheSnapshot.updateInstanceGroup(effectiveInstanceGroup);
+            Set<String> removedInstanceIds = CollectionsExt.copyAndRemove(new HashSet<>(oldInstanceGroup.getInstanceIds()), effectiveInstanceGroup.getInstanceIds());
+            if (!removedInstanceIds.isEmpty()) {
+                this.cacheSnapshot = cacheSnapshot.removeInstances(removedInstanceIds);
+            }
         }
-        if (instancesChanged) {
-            logger.info("Refreshed cache state due to instance count/state update in instance group: {}", instanceGroupId);
-            this.cacheSnapshot = cacheSnapshot.updateInstances(updatedInstances);
+        if (!changedInstances.isEmpty()) {
+            this.cacheSnapshot = cacheSnapshot.updateInstances(changedInstances);
         }
-        if (instanceGroupChanged || instancesChanged) {
+
+        // Instance group event covers its instances, so instance events are emitted only if the instance group did not change.
+        if (instanceGroupChanged) {
+            logger.info("Refreshed cache state due to instance group: {} update", instanceGroupId);
             eventSubject.onNext(new CacheUpdateEvent(CacheUpdateType.InstanceGroup, instanceGroupId));
+        } else {
+            logger.info("Refreshed cache state due to state update of {} instance(s) in instance group: {}", changedInstances.size(), instanceGroupId);
+            changedInstances.forEach(instance -> eventSubject.onNext(new CacheUpdateEvent(CacheUpdateType.Instance, instance.getId())));
         }
     }
 
@@ -369,10 +448,6 @@ class InstanceCache {
     private void removeInstanceGroup(String removedInstanceGroupId) {
         this.cacheSnapshot = cacheSnapshot.removeInstanceGroup(removedInstanceGroupId);
         eventSubject.onNext(new CacheUpdateEvent(CacheUpdateType.InstanceGroup, removedInstanceGroupId));
-        ContinuousSubscriptionMetrics transformer = instanceGroupRefreshMetricsTransformers.remove(removedInstanceGroupId);
-        if (transformer != null) {
-            transformer.remove();
-        }
     }
 
     private void onEventLoop(String actionName, Action0 action) {
@@ -16,32 +16,36 @@
 
 package com.netflix.titus.master.agent.service.cache;
 
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import com.netflix.titus.api.connector.cloud.Instance;
 import com.netflix.titus.api.connector.cloud.InstanceGroup;
-import com.netflix.titus.common.util.CollectionsExt;
+import com.netflix.titus.common.util.collections.PersistentHashMap;
 
 class InstanceCacheDataSnapshot {
 
-    private List<InstanceGroup> instanceGroups;
-    private Map<String, InstanceGroup> instanceGroupMap;
+    private static final InstanceCacheDataSnapshot EMPTY = new InstanceCacheDataSnapshot(PersistentHashMap.empty(), PersistentHashMap.empty());
 
-    private Map<String, Instance> instanceMap;
+    private final PersistentHashMap<String, InstanceGroup> instanceGroupMap;
+    private final PersistentHashMap<String, Instance> instanceMap;
 
-    private InstanceCacheDataSnapshot(Map<String, InstanceGroup> instanceGroupMap,
-                                      Map<String, Instance> instanceMap) {
-        this.instanceGroups = new ArrayList<>(instanceGroupMap.values());
+    private volatile List<InstanceGroup> instanceGroups;
+
+    private InstanceCacheDataSnapshot(PersistentHashMap<String, InstanceGroup> instanceGroupMap,
+                                      PersistentHashMap<String, Instance> instanceMap) {
         this.instanceGroupMap = instanceGroupMap;
         this.instanceMap = instanceMap;
     }
 
     List<InstanceGroup> getInstanceGroups() {
-        return instanceGroups;
+        List<InstanceGroup> result = instanceGroups;
+        if (result == null) {
+            result = Collections.unmodifiableList(instanceGroupMap.values());
+            this.instanceGroups = result;
+        }
+        return result;
     }
 
     InstanceGroup getInstanceGroup(String id) {
@@ -53,31 +57,46 @@ class InstanceCacheDataSnapshot {
     }
 
     InstanceCacheDataSnapshot updateInstanceGroup(InstanceGroup updatedInstanceGroup) {
-        HashMap<String, InstanceGroup> newInstanceGroupMap = new HashMap<>(instanceGroupMap);
-        newInstanceGroupMap.put(updatedInstanceGroup.getId(), updatedInstanceGroup);
-        return new InstanceCacheDataSnapshot(newInstanceGroupMap, instanceMap);
+        return new InstanceCacheDataSnapshot(instanceGroupMap.put(updatedInstanceGroup.getId(), updatedInstanceGroup), instanceMap);
     }
 
     InstanceCacheDataSnapshot updateInstances(List<Instance> instances) {
-        HashMap<String, Instance> newInstanceMap = new HashMap<>(instanceMap);
-        instances.forEach(updated -> newInstanceMap.put(updated.getId(), updated));
+        PersistentHashMap<String, Instance> newInstanceMap = instanceMap;
+        for (Instance instance : instances) {
+            newInstanceMap = newInstanceMap.put(instance.getId(), instance);
+        }
+        return new InstanceCacheDataSnapshot(instanceGroupMap, newInstanceMap);
+    }
+
+    InstanceCacheDataSnapshot removeInstances(Collection<String> instanceIds) {
+        PersistentHashMap<String, Instance> newInstanceMap = instanceMap;
+        for (String instanceId : instanceIds) {
+            newInstanceMap = newInstanceMap.remove(instanceId);
+        }
         return new InstanceCacheDataSnapshot(instanceGroupMap, newInstanceMap);
     }
 
     InstanceCacheDataSnapshot removeInstanceGroup(String removedInstanceGroupId) {
-        return new InstanceCacheDataSnapshot(
-                CollectionsExt.copyAndRemove(instanceGroupMap, removedInstanceGroupId),
-                CollectionsExt.copyAndRemoveByValue(instanceMap, instance -> instance.getInstanceGroupId().equals(removedInstanceGroupId))
-        );
+        InstanceGroup removed = instanceGroupMap.get(removedInstanceGroupId);
+        if (removed == null) {
+            return this;
+        }
+        PersistentHashMap<String, Instance> newInstanceMap = instanceMap;
+        for (String instanceId : removed.getInstanceIds()) {
+            newInstanceMap = newInstanceMap.remove(instanceId);
+        }
+        return new InstanceCacheDataSnapshot(instanceGroupMap.remove(removedInstanceGroupId), newInstanceMap);
     }
 
     InstanceCacheDataSnapshot addInstanceGroups(List<InstanceGroup> newInstanceGroups) {
-        HashMap<String, InstanceGroup> allInstanceGroups = new HashMap<>(instanceGroupMap);
-        newInstanceGroups.forEach(instanceGroup -> allInstanceGroups.put(instanceGroup.getId(), instanceGroup));
-        return new InstanceCacheDataSnapshot(allInstanceGroups, instanceMap);
+        PersistentHashMap<String, InstanceGroup> newInstanceGroupMap = instanceGroupMap;
+        for (InstanceGroup instanceGroup : newInstanceGroups) {
+            newInstanceGroupMap = newInstanceGroupMap.put(instanceGroup.getId(), instanceGroup);
+        }
+        return new InstanceCacheDataSnapshot(newInstanceGroupMap, instanceMap);
     }
 
     static InstanceCacheDataSnapshot empty() {
-        return new InstanceCacheDataSnapshot(Collections.emptyMap(), Collections.emptyMap());
+        return EMPTY;
     }
 }
@@ -16,7 +16,9 @@
 
 package com.netflix.titus.master.job.worker.internal;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -50,6 +52,7 @@ import com.netflix.titus.master.mesos.ContainerEvent;
 import com.netflix.titus.master.mesos.V3ContainerEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rx.Completable;
 import rx.Observable;
 import rx.Observer;
 import rx.schedulers.Schedulers;
@@ -87,6 +90,9 @@ public class DefaultWorkerStateMonitor implements WorkerStateMonitor {
     private final JobManagerConfiguration jobManagerConfiguration;
     private final PublishSubject<StateToMonitor> workerStatesSubject;
     private final PublishSubject<Status> allStatusSubject;
+    private final V3JobOperations v3JobOperations;
+    private final TitusRuntime titusRuntime;
+    private final TaskStatusUpdateCoalescer taskStatusUpdateCoalescer;
     private AtomicBoolean shutdownFlag = new AtomicBoolean();
 
     @Inject
@@ -94,9 +100,18 @@ public class DefaultWorkerStateMonitor implements WorkerStateMonitor {
                                      V2JobOperations jOps,
                                      V3JobOperations v3JobOperations,
                                      JobManagerConfiguration jobManagerConfiguration,
+                                     com.netflix.titus.master.jobmanager.service.JobManagerConfiguration v3JobManagerConfiguration,
                                      TitusRuntime titusRuntime) {
         this.vmService = vmService;
         this.jobOps = jOps;
+        this.v3JobOperations = v3JobOperations;
+        this.titusRuntime = titusRuntime;
+        this.taskStatusUpdateCoalescer = new TaskStatusUpdateCoalescer(
+                v3JobManagerConfiguration.getTaskStatusUpdateCoalescingWindowMs(),
+                this::applyTaskStatusUpdates,
+                titusRuntime.getRegistry(),
+                Schedulers.computation()
+        );
         this.jobCreationObservable = jOps.getJobCreationPublishSubject();
         this.jobManagerConfiguration = jobManagerConfiguration;
         workerStatesSubject = PublishSubject.create();
@@ -149,36 +164,7 @@ public class DefaultWorkerStateMonitor implements WorkerStateMonitor {
                     if (args.getTaskId() != null && !JobFunctions.isV2Task(args.getTaskId())) {
                         Optional<Pair<Job<?>, Task>> jobAndTaskOpt = v3JobOperations.findTaskById(args.getTaskId());
                         if (jobAndTaskOpt.isPresent()) {
-                            Task task = jobAndTaskOpt.get().getRight();
-                            TaskState newState = args.getTaskState();
-                            if (task.getStatus().getState() != newState) {
-
-                                String reasonCode = args.getReasonCode();
-
-                                TaskStatus.Builder taskStatusBuilder = JobModel.newTaskStatus()
-                                        .withState(newState)
-                                        .withTimestamp(args.getTimestamp());
-
-                                // We send kill operation even if task is in Accepted state, but if the latter is the case
-                                // we do not want to report Mesos 'lost' state in task status.
-                                if (isKillConfirmationForTaskInAcceptedState(task, newState, reasonCode)) {
-                                    taskStatusBuilder
-                                            .withReasonCode(TaskStatus.REASON_TASK_KILLED)
-                                            .withReasonMessage("Task killed before it was launched");
-                                } else {
-                                    taskStatusBuilder
-                                            .withReasonCode(reasonCode)
-                                            .withReasonMessage("Mesos task state change event: " + args.getReasonMessage());
-                                }
-                                TaskStatus taskStatus = taskStatusBuilder.build();
-
-                                // Failures are logged only, as the reconciler will take care of it if needed.
-                                final Function<Task, Optional<Task>> updater = JobManagerUtil.newMesosTaskStateUpdater(taskStatus, args.getTitusExecutorDetails(), titusRuntime);
-                                v3JobOperations.updateTask(task.getId(), updater, Trigger.Mesos, "Mesos -> " + taskStatus).subscribe(
-                                        () -> logger.info("Changed task {} status state to {}", task.getId(), taskStatus),
-                                        e -> logger.warn("Could not update task state of {} to {} ({})", args.getTaskId(), taskStatus, e.toString())
-                                );
-                            }
+                            taskStatusUpdateCoalescer.add(jobAndTaskOpt.get().getLeft().getId(), args);
                             return;
                         }
                     }
@@ -191,6 +177,61 @@ public class DefaultWorkerStateMonitor implements WorkerStateMonitor {
         allStatusSubject = PublishSubject.create();
     }
 
+    private Completable applyTaskStatusUpdates(String jobId, Map<String, List<V3ContainerEvent>> updatesByTaskId) {
+        Map<String, Function<Task, Optional<Task>>> changeFunctions = new HashMap<>();
+        updatesByTaskId.forEach((taskId, updates) -> changeFunctions.put(taskId, task -> applyContainerEvents(task, updates)));
+        return v3JobOperations.updateTasks(jobId, changeFunctions, Trigger.Mesos, "Mesos -> " + updatesByTaskId.size() + " task status updates");
+    }
+
+    /**
+     * Applies all status updates received for a task in order, so each intermediate state is recorded in the
+     * task status history. An update that cannot be applied is skipped, as it would be if sent on its own.
+     */
+    private Optional<Task> applyContainerEvents(Task task, List<V3ContainerEvent> updates) {
+        Task current = task;
+        for (V3ContainerEvent update : updates) {
+            try {
+                Optional<Task> updated = applyContainerEvent(current, update);
+                if (updated.isPresent()) {
+                    current = updated.get();
+                }
+            } catch (Exception e) {
+                logger.warn("Exception during handling task status update notification: {}", update, e);
+            }
+        }
+        return current == task ? Optional.empty() : Optional.of(current);
+    }
+
+    private Optional<Task> applyContainerEvent(Task task, V3ContainerEvent args) {
+        TaskState newState = args.getTaskState();
+        if (task.getStatus().getState() == newState) {
+            return Optional.empty();
+        }
+
+        String reasonCode = args.getReasonCode();
+
+        TaskStatus.Builder taskStatusBuilder = JobModel.newTaskStatus()
+                .withState(newState)
+                .withTimestamp(args.getTimestamp());
+
+        // We send kill operation even if task is in Accepted state, but if the latter is the case
+        // we do not want to report Mesos 'lost' state in task status.
+        if (isKillConfirmationForTaskInAcceptedState(task, newState, reasonCode)) {
+            taskStatusBuilder
+                    .withReasonCode(TaskStatus.REASON_TASK_KILLED)
+                    .withReasonMessage("Task killed before it was launched");
+        } else {
+            taskStatusBuilder
+                    .withReasonCode(reasonCode)
+                    .withReasonMessage("Mesos task state change event: " + args.getReasonMessage());
+        }
+        TaskStatus taskStatus = taskStatusBuilder.build();
+
+        Optional<Task> newTask = JobManagerUtil.newMesosTaskStateUpdater(taskStatus, args.getTitusExecutorDetails(), titusRuntime).apply(task);
+        newTask.ifPresent(t -> logger.info("Changing task {} status state to {}", task.getId(), taskStatus));
+        return newTask;
+    }
+
     /**
      * Check if task moved directly from Accepted to KillInitiated.
      */
@@ -251,6 +292,7 @@ public class DefaultWorkerStateMonitor implements WorkerStateMonitor {
     @PreDestroy
     public void shutdown() {
         shutdownFlag.set(true);
+        taskStatusUpdateCoalescer.shutdown();
     }
 
     @Override
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.job.worker.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Timer;
+import com.netflix.titus.master.MetricConstants;
+import com.netflix.titus.master.mesos.V3ContainerEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Completable;
+import rx.Scheduler;
+
+/**
+ * Collects V3 task status updates received from Mesos over a short time window, and hands them over to the job
+ * manager in one batch per job. Updates of the same task are kept together in the arrival order, so a task going
+ * through several states within the window (for example Launched, StartInitiated and Started during a container
+ * launch) is updated once, with all intermediate states still recorded in its status history.
+ */
+class TaskStatusUpdateCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskStatusUpdateCoalescer.class);
+
+    static final String METRIC_ROOT = MetricConstants.METRIC_WORKER_STATE_OBSERVER + "taskStatusUpdates.";
+
+    private final long windowMs;
+    private final BiFunction<String, Map<String, List<V3ContainerEvent>>, Completable> jobUpdater;
+    private final Scheduler scheduler;
+    private final Scheduler.Worker worker;
+
+    private final Counter receivedCounter;
+    private final Counter coalescedCounter;
+    private final Counter jobUpdatesCounter;
+    private final Counter failedJobUpdatesCounter;
+    private final Timer ingestLagTimer;
+
+    private final Object lock = new Object();
+
+    // Guarded by lock.
+    private Map<String, JobBatch> pendingBatches = new LinkedHashMap<>();
+    private boolean flushScheduled;
+
+    TaskStatusUpdateCoalescer(long windowMs,
+                              BiFunction<String, Map<String, List<V3ContainerEvent>>, Completable> jobUpdater,
+                              Registry registry,
+                              Scheduler scheduler) {
+        this.windowMs = windowMs;
+        this.jobUpdater = jobUpdater;
+        this.scheduler = scheduler;
+        this.worker = scheduler.createWorker();
+
+        this.receivedCounter = registry.counter(METRIC_ROOT + "received");
+        this.coalescedCounter = registry.counter(METRIC_ROOT + "coalesced");
+        this.jobUpdatesCounter = registry.counter(METRIC_ROOT + "jobUpdates");
+        this.failedJobUpdatesCounter = registry.counter(METRIC_ROOT + "failedJobUpdates");
+        this.ingestLagTimer = registry.timer(METRIC_ROOT + "ingestLag");
+    }
+
+    void add(String jobId, V3ContainerEvent event) {
+        boolean scheduleFlush;
+        synchronized (lock) {
+            JobBatch batch = pendingBatches.get(jobId);
+            if (batch == null) {
+                batch = new JobBatch(scheduler.now());
+                pendingBatches.put(jobId, batch);
+            }
+            if (!batch.add(event)) {
+                coalescedCounter.increment();
+            }
+            scheduleFlush = !flushScheduled;
+            flushScheduled = true;
+        }
+        receivedCounter.increment();
+        if (scheduleFlush) {
+            worker.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void shutdown() {
+        worker.unsubscribe();
+    }
+
+    private void flush() {
+        Map<String, JobBatch> toApply;
+        synchronized (lock) {
+            toApply = pendingBatches;
+            pendingBatches = new LinkedHashMap<>();
+            flushScheduled = false;
+        }
+        toApply.forEach(this::apply);
+    }
+
+    private void apply(String jobId, JobBatch batch) {
+        jobUpdatesCounter.increment();
+        Completable update;
+        try {
+            update = jobUpdater.apply(jobId, batch.updatesByTaskId);
+        } catch (Exception e) {
+            update = Completable.error(e);
+        }
+        update.subscribe(
+                () -> ingestLagTimer.record(scheduler.now() - batch.receivedAt, TimeUnit.MILLISECONDS),
+                e -> {
+                    // Failures are logged only, as the reconciler will take care of it if needed.
+                    failedJobUpdatesCounter.increment();
+                    logger.warn("Could not apply status updates of {} tasks of job {} ({})", batch.updatesByTaskId.size(), jobId, e.toString());
+                }
+        );
+    }
+
+    private static class JobBatch {
+
+        private final long receivedAt;
+        private final Map<String, List<V3ContainerEvent>> updatesByTaskId = new LinkedHashMap<>();
+
+        private JobBatch(long receivedAt) {
+            this.receivedAt = receivedAt;
+        }
+
+        /**
+         * Returns true if this is the first update of the task in the batch.
+         */
+        private boolean add(V3ContainerEvent event) {
+            List<V3ContainerEvent> taskUpdates = updatesByTaskId.get(event.getTaskId());
+            if (taskUpdates == null) {
+                taskUpdates = new ArrayList<>(1);
+                taskUpdates.add(event);
+                updatesByTaskId.put(event.getTaskId(), taskUpdates);
+                return true;
+            }
+            taskUpdates.add(event);
+            return false;
+        }
+    }
+}
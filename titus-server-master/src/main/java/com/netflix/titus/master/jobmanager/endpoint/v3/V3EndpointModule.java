@@ -29,8 +29,11 @@ import com.netflix.titus.common.runtime.TitusRuntime;
 import com.netflix.titus.grpc.protogen.JobManagementServiceGrpc.JobManagementServiceImplBase;
 import com.netflix.titus.master.jobmanager.endpoint.v3.grpc.DefaultJobManagementServiceGrpc;
 import com.netflix.titus.master.jobmanager.endpoint.v3.grpc.gateway.GrpcTitusServiceGateway;
+import com.netflix.titus.master.jobmanager.endpoint.v3.grpc.gateway.JobChangeNotificationBroadcaster;
 import com.netflix.titus.master.jobmanager.endpoint.v3.grpc.gateway.V3GrpcTitusServiceGateway;
 import com.netflix.titus.master.jobmanager.service.limiter.JobSubmitLimiter;
+import com.netflix.titus.master.jobmanager.service.query.JobCursorIndex;
+import com.netflix.titus.master.jobmanager.service.query.JobQueryIndexes;
 import com.netflix.titus.runtime.endpoint.common.LogStorageInfo;
 
 import static com.netflix.titus.api.jobmanager.model.job.sanitizer.JobSanitizerBuilder.JOB_STRICT_SANITIZER;
@@ -44,6 +47,7 @@ public class V3EndpointModule extends AbstractModule {
     @Override
     protected void configure() {
         bind(JobManagementServiceImplBase.class).to(DefaultJobManagementServiceGrpc.class);
+        bind(JobChangeNotificationBroadcaster.class).asEagerSingleton();
     }
 
     @Provides
@@ -52,7 +56,11 @@ public class V3EndpointModule extends AbstractModule {
                                                        JobSubmitLimiter jobSubmitLimiter,
                                                        LogStorageInfo<Task> v3LogStorage,
                                                        @Named(JOB_STRICT_SANITIZER) EntitySanitizer entitySanitizer,
+                                                       JobQueryIndexes jobQueryIndexes,
+                                                       JobCursorIndex jobCursorIndex,
+                                                       JobChangeNotificationBroadcaster notificationBroadcaster,
                                                        TitusRuntime titusRuntime) {
-        return new V3GrpcTitusServiceGateway(jobOperations, jobSubmitLimiter, v3LogStorage, entitySanitizer, titusRuntime);
+        return new V3GrpcTitusServiceGateway(jobOperations, jobSubmitLimiter, v3LogStorage, entitySanitizer, jobQueryIndexes, jobCursorIndex,
+                notificationBroadcaster, titusRuntime);
     }
 }
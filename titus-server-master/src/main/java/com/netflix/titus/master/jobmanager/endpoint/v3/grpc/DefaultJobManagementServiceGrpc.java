@@ -21,10 +21,12 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.protobuf.Empty;
 import com.netflix.titus.api.agent.service.AgentManagementService;
 import com.netflix.titus.api.jobmanager.model.job.ContainerResources;
@@ -65,6 +67,7 @@ import com.netflix.titus.master.service.management.ApplicationSlaManagementServi
 import com.netflix.titus.runtime.endpoint.JobQueryCriteria;
 import com.netflix.titus.runtime.endpoint.metadata.CallMetadata;
 import com.netflix.titus.runtime.endpoint.metadata.CallMetadataResolver;
+import com.netflix.titus.runtime.endpoint.metadata.V3HeaderInterceptor;
 import com.netflix.titus.runtime.endpoint.v3.grpc.V3GrpcModelConverters;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
@@ -73,7 +76,10 @@ import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
 import rx.Subscription;
+import rx.schedulers.Schedulers;
 
 import static com.netflix.titus.runtime.connector.jobmanager.JobManagementClient.JOB_MINIMUM_FIELD_SET;
 import static com.netflix.titus.runtime.connector.jobmanager.JobManagementClient.TASK_MINIMUM_FIELD_SET;
@@ -89,6 +95,10 @@ public class DefaultJobManagementServiceGrpc extends JobManagementServiceGrpc.Jo
 
     private static final Logger logger = LoggerFactory.getLogger(DefaultJobManagementServiceGrpc.class);
 
+    private static final JobChangeNotification KEEP_ALIVE_MARKER = JobChangeNotification.newBuilder()
+            .setSnapshotEnd(JobChangeNotification.SnapshotEnd.newBuilder())
+            .build();
+
     private final GrpcEndpointConfiguration configuration;
     private final AgentManagementService agentManagementService;
     private final ApplicationSlaManagementService capacityGroupService;
@@ -153,7 +163,7 @@ public class DefaultJobManagementServiceGrpc extends JobManagementServiceGrpc.Jo
             if (!jobQuery.getFieldsList().isEmpty()) {
                 Set<String> fields = new HashSet<>(jobQuery.getFieldsList());
                 fields.addAll(JOB_MINIMUM_FIELD_SET);
-                queryResult = queryResult.mapLeft(jobs -> jobs.stream().map(j -> ProtobufCopy.copy(j, fields)).collect(Collectors.toList()));
+                queryResult = queryResult.mapLeft(jobs -> jobs.stream().map(ProtobufCopy.<Job>projectionOf(fields)).collect(Collectors.toList()));
             }
 
             responseObserver.onNext(toJobQueryResult(queryResult.getLeft(), queryResult.getRight()));
@@ -188,7 +198,7 @@ public class DefaultJobManagementServiceGrpc extends JobManagementServiceGrpc.Jo
             if (!taskQuery.getFieldsList().isEmpty()) {
                 Set<String> fields = new HashSet<>(taskQuery.getFieldsList());
                 fields.addAll(TASK_MINIMUM_FIELD_SET);
-                queryResult = queryResult.mapLeft(tasks -> tasks.stream().map(t -> ProtobufCopy.copy(t, fields)).collect(Collectors.toList()));
+                queryResult = queryResult.mapLeft(tasks -> tasks.stream().map(ProtobufCopy.<Task>projectionOf(fields)).collect(Collectors.toList()));
             }
 
             responseObserver.onNext(toTaskQueryResult(queryResult.getLeft(), queryResult.getRight()));
@@ -295,19 +305,36 @@ public class DefaultJobManagementServiceGrpc extends JobManagementServiceGrpc.Jo
 
     @Override
     public void observeJobs(Empty request, StreamObserver<JobChangeNotification> responseObserver) {
-        Observable<JobChangeNotification> eventStream = serviceGateway.observeJobs();
-        Subscription subscription = eventStream.subscribe(
-                responseObserver::onNext,
-                e -> responseObserver.onError(
-                        new StatusRuntimeException(Status.INTERNAL
-                                .withDescription("All jobs monitoring stream terminated with an error")
-                                .withCause(e))
-                ),
-                responseObserver::onCompleted
-        );
-
         ServerCallStreamObserver<JobChangeNotification> serverObserver = (ServerCallStreamObserver<JobChangeNotification>) responseObserver;
-        serverObserver.setOnCancelHandler(subscription::unsubscribe);
+        FlowControlledSubscriber subscriber = new FlowControlledSubscriber(serverObserver);
+        serverObserver.setOnReadyHandler(subscriber::onReady);
+        serverObserver.setOnCancelHandler(subscriber::unsubscribe);
+
+        Observable<JobChangeNotification> events = serviceGateway.observeJobs();
+        Long keepAliveIntervalMs = V3HeaderInterceptor.KEEP_ALIVE_INTERVAL_CONTEXT_KEY.get();
+        if (keepAliveIntervalMs != null) {
+            events = withKeepAlive(events, keepAliveIntervalMs, Schedulers.computation());
+        }
+        events.subscribe(subscriber);
+    }
+
+    /**
+     * Repeats the snapshot end marker at the given interval, once the initial snapshot is sent. As the keep-alive
+     * markers are merged into the event stream, a client receiving one knows that all events emitted before it
+     * were delivered too, even if there was no change in the meantime. Keep-alive markers not requested by a slow
+     * subscriber are dropped.
+     */
+    @VisibleForTesting
+    static Observable<JobChangeNotification> withKeepAlive(Observable<JobChangeNotification> events, long keepAliveIntervalMs, Scheduler scheduler) {
+        return events.publish(shared -> {
+            Observable<JobChangeNotification> keepAlives = shared
+                    .filter(event -> event.getNotificationCase() == JobChangeNotification.NotificationCase.SNAPSHOTEND)
+                    .take(1)
+                    .flatMap(snapshotEnd -> Observable.interval(keepAliveIntervalMs, keepAliveIntervalMs, TimeUnit.MILLISECONDS, scheduler).onBackpressureDrop())
+                    .map(tick -> KEEP_ALIVE_MARKER)
+                    .takeUntil(shared.ignoreElements().concatWith(Observable.just(KEEP_ALIVE_MARKER)));
+            return shared.mergeWith(keepAlives);
+        });
     }
 
     @Override
@@ -392,4 +419,48 @@ public class DefaultJobManagementServiceGrpc extends JobManagementServiceGrpc.Jo
     private boolean isTooLarge(ResourceDimension requestedResources, List<ResourceDimension> tierResourceLimits) {
         return tierResourceLimits.stream().noneMatch(limit -> ResourceDimensions.isBigger(limit, requestedResources));
     }
+
+    /**
+     * Requests the next notification only when the GRPC transport can accept more data, so a slow client is
+     * backpressured into the bounded buffer of its event stream, instead of an unbounded transport queue.
+     */
+    private static class FlowControlledSubscriber extends Subscriber<JobChangeNotification> {
+
+        private final ServerCallStreamObserver<JobChangeNotification> serverObserver;
+
+        private FlowControlledSubscriber(ServerCallStreamObserver<JobChangeNotification> serverObserver) {
+            this.serverObserver = serverObserver;
+        }
+
+        @Override
+        public void onStart() {
+            request(1);
+        }
+
+        @Override
+        public void onNext(JobChangeNotification notification) {
+            serverObserver.onNext(notification);
+            if (serverObserver.isReady()) {
+                request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            serverObserver.onError(
+                    new StatusRuntimeException(Status.INTERNAL
+                            .withDescription("All jobs monitoring stream terminated with an error")
+                            .withCause(e))
+            );
+        }
+
+        @Override
+        public void onCompleted() {
+            serverObserver.onCompleted();
+        }
+
+        private void onReady() {
+            request(1);
+        }
+    }
 }
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.jobmanager.endpoint.v3.grpc.gateway;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.netflix.spectator.api.Counter;
+import com.netflix.spectator.api.Registry;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.event.JobManagerEvent;
+import com.netflix.titus.api.jobmanager.model.job.event.JobUpdateEvent;
+import com.netflix.titus.api.jobmanager.model.job.event.TaskUpdateEvent;
+import com.netflix.titus.api.jobmanager.service.V3JobOperations;
+import com.netflix.titus.common.runtime.TitusRuntime;
+import com.netflix.titus.common.util.collections.PersistentHashMap;
+import com.netflix.titus.common.util.guice.annotation.Activator;
+import com.netflix.titus.common.util.rx.ObservableExt;
+import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.grpc.protogen.JobChangeNotification;
+import com.netflix.titus.master.MetricConstants;
+import com.netflix.titus.master.jobmanager.service.JobEventProjection;
+import com.netflix.titus.master.jobmanager.service.JobManagerConfiguration;
+import com.netflix.titus.runtime.endpoint.common.LogStorageInfo;
+import com.netflix.titus.runtime.endpoint.v3.grpc.V3GrpcModelConverters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.BackpressureOverflow;
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscription;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+
+/**
+ * Shared source of the job change notification stream. A single subscription to the job manager event stream is
+ * kept, and each event is converted to its GRPC form once, and the same notification instance is emitted to all
+ * subscribers. The converted job/task state is kept as well, so a new subscriber gets its snapshot without any
+ * conversion. As in the job manager, finished jobs and tasks are kept in this state, so a new subscriber sees
+ * their final update. There is no event when the job manager drops an entity, so this state is periodically
+ * refreshed from the job manager, which removes the dropped entities, and reuses the notifications of entities
+ * that did not change.
+ * <p>
+ * Each subscriber has its own bounded buffer. A subscriber that does not keep up with the event stream, and
+ * overflows its buffer, is terminated with an error, so it cannot hold an unbounded amount of memory.
+ */
+@Singleton
+public class JobChangeNotificationBroadcaster {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobChangeNotificationBroadcaster.class);
+
+    private static final String METRIC_ROOT = MetricConstants.METRIC_ROOT + "jobManager.eventStream.";
+
+    static final JobChangeNotification SNAPSHOT_END_MARKER = JobChangeNotification.newBuilder().setSnapshotEnd(
+            JobChangeNotification.SnapshotEnd.newBuilder()
+    ).build();
+
+    private static final long RESUBSCRIBE_DELAY_MS = 1_000;
+
+    private final V3JobOperations jobOperations;
+    private final LogStorageInfo<Task> logStorageInfo;
+    private final JobManagerConfiguration configuration;
+    private final Scheduler.Worker worker;
+
+    private final Counter convertedEventsCounter;
+    private final Counter snapshotRefreshCounter;
+    private final Counter slowConsumerEvictionCounter;
+    private final AtomicInteger subscriberCount;
+
+    private final JobEventProjection<Pair<JobManagerEvent<?>, JobChangeNotification>, NotificationState> projection;
+
+    // Replaced with the projection lock held.
+    private PublishSubject<JobChangeNotification> eventSubject = PublishSubject.create();
+
+    private volatile boolean active;
+    private volatile Subscription eventSubscription;
+    private Subscription refreshSubscription;
+
+    @Inject
+    public JobChangeNotificationBroadcaster(V3JobOperations jobOperations,
+                                            LogStorageInfo<Task> logStorageInfo,
+                                            JobManagerConfiguration configuration,
+                                            TitusRuntime titusRuntime) {
+        this(jobOperations, logStorageInfo, configuration, titusRuntime.getRegistry(), Schedulers.computation());
+    }
+
+    @VisibleForTesting
+    JobChangeNotificationBroadcaster(V3JobOperations jobOperations,
+                                     LogStorageInfo<Task> logStorageInfo,
+                                     JobManagerConfiguration configuration,
+                                     Registry registry,
+                                     Scheduler scheduler) {
+        this.jobOperations = jobOperations;
+        this.logStorageInfo = logStorageInfo;
+        this.configuration = configuration;
+        this.worker = scheduler.createWorker();
+
+        this.convertedEventsCounter = registry.counter(METRIC_ROOT + "convertedEvents");
+        this.snapshotRefreshCounter = registry.counter(METRIC_ROOT + "snapshotRefreshes");
+        this.slowConsumerEvictionCounter = registry.counter(METRIC_ROOT + "slowConsumerEvictions");
+        this.subscriberCount = registry.gauge(METRIC_ROOT + "subscribers", new AtomicInteger());
+        this.projection = new JobEventProjection<>(NotificationState.EMPTY, new JobEventProjection.Handler<Pair<JobManagerEvent<?>, JobChangeNotification>, NotificationState>() {
+            @Override
+            public NotificationState build() {
+                return buildNotificationState();
+            }
+
+            @Override
+            public NotificationState apply(NotificationState state, Pair<JobManagerEvent<?>, JobChangeNotification> event) {
+                return state.apply(event.getLeft(), event.getRight());
+            }
+
+            @Override
+            public void afterApply(NotificationState state, Pair<JobManagerEvent<?>, JobChangeNotification> event) {
+                eventSubject.onNext(event.getRight());
+            }
+        });
+    }
+
+    @Activator
+    public void enterActiveMode() {
+        subscribeToJobManager();
+        long refreshIntervalMs = configuration.getEventStreamSnapshotRefreshIntervalMs();
+        this.refreshSubscription = worker.schedulePeriodically(this::refreshSnapshot, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+        this.active = true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ObservableExt.safeUnsubscribe(eventSubscription, refreshSubscription);
+        worker.unsubscribe();
+        projection.withLock(state -> eventSubject.onCompleted());
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Job change notification stream, starting with a snapshot of all jobs and tasks, followed by the
+     * {@link #SNAPSHOT_END_MARKER}, and the live updates.
+     */
+    public Observable<JobChangeNotification> observeJobs() {
+        return Observable.unsafeCreate(subscriber -> {
+            if (!active) {
+                subscriber.onError(new IllegalStateException("Job event stream not available yet"));
+                return;
+            }
+            // Taking the snapshot, and subscribing to the live updates must happen atomically, so no update
+            // is lost or duplicated. The snapshot is emitted into the subscriber buffer without blocking.
+            projection.withLock(state -> {
+                List<JobChangeNotification> snapshot = new ArrayList<>();
+                state.jobs.forEach((id, entry) -> snapshot.add(entry.getRight()));
+                state.tasksByJobId.forEach((jobId, tasks) -> tasks.forEach((id, entry) -> snapshot.add(entry.getRight())));
+                snapshot.add(SNAPSHOT_END_MARKER);
+
+                Observable.from(snapshot)
+                        .concatWith(eventSubject)
+                        .onBackpressureBuffer(
+                                snapshot.size() + configuration.getEventStreamSubscriberBufferSize(),
+                                slowConsumerEvictionCounter::increment,
+                                BackpressureOverflow.ON_OVERFLOW_ERROR
+                        )
+                        .doOnSubscribe(subscriberCount::incrementAndGet)
+                        .doOnUnsubscribe(subscriberCount::decrementAndGet)
+                        .unsafeSubscribe(subscriber);
+            });
+        });
+    }
+
+    @VisibleForTesting
+    void refreshSnapshot() {
+        try {
+            if (projection.rebuild()) {
+                snapshotRefreshCounter.increment();
+            }
+        } catch (Exception e) {
+            logger.warn("Job event stream snapshot refresh failure", e);
+        }
+    }
+
+    private void subscribeToJobManager() {
+        Observable<Pair<JobManagerEvent<?>, JobChangeNotification>> events = jobOperations.observeJobs().map(event -> {
+            JobChangeNotification notification = V3GrpcModelConverters.toGrpcJobChangeNotification(event, logStorageInfo);
+            convertedEventsCounter.increment();
+            return Pair.<JobManagerEvent<?>, JobChangeNotification>of(event, notification);
+        });
+        this.eventSubscription = projection.subscribe(
+                events,
+                e -> {
+                    logger.warn("Job manager event stream terminated with an error; resubscribing in {}ms", RESUBSCRIBE_DELAY_MS, e);
+                    // Current subscribers missed events, so they must reconnect and fetch a new snapshot.
+                    projection.withLock(state -> {
+                        eventSubject.onError(e);
+                        eventSubject = PublishSubject.create();
+                    });
+                    worker.schedule(this::subscribeToJobManager, RESUBSCRIBE_DELAY_MS, TimeUnit.MILLISECONDS);
+                },
+                () -> logger.info("Job manager event stream completed")
+        );
+    }
+
+    /**
+     * Called without holding the projection lock. Notifications of the current state are reused for the entities
+     * that did not change.
+     */
+    private NotificationState buildNotificationState() {
+        NotificationState current = projection.getState();
+        PersistentHashMap<String, Pair<Object, JobChangeNotification>> jobs = PersistentHashMap.empty();
+        PersistentHashMap<String, PersistentHashMap<String, Pair<Object, JobChangeNotification>>> tasksByJobId = PersistentHashMap.empty();
+        for (Pair<Job, List<Task>> jobAndTasks : jobOperations.getJobsAndTasks()) {
+            Job<?> job = jobAndTasks.getLeft();
+            jobs = jobs.put(job.getId(), reuseOrConvert(current.jobs.get(job.getId()), job));
+
+            PersistentHashMap<String, Pair<Object, JobChangeNotification>> currentTasks = current.tasksByJobId.get(job.getId());
+            PersistentHashMap<String, Pair<Object, JobChangeNotification>> tasks = PersistentHashMap.empty();
+            for (Task task : jobAndTasks.getRight()) {
+                tasks = tasks.put(task.getId(), reuseOrConvert(currentTasks == null ? null : currentTasks.get(task.getId()), task));
+            }
+            if (!tasks.isEmpty()) {
+                tasksByJobId = tasksByJobId.put(job.getId(), tasks);
+            }
+        }
+        return new NotificationState(jobs, tasksByJobId);
+    }
+
+    private Pair<Object, JobChangeNotification> reuseOrConvert(Pair<Object, JobChangeNotification> previous, Object entity) {
+        if (previous != null && previous.getLeft() == entity) {
+            return previous;
+        }
+        if (entity instanceof Job) {
+            return Pair.of(entity, JobChangeNotification.newBuilder()
+                    .setJobUpdate(JobChangeNotification.JobUpdate.newBuilder().setJob(V3GrpcModelConverters.toGrpcJob((Job<?>) entity)))
+                    .build()
+            );
+        }
+        return Pair.of(entity, JobChangeNotification.newBuilder()
+                .setTaskUpdate(JobChangeNotification.TaskUpdate.newBuilder().setTask(V3GrpcModelConverters.toGrpcTask((Task) entity, logStorageInfo)))
+                .build()
+        );
+    }
+
+    /**
+     * Converted notifications of the jobs and tasks held by the job manager, kept together with the core entities they were
+     * created from. Immutable, so it can be read without locking.
+     */
+    private static class NotificationState {
+
+        private static final NotificationState EMPTY = new NotificationState(PersistentHashMap.empty(), PersistentHashMap.empty());
+
+        private final PersistentHashMap<String, Pair<Object, JobChangeNotification>> jobs;
+        private final PersistentHashMap<String, PersistentHashMap<String, Pair<Object, JobChangeNotification>>> tasksByJobId;
+
+        private NotificationState(PersistentHashMap<String, Pair<Object, JobChangeNotification>> jobs,
+                                  PersistentHashMap<String, PersistentHashMap<String, Pair<Object, JobChangeNotification>>> tasksByJobId) {
+            this.jobs = jobs;
+            this.tasksByJobId = tasksByJobId;
+        }
+
+        private NotificationState apply(JobManagerEvent<?> event, JobChangeNotification notification) {
+            if (event instanceof JobUpdateEvent) {
+                Job<?> job = ((JobUpdateEvent) event).getCurrent();
+                return new NotificationState(jobs.put(job.getId(), Pair.of(job, notification)), tasksByJobId);
+            }
+            if (event instanceof TaskUpdateEvent) {
+                Task task = ((TaskUpdateEvent) event).getCurrentTask();
+                PersistentHashMap<String, Pair<Object, JobChangeNotification>> tasks = tasksByJobId.get(task.getJobId());
+                if (tasks == null) {
+                    tasks = PersistentHashMap.empty();
+                }
+                return new NotificationState(jobs, tasksByJobId.put(task.getJobId(), tasks.put(task.getId(), Pair.of(task, notification))));
+            }
+            return this;
+        }
+    }
+}
@@ -45,6 +45,9 @@ import com.netflix.titus.grpc.protogen.JobChangeNotification;
 import com.netflix.titus.grpc.protogen.JobDescriptor;
 import com.netflix.titus.grpc.protogen.TaskStatus;
 import com.netflix.titus.master.jobmanager.service.limiter.JobSubmitLimiter;
+import com.netflix.titus.master.jobmanager.service.query.JobCursorIndex;
+import com.netflix.titus.master.jobmanager.service.query.JobQueryIndexes;
+import com.netflix.titus.master.jobmanager.service.query.JobQueryPlan;
 import com.netflix.titus.runtime.endpoint.JobQueryCriteria;
 import com.netflix.titus.runtime.endpoint.common.LogStorageInfo;
 import com.netflix.titus.runtime.endpoint.v3.grpc.V3GrpcModelConverters;
@@ -72,6 +75,9 @@ public class V3GrpcTitusServiceGateway implements GrpcTitusServiceGateway {
     private final JobSubmitLimiter jobSubmitLimiter;
     private final LogStorageInfo<Task> logStorageInfo;
     private final EntitySanitizer entitySanitizer;
+    private final JobQueryIndexes jobQueryIndexes;
+    private final JobCursorIndex jobCursorIndex;
+    private final JobChangeNotificationBroadcaster notificationBroadcaster;
     private final TitusRuntime titusRuntime;
 
     @Inject
@@ -79,11 +85,17 @@ public class V3GrpcTitusServiceGateway implements GrpcTitusServiceGateway {
                                      JobSubmitLimiter jobSubmitLimiter,
                                      LogStorageInfo<Task> logStorageInfo,
                                      @Named(JOB_STRICT_SANITIZER) EntitySanitizer entitySanitizer,
+                                     JobQueryIndexes jobQueryIndexes,
+                                     JobCursorIndex jobCursorIndex,
+                                     JobChangeNotificationBroadcaster notificationBroadcaster,
                                      TitusRuntime titusRuntime) {
         this.jobOperations = jobOperations;
         this.jobSubmitLimiter = jobSubmitLimiter;
         this.logStorageInfo = logStorageInfo;
         this.entitySanitizer = entitySanitizer;
+        this.jobQueryIndexes = jobQueryIndexes;
+        this.jobCursorIndex = jobCursorIndex;
+        this.notificationBroadcaster = notificationBroadcaster;
         this.titusRuntime = titusRuntime;
     }
 
@@ -132,41 +144,64 @@ public class V3GrpcTitusServiceGateway implements GrpcTitusServiceGateway {
     @SuppressWarnings("ConstantConditions")
     @Override
     public Pair<List<Job>, Pagination> findJobsByCriteria(JobQueryCriteria<TaskStatus.TaskState, JobDescriptor.JobSpecCase> queryCriteria, Optional<Page> pageOpt) {
-        List<Job> allFilteredJobs = jobOperations.findJobs(
-                new V3JobQueryCriteriaEvaluator(queryCriteria, titusRuntime),
-                0,
-                Integer.MAX_VALUE / 2
-        ).stream()
-                .map(V3GrpcModelConverters::toGrpcJob)
-                .collect(Collectors.toList());
+        Optional<Pair<List<com.netflix.titus.api.jobmanager.model.job.Job<?>>, Pagination>> indexedPage = jobCursorIndex.findJobs(queryCriteria, pageOpt.get());
+        if (indexedPage.isPresent()) {
+            List<Job> grpcJobs = indexedPage.get().getLeft().stream().map(V3GrpcModelConverters::toGrpcJob).collect(Collectors.toList());
+            return Pair.of(grpcJobs, indexedPage.get().getRight());
+        }
 
-        return PaginationUtil.takePageWithCursor(
+        JobQueryPlan plan = jobQueryIndexes.plan(queryCriteria);
+        V3JobQueryCriteriaEvaluator queryPredicate = new V3JobQueryCriteriaEvaluator(queryCriteria, titusRuntime);
+        List<com.netflix.titus.api.jobmanager.model.job.Job<?>> allFilteredJobs = plan.getCandidateJobIds()
+                .map(candidateJobIds -> jobOperations.findJobs(candidateJobIds, queryPredicate))
+                .orElseGet(() -> jobOperations.findJobs(queryPredicate, 0, Integer.MAX_VALUE / 2));
+        jobQueryIndexes.recordQuery("findJobs", plan, allFilteredJobs.size());
+
+        // Select the page on the core entities, and convert only the page items.
+        Pair<List<com.netflix.titus.api.jobmanager.model.job.Job<?>>, Pagination> corePage = PaginationUtil.selectPageWithCursor(
                 pageOpt.get(),
                 allFilteredJobs,
-                JobManagerCursors.jobCursorOrderComparator(),
-                JobManagerCursors::jobIndexOf,
-                JobManagerCursors::newCursorFrom
+                JobManagerCursors.coreJobCursorOrderComparator(),
+                JobManagerCursors::coreJobCursorReference,
+                JobManagerCursors::newCursorFromCoreJob
         );
+        List<Job> grpcJobs = corePage.getLeft().stream().map(V3GrpcModelConverters::toGrpcJob).collect(Collectors.toList());
+        return Pair.of(grpcJobs, corePage.getRight());
     }
 
     @SuppressWarnings("ConstantConditions")
     @Override
     public Pair<List<com.netflix.titus.grpc.protogen.Task>, Pagination> findTasksByCriteria(JobQueryCriteria<TaskStatus.TaskState, JobDescriptor.JobSpecCase> queryCriteria, Optional<Page> pageOpt) {
-        List<com.netflix.titus.grpc.protogen.Task> allFilteredTasks = jobOperations.findTasks(
-                new V3TaskQueryCriteriaEvaluator(queryCriteria, titusRuntime),
-                0,
-                Integer.MAX_VALUE / 2
-        ).stream()
-                .map(jobTaskPair -> V3GrpcModelConverters.toGrpcTask(jobTaskPair.getRight(), logStorageInfo))
+        Optional<Pair<List<Task>, Pagination>> indexedPage = jobCursorIndex.findTasks(queryCriteria, pageOpt.get());
+        if (indexedPage.isPresent()) {
+            List<com.netflix.titus.grpc.protogen.Task> grpcTasks = indexedPage.get().getLeft().stream()
+                    .map(task -> V3GrpcModelConverters.toGrpcTask(task, logStorageInfo))
+                    .collect(Collectors.toList());
+            return Pair.of(grpcTasks, indexedPage.get().getRight());
+        }
+
+        JobQueryPlan plan = jobQueryIndexes.plan(queryCriteria);
+        V3TaskQueryCriteriaEvaluator queryPredicate = new V3TaskQueryCriteriaEvaluator(queryCriteria, titusRuntime);
+        List<Task> allFilteredTasks = plan.getCandidateJobIds()
+                .map(candidateJobIds -> jobOperations.findTasks(candidateJobIds, queryPredicate))
+                .orElseGet(() -> jobOperations.findTasks(queryPredicate, 0, Integer.MAX_VALUE / 2))
+                .stream()
+                .map(Pair::getRight)
                 .collect(Collectors.toList());
+        jobQueryIndexes.recordQuery("findTasks", plan, allFilteredTasks.size());
 
-        return PaginationUtil.takePageWithCursor(
+        // Select the page on the core entities, and convert only the page items.
+        Pair<List<Task>, Pagination> corePage = PaginationUtil.selectPageWithCursor(
                 pageOpt.get(),
                 allFilteredTasks,
-                JobManagerCursors.taskCursorOrderComparator(),
-                JobManagerCursors::taskIndexOf,
-                JobManagerCursors::newCursorFrom
+                JobManagerCursors.coreTaskCursorOrderComparator(),
+                JobManagerCursors::coreTaskCursorReference,
+                JobManagerCursors::newCursorFromCoreTask
         );
+        List<com.netflix.titus.grpc.protogen.Task> grpcTasks = corePage.getLeft().stream()
+                .map(task -> V3GrpcModelConverters.toGrpcTask(task, logStorageInfo))
+                .collect(Collectors.toList());
+        return Pair.of(grpcTasks, corePage.getRight());
     }
 
     @Override
@@ -208,12 +243,19 @@ public class V3GrpcTitusServiceGateway implements GrpcTitusServiceGateway {
 
     @Override
     public Observable<JobChangeNotification> observeJobs() {
+        if (notificationBroadcaster.isActive()) {
+            return notificationBroadcaster.observeJobs()
+                    .doOnError(e -> logger.error("Unexpected error in jobs event stream", e));
+        }
         return jobOperations.observeJobs().map(event -> V3GrpcModelConverters.toGrpcJobChangeNotification(event, logStorageInfo))
                 .compose(ObservableExt.head(() -> {
                     List<JobChangeNotification> snapshot = createJobsSnapshot();
                     snapshot.add(SNAPSHOT_END_MARKER);
                     return snapshot;
                 }))
+                // The snapshot and the job manager events are emitted regardless of the subscriber demand. This path
+                // is used only until the broadcaster is activated, so the events are buffered without a limit.
+                .onBackpressureBuffer()
                 .doOnError(e -> logger.error("Unexpected error in jobs event stream", e));
     }
 
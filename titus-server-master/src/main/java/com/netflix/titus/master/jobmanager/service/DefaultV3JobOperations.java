@@ -16,9 +16,14 @@
 
 package com.netflix.titus.master.jobmanager.service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -229,6 +234,38 @@ public class DefaultV3JobOperations implements V3JobOperations {
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public List<Job<?>> findJobs(Collection<String> candidateJobIds, Predicate<Pair<Job<?>, List<Task>>> queryPredicate) {
+        List<Job<?>> result = new ArrayList<>();
+        for (String jobId : candidateJobIds) {
+            reconciliationFramework.findEngineByRootId(jobId).ifPresent(engine -> {
+                Pair<Job<?>, List<Task>> jobTasksPair = toJobTasksPair(engine.getReferenceView());
+                if (queryPredicate.test(jobTasksPair)) {
+                    result.add(jobTasksPair.getLeft());
+                }
+            });
+        }
+        return result;
+    }
+
+    @Override
+    public List<Pair<Job<?>, Task>> findTasks(Collection<String> candidateJobIds, Predicate<Pair<Job<?>, Task>> queryPredicate) {
+        List<Pair<Job<?>, Task>> result = new ArrayList<>();
+        for (String jobId : candidateJobIds) {
+            reconciliationFramework.findEngineByRootId(jobId).ifPresent(engine -> {
+                EntityHolder jobHolder = engine.getReferenceView();
+                Job<?> job = jobHolder.getEntity();
+                for (EntityHolder taskHolder : jobHolder.getChildren()) {
+                    Pair<Job<?>, Task> jobTaskPair = Pair.of(job, taskHolder.getEntity());
+                    if (queryPredicate.test(jobTaskPair)) {
+                        result.add(jobTaskPair);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
     @Override
     public Optional<Pair<Job<?>, Task>> findTaskById(String taskId) {
         return reconciliationFramework.findEngineByChildId(taskId)
@@ -250,6 +287,17 @@ public class DefaultV3JobOperations implements V3JobOperations {
         return engine.changeReferenceModel(changeAction, taskId).toCompletable();
     }
 
+    @Override
+    public Completable updateTasks(String jobId, Map<String, Function<Task, Optional<Task>>> changeFunctions, Trigger trigger, String reason) {
+        Optional<ReconciliationEngine<JobManagerReconcilerEvent>> engineOpt = reconciliationFramework.findEngineByRootId(jobId);
+        if (!engineOpt.isPresent()) {
+            return Completable.error(JobManagerException.jobNotFound(jobId));
+        }
+        ReconciliationEngine<JobManagerReconcilerEvent> engine = engineOpt.get();
+        TitusChangeAction changeAction = BasicTaskActions.updateTasksInRunningModel(jobId, changeFunctions, trigger, jobManagerConfiguration, engine, reason, titusRuntime);
+        return engine.changeReferenceModel(changeAction).toCompletable();
+    }
+
     @Override
     public Completable recordTaskPlacement(String taskId, Function<Task, Task> changeFunction) {
         Optional<ReconciliationEngine<JobManagerReconcilerEvent>> engineOpt = reconciliationFramework.findEngineByChildId(taskId).map(Pair::getLeft);
@@ -281,6 +329,46 @@ public class DefaultV3JobOperations implements V3JobOperations {
         return engine.changeReferenceModel(changeAction, taskId).toCompletable();
     }
 
+    @Override
+    public Observable<Map<String, Throwable>> recordTaskPlacements(String jobId, Map<String, Function<Task, Task>> changeFunctions) {
+        Optional<ReconciliationEngine<JobManagerReconcilerEvent>> engineOpt = reconciliationFramework.findEngineByRootId(jobId);
+        if (!engineOpt.isPresent()) {
+            return Observable.error(JobManagerException.jobNotFound(jobId));
+        }
+        ReconciliationEngine<JobManagerReconcilerEvent> engine = engineOpt.get();
+
+        Map<String, Throwable> rejected = new ConcurrentHashMap<>();
+        TitusChangeAction changeAction = TitusChangeAction.newAction("recordTaskPlacements")
+                .id(jobId)
+                .trigger(Trigger.Scheduler)
+                .summary("Scheduler assigned %s tasks to agents", changeFunctions.size())
+                .changeWithModelUpdates(self -> {
+                    List<Task> newTasks = new ArrayList<>();
+                    List<ModelActionHolder> modelUpdates = new ArrayList<>();
+                    changeFunctions.forEach((taskId, changeFunction) -> {
+                        Optional<Task> taskOpt = engine.getReferenceView().findById(taskId).map(EntityHolder::getEntity);
+                        if (!taskOpt.isPresent()) {
+                            rejected.put(taskId, JobManagerException.taskNotFound(taskId));
+                            return;
+                        }
+                        Task newTask;
+                        try {
+                            newTask = changeFunction.apply(taskOpt.get());
+                        } catch (Exception e) {
+                            rejected.put(taskId, e);
+                            return;
+                        }
+                        newTasks.add(newTask);
+                        modelUpdates.add(ModelActionHolder.allModels(TitusModelAction.newModelUpdate(self).task(newTask).taskUpdate(newTask)));
+                    });
+                    if (newTasks.isEmpty()) {
+                        return Observable.just(Collections.<ModelActionHolder>emptyList());
+                    }
+                    return store.updateTasks(newTasks).andThen(Observable.just(modelUpdates));
+                });
+        return engine.changeReferenceModel(changeAction).toCompletable().andThen(Observable.fromCallable(() -> rejected));
+    }
+
     @Override
     public Observable<Void> updateJobCapacity(String jobId, Capacity capacity) {
         return inServiceJob(jobId).flatMap(engine -> {
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.jobmanager.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
+
+/**
+ * A state derived from the job manager (an index, or a cache), which is built from the job manager snapshot, and
+ * next kept up to date from the job manager event stream.
+ * <p>
+ * The event stream is subscribed to before the first build, so no update done in between is lost. A build runs
+ * without holding the update lock. Events received in the meantime are applied to the current state, and are also
+ * buffered, to be replayed on the new state before it replaces the current one in a single reference assignment.
+ * As some of the replayed events may already be included in the job manager snapshot, event handlers must be
+ * idempotent.
+ *
+ * @param <E> type of events, as emitted by the subscribed event stream
+ * @param <S> state type
+ */
+public class JobEventProjection<E, S> {
+
+    public interface Handler<E, S> {
+
+        /**
+         * Builds a new state from the job manager. Called without holding the update lock.
+         */
+        S build();
+
+        /**
+         * Applies an event to the given state, and returns the updated state. Called with the update lock held.
+         */
+        S apply(S state, E event);
+
+        /**
+         * Called with the update lock held, after an event received from the event stream was applied. It is not
+         * called when the buffered events are replayed on a rebuilt state.
+         */
+        default void afterApply(S state, E event) {
+        }
+
+        /**
+         * Called with the update lock held, after the current state was replaced with the rebuilt one. The previous
+         * state is not modified anymore.
+         */
+        default void afterRebuild(S previous, S rebuilt) {
+        }
+    }
+
+    private final Handler<E, S> handler;
+
+    private final Object lock = new Object();
+
+    private volatile S state;
+
+    /**
+     * Events received while a build is in progress, or null if there is no build in progress. Guarded by {@link #lock}.
+     */
+    private List<E> pendingEvents;
+
+    public JobEventProjection(S initialState, Handler<E, S> handler) {
+        this.state = initialState;
+        this.handler = handler;
+    }
+
+    /**
+     * Subscribes to the given event stream, and next rebuilds the state.
+     */
+    public Subscription subscribe(Observable<E> events, Action1<Throwable> onError, Action0 onCompleted) {
+        Subscription subscription = events.subscribe(this::onEvent, onError, onCompleted);
+        rebuild();
+        return subscription;
+    }
+
+    /**
+     * Returns the latest version of the state.
+     */
+    public S getState() {
+        return state;
+    }
+
+    /**
+     * Executes the given action with the update lock held, so no event is applied while it runs.
+     */
+    public void withLock(Consumer<S> action) {
+        synchronized (lock) {
+            action.accept(state);
+        }
+    }
+
+    public void onEvent(E event) {
+        synchronized (lock) {
+            S newState = handler.apply(state, event);
+            if (pendingEvents != null) {
+                pendingEvents.add(event);
+            }
+            this.state = newState;
+            handler.afterApply(newState, event);
+        }
+    }
+
+    /**
+     * Builds a new state from the job manager, and replaces the current one with it. Returns false if another
+     * build is already in progress.
+     */
+    public boolean rebuild() {
+        synchronized (lock) {
+            if (pendingEvents != null) {
+                return false;
+            }
+            pendingEvents = new ArrayList<>();
+        }
+        S newState;
+        try {
+            newState = handler.build();
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                pendingEvents = null;
+            }
+            throw e;
+        }
+        synchronized (lock) {
+            for (E event : pendingEvents) {
+                newState = handler.apply(newState, event);
+            }
+            pendingEvents = null;
+            S previous = this.state;
+            this.state = newState;
+            handler.afterRebuild(previous, newState);
+            return true;
+        }
+    }
+}
@@ -30,6 +30,20 @@ public interface JobManagerConfiguration {
     @DefaultValue("1")
     long getReconcilerActiveTimeoutMs();
 
+    /**
+     * Number of reconciliation loops running in parallel, each handling a disjoint subset of jobs. With the
+     * default value of 1, all jobs are reconciled by a single loop.
+     */
+    @DefaultValue("1")
+    int getReconcilerShardCount();
+
+    /**
+     * Time window over which Mesos task status updates are collected, before they are applied to the job manager
+     * in a single change action per job.
+     */
+    @DefaultValue("100")
+    long getTaskStatusUpdateCoalescingWindowMs();
+
     /**
      * How many active tasks in the transient state (in other words not Started and not Finished) are allowed in a job.
      * If the number of active tasks in the transient state goes above this limit, no new tasks are created.
@@ -83,6 +97,26 @@ public interface JobManagerConfiguration {
     @DefaultValue("10000")
     long getTaskLivenessPollerIntervalMs();
 
+    /**
+     * How often the pre-converted job/task snapshot, sent to new job event stream subscribers, is refreshed from
+     * the job manager. The refresh removes the finished entities, for which the job manager emits no removal event.
+     */
+    @DefaultValue("30000")
+    long getEventStreamSnapshotRefreshIntervalMs();
+
+    /**
+     * Maximum number of live job events buffered for a single job event stream subscriber. A subscriber that
+     * falls further behind is disconnected.
+     */
+    @DefaultValue("10000")
+    int getEventStreamSubscriberBufferSize();
+
+    /**
+     * Number of threads validating job and task records loaded from the store during the job manager bootstrap.
+     */
+    @DefaultValue("8")
+    int getStoreBootstrapParallelism();
+
     /**
      * Feature flag controlling job/task validation process.
      */
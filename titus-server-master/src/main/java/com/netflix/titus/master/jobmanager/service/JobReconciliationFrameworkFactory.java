@@ -26,12 +26,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.validation.ConstraintViolation;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.netflix.spectator.api.BasicTag;
 import com.netflix.spectator.api.Gauge;
 import com.netflix.spectator.api.Registry;
@@ -58,6 +62,7 @@ import com.netflix.titus.common.framework.reconciler.ReconciliationFramework;
 import com.netflix.titus.common.framework.reconciler.internal.DefaultReconciliationEngine;
 import com.netflix.titus.common.framework.reconciler.internal.DefaultReconciliationFramework;
 import com.netflix.titus.common.framework.reconciler.internal.InternalReconciliationEngine;
+import com.netflix.titus.common.framework.reconciler.internal.ShardedReconciliationFramework;
 import com.netflix.titus.common.model.sanitizer.EntitySanitizer;
 import com.netflix.titus.common.model.sanitizer.EntitySanitizerUtil;
 import com.netflix.titus.common.runtime.TitusRuntime;
@@ -79,6 +84,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Observable;
 import rx.Scheduler;
+import rx.schedulers.Schedulers;
 
 import static com.netflix.titus.api.jobmanager.model.job.sanitizer.JobSanitizerBuilder.JOB_PERMISSIVE_SANITIZER;
 import static com.netflix.titus.api.jobmanager.model.job.sanitizer.JobSanitizerBuilder.JOB_STRICT_SANITIZER;
@@ -102,6 +108,8 @@ public class JobReconciliationFrameworkFactory {
 
     private static final int MAX_RETRIEVE_TASK_CONCURRENCY = 100;
 
+    private static final long PROGRESS_REPORT_INTERVAL_MS = 5_000;
+
     private static final JobEventFactory JOB_EVENT_FACTORY = new JobEventFactory();
 
     private static final Map<Object, Comparator<EntityHolder>> INDEX_COMPARATORS = Collections.singletonMap(
@@ -127,6 +135,9 @@ public class JobReconciliationFrameworkFactory {
     private final Gauge loadedJobs;
     private final Gauge loadedTasks;
     private final Gauge storeLoadTimeMs;
+    private final Gauge loadedJobsPerSec;
+    private final Gauge loadedTasksPerSec;
+    private final Gauge corruptedRecordsGauge;
 
     @Inject
     public JobReconciliationFrameworkFactory(JobManagerConfiguration jobManagerConfiguration,
@@ -177,6 +188,9 @@ public class JobReconciliationFrameworkFactory {
         this.loadedJobs = registry.gauge(ROOT_METRIC_NAME + "loadedJobs");
         this.loadedTasks = registry.gauge(ROOT_METRIC_NAME + "loadedTasks");
         this.storeLoadTimeMs = registry.gauge(ROOT_METRIC_NAME + "storeLoadTimeMs");
+        this.loadedJobsPerSec = registry.gauge(ROOT_METRIC_NAME + "loadedJobsPerSec");
+        this.loadedTasksPerSec = registry.gauge(ROOT_METRIC_NAME + "loadedTasksPerSec");
+        this.corruptedRecordsGauge = registry.gauge(ROOT_METRIC_NAME + "corruptedRecords");
 
         this.dispatchingResolver = DifferenceResolvers.dispatcher(rootModel -> {
             Job<?> job = rootModel.getEntity();
@@ -192,32 +206,24 @@ public class JobReconciliationFrameworkFactory {
     }
 
     ReconciliationFramework<JobManagerReconcilerEvent> newInstance() {
-        List<Pair<Job, List<Task>>> jobsAndTasks = checkGlobalConsistency(loadJobsAndTasksFromStore(errorCollector));
-
-        // initialize fenzo with running tasks
-        List<InternalReconciliationEngine<JobManagerReconcilerEvent>> engines = new ArrayList<>();
-        for (Pair<Job, List<Task>> pair : jobsAndTasks) {
-            Job job = pair.getLeft();
-            List<Task> tasks = pair.getRight();
-            InternalReconciliationEngine<JobManagerReconcilerEvent> engine = newRestoredEngine(job, tasks);
-            engines.add(engine);
-            for (Task task : tasks) {
-                Optional<Task> validatedTask = validateTask(task);
-                if (validatedTask.isPresent()) {
-                    TaskFenzoCheck check = addTaskToFenzo(engine, job, task);
-                    if (check == TaskFenzoCheck.FenzoAddError) {
-                        errorCollector.taskAddToFenzoError(task.getId());
-                    } else if (check == TaskFenzoCheck.Inconsistent) {
-                        errorCollector.inconsistentTask(task.getId());
-                    }
-                } else {
-                    errorCollector.invalidTaskRecord(task.getId());
-                }
-            }
-        }
+        List<InternalReconciliationEngine<JobManagerReconcilerEvent>> engines = loadEnginesFromStore();
 
         errorCollector.failIfTooManyBadRecords();
 
+        int shardCount = jobManagerConfiguration.getReconcilerShardCount();
+        if (shardCount > 1) {
+            logger.info("Starting sharded reconciliation framework with {} shards", shardCount);
+            return new ShardedReconciliationFramework<>(
+                    shardCount,
+                    engines,
+                    bootstrapModel -> newEngine(bootstrapModel, true),
+                    jobManagerConfiguration.getReconcilerIdleTimeoutMs(),
+                    jobManagerConfiguration.getReconcilerActiveTimeoutMs(),
+                    INDEX_COMPARATORS,
+                    registry,
+                    optionalScheduler
+            );
+        }
         return new DefaultReconciliationFramework<>(
                 engines,
                 bootstrapModel -> newEngine(bootstrapModel, true),
@@ -229,6 +235,35 @@ public class JobReconciliationFrameworkFactory {
         );
     }
 
+    /**
+     * Creates the engine of a loaded job, and initializes Fenzo with its tasks. Tasks are checked for ENI assignment
+     * conflicts with all tasks loaded so far, so this method must be called serially.
+     */
+    private InternalReconciliationEngine<JobManagerReconcilerEvent> newRestoredEngine(LoadedJob loadedJob,
+                                                                                      Map<String, Map<String, Set<String>>> eniAssignmentMap) {
+        Job job = loadedJob.getJob();
+        List<Task> tasks = loadedJob.getTasks().stream()
+                .map(task -> checkTaskEniAssignment(task, eniAssignmentMap))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+
+        InternalReconciliationEngine<JobManagerReconcilerEvent> engine = newRestoredEngine(job, tasks);
+        for (Task task : tasks) {
+            if (loadedJob.isValid(task)) {
+                TaskFenzoCheck check = addTaskToFenzo(engine, job, task);
+                if (check == TaskFenzoCheck.FenzoAddError) {
+                    errorCollector.taskAddToFenzoError(task.getId());
+                } else if (check == TaskFenzoCheck.Inconsistent) {
+                    errorCollector.inconsistentTask(task.getId());
+                }
+            } else {
+                errorCollector.invalidTaskRecord(task.getId());
+            }
+        }
+        return engine;
+    }
+
     private InternalReconciliationEngine<JobManagerReconcilerEvent> newRestoredEngine(Job job, List<Task> tasks) {
         EntityHolder jobHolder = EntityHolder.newRoot(job.getId(), job);
         for (Task task : tasks) {
@@ -344,59 +379,88 @@ public class JobReconciliationFrameworkFactory {
         return true;
     }
 
-    private List<Pair<Job, List<Task>>> loadJobsAndTasksFromStore(InitializationErrorCollector errorCollector) {
+    /**
+     * Loads jobs and tasks from the store, creating the engine of each job as soon as its tasks are loaded, without
+     * waiting for the whole data set. Job and task records are validated on a bounded pool of bootstrap threads,
+     * while the engines are created, and the tasks added to Fenzo, serially on the calling thread.
+     */
+    private List<InternalReconciliationEngine<JobManagerReconcilerEvent>> loadEnginesFromStore() {
         long startTime = clock.wallTime();
 
-        // load all job/task pairs
-        List<Pair<Job, Pair<List<Task>, Integer>>> jobTasksPairs;
+        int parallelism = Math.max(1, jobManagerConfiguration.getStoreBootstrapParallelism());
+        ExecutorService bootstrapExecutor = Executors.newFixedThreadPool(
+                parallelism,
+                new ThreadFactoryBuilder().setNameFormat("job-store-bootstrap-%d").setDaemon(true).build()
+        );
+        Scheduler bootstrapScheduler = Schedulers.from(bootstrapExecutor);
+
+        List<InternalReconciliationEngine<JobManagerReconcilerEvent>> engines = new ArrayList<>();
+        Map<String, Map<String, Set<String>>> eniAssignmentMap = new HashMap<>();
+        BootstrapProgress progress = new BootstrapProgress(startTime);
         try {
-            jobTasksPairs = store.init().andThen(store.retrieveJobs().flatMap(retrievedJobsAndErrors -> {
+            Iterable<LoadedJob> loadedJobs = store.init().andThen(store.retrieveJobs().flatMap(retrievedJobsAndErrors -> {
                 errorCollector.corruptedJobRecords(retrievedJobsAndErrors.getRight());
+                progress.corruptedRecords(retrievedJobsAndErrors.getRight());
+                return Observable.from(retrievedJobsAndErrors.getLeft());
+            })).flatMap(job -> loadJob(job, progress, bootstrapScheduler), MAX_RETRIEVE_TASK_CONCURRENCY).toBlocking().toIterable();
 
-                List<Job<?>> retrievedJobs = retrievedJobsAndErrors.getLeft();
-                List<Observable<Pair<Job, Pair<List<Task>, Integer>>>> retrieveTasksObservables = new ArrayList<>();
-                for (Job job : retrievedJobs) {
-                    // TODO Finished jobs that were not archived immediately should be archived by background archive process
-                    if (job.getStatus().getState() == JobState.Finished) {
-                        logger.info("Not loading finished job: {}", job.getId());
-                        continue;
-                    }
-
-                    Optional<Job> validatedJob = validateJob(job);
-                    if (validatedJob.isPresent()) {
-                        Observable<Pair<Job, Pair<List<Task>, Integer>>> retrieveTasksObservable = store.retrieveTasksForJob(job.getId())
-                                .map(taskList -> new Pair<>(validatedJob.get(), taskList));
-                        retrieveTasksObservables.add(retrieveTasksObservable);
-                    } else {
-                        errorCollector.invalidJob(job.getId());
-                    }
-                }
-                return Observable.merge(retrieveTasksObservables, MAX_RETRIEVE_TASK_CONCURRENCY);
-            })).toList().toBlocking().singleOrDefault(Collections.emptyList());
-
-            int corruptedTaskRecords = jobTasksPairs.stream().mapToInt(p -> p.getRight().getRight()).sum();
-            errorCollector.corruptedTaskRecords(corruptedTaskRecords);
+            for (LoadedJob loadedJob : loadedJobs) {
+                engines.add(newRestoredEngine(loadedJob, eniAssignmentMap));
 
-            int taskCount = jobTasksPairs.stream().map(p -> p.getRight().getLeft().size()).reduce(0, (a, v) -> a + v);
-            loadedJobs.set(jobTasksPairs.size());
-            loadedTasks.set(taskCount);
+                List<String> taskStrings = loadedJob.getTasks().stream().map(t -> String.format("<%s,%s>", t.getId(), t.getStatus().getState())).collect(Collectors.toList());
+                logger.info("Loaded job: {} with tasks: {}", loadedJob.getJob().getId(), taskStrings);
 
-            for (Pair<Job, Pair<List<Task>, Integer>> jobTaskPair : jobTasksPairs) {
-                Job job = jobTaskPair.getLeft();
-                List<Task> tasks = jobTaskPair.getRight().getLeft();
-                List<String> taskStrings = tasks.stream().map(t -> String.format("<%s,%s>", t.getId(), t.getStatus().getState())).collect(Collectors.toList());
-                logger.info("Loaded job: {} with tasks: {}", job.getId(), taskStrings);
+                progress.jobLoaded(loadedJob.getTasks().size());
             }
 
-            logger.info("{} jobs and {} tasks loaded from store in {}ms", jobTasksPairs.size(), taskCount, clock.wallTime() - startTime);
+            // Report overlaps
+            eniAssignmentMap.forEach((eniSignature, assignments) -> {
+                if (assignments.size() > 1) {
+                    errorCollector.eniOverlaps(eniSignature, assignments);
+                }
+            });
+
+            progress.report();
+            logger.info("{} jobs and {} tasks loaded from store in {}ms", progress.getJobCount(), progress.getTaskCount(), clock.wallTime() - startTime);
         } catch (Exception e) {
             logger.error("Failed to load jobs from the store during initialization:", e);
             throw new IllegalStateException("Failed to load jobs from the store during initialization", e);
         } finally {
+            bootstrapExecutor.shutdownNow();
             storeLoadTimeMs.set(clock.wallTime() - startTime);
         }
 
-        return jobTasksPairs.stream().map(p -> Pair.of(p.getLeft(), p.getRight().getLeft())).collect(Collectors.toList());
+        return engines;
+    }
+
+    private Observable<LoadedJob> loadJob(Job<?> job, BootstrapProgress progress, Scheduler bootstrapScheduler) {
+        // TODO Finished jobs that were not archived immediately should be archived by background archive process
+        if (job.getStatus().getState() == JobState.Finished) {
+            logger.info("Not loading finished job: {}", job.getId());
+            return Observable.empty();
+        }
+
+        return Observable.fromCallable(() -> validateJob(job)).subscribeOn(bootstrapScheduler).flatMap(validatedJob -> {
+            if (!validatedJob.isPresent()) {
+                errorCollector.invalidJob(job.getId());
+                return Observable.empty();
+            }
+            return store.retrieveTasksForJob(job.getId())
+                    .observeOn(bootstrapScheduler)
+                    .map(tasksAndErrors -> {
+                        errorCollector.corruptedTaskRecords(tasksAndErrors.getRight());
+                        progress.corruptedRecords(tasksAndErrors.getRight());
+
+                        List<Task> tasks = tasksAndErrors.getLeft();
+                        Set<String> invalidTaskIds = new HashSet<>();
+                        for (Task task : tasks) {
+                            if (!validateTask(task).isPresent()) {
+                                invalidTaskIds.add(task.getId());
+                            }
+                        }
+                        return new LoadedJob(validatedJob.get(), tasks, invalidTaskIds);
+                    });
+        });
     }
 
     private Optional<Job> validateJob(Job job) {
@@ -441,30 +505,6 @@ public class JobReconciliationFrameworkFactory {
         return Optional.of(task);
     }
 
-    private List<Pair<Job, List<Task>>> checkGlobalConsistency(List<Pair<Job, List<Task>>> jobsAndTasks) {
-        Map<String, Map<String, Set<String>>> eniAssignmentMap = new HashMap<>();
-
-        List<Pair<Job, List<Task>>> filtered = jobsAndTasks.stream()
-                .map(jobAndTasks -> {
-                            List<Task> filteredTasks = jobAndTasks.getRight().stream()
-                                    .map(task -> checkTaskEniAssignment(task, eniAssignmentMap))
-                                    .filter(Optional::isPresent)
-                                    .map(Optional::get)
-                                    .collect(Collectors.toList());
-                            return Pair.of(jobAndTasks.getLeft(), filteredTasks);
-                        }
-                ).collect(Collectors.toList());
-
-        // Report overlaps
-        eniAssignmentMap.forEach((eniSignature, assignments) -> {
-            if (assignments.size() > 1) {
-                errorCollector.eniOverlaps(eniSignature, assignments);
-            }
-        });
-
-        return filtered;
-    }
-
     private Optional<Task> checkTaskEniAssignment(Task task, Map<String, Map<String, Set<String>>> eniAssignmentMap) {
         // Filter out tasks that will not be put back into Fenzo queue.
         TaskState taskState = task.getStatus().getState();
@@ -506,4 +546,82 @@ public class JobReconciliationFrameworkFactory {
         Task task2 = holder2.getEntity();
         return Long.compare(task1.getStatus().getTimestamp(), task2.getStatus().getTimestamp());
     }
+
+    private static class LoadedJob {
+
+        private final Job<?> job;
+        private final List<Task> tasks;
+        private final Set<String> invalidTaskIds;
+
+        private LoadedJob(Job<?> job, List<Task> tasks, Set<String> invalidTaskIds) {
+            this.job = job;
+            this.tasks = tasks;
+            this.invalidTaskIds = invalidTaskIds;
+        }
+
+        private Job<?> getJob() {
+            return job;
+        }
+
+        private List<Task> getTasks() {
+            return tasks;
+        }
+
+        private boolean isValid(Task task) {
+            return !invalidTaskIds.contains(task.getId());
+        }
+    }
+
+    /**
+     * Tracks the bootstrap progress, updating the metrics as jobs are loaded, and periodically logging the load rate.
+     */
+    private class BootstrapProgress {
+
+        private final long startTime;
+        private final AtomicInteger corruptedRecords = new AtomicInteger();
+
+        private int jobCount;
+        private int taskCount;
+        private long lastReportTime;
+
+        private BootstrapProgress(long startTime) {
+            this.startTime = startTime;
+            this.lastReportTime = startTime;
+        }
+
+        private int getJobCount() {
+            return jobCount;
+        }
+
+        private int getTaskCount() {
+            return taskCount;
+        }
+
+        private void corruptedRecords(int count) {
+            corruptedRecordsGauge.set(corruptedRecords.addAndGet(count));
+        }
+
+        private void jobLoaded(int tasks) {
+            jobCount++;
+            taskCount += tasks;
+            loadedJobs.set(jobCount);
+            loadedTasks.set(taskCount);
+
+            if (clock.wallTime() - lastReportTime >= PROGRESS_REPORT_INTERVAL_MS) {
+                report();
+            }
+        }
+
+        private void report() {
+            long now = clock.wallTime();
+            double elapsedSec = Math.max(1, now - startTime) / 1000.0;
+            loadedJobsPerSec.set(jobCount / elapsedSec);
+            loadedTasksPerSec.set(taskCount / elapsedSec);
+            lastReportTime = now;
+
+            logger.info("Job store bootstrap progress: jobs={}, tasks={}, jobsPerSec={}, tasksPerSec={}, corruptedRecords={}",
+                    jobCount, taskCount, (long) (jobCount / elapsedSec), (long) (taskCount / elapsedSec), corruptedRecords.get()
+            );
+        }
+    }
 }
@@ -30,6 +30,8 @@ import com.netflix.titus.master.jobmanager.service.batch.BatchDifferenceResolver
 import com.netflix.titus.master.jobmanager.service.event.JobManagerReconcilerEvent;
 import com.netflix.titus.master.jobmanager.service.limiter.DefaultJobSubmitLimiter;
 import com.netflix.titus.master.jobmanager.service.limiter.JobSubmitLimiter;
+import com.netflix.titus.master.jobmanager.service.query.JobCursorIndex;
+import com.netflix.titus.master.jobmanager.service.query.JobQueryIndexes;
 import com.netflix.titus.master.jobmanager.service.service.ServiceDifferenceResolver;
 import com.netflix.titus.master.mesos.DefaultV3TaskInfoFactory;
 import com.netflix.titus.master.mesos.TaskInfoFactory;
@@ -53,6 +55,8 @@ public class V3JobManagerModule extends AbstractModule {
         }).to(DefaultV3TaskInfoFactory.class);
 
         bind(TaskLivenessMetrics.class).asEagerSingleton();
+        bind(JobQueryIndexes.class).asEagerSingleton();
+        bind(JobCursorIndex.class).asEagerSingleton();
     }
 
     @Provides
@@ -19,6 +19,7 @@ package com.netflix.titus.master.jobmanager.service.common.action.task;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Function;
@@ -54,10 +55,14 @@ import com.netflix.titus.master.scheduler.constraint.ConstraintEvaluatorTransfor
 import com.netflix.titus.master.scheduler.constraint.SystemHardConstraint;
 import com.netflix.titus.master.scheduler.constraint.SystemSoftConstraint;
 import com.netflix.titus.master.service.management.ApplicationSlaManagementService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import rx.Observable;
 
 public class BasicTaskActions {
 
+    private static final Logger logger = LoggerFactory.getLogger(BasicTaskActions.class);
+
     /**
      * Update a task, and write it to store before updating reference and store models.
      * This action is used when handling user initiated updates.
@@ -144,45 +149,87 @@ public class BasicTaskActions {
                             if (!taskOptional.isPresent()) {
                                 return Collections.emptyList();
                             }
-                            EntityHolder taskHolder = taskOptional.get();
-                            Task oldTask = taskHolder.getEntity();
-                            Optional<Task> maybeNewTask = changeFunction.apply(oldTask);
-                            if (!maybeNewTask.isPresent()) {
-                                return Collections.emptyList();
-                            }
-                            Task newTask = maybeNewTask.get();
+                            return updateTaskModels(self, taskOptional.get(), changeFunction, configuration, titusRuntime);
+                        }
+                );
+    }
 
-                            // Handle separately reference and runtime models, as only reference model gets retry attributes.
+    /**
+     * Batch version of {@link #updateTaskInRunningModel(String, Trigger, JobManagerConfiguration, ReconciliationEngine, Function, String, TitusRuntime)}
+     * for tasks belonging to the same job. All task updates are applied in a single change action. Tasks that are
+     * not found, or which change function fails, are skipped, so the remaining tasks are still updated.
+     */
+    public static TitusChangeAction updateTasksInRunningModel(String jobId,
+                                                              Map<String, Function<Task, Optional<Task>>> changeFunctions,
+                                                              Trigger trigger,
+                                                              JobManagerConfiguration configuration,
+                                                              ReconciliationEngine<JobManagerReconcilerEvent> engine,
+                                                              String reason,
+                                                              TitusRuntime titusRuntime) {
+        return TitusChangeAction.newAction("updateTasksInRunningModel")
+                .id(jobId)
+                .trigger(trigger)
+                .summary(reason)
+                .applyModelUpdates(self -> {
                             List<ModelActionHolder> modelActionHolders = new ArrayList<>();
+                            changeFunctions.forEach((taskId, changeFunction) ->
+                                    JobEntityHolders.expectTaskHolder(engine, taskId, titusRuntime).ifPresent(taskHolder -> {
+                                        try {
+                                            modelActionHolders.addAll(updateTaskModels(self, taskHolder, changeFunction, configuration, titusRuntime));
+                                        } catch (Exception e) {
+                                            logger.warn("Cannot update task {} of job {}", taskId, jobId, e);
+                                        }
+                                    })
+                            );
+                            return modelActionHolders;
+                        }
+                );
+    }
 
-                            // Add retryer data to task context.
-                            EntityHolder newTaskHolder;
-                            if (newTask.getStatus().getState() == TaskState.Finished) {
-                                long retryDelayMs = TaskRetryers.getCurrentRetryerDelayMs(
-                                        taskHolder, configuration.getMinRetryIntervalMs(), configuration.getTaskRetryerResetTimeMs(), titusRuntime.getClock()
-                                );
-                                String retryDelayString = DateTimeExt.toTimeUnitString(retryDelayMs);
-
-                                newTask = newTask.toBuilder()
-                                        .addToTaskContext(TaskAttributes.TASK_ATTRIBUTES_RETRY_DELAY, retryDelayString)
-                                        .build();
-                                newTaskHolder = taskHolder.
-                                        setEntity(newTask)
-                                        .addTag(TaskRetryers.ATTR_TASK_RETRY_DELAY_MS, retryDelayMs);
-
-                                modelActionHolders.add(
-                                        ModelActionHolder.reference(TitusModelAction.newModelUpdate(self)
-                                                .summary("Setting retry delay on task in Finished state: %s", retryDelayString)
-                                                .addTaskHolder(newTaskHolder))
-                                );
-                            } else {
-                                modelActionHolders.add(ModelActionHolder.reference(TitusModelAction.newModelUpdate(self).taskUpdate(newTask)));
-                            }
+    private static List<ModelActionHolder> updateTaskModels(TitusChangeAction.Builder self,
+                                                            EntityHolder taskHolder,
+                                                            Function<Task, Optional<Task>> changeFunction,
+                                                            JobManagerConfiguration configuration,
+                                                            TitusRuntime titusRuntime) {
+        Task oldTask = taskHolder.getEntity();
+        Optional<Task> maybeNewTask = changeFunction.apply(oldTask);
+        if (!maybeNewTask.isPresent()) {
+            return Collections.emptyList();
+        }
+        Task newTask = maybeNewTask.get();
 
-                            modelActionHolders.add(ModelActionHolder.running(TitusModelAction.newModelUpdate(self).taskUpdate(newTask)));
+        // Handle separately reference and runtime models, as only reference model gets retry attributes.
+        List<ModelActionHolder> modelActionHolders = new ArrayList<>();
 
-                            return modelActionHolders;
-                        }
+        // Add retryer data to task context.
+        EntityHolder newTaskHolder;
+        if (newTask.getStatus().getState() == TaskState.Finished) {
+            long retryDelayMs = TaskRetryers.getCurrentRetryerDelayMs(
+                    taskHolder, configuration.getMinRetryIntervalMs(), configuration.getTaskRetryerResetTimeMs(), titusRuntime.getClock()
+            );
+            String retryDelayString = DateTimeExt.toTimeUnitString(retryDelayMs);
+
+            newTask = newTask.toBuilder()
+                    .addToTaskContext(TaskAttributes.TASK_ATTRIBUTES_RETRY_DELAY, retryDelayString)
+                    .build();
+            newTaskHolder = taskHolder.
+                    setEntity(newTask)
+                    .addTag(TaskRetryers.ATTR_TASK_RETRY_DELAY_MS, retryDelayMs);
+
+            modelActionHolders.add(
+                    ModelActionHolder.reference(TitusModelAction.newModelUpdate(self)
+                            .task(newTask)
+                            .summary("Setting retry delay on task in Finished state: %s", retryDelayString)
+                            .addTaskHolder(newTaskHolder))
+            );
+        } else {
+            modelActionHolders.add(ModelActionHolder.reference(TitusModelAction.newModelUpdate(self).task(newTask).taskUpdate(newTask)));
+        }
+
+        modelActionHolders.add(ModelActionHolder.running(TitusModelAction.newModelUpdate(self).task(newTask).taskUpdate(newTask)));
+
+        return modelActionHolders;
+    }
                 );
     }
 
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.jobmanager.service.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.netflix.spectator.api.Registry;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.JobState;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
+import com.netflix.titus.api.jobmanager.model.job.event.JobManagerEvent;
+import com.netflix.titus.api.jobmanager.model.job.event.JobUpdateEvent;
+import com.netflix.titus.api.jobmanager.model.job.event.TaskUpdateEvent;
+import com.netflix.titus.api.jobmanager.service.V3JobOperations;
+import com.netflix.titus.api.model.Page;
+import com.netflix.titus.api.model.Pagination;
+import com.netflix.titus.api.model.PaginationUtil;
+import com.netflix.titus.common.runtime.TitusRuntime;
+import com.netflix.titus.common.util.collections.PersistentSortedSet;
+import com.netflix.titus.common.util.guice.annotation.Activator;
+import com.netflix.titus.common.util.rx.ObservableExt;
+import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.grpc.protogen.JobDescriptor;
+import com.netflix.titus.grpc.protogen.JobStatus;
+import com.netflix.titus.grpc.protogen.TaskStatus;
+import com.netflix.titus.master.MetricConstants;
+import com.netflix.titus.master.jobmanager.service.JobEventProjection;
+import com.netflix.titus.runtime.endpoint.JobQueryCriteria;
+import com.netflix.titus.runtime.endpoint.v3.grpc.V3GrpcModelConverters;
+import com.netflix.titus.runtime.jobmanager.JobManagerCursors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Subscription;
+
+/**
+ * Active jobs and tasks kept in the pagination cursor order, partitioned by their state. A query restricted only
+ * by job or task states is answered by locating the cursor with a binary search in each matching partition, and
+ * merging the partitions from that position, so a page request costs O(log(n) + pageSize) instead of a full scan.
+ * <p>
+ * The index is maintained from the job manager event stream. Finished jobs and tasks are not indexed, as there is
+ * no event when they are removed from the job manager, so queries that may include them are not served here.
+ */
+@Singleton
+public class JobCursorIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobCursorIndex.class);
+
+    private static final String METRIC_ROOT = MetricConstants.METRIC_ROOT + "jobManager.query.";
+
+    private final V3JobOperations v3JobOperations;
+    private final TitusRuntime titusRuntime;
+    private final Registry registry;
+
+    private final JobEventProjection<JobManagerEvent<?>, CursorState> projection;
+
+    private Subscription eventSubscription;
+
+    @Inject
+    public JobCursorIndex(V3JobOperations v3JobOperations, TitusRuntime titusRuntime) {
+        this.v3JobOperations = v3JobOperations;
+        this.titusRuntime = titusRuntime;
+        this.registry = titusRuntime.getRegistry();
+        this.projection = new JobEventProjection<>(new CursorState(false), new JobEventProjection.Handler<JobManagerEvent<?>, CursorState>() {
+            @Override
+            public CursorState build() {
+                return buildCursorState();
+            }
+
+            @Override
+            public CursorState apply(CursorState state, JobManagerEvent<?> event) {
+                state.apply(event);
+                return state;
+            }
+        });
+    }
+
+    @Activator
+    public void enterActiveMode() {
+        this.eventSubscription = projection.subscribe(
+                titusRuntime.persistentStream(v3JobOperations.observeJobs()),
+                e -> logger.error("Job event stream terminated with an error", e),
+                () -> logger.info("Job event stream completed")
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ObservableExt.safeUnsubscribe(eventSubscription);
+    }
+
+    /**
+     * Returns the requested page of jobs, or {@link Optional#empty()} if the query cannot be answered from this index.
+     */
+    public Optional<Pair<List<Job<?>>, Pagination>> findJobs(JobQueryCriteria<TaskStatus.TaskState, JobDescriptor.JobSpecCase> criteria, Page page) {
+        CursorState state = projection.getState();
+        if (!state.ready || !criteria.getJobState().isPresent() || !criteria.getTaskStates().isEmpty() || hasOtherCriteria(criteria)) {
+            return Optional.empty();
+        }
+        JobState jobState = V3GrpcModelConverters.toCoreJobState((JobStatus.JobState) criteria.getJobState().get());
+        if (jobState == JobState.Finished) {
+            return Optional.empty();
+        }
+        registry.counter(METRIC_ROOT + "cursorIndexPages", "query", "findJobs").increment();
+        return Optional.of(PaginationUtil.takePageFromSortedSets(
+                page,
+                Collections.singletonList(state.jobsByState.get(jobState)),
+                JobManagerCursors::coreJobCursorReference,
+                JobManagerCursors::newCursorFromCoreJob
+        ));
+    }
+
+    /**
+     * Returns the requested page of tasks, or {@link Optional#empty()} if the query cannot be answered from this index.
+     */
+    public Optional<Pair<List<Task>, Pagination>> findTasks(JobQueryCriteria<TaskStatus.TaskState, JobDescriptor.JobSpecCase> criteria, Page page) {
+        CursorState state = projection.getState();
+        if (!state.ready || criteria.getJobState().isPresent() || criteria.getTaskStates().isEmpty() || hasOtherCriteria(criteria)) {
+            return Optional.empty();
+        }
+        Set<TaskState> taskStates = EnumSet.noneOf(TaskState.class);
+        criteria.getTaskStates().forEach(grpcState -> taskStates.add(V3GrpcModelConverters.toCoreTaskState(grpcState)));
+        if (taskStates.contains(TaskState.Finished)) {
+            return Optional.empty();
+        }
+        Map<TaskState, PersistentSortedSet<Task>> current = state.tasksByState;
+        List<PersistentSortedSet<Task>> partitions = new ArrayList<>(taskStates.size());
+        taskStates.forEach(taskState -> partitions.add(current.get(taskState)));
+        registry.counter(METRIC_ROOT + "cursorIndexPages", "query", "findTasks").increment();
+        return Optional.of(PaginationUtil.takePageFromSortedSets(
+                page,
+                partitions,
+                JobManagerCursors::coreTaskCursorReference,
+                JobManagerCursors::newCursorFromCoreTask
+        ));
+    }
+
+    @VisibleForTesting
+    void onJobManagerEvent(JobManagerEvent<?> event) {
+        projection.onEvent(event);
+    }
+
+    @VisibleForTesting
+    void rebuild() {
+        projection.rebuild();
+    }
+
+    private CursorState buildCursorState() {
+        CursorState state = new CursorState(true);
+        for (Pair<Job, List<Task>> jobAndTasks : v3JobOperations.getJobsAndTasks()) {
+            Job<?> job = jobAndTasks.getLeft();
+            if (job.getStatus().getState() == JobState.Finished) {
+                continue;
+            }
+            state.updateJob(job);
+            jobAndTasks.getRight().forEach(state::updateTask);
+        }
+        return state;
+    }
+
+    private static boolean hasOtherCriteria(JobQueryCriteria<TaskStatus.TaskState, JobDescriptor.JobSpecCase> criteria) {
+        return !criteria.getJobIds().isEmpty()
+                || !criteria.getTaskIds().isEmpty()
+                || !criteria.getTaskStateReasons().isEmpty()
+                || criteria.getOwner().isPresent()
+                || !criteria.getLabels().isEmpty()
+                || criteria.getImageName().isPresent()
+                || criteria.getImageTag().isPresent()
+                || criteria.getAppName().isPresent()
+                || criteria.getCapacityGroup().isPresent()
+                || criteria.getJobType().isPresent()
+                || criteria.getJobGroupStack().isPresent()
+                || criteria.getJobGroupDetail().isPresent()
+                || criteria.getJobGroupSequence().isPresent()
+                || criteria.isNeedsMigration();
+    }
+
+    private static Map<JobState, PersistentSortedSet<Job<?>>> emptyJobPartitions() {
+        Map<JobState, PersistentSortedSet<Job<?>>> partitions = new EnumMap<>(JobState.class);
+        for (JobState state : JobState.values()) {
+            if (state != JobState.Finished) {
+                partitions.put(state, PersistentSortedSet.empty(JobManagerCursors.coreJobCursorOrderComparator()));
+            }
+        }
+        return partitions;
+    }
+
+    private static Map<TaskState, PersistentSortedSet<Task>> emptyTaskPartitions() {
+        Map<TaskState, PersistentSortedSet<Task>> partitions = new EnumMap<>(TaskState.class);
+        for (TaskState state : TaskState.values()) {
+            if (state != TaskState.Finished) {
+                partitions.put(state, PersistentSortedSet.empty(JobManagerCursors.coreTaskCursorOrderComparator()));
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Partitions are immutable, and replaced on each change, so they can be read without locking. The entity maps
+     * are modified with the projection lock held.
+     */
+    private static class CursorState {
+
+        private final boolean ready;
+
+        private final Map<String, Job<?>> jobsById = new HashMap<>();
+        private final Map<String, Map<String, Task>> tasksByJobId = new HashMap<>();
+
+        private volatile Map<JobState, PersistentSortedSet<Job<?>>> jobsByState = emptyJobPartitions();
+        private volatile Map<TaskState, PersistentSortedSet<Task>> tasksByState = emptyTaskPartitions();
+
+        private CursorState(boolean ready) {
+            this.ready = ready;
+        }
+
+        private void apply(JobManagerEvent<?> event) {
+            if (event instanceof JobUpdateEvent) {
+                Job<?> job = ((JobUpdateEvent) event).getCurrent();
+                if (job.getStatus().getState() == JobState.Finished) {
+                    removeJob(job.getId());
+                } else {
+                    updateJob(job);
+                }
+            } else if (event instanceof TaskUpdateEvent) {
+                TaskUpdateEvent taskEvent = (TaskUpdateEvent) event;
+                if (taskEvent.getCurrentJob().getStatus().getState() == JobState.Finished) {
+                    return;
+                }
+                updateTask(taskEvent.getCurrentTask());
+            }
+        }
+
+        private void updateJob(Job<?> job) {
+            Job<?> previous = jobsById.put(job.getId(), job);
+            Map<JobState, PersistentSortedSet<Job<?>>> newJobsByState = new EnumMap<>(jobsByState);
+            if (previous != null) {
+                newJobsByState.computeIfPresent(previous.getStatus().getState(), (state, jobs) -> jobs.remove(previous));
+            }
+            newJobsByState.computeIfPresent(job.getStatus().getState(), (state, jobs) -> jobs.insert(job));
+            jobsByState = newJobsByState;
+        }
+
+        private void removeJob(String jobId) {
+            Job<?> previous = jobsById.remove(jobId);
+            if (previous != null) {
+                Map<JobState, PersistentSortedSet<Job<?>>> newJobsByState = new EnumMap<>(jobsByState);
+                newJobsByState.computeIfPresent(previous.getStatus().getState(), (state, jobs) -> jobs.remove(previous));
+                jobsByState = newJobsByState;
+            }
+            Map<String, Task> tasks = tasksByJobId.remove(jobId);
+            if (tasks != null && !tasks.isEmpty()) {
+                Map<TaskState, PersistentSortedSet<Task>> newTasksByState = new EnumMap<>(tasksByState);
+                tasks.values().forEach(task -> newTasksByState.computeIfPresent(task.getStatus().getState(), (state, partition) -> partition.remove(task)));
+                tasksByState = newTasksByState;
+            }
+        }
+
+        private void updateTask(Task task) {
+            boolean finished = task.getStatus().getState() == TaskState.Finished;
+            Map<String, Task> tasks = tasksByJobId.get(task.getJobId());
+            if (tasks == null) {
+                if (finished) {
+                    return;
+                }
+                tasks = new HashMap<>();
+                tasksByJobId.put(task.getJobId(), tasks);
+            }
+            Task previous = finished ? tasks.remove(task.getId()) : tasks.put(task.getId(), task);
+            if (tasks.isEmpty()) {
+                tasksByJobId.remove(task.getJobId());
+            }
+
+            Map<TaskState, PersistentSortedSet<Task>> newTasksByState = new EnumMap<>(tasksByState);
+            if (previous != null) {
+                newTasksByState.computeIfPresent(previous.getStatus().getState(), (state, partition) -> partition.remove(previous));
+            }
+            newTasksByState.computeIfPresent(task.getStatus().getState(), (state, partition) -> partition.insert(task));
+            tasksByState = newTasksByState;
+        }
+    }
+}
@@ -0,0 +1,515 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.jobmanager.service.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.netflix.spectator.api.Registry;
+import com.netflix.titus.api.jobmanager.model.job.Container;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.JobDescriptor;
+import com.netflix.titus.api.jobmanager.model.job.JobGroupInfo;
+import com.netflix.titus.api.jobmanager.model.job.JobState;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
+import com.netflix.titus.api.jobmanager.model.job.event.JobManagerEvent;
+import com.netflix.titus.api.jobmanager.model.job.event.JobUpdateEvent;
+import com.netflix.titus.api.jobmanager.model.job.event.TaskUpdateEvent;
+import com.netflix.titus.api.jobmanager.service.V3JobOperations;
+import com.netflix.titus.common.runtime.TitusRuntime;
+import com.netflix.titus.common.util.collections.PersistentHashMap;
+import com.netflix.titus.common.util.guice.annotation.Activator;
+import com.netflix.titus.common.util.rx.ObservableExt;
+import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.grpc.protogen.JobStatus;
+import com.netflix.titus.grpc.protogen.TaskStatus;
+import com.netflix.titus.master.MetricConstants;
+import com.netflix.titus.master.jobmanager.service.JobEventProjection;
+import com.netflix.titus.runtime.endpoint.JobQueryCriteria;
+import com.netflix.titus.runtime.endpoint.v3.grpc.V3GrpcModelConverters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Subscription;
+
+/**
+ * Inverted indexes over the active jobs, used to narrow down the set of jobs a V3 query predicate must be evaluated
+ * for. The indexes are maintained from the job manager event stream, and cover the application name, capacity group,
+ * owner, image name/tag, job group info, job attributes (labels) and the states of the job tasks.
+ * <p>
+ * Index postings are kept in persistent maps, and a new version is published after each change, so queries always
+ * see a consistent state without locking. Finished jobs and tasks are not indexed, as there is no event when they
+ * are removed from the job manager. The ids of finished jobs still held by the job manager are tracked separately,
+ * and added to the candidates of queries without state criteria.
+ */
+@Singleton
+public class JobQueryIndexes {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobQueryIndexes.class);
+
+    private static final String METRIC_ROOT = MetricConstants.METRIC_ROOT + "jobManager.query.";
+
+    static final String INDEX_JOB_ID = "jobId";
+    static final String INDEX_APP_NAME = "appName";
+    static final String INDEX_CAPACITY_GROUP = "capacityGroup";
+    static final String INDEX_OWNER = "owner";
+    static final String INDEX_IMAGE_NAME = "imageName";
+    static final String INDEX_IMAGE_TAG = "imageTag";
+    static final String INDEX_JOB_GROUP_STACK = "jobGroupStack";
+    static final String INDEX_JOB_GROUP_DETAIL = "jobGroupDetail";
+    static final String INDEX_JOB_GROUP_SEQUENCE = "jobGroupSequence";
+    static final String INDEX_LABEL_KEY = "labelKey";
+    static final String INDEX_LABEL_PREFIX = "label:";
+    static final String INDEX_TASK_STATE = "taskState";
+
+    /**
+     * Once the candidate set is this small, intersecting it with further indexes costs more than evaluating
+     * the residual predicate.
+     */
+    private static final int INTERSECTION_CUTOFF = 16;
+
+    private final V3JobOperations v3JobOperations;
+    private final TitusRuntime titusRuntime;
+    private final Registry registry;
+
+    private final JobEventProjection<JobManagerEvent<?>, IndexState> projection;
+
+    private Subscription eventSubscription;
+
+    @Inject
+    public JobQueryIndexes(V3JobOperations v3JobOperations, TitusRuntime titusRuntime) {
+        this.v3JobOperations = v3JobOperations;
+        this.titusRuntime = titusRuntime;
+        this.registry = titusRuntime.getRegistry();
+        this.projection = new JobEventProjection<>(new IndexState(false), new JobEventProjection.Handler<JobManagerEvent<?>, IndexState>() {
+            @Override
+            public IndexState build() {
+                return buildIndexState();
+            }
+
+            @Override
+            public IndexState apply(IndexState state, JobManagerEvent<?> event) {
+                if (state.apply(event)) {
+                    state.pruneFinishedJobs(jobId -> v3JobOperations.getJob(jobId).isPresent());
+                }
+                return state;
+            }
+        });
+    }
+
+    @Activator
+    public void enterActiveMode() {
+        this.eventSubscription = projection.subscribe(
+                titusRuntime.persistentStream(v3JobOperations.observeJobs()),
+                e -> logger.error("Job event stream terminated with an error", e),
+                () -> logger.info("Job event stream completed")
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ObservableExt.safeUnsubscribe(eventSubscription);
+    }
+
+    /**
+     * Selects the candidate jobs for the given query. The indexes applicable to the query criteria are ordered by
+     * their estimated size, and intersected starting from the most selective one. Finished jobs and tasks are not
+     * indexed, so a query that includes them requires a full scan. A query without state criteria matches finished
+     * jobs as well, so all finished jobs still held by the job manager are added to its candidates.
+     */
+    public JobQueryPlan plan(JobQueryCriteria<TaskStatus.TaskState, com.netflix.titus.grpc.protogen.JobDescriptor.JobSpecCase> criteria) {
+        IndexState state = projection.getState();
+        if (!state.ready || includesFinished(criteria)) {
+            return JobQueryPlan.fullScan(state.indexedJobCount);
+        }
+
+        PersistentHashMap<Pair<String, String>, PersistentHashMap<String, Boolean>> postings = state.postings;
+        List<IndexSelection> selections = new ArrayList<>();
+
+        if (!criteria.getJobIds().isEmpty()) {
+            PersistentHashMap<String, Boolean> jobIds = PersistentHashMap.empty();
+            for (String jobId : criteria.getJobIds()) {
+                jobIds = jobIds.put(jobId, Boolean.TRUE);
+            }
+            selections.add(new IndexSelection(INDEX_JOB_ID, jobIds));
+        }
+        criteria.getAppName().ifPresent(value -> selections.add(select(postings, INDEX_APP_NAME, value)));
+        criteria.getCapacityGroup().ifPresent(value -> selections.add(select(postings, INDEX_CAPACITY_GROUP, value)));
+        criteria.getOwner().ifPresent(value -> selections.add(select(postings, INDEX_OWNER, value)));
+        criteria.getImageName().ifPresent(value -> selections.add(select(postings, INDEX_IMAGE_NAME, value)));
+        criteria.getImageTag().ifPresent(value -> selections.add(select(postings, INDEX_IMAGE_TAG, value)));
+        criteria.getJobGroupStack().ifPresent(value -> selections.add(select(postings, INDEX_JOB_GROUP_STACK, value)));
+        criteria.getJobGroupDetail().ifPresent(value -> selections.add(select(postings, INDEX_JOB_GROUP_DETAIL, value)));
+        criteria.getJobGroupSequence().ifPresent(value -> selections.add(select(postings, INDEX_JOB_GROUP_SEQUENCE, value)));
+        addLabelSelections(postings, criteria.getLabels(), criteria.isLabelsAndOp(), selections);
+        addTaskStateSelection(postings, criteria.getTaskStates(), selections);
+
+        if (selections.isEmpty()) {
+            return JobQueryPlan.fullScan(state.indexedJobCount);
+        }
+
+        selections.sort(Comparator.comparingInt(IndexSelection::estimatedSize));
+
+        Iterator<IndexSelection> it = selections.iterator();
+        IndexSelection first = it.next();
+        Set<String> candidates = first.materialize();
+        List<String> usedIndexes = new ArrayList<>();
+        usedIndexes.add(first.getName());
+        while (it.hasNext() && candidates.size() > INTERSECTION_CUTOFF) {
+            IndexSelection next = it.next();
+            candidates.removeIf(jobId -> !next.contains(jobId));
+            usedIndexes.add(next.getName());
+        }
+        if (!hasStateCriteria(criteria)) {
+            candidates.addAll(state.finishedJobIds.keys());
+        }
+        return JobQueryPlan.indexed(candidates, usedIndexes);
+    }
+
+    /**
+     * Records the query execution statistics, to show how many jobs were evaluated against the query predicate,
+     * compared to the number of the returned results.
+     */
+    public void recordQuery(String queryName, JobQueryPlan plan, int resultCount) {
+        String planName = plan.isFullScan() ? "fullScan" : "indexed";
+        registry.distributionSummary(registry.createId(METRIC_ROOT + "candidates", "query", queryName, "plan", planName)).record(plan.getCandidateCount());
+        registry.distributionSummary(registry.createId(METRIC_ROOT + "results", "query", queryName, "plan", planName)).record(resultCount);
+        logger.debug("Query {} executed: plan={}, results={}", queryName, plan, resultCount);
+    }
+
+    @VisibleForTesting
+    void onJobManagerEvent(JobManagerEvent<?> event) {
+        projection.onEvent(event);
+    }
+
+    @VisibleForTesting
+    void rebuild() {
+        projection.rebuild();
+    }
+
+    private IndexState buildIndexState() {
+        IndexState state = new IndexState(true);
+        for (Pair<Job, List<Task>> jobAndTasks : v3JobOperations.getJobsAndTasks()) {
+            Job<?> job = jobAndTasks.getLeft();
+            if (job.getStatus().getState() == JobState.Finished) {
+                state.finishedJobIds = state.finishedJobIds.put(job.getId(), Boolean.TRUE);
+                continue;
+            }
+            jobAndTasks.getRight().forEach(state::updateTaskState);
+            state.reindexJob(job);
+        }
+        state.indexedJobCount = state.termsByJobId.size();
+        return state;
+    }
+
+    private static boolean includesFinished(JobQueryCriteria<TaskStatus.TaskState, com.netflix.titus.grpc.protogen.JobDescriptor.JobSpecCase> criteria) {
+        if (criteria.getJobState().isPresent()
+                && V3GrpcModelConverters.toCoreJobState((JobStatus.JobState) criteria.getJobState().get()) == JobState.Finished) {
+            return true;
+        }
+        for (TaskStatus.TaskState grpcState : criteria.getTaskStates()) {
+            if (V3GrpcModelConverters.toCoreTaskState(grpcState) == TaskState.Finished) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasStateCriteria(JobQueryCriteria<TaskStatus.TaskState, com.netflix.titus.grpc.protogen.JobDescriptor.JobSpecCase> criteria) {
+        return criteria.getJobState().isPresent() || !criteria.getTaskStates().isEmpty();
+    }
+
+    private IndexSelection select(PersistentHashMap<Pair<String, String>, PersistentHashMap<String, Boolean>> postings, String indexName, String value) {
+        return new IndexSelection(indexName, postingsOf(postings, indexName, value));
+    }
+
+    private void addLabelSelections(PersistentHashMap<Pair<String, String>, PersistentHashMap<String, Boolean>> postings,
+                                    Map<String, Set<String>> labels,
+                                    boolean andOperator,
+                                    List<IndexSelection> selections) {
+        if (labels.isEmpty()) {
+            return;
+        }
+        if (andOperator) {
+            // Each label must match, so each is a separate selection.
+            labels.forEach((key, values) -> selections.add(new IndexSelection(INDEX_LABEL_PREFIX + key, labelPostings(postings, key, values))));
+        } else {
+            List<PersistentHashMap<String, Boolean>> union = new ArrayList<>();
+            labels.forEach((key, values) -> union.addAll(labelPostings(postings, key, values)));
+            selections.add(new IndexSelection(INDEX_LABEL_KEY, union));
+        }
+    }
+
+    private List<PersistentHashMap<String, Boolean>> labelPostings(PersistentHashMap<Pair<String, String>, PersistentHashMap<String, Boolean>> postings,
+                                                                   String key,
+                                                                   Set<String> values) {
+        List<PersistentHashMap<String, Boolean>> result = new ArrayList<>();
+        if (values.isEmpty()) {
+            result.add(postingsOf(postings, INDEX_LABEL_KEY, key));
+        } else {
+            values.forEach(value -> result.add(postingsOf(postings, INDEX_LABEL_PREFIX + key, value)));
+        }
+        return result;
+    }
+
+    private void addTaskStateSelection(PersistentHashMap<Pair<String, String>, PersistentHashMap<String, Boolean>> postings,
+                                       Set<TaskStatus.TaskState> taskStates,
+                                       List<IndexSelection> selections) {
+        if (taskStates.isEmpty()) {
+            return;
+        }
+        List<PersistentHashMap<String, Boolean>> union = new ArrayList<>();
+        for (TaskStatus.TaskState grpcState : taskStates) {
+            union.add(postingsOf(postings, INDEX_TASK_STATE, V3GrpcModelConverters.toCoreTaskState(grpcState).name()));
+        }
+        selections.add(new IndexSelection(INDEX_TASK_STATE, union));
+    }
+
+    private PersistentHashMap<String, Boolean> postingsOf(PersistentHashMap<Pair<String, String>, PersistentHashMap<String, Boolean>> postings,
+                                                          String indexName,
+                                                          String value) {
+        PersistentHashMap<String, Boolean> jobIds = postings.get(Pair.of(indexName, value));
+        return jobIds == null ? PersistentHashMap.empty() : jobIds;
+    }
+
+    /**
+     * Index postings are published as a new persistent map version after each change, and read without locking.
+     * The other data structures are modified with the projection lock held.
+     */
+    private static class IndexState {
+
+        private final boolean ready;
+
+        private final Map<String, Set<Pair<String, String>>> termsByJobId = new HashMap<>();
+        private final Map<String, Map<String, TaskState>> taskStatesByJobId = new HashMap<>();
+        private final Map<String, EnumMap<TaskState, Integer>> taskStateCountersByJobId = new HashMap<>();
+
+        private volatile PersistentHashMap<Pair<String, String>, PersistentHashMap<String, Boolean>> postings = PersistentHashMap.empty();
+        private volatile int indexedJobCount;
+
+        /**
+         * Finished jobs, which may still be returned by the job manager. Published like the postings.
+         */
+        private volatile PersistentHashMap<String, Boolean> finishedJobIds = PersistentHashMap.empty();
+
+        private IndexState(boolean ready) {
+            this.ready = ready;
+        }
+
+        /**
+         * Returns true if the event moved a job to the finished state.
+         */
+        private boolean apply(JobManagerEvent<?> event) {
+            boolean jobFinished = false;
+            if (event instanceof JobUpdateEvent) {
+                Job<?> job = ((JobUpdateEvent) event).getCurrent();
+                if (job.getStatus().getState() == JobState.Finished) {
+                    removeJob(job.getId());
+                    finishedJobIds = finishedJobIds.put(job.getId(), Boolean.TRUE);
+                    jobFinished = true;
+                } else {
+                    reindexJob(job);
+                }
+            } else if (event instanceof TaskUpdateEvent) {
+                TaskUpdateEvent taskEvent = (TaskUpdateEvent) event;
+                if (taskEvent.getCurrentJob().getStatus().getState() == JobState.Finished) {
+                    return false;
+                }
+                updateTaskState(taskEvent.getCurrentTask());
+                reindexJob(taskEvent.getCurrentJob());
+            }
+            indexedJobCount = termsByJobId.size();
+            return jobFinished;
+        }
+
+        /**
+         * Forgets finished jobs no longer held by the job manager. As there is no event for their removal, this is
+         * done each time another job finishes, which keeps the set as small as the number of finished jobs the job
+         * manager still holds.
+         */
+        private void pruneFinishedJobs(Predicate<String> isKnown) {
+            for (String jobId : finishedJobIds.keys()) {
+                if (!isKnown.test(jobId)) {
+                    finishedJobIds = finishedJobIds.remove(jobId);
+                }
+            }
+        }
+
+        private void removeJob(String jobId) {
+            Set<Pair<String, String>> terms = termsByJobId.remove(jobId);
+            taskStatesByJobId.remove(jobId);
+            taskStateCountersByJobId.remove(jobId);
+            if (terms != null) {
+                terms.forEach(term -> removePosting(term, jobId));
+            }
+        }
+
+        private void reindexJob(Job<?> job) {
+            Set<Pair<String, String>> newTerms = buildTerms(job);
+            Set<Pair<String, String>> oldTerms = termsByJobId.put(job.getId(), newTerms);
+            if (oldTerms != null) {
+                for (Pair<String, String> term : oldTerms) {
+                    if (!newTerms.contains(term)) {
+                        removePosting(term, job.getId());
+                    }
+                }
+            }
+            for (Pair<String, String> term : newTerms) {
+                if (oldTerms == null || !oldTerms.contains(term)) {
+                    addPosting(term, job.getId());
+                }
+            }
+        }
+
+        /**
+         * Finished tasks are not indexed, as there is no event when they are removed from the job.
+         */
+        private void updateTaskState(Task task) {
+            String jobId = task.getJobId();
+            TaskState state = task.getStatus().getState();
+            Map<String, TaskState> taskStates = taskStatesByJobId.computeIfAbsent(jobId, id -> new HashMap<>());
+            EnumMap<TaskState, Integer> counters = taskStateCountersByJobId.computeIfAbsent(jobId, id -> new EnumMap<>(TaskState.class));
+
+            TaskState previousState = state == TaskState.Finished ? taskStates.remove(task.getId()) : taskStates.put(task.getId(), state);
+            if (previousState == state) {
+                return;
+            }
+            if (previousState != null) {
+                int count = counters.getOrDefault(previousState, 0) - 1;
+                if (count > 0) {
+                    counters.put(previousState, count);
+                } else {
+                    counters.remove(previousState);
+                }
+            }
+            if (state != TaskState.Finished) {
+                counters.put(state, counters.getOrDefault(state, 0) + 1);
+            }
+        }
+
+        private Set<Pair<String, String>> buildTerms(Job<?> job) {
+            Set<Pair<String, String>> terms = new HashSet<>();
+            JobDescriptor<?> jobDescriptor = job.getJobDescriptor();
+
+            addTerm(terms, INDEX_APP_NAME, jobDescriptor.getApplicationName());
+            addTerm(terms, INDEX_CAPACITY_GROUP, jobDescriptor.getCapacityGroup());
+            if (jobDescriptor.getOwner() != null) {
+                addTerm(terms, INDEX_OWNER, jobDescriptor.getOwner().getTeamEmail());
+            }
+            Container container = jobDescriptor.getContainer();
+            if (container != null && container.getImage() != null) {
+                addTerm(terms, INDEX_IMAGE_NAME, container.getImage().getName());
+                addTerm(terms, INDEX_IMAGE_TAG, container.getImage().getTag());
+            }
+            JobGroupInfo jobGroupInfo = jobDescriptor.getJobGroupInfo();
+            if (jobGroupInfo != null) {
+                addTerm(terms, INDEX_JOB_GROUP_STACK, jobGroupInfo.getStack());
+                addTerm(terms, INDEX_JOB_GROUP_DETAIL, jobGroupInfo.getDetail());
+                addTerm(terms, INDEX_JOB_GROUP_SEQUENCE, jobGroupInfo.getSequence());
+            }
+            jobDescriptor.getAttributes().forEach((key, value) -> {
+                addTerm(terms, INDEX_LABEL_KEY, key);
+                addTerm(terms, INDEX_LABEL_PREFIX + key, value);
+            });
+            EnumMap<TaskState, Integer> taskStateCounters = taskStateCountersByJobId.get(job.getId());
+            if (taskStateCounters != null) {
+                taskStateCounters.keySet().forEach(state -> addTerm(terms, INDEX_TASK_STATE, state.name()));
+            }
+            return terms;
+        }
+
+        private static void addTerm(Set<Pair<String, String>> terms, String indexName, String value) {
+            if (value != null) {
+                terms.add(Pair.of(indexName, value));
+            }
+        }
+
+        private void addPosting(Pair<String, String> term, String jobId) {
+            PersistentHashMap<String, Boolean> jobIds = postings.get(term);
+            postings = postings.put(term, (jobIds == null ? PersistentHashMap.<String, Boolean>empty() : jobIds).put(jobId, Boolean.TRUE));
+        }
+
+        private void removePosting(Pair<String, String> term, String jobId) {
+            PersistentHashMap<String, Boolean> jobIds = postings.get(term);
+            if (jobIds == null) {
+                return;
+            }
+            PersistentHashMap<String, Boolean> newJobIds = jobIds.remove(jobId);
+            postings = newJobIds.isEmpty() ? postings.remove(term) : postings.put(term, newJobIds);
+        }
+    }
+
+    /**
+     * Union of index postings, selected for a single query criterion.
+     */
+    private static class IndexSelection {
+
+        private final String name;
+        private final List<PersistentHashMap<String, Boolean>> postings;
+        private final int estimatedSize;
+
+        private IndexSelection(String name, PersistentHashMap<String, Boolean> postings) {
+            this(name, Collections.singletonList(postings));
+        }
+
+        private IndexSelection(String name, List<PersistentHashMap<String, Boolean>> postings) {
+            this.name = name;
+            this.postings = postings;
+            int size = 0;
+            for (PersistentHashMap<String, Boolean> jobIds : postings) {
+                size += jobIds.size();
+            }
+            this.estimatedSize = size;
+        }
+
+        private String getName() {
+            return name;
+        }
+
+        private int estimatedSize() {
+            return estimatedSize;
+        }
+
+        private Set<String> materialize() {
+            Set<String> result = new HashSet<>();
+            postings.forEach(jobIds -> result.addAll(jobIds.keys()));
+            return result;
+        }
+
+        private boolean contains(String jobId) {
+            for (PersistentHashMap<String, Boolean> jobIds : postings) {
+                if (jobIds.containsKey(jobId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
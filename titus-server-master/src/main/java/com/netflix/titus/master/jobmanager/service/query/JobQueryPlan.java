@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.jobmanager.service.query;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Result of the job query planning. A plan either restricts the query to a set of candidate jobs, selected using
+ * the job indexes, or requires a full scan of all jobs. In both cases the complete query predicate must still be
+ * evaluated, as the indexes cover only a subset of the query criteria.
+ */
+public class JobQueryPlan {
+
+    private final Optional<Set<String>> candidateJobIds;
+    private final List<String> usedIndexes;
+    private final int candidateCount;
+
+    private JobQueryPlan(Optional<Set<String>> candidateJobIds, List<String> usedIndexes, int candidateCount) {
+        this.candidateJobIds = candidateJobIds;
+        this.usedIndexes = usedIndexes;
+        this.candidateCount = candidateCount;
+    }
+
+    public boolean isFullScan() {
+        return !candidateJobIds.isPresent();
+    }
+
+    /**
+     * Candidate jobs, or {@link Optional#empty()} if all jobs must be scanned.
+     */
+    public Optional<Set<String>> getCandidateJobIds() {
+        return candidateJobIds;
+    }
+
+    /**
+     * Names of the indexes used to compute the candidate set, in the order they were applied.
+     */
+    public List<String> getUsedIndexes() {
+        return usedIndexes;
+    }
+
+    /**
+     * Number of jobs the query predicate is evaluated for.
+     */
+    public int getCandidateCount() {
+        return candidateCount;
+    }
+
+    @Override
+    public String toString() {
+        return "JobQueryPlan{" +
+                "fullScan=" + isFullScan() +
+                ", usedIndexes=" + usedIndexes +
+                ", candidateCount=" + candidateCount +
+                '}';
+    }
+
+    public static JobQueryPlan fullScan(int jobCount) {
+        return new JobQueryPlan(Optional.empty(), Collections.emptyList(), jobCount);
+    }
+
+    public static JobQueryPlan indexed(Set<String> candidateJobIds, List<String> usedIndexes) {
+        return new JobQueryPlan(Optional.of(Collections.unmodifiableSet(candidateJobIds)), Collections.unmodifiableList(usedIndexes), candidateJobIds.size());
+    }
+}
@@ -43,6 +43,13 @@ public interface MesosConfiguration {
     @DefaultValue("false")
     boolean isAllowReconcilerUpdatesForUnknownTasks();
 
+    /**
+     * @return maximum number of tasks sent to Mesos in a single reconciliation request. Requests for all known tasks
+     * are spread evenly over the reconciliation interval.
+     */
+    @DefaultValue("1000")
+    int getReconcilerChunkSize();
+
     /**
      * @return whether or not the nested containers should be allowed.
      */
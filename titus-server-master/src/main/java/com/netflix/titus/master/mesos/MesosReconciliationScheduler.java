@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.mesos;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.netflix.spectator.api.DistributionSummary;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.patterns.PolledMeter;
+import com.netflix.titus.common.runtime.TitusRuntime;
+import com.netflix.titus.common.util.time.Clock;
+import com.netflix.titus.master.MetricConstants;
+import com.netflix.titus.master.config.MasterConfiguration;
+import org.apache.mesos.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits reconciliation of the tasks known to Titus into chunks, which are sent to Mesos one by one, evenly spread
+ * over the reconciliation interval. This way Mesos replies with a steady flow of status updates, instead of a single
+ * burst with a status update for every running task. Tasks with the oldest (or no) status update are reconciled first.
+ * <p>
+ * A chunk is open until the next one is sent, or the reconciliation cycle completes. When a chunk is closed, the
+ * fraction of its tasks for which Mesos replied with a reconciliation status update is recorded.
+ */
+class MesosReconciliationScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(MesosReconciliationScheduler.class);
+
+    private static final String METRIC_ROOT = MetricConstants.METRIC_MESOS + "reconciliation.";
+
+    private final MesosConfiguration mesosConfiguration;
+    private final MasterConfiguration configuration;
+    private final Clock clock;
+
+    private final ConcurrentMap<String, Long> lastStatusUpdateTimestamps = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Chunk> pendingTasks = new ConcurrentHashMap<>();
+    private final AtomicInteger reconciliationUpdates = new AtomicInteger();
+
+    private volatile Chunk openChunk;
+
+    private final DistributionSummary chunkCompleteness;
+    private final DistributionSummary updateBurstSize;
+
+    MesosReconciliationScheduler(MesosConfiguration mesosConfiguration, MasterConfiguration configuration, TitusRuntime titusRuntime) {
+        this.mesosConfiguration = mesosConfiguration;
+        this.configuration = configuration;
+        this.clock = titusRuntime.getClock();
+
+        Registry registry = titusRuntime.getRegistry();
+        this.chunkCompleteness = registry.distributionSummary(METRIC_ROOT + "chunkCompleteness");
+        this.updateBurstSize = registry.distributionSummary(METRIC_ROOT + "updateBurstSize");
+        PolledMeter.using(registry).withName(METRIC_ROOT + "outstandingRequests").monitorValue(this, self -> self.pendingTasks.size());
+    }
+
+    /**
+     * Orders the given tasks, so the ones that were not heard from for the longest time come first, and splits them
+     * into chunks of at most {@link MesosConfiguration#getReconcilerChunkSize()} tasks. The chunk still open from the
+     * previous cycle is closed.
+     */
+    List<List<Protos.TaskStatus>> nextCycle(List<Protos.TaskStatus> knownTasks) {
+        close();
+
+        Set<String> knownTaskIds = new HashSet<>();
+        knownTasks.forEach(taskStatus -> knownTaskIds.add(taskStatus.getTaskId().getValue()));
+        lastStatusUpdateTimestamps.keySet().retainAll(knownTaskIds);
+
+        List<Protos.TaskStatus> ordered = new ArrayList<>(knownTasks);
+        ordered.sort(Comparator.comparingLong(taskStatus -> lastStatusUpdateTimestamps.getOrDefault(taskStatus.getTaskId().getValue(), 0L)));
+
+        int chunkSize = Math.max(1, mesosConfiguration.getReconcilerChunkSize());
+        List<List<Protos.TaskStatus>> chunks = new ArrayList<>();
+        for (int i = 0; i < ordered.size(); i += chunkSize) {
+            chunks.add(ordered.subList(i, Math.min(i + chunkSize, ordered.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns delay between two consecutive chunks, so all of them are sent within one reconciliation interval.
+     */
+    long getChunkIntervalMs(int chunkCount) {
+        return chunkCount == 0 ? 0 : configuration.getMesosTaskReconciliationIntervalSecs() * 1000 / chunkCount;
+    }
+
+    /**
+     * Called when a chunk is sent to Mesos. The previously open chunk is closed.
+     */
+    void chunkSent(List<Protos.TaskStatus> taskStatuses) {
+        close();
+
+        Chunk chunk = new Chunk(taskStatuses);
+        chunk.taskIds.forEach(taskId -> pendingTasks.put(taskId, chunk));
+        this.openChunk = chunk;
+    }
+
+    /**
+     * Closes the open chunk (if any), and records the number of reconciliation status updates received since the
+     * last call.
+     */
+    void close() {
+        Chunk chunk = this.openChunk;
+        if (chunk != null) {
+            this.openChunk = null;
+            int missing = 0;
+            for (String taskId : chunk.taskIds) {
+                if (pendingTasks.remove(taskId, chunk)) {
+                    missing++;
+                }
+            }
+            chunkCompleteness.record(100L * (chunk.taskIds.size() - missing) / chunk.taskIds.size());
+            if (missing > 0) {
+                logger.info("No reconciliation status update received for {} out of {} tasks", missing, chunk.taskIds.size());
+            }
+        }
+        updateBurstSize.record(reconciliationUpdates.getAndSet(0));
+    }
+
+    void onStatusUpdate(Protos.TaskStatus taskStatus) {
+        String taskId = taskStatus.getTaskId().getValue();
+        lastStatusUpdateTimestamps.put(taskId, clock.wallTime());
+        if (taskStatus.getReason() == Protos.TaskStatus.Reason.REASON_RECONCILIATION) {
+            reconciliationUpdates.incrementAndGet();
+            pendingTasks.remove(taskId);
+        }
+    }
+
+    int getOutstandingRequests() {
+        return pendingTasks.size();
+    }
+
+    private static class Chunk {
+
+        private final List<String> taskIds;
+
+        private Chunk(List<Protos.TaskStatus> taskStatuses) {
+            this.taskIds = new ArrayList<>(taskStatuses.size());
+            taskStatuses.forEach(taskStatus -> taskIds.add(taskStatus.getTaskId().getValue()));
+        }
+    }
+}
@@ -18,7 +18,9 @@ package com.netflix.titus.master.mesos;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ScheduledFuture;
@@ -99,6 +101,8 @@ public class MesosSchedulerCallbackHandler implements Scheduler {
     private final Registry registry;
     private final Optional<FitInjection> taskStatusUpdateFitInjection;
     private final MesosStateTracker mesosStateTracker;
+    private final MesosReconciliationScheduler reconciliationScheduler;
+    private volatile List<ScheduledFuture<?>> reconciliationChunkFutures = Collections.emptyList();
 
     private AtomicLong lastOfferReceivedAt = new AtomicLong(System.currentTimeMillis());
     private AtomicLong lastValidOfferReceivedAt = new AtomicLong(System.currentTimeMillis());
@@ -152,6 +156,7 @@ public class MesosSchedulerCallbackHandler implements Scheduler {
         this.mesosConfiguration = mesosConfiguration;
         this.registry = titusRuntime.getRegistry();
         this.mesosStateTracker = new MesosStateTracker(config, titusRuntime);
+        this.reconciliationScheduler = new MesosReconciliationScheduler(mesosConfiguration, config, titusRuntime);
 
         numMesosRegistered = registry.counter(MetricConstants.METRIC_MESOS + "numMesosRegistered");
         numMesosDisconnects = registry.counter(MetricConstants.METRIC_MESOS + "numMesosDisconnects");
@@ -289,6 +294,7 @@ public class MesosSchedulerCallbackHandler implements Scheduler {
         if (reconcilerFuture != null) {
             reconcilerFuture.cancel(true);
         }
+        cancelReconciliationChunks();
         this.executor = new ScheduledThreadPoolExecutor(1);
         reconcilerFuture = executor.scheduleWithFixedDelay(() -> reconcileTasks(driver), 30, config.getMesosTaskReconciliationIntervalSecs(), TimeUnit.SECONDS);
     }
@@ -299,6 +305,7 @@ public class MesosSchedulerCallbackHandler implements Scheduler {
             return;
         }
         try {
+            cancelReconciliationChunks();
             if (reconciliationTrial++ % 2 == 0) {
                 reconcileTasksKnownToUs(driver);
             } else {
@@ -311,7 +318,31 @@ public class MesosSchedulerCallbackHandler implements Scheduler {
     }
 
     private void reconcileTasksKnownToUs(SchedulerDriver driver) {
-        final List<TaskStatus> tasksToInitialize = new ArrayList<>();
+        List<TaskStatus> tasksToInitialize = new ArrayList<>(findActiveTasks().values());
+        if (tasksToInitialize.isEmpty()) {
+            return;
+        }
+
+        List<List<TaskStatus>> chunks = reconciliationScheduler.nextCycle(tasksToInitialize);
+        long chunkIntervalMs = reconciliationScheduler.getChunkIntervalMs(chunks.size());
+        logger.info("Reconciling {} active tasks in {} chunks, sent every {}ms", tasksToInitialize.size(), chunks.size(), chunkIntervalMs);
+        logger.info("Last offer received {} secs ago", (System.currentTimeMillis() - lastOfferReceivedAt.get()) / 1000);
+        logger.info("Last valid offer received {} secs ago", (System.currentTimeMillis() - lastValidOfferReceivedAt.get()) / 1000);
+
+        List<ScheduledFuture<?>> futures = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            List<TaskStatus> chunk = chunks.get(i);
+            futures.add(executor.schedule(() -> reconcileTaskChunk(driver, chunk), i * chunkIntervalMs, TimeUnit.MILLISECONDS));
+        }
+        this.reconciliationChunkFutures = futures;
+    }
+
+    /**
+     * Returns the running V2 workers, and the started or being killed V3 tasks, keyed by task id, with the Mesos
+     * state expected for them.
+     */
+    private Map<String, TaskStatus> findActiveTasks() {
+        Map<String, TaskStatus> tasksToInitialize = new LinkedHashMap<>();
 
         List<V2WorkerMetadata> runningWorkers = new ArrayList<>();
         v2JobOperations.getAllJobMgrs().forEach(m -> {
@@ -322,64 +353,110 @@ public class MesosSchedulerCallbackHandler implements Scheduler {
                 }
         );
         for (V2WorkerMetadata mwmd : runningWorkers) {
-            tasksToInitialize.add(TaskStatus.newBuilder()
-                    .setTaskId(
-                            Protos.TaskID.newBuilder()
-                                    .setValue(
-                                            WorkerNaming.getWorkerName(
-                                                    mwmd.getJobId(),
-                                                    mwmd.getWorkerIndex(),
-                                                    mwmd.getWorkerNumber()))
-                                    .build())
-                    .setState(TaskState.TASK_RUNNING)
-                    .setSlaveId(SlaveID.newBuilder().setValue(mwmd.getSlaveID()).build())
-                    .build()
-            );
+            TaskStatus taskStatus = toReconciliationStatus(mwmd);
+            tasksToInitialize.put(taskStatus.getTaskId().getValue(), taskStatus);
         }
         for (Task task : v3JobOperations.getTasks()) {
-            com.netflix.titus.api.jobmanager.model.job.TaskState taskState = task.getStatus().getState();
-            TaskState mesosState;
-            switch (taskState) {
-                case Started:
-                    mesosState = TaskState.TASK_RUNNING;
-                    break;
-                case KillInitiated:
-                    mesosState = TaskState.TASK_KILLING;
-                    break;
-                default:
-                    mesosState = null;
+            toReconciliationStatus(task).ifPresent(taskStatus -> tasksToInitialize.put(task.getId(), taskStatus));
+        }
+        return tasksToInitialize;
+    }
+
+    /**
+     * Returns the Mesos state expected for a single task, if it is still a running V2 worker, or a started or being
+     * killed V3 task. Unlike {@link #findActiveTasks()}, only the job owning the task is looked at.
+     */
+    private Optional<TaskStatus> findActiveTask(String taskId) {
+        if (!JobFunctions.isV2Task(taskId)) {
+            return v3JobOperations.findTaskById(taskId).flatMap(jobAndTask -> toReconciliationStatus(jobAndTask.getRight()));
+        }
+        V2JobMgrIntf jobMgr = v2JobOperations.getJobMgrFromTaskId(taskId);
+        if (jobMgr == null) {
+            return Optional.empty();
+        }
+        V2WorkerMetadata worker = jobMgr.getTask(WorkerNaming.getJobAndWorkerId(taskId).workerNumber, false);
+        if (worker == null || worker.getState() != V2JobState.Started || !taskId.equals(WorkerNaming.getTaskId(worker))) {
+            return Optional.empty();
+        }
+        return Optional.of(toReconciliationStatus(worker));
+    }
+
+    private TaskStatus toReconciliationStatus(V2WorkerMetadata worker) {
+        String workerName = WorkerNaming.getWorkerName(worker.getJobId(), worker.getWorkerIndex(), worker.getWorkerNumber());
+        return TaskStatus.newBuilder()
+                .setTaskId(Protos.TaskID.newBuilder().setValue(workerName).build())
+                .setState(TaskState.TASK_RUNNING)
+                .setSlaveId(SlaveID.newBuilder().setValue(worker.getSlaveID()).build())
+                .build();
+    }
+
+    private Optional<TaskStatus> toReconciliationStatus(Task task) {
+        TaskState mesosState;
+        switch (task.getStatus().getState()) {
+            case Started:
+                mesosState = TaskState.TASK_RUNNING;
+                break;
+            case KillInitiated:
+                mesosState = TaskState.TASK_KILLING;
+                break;
+            default:
+                return Optional.empty();
+        }
+        String taskHost = task.getTaskContext().get(TaskAttributes.TASK_ATTRIBUTES_AGENT_HOST);
+        if (taskHost == null) {
+            return Optional.empty();
+        }
+        return Optional.of(TaskStatus.newBuilder()
+                .setTaskId(Protos.TaskID.newBuilder().setValue(task.getId()).build())
+                .setState(mesosState)
+                .setSlaveId(SlaveID.newBuilder().setValue(taskHost).build())
+                .build()
+        );
+    }
+
+    /**
+     * Sends a chunk built at the beginning of the reconciliation cycle. As it may be sent much later, tasks that
+     * finished in the meantime are dropped from it, and the expected state of the remaining ones is refreshed.
+     */
+    private void reconcileTaskChunk(SchedulerDriver driver, List<TaskStatus> scheduledChunk) {
+        try {
+            List<TaskStatus> chunk = new ArrayList<>(scheduledChunk.size());
+            for (TaskStatus taskStatus : scheduledChunk) {
+                findActiveTask(taskStatus.getTaskId().getValue()).ifPresent(chunk::add);
             }
-            if (mesosState != null) {
-                String taskHost = task.getTaskContext().get(TaskAttributes.TASK_ATTRIBUTES_AGENT_HOST);
-                if (taskHost != null) {
-                    tasksToInitialize.add(TaskStatus.newBuilder()
-                            .setTaskId(Protos.TaskID.newBuilder().setValue(task.getId()).build())
-                            .setState(mesosState)
-                            .setSlaveId(SlaveID.newBuilder().setValue(taskHost).build())
-                            .build()
-                    );
-                }
+            if (chunk.isEmpty()) {
+                logger.info("All {} tasks of the reconciliation chunk are no longer active; not sending it", scheduledChunk.size());
+                return;
             }
-        }
-        if (!tasksToInitialize.isEmpty()) {
+            if (chunk.size() < scheduledChunk.size()) {
+                logger.info("Dropped {} tasks no longer active from the reconciliation chunk", scheduledChunk.size() - chunk.size());
+            }
+
+            reconciliationScheduler.chunkSent(chunk);
             Protos.Status status = traceMesosRequest(
-                    "Reconciling active tasks: count=" + tasksToInitialize.size(),
-                    () -> driver.reconcileTasks(tasksToInitialize)
+                    "Reconciling active tasks: count=" + chunk.size(),
+                    () -> driver.reconcileTasks(chunk)
             );
             numReconcileTasks.increment();
-            logger.info("Sent request to reconcile {} tasks, status={}", tasksToInitialize.size(), status);
-            logger.info("Last offer received {} secs ago", (System.currentTimeMillis() - lastOfferReceivedAt.get()) / 1000);
-            logger.info("Last valid offer received {} secs ago", (System.currentTimeMillis() - lastValidOfferReceivedAt.get()) / 1000);
+            logger.info("Sent request to reconcile {} tasks, status={}, outstanding={}", chunk.size(), status, reconciliationScheduler.getOutstandingRequests());
             switch (status) {
                 case DRIVER_ABORTED:
                 case DRIVER_STOPPED:
                     logger.error("Unexpected to see Mesos driver status of {} from reconcile request. Committing suicide!", status);
                     System.exit(2);
             }
+        } catch (Exception e) {
+            logger.error("Unexpected error (continuing): {}", e.getMessage(), e);
         }
     }
 
+    private void cancelReconciliationChunks() {
+        reconciliationChunkFutures.forEach(future -> future.cancel(false));
+        reconciliationChunkFutures = Collections.emptyList();
+    }
+
     private void reconcileAllMesosTasks(SchedulerDriver driver) {
+        reconciliationScheduler.close();
         Protos.Status status = traceMesosRequest(
                 "Reconciling all active tasks",
                 () -> driver.reconcileTasks(Collections.emptyList())
@@ -417,6 +494,7 @@ public class MesosSchedulerCallbackHandler implements Scheduler {
                 }
             } else {
                 mesosStateTracker.knownTaskStatusUpdate(taskStatus);
+                reconciliationScheduler.onStatusUpdate(taskStatus);
             }
 
             logMesosCallbackInfo("Task status update: taskId=%s, taskState=%s, message=%s", taskId, taskState, effectiveTaskStatus.getMessage());
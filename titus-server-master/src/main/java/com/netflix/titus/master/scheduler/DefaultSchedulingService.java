@@ -560,11 +560,13 @@ public class DefaultSchedulingService implements SchedulingService {
         int assignedDuringSchedulingResult = 0;
         int failedTasksDuringSchedulingResult = schedulingResult.getFailures().size();
 
+        // Tasks are launched on each agent while placements on other agents are still being recorded, so the Mesos
+        // latency is excluded from the recording latency.
         long recordingStart = titusRuntime.getClock().wallTime();
-        List<Pair<List<VirtualMachineLease>, List<Protos.TaskInfo>>> taskInfos = taskPlacementRecorder.record(schedulingResult);
-        recordTaskPlacementLatencyTimer.record(titusRuntime.getClock().wallTime() - recordingStart, TimeUnit.MILLISECONDS);
-        taskInfos.forEach(ts -> launchTasks(ts.getLeft(), ts.getRight()));
-        assignedDuringSchedulingResult += taskInfos.stream().mapToInt(p -> p.getRight().size()).sum();
+        long mesosLatencyBeforeRecording = totalSchedulingIterationMesosLatency.get();
+        assignedDuringSchedulingResult += taskPlacementRecorder.record(schedulingResult, this::launchTasks);
+        long mesosLatencyDuringRecording = totalSchedulingIterationMesosLatency.get() - mesosLatencyBeforeRecording;
+        recordTaskPlacementLatencyTimer.record(titusRuntime.getClock().wallTime() - recordingStart - mesosLatencyDuringRecording, TimeUnit.MILLISECONDS);
 
         recordLastSchedulingResult(schedulingResult);
         processTaskSchedulingFailureCallbacks(schedulingResult);
@@ -143,4 +143,11 @@ public interface SchedulerConfiguration {
      */
     @DefaultValue("300000")
     long getContainerFailureTrackingRetentionMs();
-}
\ No newline at end of file
+
+    /**
+     * Interval at which the scheduler task cache rebuilds its incrementally maintained state from the job manager,
+     * and reports any inconsistencies found.
+     */
+    @DefaultValue("60000")
+    long getTaskCacheFullRebuildIntervalMs();
+}
@@ -1,17 +1,20 @@
 package com.netflix.titus.master.scheduler;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import com.google.common.collect.Lists;
 import com.netflix.archaius.api.Config;
 import com.netflix.fenzo.PreferentialNamedConsumableResourceSet;
 import com.netflix.fenzo.SchedulingResult;
@@ -26,7 +29,6 @@ import com.netflix.titus.api.jobmanager.service.JobManagerException;
 import com.netflix.titus.api.jobmanager.service.V3JobOperations;
 import com.netflix.titus.api.store.v2.InvalidJobException;
 import com.netflix.titus.common.runtime.TitusRuntime;
-import com.netflix.titus.common.util.CollectionsExt;
 import com.netflix.titus.common.util.time.Clock;
 import com.netflix.titus.common.util.tuple.Pair;
 import com.netflix.titus.master.config.MasterConfiguration;
@@ -48,6 +50,7 @@ class TaskPlacementRecorder {
 
     private static final long STORE_UPDATE_TIMEOUT_MS = 5_000;
     private static final int RECORD_CONCURRENCY_LIMIT = 500;
+    private static final int RECORD_BATCH_SIZE = 100;
 
     private final Config config;
     private final MasterConfiguration masterConfiguration;
@@ -74,7 +77,15 @@ class TaskPlacementRecorder {
         this.clock = titusRuntime.getClock();
     }
 
-    List<Pair<List<VirtualMachineLease>, List<Protos.TaskInfo>>> record(SchedulingResult schedulingResult) {
+    /**
+     * Records the task placements of a scheduling iteration, and hands over each agent's tasks to the launcher as soon
+     * as all placements on that agent are persisted. V3 placements are grouped by job, and each group is recorded
+     * in a single job manager transaction, with one grouped store write. The launcher is always called from the
+     * caller's thread, and this method returns when all agents are processed.
+     *
+     * @return number of tasks handed over to the launcher
+     */
+    int record(SchedulingResult schedulingResult, BiConsumer<List<VirtualMachineLease>, List<Protos.TaskInfo>> launcher) {
         List<AgentAssignment> assignments = schedulingResult.getResultMap().entrySet().stream()
                 .map(entry -> new AgentAssignment(entry.getKey(), entry.getValue()))
                 .collect(Collectors.toList());
@@ -82,13 +93,7 @@ class TaskPlacementRecorder {
         long startTime = clock.wallTime();
         try {
             Map<AgentAssignment, List<Protos.TaskInfo>> v2Result = processV2Assignments(assignments);
-            Map<AgentAssignment, List<Protos.TaskInfo>> v3Result = processV3Assignments(assignments);
-
-            Set<AgentAssignment> allAssignments = CollectionsExt.merge(v2Result.keySet(), v3Result.keySet());
-
-            return allAssignments.stream()
-                    .map(a -> Pair.of(a.getLeases(), CollectionsExt.merge(v2Result.get(a), v3Result.get(a))))
-                    .collect(Collectors.toList());
+            return processV3Assignments(assignments, v2Result, launcher);
         } finally {
             int taskCount = schedulingResult.getResultMap().values().stream().mapToInt(a -> a.getTasksAssigned().size()).sum();
             if(taskCount > 0) {
@@ -140,70 +145,136 @@ class TaskPlacementRecorder {
         return Optional.empty();
     }
 
-    private Map<AgentAssignment, List<Protos.TaskInfo>> processV3Assignments(List<AgentAssignment> assignments) {
-        List<Observable<Pair<AgentAssignment, Protos.TaskInfo>>> recordActions = assignments.stream()
-                .flatMap(a -> a.getV3Assignments().stream().map(ar -> processTask(a, ar)))
+    private int processV3Assignments(List<AgentAssignment> assignments,
+                                     Map<AgentAssignment, List<Protos.TaskInfo>> v2Result,
+                                     BiConsumer<List<VirtualMachineLease>, List<Protos.TaskInfo>> launcher) {
+        Map<AgentAssignment, List<Protos.TaskInfo>> taskInfos = new HashMap<>();
+        Map<AgentAssignment, Integer> pendingPlacements = new HashMap<>();
+        Map<String, List<V3Placement>> placementsByJob = new HashMap<>();
+        int launched = 0;
+
+        for (AgentAssignment assignment : assignments) {
+            List<Protos.TaskInfo> agentTaskInfos = new ArrayList<>(v2Result.getOrDefault(assignment, Collections.emptyList()));
+            taskInfos.put(assignment, agentTaskInfos);
+
+            int placementCount = 0;
+            for (TaskAssignmentResult assignmentResult : assignment.getV3Assignments()) {
+                Optional<V3Placement> placement = newV3Placement(assignment, assignmentResult);
+                if (placement.isPresent()) {
+                    placementsByJob.computeIfAbsent(placement.get().getJob().getId(), id -> new ArrayList<>()).add(placement.get());
+                    placementCount++;
+                }
+            }
+            if (placementCount == 0) {
+                launched += launch(assignment, agentTaskInfos, launcher);
+            } else {
+                pendingPlacements.put(assignment, placementCount);
+            }
+        }
+
+        if (placementsByJob.isEmpty()) {
+            return launched;
+        }
+
+        List<Observable<Pair<V3Placement, Optional<Protos.TaskInfo>>>> recordActions = placementsByJob.values().stream()
+                .flatMap(jobPlacements -> Lists.partition(jobPlacements, RECORD_BATCH_SIZE).stream())
+                .map(this::recordV3Placements)
                 .collect(Collectors.toList());
-        List<Pair<AgentAssignment, Protos.TaskInfo>> taskInfos = Observable.merge(recordActions, RECORD_CONCURRENCY_LIMIT).toList().toBlocking().first();
 
-        Map<AgentAssignment, List<Protos.TaskInfo>> result = new HashMap<>();
-        taskInfos.forEach(p -> result.computeIfAbsent(p.getLeft(), a -> new ArrayList<>()).add(p.getRight()));
+        // Results are consumed on this thread as they arrive, so an agent is launched as soon as its last placement is recorded.
+        for (Pair<V3Placement, Optional<Protos.TaskInfo>> result : Observable.merge(recordActions, RECORD_CONCURRENCY_LIMIT).toBlocking().toIterable()) {
+            AgentAssignment assignment = result.getLeft().getAssignment();
+            result.getRight().ifPresent(taskInfos.get(assignment)::add);
+
+            int remaining = pendingPlacements.get(assignment) - 1;
+            if (remaining == 0) {
+                pendingPlacements.remove(assignment);
+                launched += launch(assignment, taskInfos.get(assignment), launcher);
+            } else {
+                pendingPlacements.put(assignment, remaining);
+            }
+        }
+        return launched;
+    }
 
-        return result;
+    private int launch(AgentAssignment assignment,
+                       List<Protos.TaskInfo> taskInfos,
+                       BiConsumer<List<VirtualMachineLease>, List<Protos.TaskInfo>> launcher) {
+        launcher.accept(assignment.getLeases(), taskInfos);
+        return taskInfos.size();
     }
 
-    private Observable<Pair<AgentAssignment, Protos.TaskInfo>> processTask(
-            AgentAssignment assignment,
-            TaskAssignmentResult assignmentResult) {
-        VirtualMachineLease lease = assignment.getLeases().get(0);
+    private Optional<V3Placement> newV3Placement(AgentAssignment assignment, TaskAssignmentResult assignmentResult) {
         TitusQueuableTask fenzoTask = (TitusQueuableTask) assignmentResult.getRequest();
 
         Optional<Pair<Job<?>, Task>> v3JobAndTask = v3JobOperations.findTaskById(fenzoTask.getId());
         if (!v3JobAndTask.isPresent()) {
             removeUnknownTask(assignmentResult, fenzoTask);
-            return Observable.empty();
+            return Optional.empty();
         }
 
-        Job<?> v3Job = v3JobAndTask.get().getLeft();
-        Task v3Task = v3JobAndTask.get().getRight();
-
         try {
-            PreferentialNamedConsumableResourceSet.ConsumeResult consumeResult = assignmentResult.getrSets().get(0);
-
-            Map<String, String> attributesMap = assignment.getAttributesMap();
-            Optional<String> executorUriOverrideOpt = JobManagerUtil.getExecutorUriOverride(config, attributesMap);
-
-            return v3JobOperations.recordTaskPlacement(
-                    fenzoTask.getId(),
-                    oldTask -> JobManagerUtil.newTaskLaunchConfigurationUpdater(
-                            masterConfiguration.getHostZoneAttributeName(), lease, consumeResult,
-                            executorUriOverrideOpt, attributesMap
-                    ).apply(oldTask)
-            ).toObservable().cast(Protos.TaskInfo.class).concatWith(Observable.fromCallable(() ->
-                    v3TaskInfoFactory.newTaskInfo(
-                            fenzoTask, v3Job, v3Task, lease.hostname(), attributesMap, lease.getOffer().getSlaveId(),
-                            consumeResult, executorUriOverrideOpt)
-            )).timeout(
-                    STORE_UPDATE_TIMEOUT_MS, TimeUnit.MILLISECONDS
-            ).onErrorResumeNext(error -> {
-                Throwable recordTaskError = (Throwable) error; // Type inference issue
-                if (JobManagerException.hasErrorCode(recordTaskError, JobManagerException.ErrorCode.UnexpectedTaskState)) {
-                    // TODO More checking here. If it is actually running, we should kill it
-                    logger.info("Not launching task, as it is no longer in Accepted state (probably killed): {}", v3Task.getId());
-                } else {
+            return Optional.of(new V3Placement(assignment, assignmentResult, v3JobAndTask.get().getLeft(), v3JobAndTask.get().getRight()));
+        } catch (Exception e) {
+            killBrokenV3Task(fenzoTask, e.toString());
+            logger.error("Fatal error when creating TaskInfo for task: {}", fenzoTask.getId(), e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Records placements of tasks belonging to the same job. Emits one result per placement, with the task info
+     * if the placement was recorded, or empty otherwise. Never terminates with an error.
+     */
+    private Observable<Pair<V3Placement, Optional<Protos.TaskInfo>>> recordV3Placements(List<V3Placement> placements) {
+        String jobId = placements.get(0).getJob().getId();
+        Map<String, Function<Task, Task>> changeFunctions = new HashMap<>();
+        placements.forEach(placement -> changeFunctions.put(placement.getTask().getId(), placement::applyTo));
+
+        return v3JobOperations.recordTaskPlacements(jobId, changeFunctions)
+                .timeout(STORE_UPDATE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .map(rejected -> placements.stream()
+                        .map(placement -> Pair.of(placement, toTaskInfo(placement, rejected.get(placement.getTask().getId()))))
+                        .collect(Collectors.toList())
+                )
+                .onErrorReturn(error -> {
                     if (error instanceof TimeoutException) {
-                        logger.error("Timed out during writing task {} (job {}) status update to the store", fenzoTask.getId(), v3Job.getId());
-                    } else {
-                        logger.info("Not launching task due to model update failure: {}", v3Task.getId(), error);
+                        logger.error("Timed out during writing {} task status updates of job {} to the store", placements.size(), jobId);
                     }
-                    killBrokenV3Task(fenzoTask, "model update error: " + recordTaskError.getMessage());
+                    return placements.stream()
+                            .map(placement -> Pair.of(placement, toTaskInfo(placement, error)))
+                            .collect(Collectors.toList());
+                })
+                .flatMapIterable(results -> results);
+    }
+
+    private Optional<Protos.TaskInfo> toTaskInfo(V3Placement placement, Throwable recordError) {
+        TitusQueuableTask fenzoTask = placement.getFenzoTask();
+        Task v3Task = placement.getTask();
+
+        if (recordError != null) {
+            if (JobManagerException.hasErrorCode(recordError, JobManagerException.ErrorCode.UnexpectedTaskState)) {
+                // TODO More checking here. If it is actually running, we should kill it
+                logger.info("Not launching task, as it is no longer in Accepted state (probably killed): {}", v3Task.getId());
+            } else {
+                if (!(recordError instanceof TimeoutException)) {
+                    logger.info("Not launching task due to model update failure: {}", v3Task.getId(), recordError);
                 }
-                return Observable.empty();
-            }).map(taskInfo -> Pair.of(assignment, taskInfo));
+                killBrokenV3Task(fenzoTask, "model update error: " + recordError.getMessage());
+            }
+            return Optional.empty();
+        }
+
+        try {
+            VirtualMachineLease lease = placement.getLease();
+            return Optional.of(v3TaskInfoFactory.newTaskInfo(
+                    fenzoTask, placement.getJob(), v3Task, lease.hostname(), placement.getAssignment().getAttributesMap(),
+                    lease.getOffer().getSlaveId(), placement.getConsumeResult(), placement.getExecutorUriOverride()
+            ));
         } catch (Exception e) {
             killBrokenV3Task(fenzoTask, e.toString());
             logger.error("Fatal error when creating TaskInfo for task: {}", fenzoTask.getId(), e);
-            return Observable.empty();
+            return Optional.empty();
         }
     }
 
@@ -305,4 +376,58 @@ class TaskPlacementRecorder {
             return result;
         }
     }
+
+    private class V3Placement {
+        private final AgentAssignment assignment;
+        private final TitusQueuableTask fenzoTask;
+        private final Job<?> job;
+        private final Task task;
+        private final VirtualMachineLease lease;
+        private final PreferentialNamedConsumableResourceSet.ConsumeResult consumeResult;
+        private final Optional<String> executorUriOverride;
+
+        V3Placement(AgentAssignment assignment, TaskAssignmentResult assignmentResult, Job<?> job, Task task) {
+            this.assignment = assignment;
+            this.fenzoTask = (TitusQueuableTask) assignmentResult.getRequest();
+            this.job = job;
+            this.task = task;
+            this.lease = assignment.getLeases().get(0);
+            this.consumeResult = assignmentResult.getrSets().get(0);
+            this.executorUriOverride = JobManagerUtil.getExecutorUriOverride(config, assignment.getAttributesMap());
+        }
+
+        AgentAssignment getAssignment() {
+            return assignment;
+        }
+
+        TitusQueuableTask getFenzoTask() {
+            return fenzoTask;
+        }
+
+        Job<?> getJob() {
+            return job;
+        }
+
+        Task getTask() {
+            return task;
+        }
+
+        VirtualMachineLease getLease() {
+            return lease;
+        }
+
+        PreferentialNamedConsumableResourceSet.ConsumeResult getConsumeResult() {
+            return consumeResult;
+        }
+
+        Optional<String> getExecutorUriOverride() {
+            return executorUriOverride;
+        }
+
+        Task applyTo(Task oldTask) {
+            return JobManagerUtil.newTaskLaunchConfigurationUpdater(
+                    masterConfiguration.getHostZoneAttributeName(), lease, consumeResult, executorUriOverride, assignment.getAttributesMap()
+            ).apply(oldTask);
+        }
+    }
 }
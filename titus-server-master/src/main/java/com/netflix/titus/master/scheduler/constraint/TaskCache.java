@@ -4,69 +4,251 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.netflix.spectator.api.Counter;
 import com.netflix.titus.api.jobmanager.TaskAttributes;
 import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.JobState;
 import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
+import com.netflix.titus.api.jobmanager.model.job.event.JobManagerEvent;
+import com.netflix.titus.api.jobmanager.model.job.event.JobUpdateEvent;
+import com.netflix.titus.api.jobmanager.model.job.event.TaskUpdateEvent;
 import com.netflix.titus.api.jobmanager.service.V3JobOperations;
+import com.netflix.titus.common.runtime.TitusRuntime;
+import com.netflix.titus.common.util.collections.PersistentHashMap;
+import com.netflix.titus.common.util.guice.annotation.Activator;
+import com.netflix.titus.common.util.rx.ObservableExt;
 import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.master.MetricConstants;
+import com.netflix.titus.master.jobmanager.service.JobEventProjection;
+import com.netflix.titus.master.scheduler.SchedulerConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Subscription;
 
 /**
  * Helper class that aggregates task data by multiple criteria used by Fenzo constraint/fitness evaluators.
+ * <p>
+ * The per job zone counters are maintained incrementally from the job manager event stream, so a scheduling
+ * iteration only takes a snapshot of the current state in {@link #prepare()}. All tasks of a job are
+ * counted, including the finished ones, until they are removed from the job. The job manager emits no event for
+ * a task removal, so a finished task is uncounted when its replacement is created, or on the next full rebuild.
+ * The full rebuild runs periodically to also protect against missed or out of order events, and any difference
+ * found in the counters of the tasks that are not finished is logged and reported as a metric.
  */
 @Singleton
 public class TaskCache {
 
+    private static final Logger logger = LoggerFactory.getLogger(TaskCache.class);
+
+    private static final String METRIC_ROOT = MetricConstants.METRIC_SCHEDULING_SERVICE + "taskCache.";
+
     private final V3JobOperations v3JobOperations;
-    private final AtomicReference<TaskCacheValue> currentCacheValue;
+    private final SchedulerConfiguration configuration;
+    private final TitusRuntime titusRuntime;
+
+    private final Counter fullRebuildCounter;
+    private final Counter inconsistencyCounter;
+
+    private final JobEventProjection<JobManagerEvent<?>, ZoneState> projection;
+
+    private volatile PersistentHashMap<String, Map<String, Integer>> currentCacheValue = PersistentHashMap.empty();
+    private volatile long lastFullRebuildTimestamp = -1;
+
+    private Subscription eventSubscription;
 
     @Inject
-    public TaskCache(V3JobOperations v3JobOperations) {
+    public TaskCache(V3JobOperations v3JobOperations,
+                     SchedulerConfiguration configuration,
+                     TitusRuntime titusRuntime) {
         this.v3JobOperations = v3JobOperations;
-        this.currentCacheValue = new AtomicReference<>();
+        this.configuration = configuration;
+        this.titusRuntime = titusRuntime;
+        this.fullRebuildCounter = titusRuntime.getRegistry().counter(METRIC_ROOT + "fullRebuilds");
+        this.inconsistencyCounter = titusRuntime.getRegistry().counter(METRIC_ROOT + "inconsistencies");
+        this.projection = new JobEventProjection<>(new ZoneState(), new JobEventProjection.Handler<JobManagerEvent<?>, ZoneState>() {
+            @Override
+            public ZoneState build() {
+                return buildZoneState();
+            }
+
+            @Override
+            public ZoneState apply(ZoneState state, JobManagerEvent<?> event) {
+                state.apply(event);
+                return state;
+            }
+
+            @Override
+            public void afterRebuild(ZoneState previous, ZoneState rebuilt) {
+                rebuilt.previousActiveCounters = previous.activeCountersByJobId;
+                rebuilt.rebuiltActiveCounters = rebuilt.activeCountersByJobId;
+            }
+        });
+    }
+
+    @Activator
+    public void enterActiveMode() {
+        this.eventSubscription = projection.subscribe(
+                titusRuntime.persistentStream(v3JobOperations.observeJobs()),
+                e -> logger.error("Job event stream terminated with an error", e),
+                () -> logger.info("Job event stream completed")
+        );
+        this.lastFullRebuildTimestamp = titusRuntime.getClock().wallTime();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ObservableExt.safeUnsubscribe(eventSubscription);
     }
 
     public void prepare() {
-        currentCacheValue.set(new TaskCacheValue());
+        long now = titusRuntime.getClock().wallTime();
+        if (lastFullRebuildTimestamp < 0 || now - lastFullRebuildTimestamp >= configuration.getTaskCacheFullRebuildIntervalMs()) {
+            fullRebuild();
+        }
+        currentCacheValue = projection.getState().allCountersByJobId;
     }
 
     public Map<String, Integer> getTasksByZoneIdCounters(String jobId) {
-        return currentCacheValue.get().getTasksByZoneIdCounters(jobId);
+        Map<String, Integer> counters = currentCacheValue.get(jobId);
+        return counters == null ? Collections.emptyMap() : counters;
+    }
+
+    @VisibleForTesting
+    void onJobManagerEvent(JobManagerEvent<?> event) {
+        projection.onEvent(event);
+    }
+
+    @VisibleForTesting
+    void fullRebuild() {
+        boolean firstBuild = lastFullRebuildTimestamp < 0;
+        if (!projection.rebuild()) {
+            return;
+        }
+        fullRebuildCounter.increment();
+        lastFullRebuildTimestamp = titusRuntime.getClock().wallTime();
+
+        ZoneState state = projection.getState();
+        PersistentHashMap<String, Map<String, Integer>> expected = state.rebuiltActiveCounters;
+        PersistentHashMap<String, Map<String, Integer>> actual = state.previousActiveCounters;
+        if (!firstBuild && expected != null && !expected.equals(actual)) {
+            inconsistencyCounter.increment();
+            logger.warn("Incrementally maintained zone counters differ from the job manager state; replacing them: expected={}, actual={}",
+                    expected, actual);
+        }
+    }
+
+    /**
+     * Called without holding the projection lock, so the job manager state is read without blocking the event stream.
+     */
+    private ZoneState buildZoneState() {
+        ZoneState state = new ZoneState();
+        for (Pair<Job, List<Task>> jobAndTasks : v3JobOperations.getJobsAndTasks()) {
+            if (jobAndTasks.getLeft().getStatus().getState() != JobState.Finished) {
+                jobAndTasks.getRight().forEach(state::updateTask);
+            }
+        }
+        return state;
     }
 
-    private class TaskCacheValue {
+    private static String getZoneId(Task task) {
+        return task.getTaskContext().get(TaskAttributes.TASK_ATTRIBUTES_AGENT_ZONE);
+    }
+
+    /**
+     * Zone of each counted task, and the per job zone counters derived from it. The task zones are modified
+     * with the projection lock held. The counters are immutable, and replaced on each change, so they can be
+     * read without the lock. Two sets of counters are kept: one of all tasks, used by the scheduler, and one
+     * of the tasks that are not finished, used for the consistency check, as the removal of a finished task
+     * from its job is not always visible in the event stream.
+     */
+    private static class ZoneState {
+
+        private final Map<String, Map<String, Pair<String, Boolean>>> zoneAndFinishedByTaskIdByJobId = new HashMap<>();
 
-        private final Map<String, Map<String, Integer>> zoneBalanceCountersByJobId;
+        private volatile PersistentHashMap<String, Map<String, Integer>> allCountersByJobId = PersistentHashMap.empty();
+        private volatile PersistentHashMap<String, Map<String, Integer>> activeCountersByJobId = PersistentHashMap.empty();
 
-        private TaskCacheValue() {
-            List<Pair<Job, List<Task>>> jobsAndTasks = v3JobOperations.getJobsAndTasks();
-            this.zoneBalanceCountersByJobId = buildZoneBalanceCountersByJobId(jobsAndTasks);
+        /**
+         * Active task counters of the replaced and the rebuilt state, captured when the rebuilt state was published.
+         */
+        private volatile PersistentHashMap<String, Map<String, Integer>> previousActiveCounters;
+        private volatile PersistentHashMap<String, Map<String, Integer>> rebuiltActiveCounters;
+
+        private void apply(JobManagerEvent<?> event) {
+            if (event instanceof TaskUpdateEvent) {
+                Task task = ((TaskUpdateEvent) event).getCurrentTask();
+                // The replaced task is removed from the job together with its replacement creation.
+                task.getResubmitOf().ifPresent(replacedTaskId -> updateTaskZone(task.getJobId(), replacedTaskId, null));
+                updateTask(task);
+            } else if (event instanceof JobUpdateEvent) {
+                Job<?> job = ((JobUpdateEvent) event).getCurrent();
+                if (job.getStatus().getState() == JobState.Finished) {
+                    zoneAndFinishedByTaskIdByJobId.remove(job.getId());
+                    allCountersByJobId = allCountersByJobId.remove(job.getId());
+                    activeCountersByJobId = activeCountersByJobId.remove(job.getId());
+                }
+            }
         }
 
-        private Map<String, Integer> getTasksByZoneIdCounters(String jobId) {
-            return zoneBalanceCountersByJobId.getOrDefault(jobId, Collections.emptyMap());
+        private void updateTask(Task task) {
+            String zoneId = getZoneId(task);
+            updateTaskZone(task.getJobId(), task.getId(), zoneId == null ? null : Pair.of(zoneId, task.getStatus().getState() == TaskState.Finished));
         }
 
-        private Map<String, Map<String, Integer>> buildZoneBalanceCountersByJobId(List<Pair<Job, List<Task>>> jobsAndTasks) {
-            Map<String, Map<String, Integer>> result = new HashMap<>();
-            for (Pair<Job, List<Task>> jobAndTask : jobsAndTasks) {
-                Map<String, Integer> jobZoneBalancing = new HashMap<>();
-                for (Task task : jobAndTask.getRight()) {
-                    String zoneId = getZoneId(task);
-                    if (zoneId != null) {
-                        jobZoneBalancing.put(zoneId, jobZoneBalancing.getOrDefault(zoneId, 0) + 1);
-                    }
+        private void updateTaskZone(String jobId, String taskId, Pair<String, Boolean> zoneAndFinished) {
+            Map<String, Pair<String, Boolean>> tasks = zoneAndFinishedByTaskIdByJobId.get(jobId);
+            Pair<String, Boolean> previous = tasks == null ? null : tasks.get(taskId);
+            if (previous == null ? zoneAndFinished == null : previous.equals(zoneAndFinished)) {
+                return;
+            }
+
+            if (zoneAndFinished == null) {
+                tasks.remove(taskId);
+                if (tasks.isEmpty()) {
+                    zoneAndFinishedByTaskIdByJobId.remove(jobId);
                 }
-                result.put(jobAndTask.getLeft().getId(), jobZoneBalancing);
+            } else {
+                zoneAndFinishedByTaskIdByJobId.computeIfAbsent(jobId, id -> new HashMap<>()).put(taskId, zoneAndFinished);
             }
-            return result;
+
+            allCountersByJobId = updateCounters(allCountersByJobId, jobId,
+                    previous == null ? null : previous.getLeft(),
+                    zoneAndFinished == null ? null : zoneAndFinished.getLeft()
+            );
+            activeCountersByJobId = updateCounters(activeCountersByJobId, jobId,
+                    previous == null || previous.getRight() ? null : previous.getLeft(),
+                    zoneAndFinished == null || zoneAndFinished.getRight() ? null : zoneAndFinished.getLeft()
+            );
         }
 
-        private String getZoneId(Task task) {
-            return task.getTaskContext().get(TaskAttributes.TASK_ATTRIBUTES_AGENT_ZONE);
+        private static PersistentHashMap<String, Map<String, Integer>> updateCounters(PersistentHashMap<String, Map<String, Integer>> countersByJobId,
+                                                                                       String jobId,
+                                                                                       String previousZoneId,
+                                                                                       String zoneId) {
+            if (previousZoneId == null ? zoneId == null : previousZoneId.equals(zoneId)) {
+                return countersByJobId;
+            }
+            Map<String, Integer> counters = new HashMap<>(countersByJobId.find(jobId).orElse(Collections.emptyMap()));
+            if (previousZoneId != null) {
+                int count = counters.getOrDefault(previousZoneId, 0) - 1;
+                if (count > 0) {
+                    counters.put(previousZoneId, count);
+                } else {
+                    counters.remove(previousZoneId);
+                }
+            }
+            if (zoneId != null) {
+                counters.put(zoneId, counters.getOrDefault(zoneId, 0) + 1);
+            }
+            return counters.isEmpty()
+                    ? countersByJobId.remove(jobId)
+                    : countersByJobId.put(jobId, Collections.unmodifiableMap(counters));
         }
     }
-}
\ No newline at end of file
+}
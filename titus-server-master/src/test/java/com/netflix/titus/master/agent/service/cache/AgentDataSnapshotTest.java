@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.agent.service.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import com.netflix.titus.api.agent.model.AgentInstance;
+import com.netflix.titus.api.agent.model.AgentInstanceGroup;
+import com.netflix.titus.api.agent.model.InstanceOverrideState;
+import com.netflix.titus.api.agent.model.InstanceOverrideStatus;
+import com.netflix.titus.api.model.Tier;
+import com.netflix.titus.testkit.model.agent.AgentGenerator;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AgentDataSnapshotTest {
+
+    private final List<AgentInstanceGroup> instanceGroups = AgentGenerator.agentServerGroups(Tier.Flex, 3).toList(2);
+    private final List<AgentInstance> group0Instances = AgentGenerator.agentInstances(instanceGroups.get(0)).toList(3);
+    private final List<AgentInstance> group1Instances = AgentGenerator.agentInstances(instanceGroups.get(1)).toList(3);
+
+    private final AgentDataSnapshot snapshot = AgentDataSnapshot.initWithStaleDataSnapshot(instanceGroups, concat(group0Instances, group1Instances));
+
+    @Test
+    public void testInitWithStaleDataSnapshot() {
+        assertThat(snapshot.getInstanceGroups()).containsExactlyInAnyOrder(instanceGroups.toArray(new AgentInstanceGroup[0]));
+        assertThat(snapshot.getInstanceGroupIds()).containsExactlyInAnyOrder(instanceGroups.get(0).getId(), instanceGroups.get(1).getId());
+        assertThat(snapshot.getInstances(instanceGroups.get(0).getId())).containsExactlyInAnyOrder(group0Instances.toArray(new AgentInstance[0]));
+        assertThat(snapshot.getInstance(group1Instances.get(0).getId())).isEqualTo(group1Instances.get(0));
+    }
+
+    @Test
+    public void testUpdateAgentInstanceChangesOnlyThisInstance() {
+        List<AgentInstanceGroup> groupsBefore = snapshot.getInstanceGroups();
+        AgentInstance updated = quarantine(group0Instances.get(1));
+        AgentDataSnapshot newSnapshot = snapshot.updateAgentInstance(updated);
+
+        assertThat(newSnapshot.getInstance(updated.getId())).isEqualTo(updated);
+        assertThat(newSnapshot.getInstances(updated.getInstanceGroupId())).hasSize(3).contains(updated);
+        assertThat(newSnapshot.getInstances(instanceGroups.get(1).getId())).isSameAs(snapshot.getInstances(instanceGroups.get(1).getId()));
+        assertThat(newSnapshot.getInstanceGroups()).isSameAs(groupsBefore);
+
+        // the previous snapshot is not modified
+        assertThat(snapshot.getInstance(updated.getId())).isEqualTo(group0Instances.get(1));
+
+        List<AgentInstance> changed = new ArrayList<>();
+        newSnapshot.diffInstances(snapshot, (previous, current) -> changed.add(current));
+        assertThat(changed).containsExactly(updated);
+
+        List<AgentInstanceGroup> changedGroups = new ArrayList<>();
+        newSnapshot.diffInstanceGroups(snapshot, (previous, current) -> changedGroups.add(current));
+        assertThat(changedGroups).isEmpty();
+    }
+
+    @Test
+    public void testUpdateAgentInstanceOfUnknownGroupIsIgnored() {
+        AgentInstance unknown = group0Instances.get(0).toBuilder().withInstanceGroupId("unknown").build();
+        assertThat(snapshot.updateAgentInstance(unknown)).isSameAs(snapshot);
+    }
+
+    @Test
+    public void testUpdateInstanceGroupReplacesInstances() {
+        AgentInstanceGroup instanceGroup = instanceGroups.get(0);
+        AgentInstance updated = quarantine(group0Instances.get(0));
+        AgentDataSnapshot newSnapshot = snapshot.updateInstanceGroup(instanceGroup, new HashSet<>(Arrays.asList(updated, group0Instances.get(2))));
+
+        assertThat(newSnapshot.getInstances(instanceGroup.getId())).containsExactlyInAnyOrder(updated, group0Instances.get(2));
+        assertThat(newSnapshot.getInstance(group0Instances.get(1).getId())).isNull();
+        assertThat(newSnapshot.getInstance(updated.getId())).isEqualTo(updated);
+    }
+
+    @Test
+    public void testUpdateInstanceGroupKeepsInstances() {
+        AgentInstanceGroup updated = instanceGroups.get(0).toBuilder().withDesired(2).build();
+        AgentDataSnapshot newSnapshot = snapshot.updateInstanceGroup(updated);
+
+        assertThat(newSnapshot.getInstanceGroup(updated.getId())).isEqualTo(updated);
+        assertThat(newSnapshot.getInstances(updated.getId())).containsExactlyInAnyOrder(group0Instances.toArray(new AgentInstance[0]));
+
+        List<AgentInstanceGroup> changedGroups = new ArrayList<>();
+        newSnapshot.diffInstanceGroups(snapshot, (previous, current) -> changedGroups.add(current));
+        assertThat(changedGroups).containsExactly(updated);
+    }
+
+    @Test
+    public void testRemoveInstances() {
+        AgentInstance removed = group1Instances.get(0);
+        AgentDataSnapshot newSnapshot = snapshot.removeInstances(removed.getInstanceGroupId(), Collections.singleton(removed.getId()));
+
+        assertThat(newSnapshot.getInstance(removed.getId())).isNull();
+        assertThat(newSnapshot.getInstances(removed.getInstanceGroupId())).hasSize(2).doesNotContain(removed);
+        assertThat(newSnapshot.removeInstances(removed.getInstanceGroupId(), Collections.singleton(removed.getId()))).isSameAs(newSnapshot);
+    }
+
+    @Test
+    public void testRemoveInstanceGroup() {
+        AgentInstanceGroup removed = instanceGroups.get(0);
+        AgentDataSnapshot newSnapshot = snapshot.removeInstanceGroup(removed.getId());
+
+        assertThat(newSnapshot.getInstanceGroup(removed.getId())).isNull();
+        assertThat(newSnapshot.getInstanceGroupIds()).containsExactly(instanceGroups.get(1).getId());
+        group0Instances.forEach(instance -> assertThat(newSnapshot.getInstance(instance.getId())).isNull());
+    }
+
+    private static AgentInstance quarantine(AgentInstance instance) {
+        return instance.toBuilder()
+                .withOverrideStatus(InstanceOverrideStatus.newBuilder()
+                        .withState(InstanceOverrideState.Quarantined)
+                        .withDetail("test")
+                        .build()
+                )
+                .build();
+    }
+
+    private static List<AgentInstance> concat(List<AgentInstance> first, List<AgentInstance> second) {
+        List<AgentInstance> result = new ArrayList<>(first);
+        result.addAll(second);
+        return result;
+    }
+}
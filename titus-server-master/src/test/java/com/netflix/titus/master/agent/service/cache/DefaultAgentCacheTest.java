@@ -182,7 +182,7 @@ public class DefaultAgentCacheTest {
 
         testScheduler.advanceTimeBy(CACHE_REFRESH_INTERVAL_MS, TimeUnit.MILLISECONDS);
         assertThat(cache.getAgentInstance(updatedInstance.getId()).getLifecycleStatus().getState()).isEqualTo(InstanceLifecycleState.Stopped);
-        expectInstanceGroupUpdateEvent(eventSubscriber, testConnector.takeInstanceGroup(0).getId());
+        expectInstanceUpdateEvent(eventSubscriber, updatedInstance.getId());
     }
 
     @Test
@@ -25,6 +25,7 @@ import java.util.stream.Collectors;
 import com.netflix.spectator.api.DefaultRegistry;
 import com.netflix.spectator.api.Registry;
 import com.netflix.titus.api.connector.cloud.Instance;
+import com.netflix.titus.api.connector.cloud.InstanceCloudConnector;
 import com.netflix.titus.api.connector.cloud.InstanceGroup;
 import com.netflix.titus.common.data.generator.DataGenerator;
 import com.netflix.titus.master.agent.service.AgentManagementConfiguration;
@@ -36,11 +37,16 @@ import org.junit.Test;
 import rx.schedulers.Schedulers;
 import rx.schedulers.TestScheduler;
 
+import static com.netflix.titus.master.MetricConstants.METRIC_AGENT_CACHE;
 import static com.netflix.titus.master.agent.service.cache.InstanceTestUtils.CACHE_REFRESH_INTERVAL_MS;
 import static com.netflix.titus.master.agent.service.cache.InstanceTestUtils.FULL_CACHE_REFRESH_INTERVAL_MS;
 import static com.netflix.titus.master.agent.service.cache.InstanceTestUtils.expectInstanceGroupUpdateEvent;
+import static com.netflix.titus.master.agent.service.cache.InstanceTestUtils.expectInstanceUpdateEvent;
 import static com.netflix.titus.master.agent.service.cache.InstanceTestUtils.mockedAgentManagementConfiguration;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
 
 public class InstanceCacheTest {
 
@@ -142,7 +148,8 @@ public class InstanceCacheTest {
 
         testScheduler.advanceTimeBy(CACHE_REFRESH_INTERVAL_MS, TimeUnit.MILLISECONDS);
         assertThat(cache.getAgentInstance(updatedInstance.getId()).getInstanceState()).isEqualTo(Instance.InstanceState.Terminated);
-        expectInstanceGroupUpdateEvent(eventSubscriber, testConnector.takeInstanceGroup(0).getId());
+        expectInstanceUpdateEvent(eventSubscriber, updatedInstance.getId());
+        assertThat(eventSubscriber.takeNext()).isNull();
     }
 
     @Test
@@ -157,6 +164,39 @@ public class InstanceCacheTest {
         expectInstanceGroupUpdateEvent(eventSubscriber, instanceGroupId);
     }
 
+    @Test
+    public void testInstanceGroupsAreRefreshedInBatches() throws Exception {
+        long instanceGroupCalls = connectorCallCount("getInstanceGroups");
+        long instanceCalls = connectorCallCount("getInstancesByInstanceGroupId");
+        long unchanged = instanceGroupRefreshCount("unchanged");
+
+        testScheduler.advanceTimeBy(CACHE_REFRESH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        // Both instance groups fit into a single batch. Instances are loaded per instance group.
+        assertThat(connectorCallCount("getInstanceGroups")).isEqualTo(instanceGroupCalls + 1);
+        assertThat(connectorCallCount("getInstancesByInstanceGroupId")).isEqualTo(instanceCalls + 2);
+        assertThat(instanceGroupRefreshCount("unchanged")).isEqualTo(unchanged + 2);
+        assertThat(eventSubscriber.takeNext()).isNull();
+    }
+
+    @Test
+    public void testInstanceGroupMissingFromBatchResultIsNotRemoved() throws Exception {
+        // The connector returns a single instance group per call, like a single page of a larger result.
+        InstanceCloudConnector pagingConnector = spy(testConnector);
+        doAnswer(invocation -> testConnector.getInstanceGroups(invocation.<List<String>>getArgument(0))
+                .map(instanceGroups -> instanceGroups.subList(0, Math.min(1, instanceGroups.size())))
+        ).when(pagingConnector).getInstanceGroups(anyList());
+
+        InstanceCache pagingCache = InstanceCache.newInstance(configuration, pagingConnector, Collections.emptySet(), registry, testScheduler);
+        testScheduler.advanceTimeBy(CACHE_REFRESH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        long removed = instanceGroupRefreshCount("removed");
+
+        testScheduler.advanceTimeBy(CACHE_REFRESH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        assertThat(instanceGroupIds(pagingCache.getInstanceGroups())).containsAll(testConnector.takeInstanceGroupIds());
+        assertThat(instanceGroupRefreshCount("removed")).isEqualTo(removed);
+        pagingCache.shutdown();
+    }
+
     private static List<String> instanceGroupIds(Collection<InstanceGroup> instanceGroups) {
         return instanceGroups.stream().map(InstanceGroup::getId).collect(Collectors.toList());
     }
@@ -164,4 +204,12 @@ public class InstanceCacheTest {
     private static List<String> instanceIds(Collection<Instance> instances) {
         return instances.stream().map(Instance::getId).collect(Collectors.toList());
     }
-}
\ No newline at end of file
+
+    private long connectorCallCount(String api) {
+        return registry.counter(METRIC_AGENT_CACHE + "connectorCalls", "class", InstanceCache.class.getSimpleName(), "api", api).count();
+    }
+
+    private long instanceGroupRefreshCount(String result) {
+        return registry.counter(METRIC_AGENT_CACHE + "instanceGroupRefresh", "class", InstanceCache.class.getSimpleName(), "result", result).count();
+    }
+}
@@ -30,11 +30,13 @@ public final class InstanceTestUtils {
 
     public static final long CACHE_REFRESH_INTERVAL_MS = 1_000;
     public static final long FULL_CACHE_REFRESH_INTERVAL_MS = 10_000;
+    public static final int CACHE_REFRESH_BATCH_SIZE = 10;
 
     public static AgentManagementConfiguration mockedAgentManagementConfiguration() {
         AgentManagementConfiguration configuration = mock(AgentManagementConfiguration.class);
         when(configuration.getCacheRefreshIntervalMs()).thenReturn(CACHE_REFRESH_INTERVAL_MS);
         when(configuration.getFullCacheRefreshIntervalMs()).thenReturn(FULL_CACHE_REFRESH_INTERVAL_MS);
+        when(configuration.getCacheRefreshBatchSize()).thenReturn(CACHE_REFRESH_BATCH_SIZE);
         when(configuration.getAgentInstanceGroupPattern()).thenReturn(".*");
         return configuration;
     }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.job.worker.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.spectator.api.DefaultRegistry;
+import com.netflix.spectator.api.Registry;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
+import com.netflix.titus.api.jobmanager.model.job.TaskStatus;
+import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.master.mesos.V3ContainerEvent;
+import org.junit.Test;
+import rx.Completable;
+import rx.schedulers.TestScheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TaskStatusUpdateCoalescerTest {
+
+    private static final long WINDOW_MS = 100;
+
+    private final TestScheduler testScheduler = new TestScheduler();
+    private final Registry registry = new DefaultRegistry();
+
+    private final List<Pair<String, Map<String, List<V3ContainerEvent>>>> jobUpdates = new ArrayList<>();
+
+    private final TaskStatusUpdateCoalescer coalescer = new TaskStatusUpdateCoalescer(
+            WINDOW_MS,
+            (jobId, updates) -> {
+                jobUpdates.add(Pair.of(jobId, updates));
+                return Completable.complete();
+            },
+            registry,
+            testScheduler
+    );
+
+    @Test
+    public void testUpdatesAreBatchedPerJob() {
+        coalescer.add("job1", event("task1", TaskState.Launched));
+        coalescer.add("job2", event("task2", TaskState.Launched));
+        coalescer.add("job1", event("task3", TaskState.Launched));
+
+        testScheduler.advanceTimeBy(WINDOW_MS - 1, TimeUnit.MILLISECONDS);
+        assertThat(jobUpdates).isEmpty();
+
+        testScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertThat(jobUpdates).hasSize(2);
+        assertThat(jobUpdates.get(0).getLeft()).isEqualTo("job1");
+        assertThat(jobUpdates.get(0).getRight()).containsOnlyKeys("task1", "task3");
+        assertThat(jobUpdates.get(1).getLeft()).isEqualTo("job2");
+        assertThat(jobUpdates.get(1).getRight()).containsOnlyKeys("task2");
+        assertThat(registry.counter(TaskStatusUpdateCoalescer.METRIC_ROOT + "jobUpdates").count()).isEqualTo(2);
+    }
+
+    @Test
+    public void testUpdatesOfSameTaskAreKeptInOrder() {
+        V3ContainerEvent launched = event("task1", TaskState.Launched);
+        V3ContainerEvent startInitiated = event("task1", TaskState.StartInitiated);
+        V3ContainerEvent started = event("task1", TaskState.Started);
+        coalescer.add("job1", launched);
+        coalescer.add("job1", startInitiated);
+        coalescer.add("job1", started);
+
+        testScheduler.advanceTimeBy(WINDOW_MS, TimeUnit.MILLISECONDS);
+
+        assertThat(jobUpdates).hasSize(1);
+        assertThat(jobUpdates.get(0).getRight().get("task1")).containsExactly(launched, startInitiated, started);
+        assertThat(registry.counter(TaskStatusUpdateCoalescer.METRIC_ROOT + "received").count()).isEqualTo(3);
+        assertThat(registry.counter(TaskStatusUpdateCoalescer.METRIC_ROOT + "coalesced").count()).isEqualTo(2);
+    }
+
+    @Test
+    public void testNextWindowStartsAfterFlush() {
+        coalescer.add("job1", event("task1", TaskState.Launched));
+        testScheduler.advanceTimeBy(WINDOW_MS, TimeUnit.MILLISECONDS);
+
+        coalescer.add("job1", event("task1", TaskState.Started));
+        testScheduler.advanceTimeBy(WINDOW_MS, TimeUnit.MILLISECONDS);
+
+        assertThat(jobUpdates).hasSize(2);
+        assertThat(jobUpdates.get(1).getRight().get("task1").get(0).getTaskState()).isEqualTo(TaskState.Started);
+    }
+
+    private V3ContainerEvent event(String taskId, TaskState taskState) {
+        return new V3ContainerEvent(taskId, taskState, TaskStatus.REASON_NORMAL, "test", testScheduler.now(), Optional.empty());
+    }
+}
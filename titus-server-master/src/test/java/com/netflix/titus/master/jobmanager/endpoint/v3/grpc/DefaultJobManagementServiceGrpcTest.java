@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.jobmanager.endpoint.v3.grpc;
+
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.titus.grpc.protogen.JobChangeNotification;
+import com.netflix.titus.grpc.protogen.JobChangeNotification.NotificationCase;
+import com.netflix.titus.grpc.protogen.Task;
+import org.junit.Test;
+import rx.observers.AssertableSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DefaultJobManagementServiceGrpcTest {
+
+    private static final long KEEP_ALIVE_INTERVAL_MS = 100;
+
+    private final TestScheduler testScheduler = new TestScheduler();
+
+    private final PublishSubject<JobChangeNotification> events = PublishSubject.create();
+
+    private final AssertableSubscriber<JobChangeNotification> subscriber = DefaultJobManagementServiceGrpc
+            .withKeepAlive(events, KEEP_ALIVE_INTERVAL_MS, testScheduler)
+            .test();
+
+    @Test
+    public void testKeepAliveIsEmittedAfterSnapshotOnly() {
+        events.onNext(taskUpdate("task1"));
+        testScheduler.advanceTimeBy(KEEP_ALIVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        subscriber.assertValueCount(1);
+
+        events.onNext(snapshotEnd());
+        testScheduler.advanceTimeBy(KEEP_ALIVE_INTERVAL_MS - 1, TimeUnit.MILLISECONDS);
+        subscriber.assertValueCount(2);
+
+        testScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        subscriber.assertValueCount(3);
+        assertThat(subscriber.getOnNextEvents().get(2).getNotificationCase()).isEqualTo(NotificationCase.SNAPSHOTEND);
+
+        events.onNext(taskUpdate("task2"));
+        testScheduler.advanceTimeBy(KEEP_ALIVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        subscriber.assertValueCount(5);
+        assertThat(subscriber.getOnNextEvents().get(3).getNotificationCase()).isEqualTo(NotificationCase.TASKUPDATE);
+        assertThat(subscriber.getOnNextEvents().get(4).getNotificationCase()).isEqualTo(NotificationCase.SNAPSHOTEND);
+    }
+
+    @Test
+    public void testKeepAliveStopsWhenEventStreamCompletes() {
+        events.onNext(snapshotEnd());
+        events.onCompleted();
+
+        subscriber.assertCompleted();
+        testScheduler.advanceTimeBy(KEEP_ALIVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        subscriber.assertValueCount(1);
+    }
+
+    @Test
+    public void testKeepAliveIsDroppedForSlowSubscriber() {
+        AssertableSubscriber<JobChangeNotification> slowSubscriber = DefaultJobManagementServiceGrpc
+                .withKeepAlive(events, KEEP_ALIVE_INTERVAL_MS, testScheduler)
+                .test(1);
+
+        events.onNext(snapshotEnd());
+        testScheduler.advanceTimeBy(1_000 * KEEP_ALIVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        slowSubscriber.assertNoErrors();
+        slowSubscriber.assertValueCount(1);
+
+        slowSubscriber.requestMore(1);
+        testScheduler.advanceTimeBy(KEEP_ALIVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        slowSubscriber.assertNoErrors();
+        slowSubscriber.assertValueCount(2);
+    }
+
+    private static JobChangeNotification snapshotEnd() {
+        return JobChangeNotification.newBuilder().setSnapshotEnd(JobChangeNotification.SnapshotEnd.newBuilder()).build();
+    }
+
+    private static JobChangeNotification taskUpdate(String taskId) {
+        return JobChangeNotification.newBuilder()
+                .setTaskUpdate(JobChangeNotification.TaskUpdate.newBuilder().setTask(Task.newBuilder().setId(taskId)))
+                .build();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.jobmanager.endpoint.v3.grpc.gateway;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.spectator.api.DefaultRegistry;
+import com.netflix.titus.api.jobmanager.model.job.BatchJobTask;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.JobFunctions;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
+import com.netflix.titus.api.jobmanager.model.job.event.JobManagerEvent;
+import com.netflix.titus.api.jobmanager.model.job.event.TaskUpdateEvent;
+import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
+import com.netflix.titus.api.jobmanager.service.V3JobOperations;
+import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.grpc.protogen.JobChangeNotification;
+import com.netflix.titus.master.jobmanager.service.JobManagerConfiguration;
+import com.netflix.titus.runtime.endpoint.common.EmptyLogStorageInfo;
+import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
+import com.netflix.titus.testkit.model.job.JobGenerator;
+import org.junit.Before;
+import org.junit.Test;
+import rx.exceptions.MissingBackpressureException;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JobChangeNotificationBroadcasterTest {
+
+    private static final int BUFFER_SIZE = 2;
+
+    private final TestScheduler testScheduler = new TestScheduler();
+
+    private final V3JobOperations jobOperations = mock(V3JobOperations.class);
+    private final JobManagerConfiguration configuration = mock(JobManagerConfiguration.class);
+
+    private final PublishSubject<JobManagerEvent<?>> jobManagerEvents = PublishSubject.create();
+
+    private final Job<BatchJobExt> job = JobGenerator.batchJobs(JobDescriptorGenerator.oneTaskBatchJobDescriptor()).getValue();
+    private final BatchJobTask task = JobGenerator.batchTasks(job).getValue();
+
+    private JobChangeNotificationBroadcaster broadcaster;
+
+    @Before
+    public void setUp() {
+        when(configuration.getEventStreamSnapshotRefreshIntervalMs()).thenReturn(30_000L);
+        when(configuration.getEventStreamSubscriberBufferSize()).thenReturn(BUFFER_SIZE);
+        when(jobOperations.observeJobs()).thenReturn(jobManagerEvents);
+        when(jobOperations.getJobsAndTasks()).thenReturn(Collections.singletonList(Pair.<Job, List<Task>>of(job, Collections.singletonList(task))));
+
+        broadcaster = new JobChangeNotificationBroadcaster(jobOperations, EmptyLogStorageInfo.empty(), configuration, new DefaultRegistry(), testScheduler);
+        broadcaster.enterActiveMode();
+    }
+
+    @Test
+    public void testSnapshotFollowedByLiveUpdates() {
+        TestSubscriber<JobChangeNotification> testSubscriber = new TestSubscriber<>();
+        broadcaster.observeJobs().subscribe(testSubscriber);
+
+        testSubscriber.assertValueCount(3);
+        assertThat(testSubscriber.getOnNextEvents().get(0).getJobUpdate().getJob().getId()).isEqualTo(job.getId());
+        assertThat(testSubscriber.getOnNextEvents().get(1).getTaskUpdate().getTask().getId()).isEqualTo(task.getId());
+        assertThat(testSubscriber.getOnNextEvents().get(2)).isSameAs(JobChangeNotificationBroadcaster.SNAPSHOT_END_MARKER);
+
+        jobManagerEvents.onNext(TaskUpdateEvent.taskChange(job, JobFunctions.changeTaskStatus(task, TaskState.Launched, "", ""), task));
+        testSubscriber.assertValueCount(4);
+        assertThat(testSubscriber.getOnNextEvents().get(3).getTaskUpdate().getTask().getStatus().getState())
+                .isEqualTo(com.netflix.titus.grpc.protogen.TaskStatus.TaskState.Launched);
+    }
+
+    @Test
+    public void testEventIsConvertedOnceForAllSubscribers() {
+        TestSubscriber<JobChangeNotification> first = new TestSubscriber<>();
+        TestSubscriber<JobChangeNotification> second = new TestSubscriber<>();
+        broadcaster.observeJobs().subscribe(first);
+        broadcaster.observeJobs().subscribe(second);
+
+        jobManagerEvents.onNext(TaskUpdateEvent.taskChange(job, JobFunctions.changeTaskStatus(task, TaskState.Launched, "", ""), task));
+        assertThat(first.getOnNextEvents().get(3)).isSameAs(second.getOnNextEvents().get(3));
+
+        // A new subscriber gets the already converted notification in its snapshot.
+        TestSubscriber<JobChangeNotification> third = new TestSubscriber<>();
+        broadcaster.observeJobs().subscribe(third);
+        assertThat(third.getOnNextEvents().get(1)).isSameAs(first.getOnNextEvents().get(3));
+    }
+
+    @Test
+    public void testSlowConsumerIsEvicted() {
+        TestSubscriber<JobChangeNotification> slowSubscriber = new TestSubscriber<>(0);
+        broadcaster.observeJobs().subscribe(slowSubscriber);
+
+        for (int i = 0; i <= BUFFER_SIZE; i++) {
+            jobManagerEvents.onNext(TaskUpdateEvent.taskChange(job, JobFunctions.changeTaskStatus(task, TaskState.Launched, "", ""), task));
+        }
+        slowSubscriber.requestMore(Long.MAX_VALUE);
+        slowSubscriber.assertError(MissingBackpressureException.class);
+
+        // Other subscribers are not affected.
+        TestSubscriber<JobChangeNotification> testSubscriber = new TestSubscriber<>();
+        broadcaster.observeJobs().subscribe(testSubscriber);
+        testSubscriber.assertNoErrors();
+    }
+
+    @Test
+    public void testPeriodicSnapshotRefresh() {
+        verify(jobOperations, times(1)).getJobsAndTasks();
+
+        // Simulate the task removal, for which there is no event.
+        when(jobOperations.getJobsAndTasks()).thenReturn(Collections.singletonList(Pair.<Job, List<Task>>of(job, Collections.emptyList())));
+        testScheduler.advanceTimeBy(30_000, TimeUnit.MILLISECONDS);
+        verify(jobOperations, times(2)).getJobsAndTasks();
+
+        TestSubscriber<JobChangeNotification> testSubscriber = new TestSubscriber<>();
+        broadcaster.observeJobs().subscribe(testSubscriber);
+        testSubscriber.assertValueCount(2);
+        assertThat(testSubscriber.getOnNextEvents().get(0).getJobUpdate().getJob().getId()).isEqualTo(job.getId());
+    }
+
+    @Test
+    public void testFinishedTaskIsKeptInSnapshotUntilRemovedFromJobManager() {
+        Task finished = JobFunctions.changeTaskStatus(task, TaskState.Finished, "", "");
+        jobManagerEvents.onNext(TaskUpdateEvent.taskChange(job, finished, task));
+
+        TestSubscriber<JobChangeNotification> testSubscriber = new TestSubscriber<>();
+        broadcaster.observeJobs().subscribe(testSubscriber);
+        testSubscriber.assertValueCount(3);
+        assertThat(testSubscriber.getOnNextEvents().get(1).getTaskUpdate().getTask().getStatus().getState())
+                .isEqualTo(com.netflix.titus.grpc.protogen.TaskStatus.TaskState.Finished);
+
+        // The finished task is dropped by the job manager.
+        when(jobOperations.getJobsAndTasks()).thenReturn(Collections.singletonList(Pair.<Job, List<Task>>of(job, Collections.emptyList())));
+        testScheduler.advanceTimeBy(30_000, TimeUnit.MILLISECONDS);
+
+        TestSubscriber<JobChangeNotification> nextSubscriber = new TestSubscriber<>();
+        broadcaster.observeJobs().subscribe(nextSubscriber);
+        nextSubscriber.assertValueCount(2);
+        assertThat(nextSubscriber.getOnNextEvents().get(1)).isSameAs(JobChangeNotificationBroadcaster.SNAPSHOT_END_MARKER);
+    }
+
+    @Test
+    public void testJobManagerStreamErrorTerminatesSubscribers() {
+        TestSubscriber<JobChangeNotification> testSubscriber = new TestSubscriber<>();
+        broadcaster.observeJobs().subscribe(testSubscriber);
+
+        jobManagerEvents.onError(new RuntimeException("simulated error"));
+        testSubscriber.assertError(RuntimeException.class);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.jobmanager.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import rx.Subscription;
+import rx.subjects.PublishSubject;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JobEventProjectionTest {
+
+    private final PublishSubject<String> events = PublishSubject.create();
+
+    private final List<String> appliedLiveEvents = new ArrayList<>();
+
+    private List<String> snapshot = Collections.singletonList("snapshot");
+    private Runnable duringBuild = () -> {
+    };
+
+    private final JobEventProjection<String, List<String>> projection = new JobEventProjection<>(Collections.emptyList(), new JobEventProjection.Handler<String, List<String>>() {
+        @Override
+        public List<String> build() {
+            duringBuild.run();
+            return snapshot;
+        }
+
+        @Override
+        public List<String> apply(List<String> state, String event) {
+            List<String> newState = new ArrayList<>(state);
+            newState.add(event);
+            return newState;
+        }
+
+        @Override
+        public void afterApply(List<String> state, String event) {
+            appliedLiveEvents.add(event);
+        }
+    });
+
+    @Test
+    public void testStateIsBuiltAfterSubscribing() {
+        duringBuild = () -> events.onNext("event1");
+        Subscription subscription = projection.subscribe(events, e -> {
+        }, () -> {
+        });
+
+        assertThat(projection.getState()).containsExactly("snapshot", "event1");
+
+        events.onNext("event2");
+        assertThat(projection.getState()).containsExactly("snapshot", "event1", "event2");
+        subscription.unsubscribe();
+    }
+
+    @Test
+    public void testEventsReceivedDuringBuildAreReplayedOnce() {
+        projection.rebuild();
+        projection.onEvent("event1");
+
+        duringBuild = () -> {
+            projection.onEvent("event2");
+            // The current state is updated while the build is in progress.
+            assertThat(projection.getState()).containsExactly("snapshot", "event1", "event2");
+        };
+        snapshot = Collections.singletonList("snapshot2");
+        assertThat(projection.rebuild()).isTrue();
+
+        assertThat(projection.getState()).containsExactly("snapshot2", "event2");
+        assertThat(appliedLiveEvents).containsExactly("event1", "event2");
+    }
+
+    @Test
+    public void testConcurrentRebuildIsSkipped() {
+        boolean[] nestedRebuild = new boolean[1];
+        duringBuild = () -> nestedRebuild[0] = projection.rebuild();
+
+        assertThat(projection.rebuild()).isTrue();
+        assertThat(nestedRebuild[0]).isFalse();
+    }
+}
@@ -17,8 +17,10 @@
 package com.netflix.titus.master.jobmanager.service.integration;
 
 import com.netflix.titus.api.jobmanager.model.job.JobDescriptor;
+import com.netflix.titus.api.jobmanager.model.job.JobFunctions;
 import com.netflix.titus.api.jobmanager.model.job.TaskState;
 import com.netflix.titus.api.jobmanager.model.job.TaskStatus;
+import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
 import com.netflix.titus.api.jobmanager.service.JobManagerException;
 import com.netflix.titus.master.jobmanager.service.integration.scenario.JobsScenarioBuilder;
 import com.netflix.titus.master.jobmanager.service.integration.scenario.ScenarioTemplates;
@@ -68,4 +70,20 @@ public class JobSchedulingCommonTest {
                 .advance() // Advance to observe 'status=error type=afterChange' in the log file
         );
     }
+
+    @Test
+    public void testBatchedTaskPlacementSkipsTaskNotInAcceptedState() {
+        JobDescriptor<BatchJobExt> twoTaskJob = JobFunctions.changeBatchJobSize(JobDescriptorGenerator.oneTaskBatchJobDescriptor(), 2);
+        jobsScenarioBuilder.scheduleJob(twoTaskJob, jobScenario -> jobScenario
+                .expectJobEvent()
+                .expectTaskStateChangeEvent(0, 0, TaskState.Accepted)
+                .expectTaskStateChangeEvent(1, 0, TaskState.Accepted)
+                .killTask(1, 0)
+                .expectTaskStateChangeEvent(1, 0, TaskState.KillInitiated)
+                .triggerBatchedSchedulerLaunchEvent(rejected -> assertThat(rejected).hasSize(1), 0, 1)
+                .expectTaskStateChangeEvent(0, 0, TaskState.Launched)
+                .expectTaskInActiveState(0, 0, TaskState.Launched)
+                .expectTaskInActiveState(1, 0, TaskState.KillInitiated)
+        );
+    }
 }
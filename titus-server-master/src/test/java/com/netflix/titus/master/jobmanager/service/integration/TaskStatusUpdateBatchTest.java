@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.jobmanager.service.integration;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.netflix.titus.api.jobmanager.TaskAttributes;
+import com.netflix.titus.api.jobmanager.model.job.JobDescriptor;
+import com.netflix.titus.api.jobmanager.model.job.JobModel;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
+import com.netflix.titus.api.jobmanager.model.job.TaskStatus;
+import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
+import com.netflix.titus.master.jobmanager.service.integration.scenario.JobsScenarioBuilder;
+import com.netflix.titus.master.jobmanager.service.integration.scenario.ScenarioTemplates;
+import org.junit.Test;
+
+import static com.netflix.titus.api.jobmanager.model.job.JobFunctions.changeBatchJobSize;
+import static com.netflix.titus.api.jobmanager.model.job.JobFunctions.changeRetryPolicy;
+import static com.netflix.titus.testkit.model.job.JobDescriptorGenerator.oneTaskBatchJobDescriptor;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TaskStatusUpdateBatchTest {
+
+    private static final JobDescriptor<BatchJobExt> JOB_WITH_RETRIES = changeRetryPolicy(
+            oneTaskBatchJobDescriptor(),
+            JobModel.newExponentialBackoffRetryPolicy().withInitialDelayMs(1_000).withMaxDelayMs(10_000).withRetries(5).build()
+    );
+
+    private final JobsScenarioBuilder jobsScenarioBuilder = new JobsScenarioBuilder();
+
+    @Test
+    public void testFoldedStatusUpdatesAreEquivalentToSeparateOnes() {
+        AtomicReference<Task> separateStarted = new AtomicReference<>();
+        AtomicReference<Task> separateFinished = new AtomicReference<>();
+        jobsScenarioBuilder.scheduleJob(JOB_WITH_RETRIES, jobScenario -> jobScenario
+                .template(ScenarioTemplates.acceptJobWithOneTask(0, 0))
+                .template(ScenarioTemplates.startTask(0, 0, TaskState.Started))
+                .allActiveTasks(separateStarted::set)
+                .triggerMesosFinishedEvent(0, 0, -1, TaskStatus.REASON_FAILED)
+                .expectTaskUpdatedInStore(0, 0, separateFinished::set)
+        );
+
+        AtomicReference<Task> foldedStarted = new AtomicReference<>();
+        AtomicReference<Task> foldedFinished = new AtomicReference<>();
+        jobsScenarioBuilder.scheduleJob(JOB_WITH_RETRIES, jobScenario -> jobScenario
+                .template(ScenarioTemplates.acceptJobWithOneTask(0, 0))
+                .triggerSchedulerLaunchEvent(0, 0)
+                .expectTaskUpdatedInStore(0, 0, task -> assertThat(task.getStatus().getState()).isEqualTo(TaskState.Launched))
+                .expectTaskStateChangeEvent(0, 0, TaskState.Launched)
+                .triggerBatchedMesosEvents(0, TaskState.Launched, TaskState.StartInitiated, TaskState.Started)
+                .expectTaskUpdatedInStore(0, 0, task -> {
+                    assertThat(task.getStatus().getState()).isEqualTo(TaskState.Started);
+                    assertThat(task.getTaskContext().get(TaskAttributes.TASK_ATTRIBUTES_CONTAINER_IP)).isNotEmpty();
+                })
+                .expectTaskStateChangeEvent(0, 0, TaskState.Started)
+                .allActiveTasks(foldedStarted::set)
+                .triggerMesosFinishedEvent(0, 0, -1, TaskStatus.REASON_FAILED)
+                .expectTaskUpdatedInStore(0, 0, foldedFinished::set)
+        );
+
+        assertThat(statesOf(foldedStarted.get())).isEqualTo(statesOf(separateStarted.get()));
+        assertThat(statesOf(foldedFinished.get())).isEqualTo(statesOf(separateFinished.get()));
+
+        String retryDelay = separateFinished.get().getTaskContext().get(TaskAttributes.TASK_ATTRIBUTES_RETRY_DELAY);
+        assertThat(retryDelay).isNotNull();
+        assertThat(foldedFinished.get().getTaskContext().get(TaskAttributes.TASK_ATTRIBUTES_RETRY_DELAY)).isEqualTo(retryDelay);
+    }
+
+    @Test
+    public void testFailingTaskUpdateDoesNotBlockOtherTasksInBatch() {
+        JobDescriptor<BatchJobExt> twoTaskJob = changeBatchJobSize(oneTaskBatchJobDescriptor(), 2);
+        jobsScenarioBuilder.scheduleJob(twoTaskJob, jobScenario -> {
+            Map<Integer, Function<Task, Optional<Task>>> changeFunctions = new HashMap<>();
+            changeFunctions.put(0, task -> {
+                throw new IllegalStateException("Simulated task update error");
+            });
+            changeFunctions.put(1, jobScenario.newMesosEventsUpdater(TaskState.StartInitiated, TaskState.Started));
+
+            return jobScenario
+                    .expectJobEvent()
+                    .advance()
+                    .inActiveTasks((taskIdx, resubmit) -> ScenarioTemplates.acceptTask(taskIdx, resubmit))
+                    .inActiveTasks((taskIdx, resubmit) -> ScenarioTemplates.startTask(taskIdx, resubmit, TaskState.Launched))
+                    .triggerBatchedTaskUpdate(changeFunctions)
+                    .expectTaskUpdatedInStore(1, 0, task -> assertThat(task.getStatus().getState()).isEqualTo(TaskState.Started))
+                    .expectTaskInActiveState(0, 0, TaskState.Launched)
+                    .expectTaskInActiveState(1, 0, TaskState.Started);
+        });
+    }
+
+    /**
+     * Returns the task status history followed by its current status, as a list of state and reason code pairs.
+     */
+    private static List<String> statesOf(Task task) {
+        List<String> states = task.getStatusHistory().stream()
+                .map(status -> status.getState() + ":" + status.getReasonCode())
+                .collect(Collectors.toList());
+        states.add(task.getStatus().getState() + ":" + task.getStatus().getReasonCode());
+        return states;
+    }
+}
@@ -18,8 +18,11 @@ package com.netflix.titus.master.jobmanager.service.integration.scenario;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
@@ -454,16 +457,41 @@ public class JobScenarioBuilder<E extends JobDescriptor.JobDescriptorExt> {
         return this;
     }
 
+    public JobScenarioBuilder<E> triggerBatchedSchedulerLaunchEvent(Consumer<Map<String, Throwable>> rejectedCheck, int... taskIdxs) {
+        Map<String, Function<Task, Task>> changeFunctions = new HashMap<>();
+        for (int taskIdx : taskIdxs) {
+            Task task = findTaskInActiveState(taskIdx, 0);
+            changeFunctions.put(task.getId(), JobManagerUtil.newTaskLaunchConfigurationUpdater(
+                    "zone",
+                    vmService.buildLease(task.getId()),
+                    vmService.buildConsumeResult(task.getId()),
+                    Optional.empty(),
+                    vmService.buildAttributesMap(task.getId())
+            ));
+        }
+
+        AtomicReference<Map<String, Throwable>> rejected = new AtomicReference<>();
+        AtomicReference<Throwable> failed = new AtomicReference<>();
+        jobOperations.recordTaskPlacements(jobId, changeFunctions).subscribe(rejected::set, failed::set);
+        autoAdvanceUntil(() -> failed.get() != null || rejected.get() != null);
+        if (failed.get() != null) {
+            ExceptionExt.rethrow(failed.get());
+        }
+        rejectedCheck.accept(rejected.get());
+
+        return this;
+    }
+
     public JobScenarioBuilder<E> triggerMesosLaunchEvent(int taskIdx, int resubmit) {
-        return triggerMesosEvent(taskIdx, resubmit, TaskState.Launched, "Task launched", 0);
+        return triggerMesosEvent(taskIdx, resubmit, TaskState.Launched, getMesosReason(TaskState.Launched), 0);
     }
 
     public JobScenarioBuilder<E> triggerMesosStartInitiatedEvent(int taskIdx, int resubmit) {
-        return triggerMesosEvent(taskIdx, resubmit, TaskState.StartInitiated, "Starting container", 0);
+        return triggerMesosEvent(taskIdx, resubmit, TaskState.StartInitiated, getMesosReason(TaskState.StartInitiated), 0);
     }
 
     public JobScenarioBuilder<E> triggerMesosStartedEvent(int taskIdx, int resubmit) {
-        return triggerMesosEvent(taskIdx, resubmit, TaskState.Started, "Task started", 0);
+        return triggerMesosEvent(taskIdx, resubmit, TaskState.Started, getMesosReason(TaskState.Started), 0);
     }
 
     public JobScenarioBuilder<E> triggerMesosFinishedEvent(int taskIdx, int resubmit) {
@@ -478,6 +506,41 @@ public class JobScenarioBuilder<E extends JobDescriptor.JobDescriptorExt> {
         return triggerMesosEvent(taskIdx, resubmit, TaskState.Finished, reasonCode, errorCode);
     }
 
+    /**
+     * Applies Mesos status updates of a task to the given states one after another in a single change action, the
+     * same way as coalesced Mesos status updates are applied.
+     */
+    public JobScenarioBuilder<E> triggerBatchedMesosEvents(int taskIdx, TaskState... taskStates) {
+        return triggerBatchedTaskUpdate(Collections.singletonMap(taskIdx, newMesosEventsUpdater(taskStates)));
+    }
+
+    public JobScenarioBuilder<E> triggerBatchedTaskUpdate(Map<Integer, Function<Task, Optional<Task>>> changeFunctionsByTaskIdx) {
+        Map<String, Function<Task, Optional<Task>>> changeFunctions = new HashMap<>();
+        changeFunctionsByTaskIdx.forEach((taskIdx, changeFunction) -> changeFunctions.put(findTaskInActiveState(taskIdx, 0).getId(), changeFunction));
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failed = new AtomicReference<>();
+        jobOperations.updateTasks(jobId, changeFunctions, Trigger.Mesos, "Mesos -> " + changeFunctions.size() + " task status updates")
+                .subscribe(() -> done.set(true), failed::set);
+        autoAdvanceUntil(() -> failed.get() != null || done.get());
+        if (failed.get() != null) {
+            ExceptionExt.rethrow(failed.get());
+        }
+        assertThat(done.get()).isTrue();
+
+        return this;
+    }
+
+    public Function<Task, Optional<Task>> newMesosEventsUpdater(TaskState... taskStates) {
+        return task -> {
+            Task current = task;
+            for (TaskState taskState : taskStates) {
+                current = newMesosTaskStateUpdater(current, taskState, getMesosReason(taskState), 0).apply(current).orElse(current);
+            }
+            return current == task ? Optional.empty() : Optional.of(current);
+        };
+    }
+
     public JobScenarioBuilder<E> breakStore() {
         jobStore.setBroken(true);
         return this;
@@ -511,14 +574,21 @@ public class JobScenarioBuilder<E extends JobDescriptor.JobDescriptorExt> {
     }
 
     private JobScenarioBuilder<E> triggerMesosEvent(Task task, TaskState taskState, String reason, int errorCode) {
-        String reasonMessage;
-        if (taskState == TaskState.Finished) {
-            reasonMessage = errorCode == 0 ? "Completed successfully" : "Container terminated with an error " + errorCode;
-        } else {
-            reasonMessage = "Task changed state to " + taskState;
-        }
-
         AtomicBoolean done = new AtomicBoolean();
+        Function<Task, Optional<Task>> changeFunction = newMesosTaskStateUpdater(task, taskState, reason, errorCode);
+
+        jobOperations.updateTask(task.getId(),
+                changeFunction,
+                Trigger.Mesos,
+                String.format("Mesos callback taskStatus=%s, reason=%s (%s)", taskState, reason, getMesosReasonMessage(taskState, errorCode))
+        ).subscribe(() -> done.set(true));
+        autoAdvanceUntil(done::get);
+        assertThat(done.get()).isTrue();
+
+        return this;
+    }
+
+    private Function<Task, Optional<Task>> newMesosTaskStateUpdater(Task task, TaskState taskState, String reason, int errorCode) {
         Optional<TitusExecutorDetails> data = taskState == TaskState.StartInitiated
                 ? Optional.of(vmService.buildExecutorDetails(task.getId()))
                 : Optional.empty();
@@ -526,21 +596,31 @@ public class JobScenarioBuilder<E extends JobDescriptor.JobDescriptorExt> {
         TaskStatus taskStatus = JobModel.newTaskStatus()
                 .withState(taskState)
                 .withReasonCode(reason)
-                .withReasonMessage(reasonMessage)
+                .withReasonMessage(getMesosReasonMessage(taskState, errorCode))
                 .withTimestamp(testScheduler.now())
                 .build();
 
-        Function<Task, Optional<Task>> changeFunction = JobManagerUtil.newMesosTaskStateUpdater(taskStatus, data, titusRuntime);
+        return JobManagerUtil.newMesosTaskStateUpdater(taskStatus, data, titusRuntime);
+    }
 
-        jobOperations.updateTask(task.getId(),
-                changeFunction,
-                Trigger.Mesos,
-                String.format("Mesos callback taskStatus=%s, reason=%s (%s)", taskState, reason, reasonMessage)
-        ).subscribe(() -> done.set(true));
-        autoAdvanceUntil(done::get);
-        assertThat(done.get()).isTrue();
+    private static String getMesosReason(TaskState taskState) {
+        switch (taskState) {
+            case Launched:
+                return "Task launched";
+            case StartInitiated:
+                return "Starting container";
+            case Started:
+                return "Task started";
+            default:
+                return TaskStatus.REASON_NORMAL;
+        }
+    }
 
-        return this;
+    private static String getMesosReasonMessage(TaskState taskState, int errorCode) {
+        if (taskState == TaskState.Finished) {
+            return errorCode == 0 ? "Completed successfully" : "Container terminated with an error " + errorCode;
+        }
+        return "Task changed state to " + taskState;
     }
 
     private boolean autoAdvanceUntil(Supplier<Boolean> action) {
@@ -304,6 +304,11 @@ class StubbedJobStore implements JobStore {
                 }));
     }
 
+    @Override
+    public Completable updateTasks(List<Task> tasks) {
+        return Completable.concat(tasks.stream().map(this::updateTask).collect(Collectors.toList()));
+    }
+
     @Override
     public Completable replaceTask(Task oldTask, Task newTask) {
         return beforeCompletable(() ->
@@ -341,6 +346,11 @@ class StubbedJobStore implements JobStore {
         throw new IllegalStateException("not implemented yet");
     }
 
+    @Override
+    public Observable<String> retrieveArchivedTaskIdsForJob(String jobId) {
+        return beforeObservable(() -> Observable.from(archivedTasks.values()).filter(task -> task.getJobId().equals(jobId)).map(Task::getId));
+    }
+
     private Completable beforeCompletable(Supplier<Completable> action) {
         if (broken) {
             return Completable.error(new IOException("Store is broken"));
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.jobmanager.service.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.ImmutableSet;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.JobFunctions;
+import com.netflix.titus.api.jobmanager.model.job.JobState;
+import com.netflix.titus.api.jobmanager.model.job.JobStatus;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
+import com.netflix.titus.api.jobmanager.model.job.event.JobUpdateEvent;
+import com.netflix.titus.api.jobmanager.model.job.event.TaskUpdateEvent;
+import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
+import com.netflix.titus.api.jobmanager.service.V3JobOperations;
+import com.netflix.titus.api.model.Page;
+import com.netflix.titus.api.model.Pagination;
+import com.netflix.titus.common.runtime.TitusRuntimes;
+import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.grpc.protogen.TaskStatus;
+import com.netflix.titus.runtime.endpoint.JobQueryCriteria;
+import com.netflix.titus.runtime.jobmanager.JobManagerCursors;
+import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
+import com.netflix.titus.testkit.model.job.JobGenerator;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JobCursorIndexTest {
+
+    private final V3JobOperations v3JobOperations = mock(V3JobOperations.class);
+
+    private final JobCursorIndex index = new JobCursorIndex(v3JobOperations, TitusRuntimes.internal());
+
+    private final List<Job<BatchJobExt>> jobs = new ArrayList<>();
+    private final List<Task> tasks = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        List<Pair<Job, List<Task>>> jobsAndTasks = new ArrayList<>();
+        for (Job<BatchJobExt> job : JobGenerator.batchJobs(JobFunctions.changeBatchJobSize(JobDescriptorGenerator.oneTaskBatchJobDescriptor(), 5)).toList(4)) {
+            List<Task> jobTasks = new ArrayList<>();
+            List<? extends Task> generated = JobGenerator.batchTasks(job).toList();
+            for (int i = 0; i < generated.size(); i++) {
+                jobTasks.add(JobFunctions.changeTaskStatus(generated.get(i), i % 2 == 0 ? TaskState.Started : TaskState.Launched, "", ""));
+            }
+            jobs.add(job);
+            tasks.addAll(jobTasks);
+            jobsAndTasks.add(Pair.of(job, jobTasks));
+        }
+        when(v3JobOperations.getJobsAndTasks()).thenReturn(jobsAndTasks);
+        index.rebuild();
+    }
+
+    @Test
+    public void testWalkTasksWithCursor() {
+        JobQueryCriteria<TaskStatus.TaskState, com.netflix.titus.grpc.protogen.JobDescriptor.JobSpecCase> criteria = newCriteria()
+                .withTaskStates(ImmutableSet.of(TaskStatus.TaskState.Started, TaskStatus.TaskState.Launched))
+                .build();
+
+        List<Task> walked = new ArrayList<>();
+        Page page = Page.newBuilder().withPageSize(3).withCursor("").build();
+        while (true) {
+            Pair<List<Task>, Pagination> result = index.findTasks(criteria, page).get();
+            assertThat(result.getRight().getTotalItems()).isEqualTo(tasks.size());
+            walked.addAll(result.getLeft());
+            if (!result.getRight().hasMore()) {
+                break;
+            }
+            page = page.toBuilder().withCursor(result.getRight().getCursor()).build();
+        }
+
+        List<Task> expected = new ArrayList<>(tasks);
+        expected.sort(JobManagerCursors.coreTaskCursorOrderComparator());
+        assertThat(walked).isEqualTo(expected);
+    }
+
+    @Test
+    public void testTaskStateChangeMovesTaskBetweenPartitions() {
+        Task launched = tasks.get(1);
+        index.onJobManagerEvent(TaskUpdateEvent.taskChange(jobs.get(0), JobFunctions.changeTaskStatus(launched, TaskState.Started, "", ""), launched));
+
+        assertThat(totalTasks(TaskStatus.TaskState.Started)).isEqualTo(13);
+        assertThat(totalTasks(TaskStatus.TaskState.Launched)).isEqualTo(7);
+    }
+
+    @Test
+    public void testFinishedTasksAreRemoved() {
+        Task started = tasks.get(0);
+        index.onJobManagerEvent(TaskUpdateEvent.taskChange(jobs.get(0), JobFunctions.changeTaskStatus(started, TaskState.Finished, "", ""), started));
+
+        assertThat(totalTasks(TaskStatus.TaskState.Started)).isEqualTo(11);
+    }
+
+    @Test
+    public void testFinishedJobIsRemovedWithItsTasks() {
+        Job<BatchJobExt> job = jobs.get(0);
+        Job<BatchJobExt> finished = job.toBuilder().withStatus(JobStatus.newBuilder().withState(JobState.Finished).build()).build();
+        index.onJobManagerEvent(JobUpdateEvent.jobChange(finished, job));
+
+        assertThat(totalTasks(TaskStatus.TaskState.Started)).isEqualTo(9);
+        assertThat(totalTasks(TaskStatus.TaskState.Launched)).isEqualTo(6);
+        Pair<List<Job<?>>, Pagination> result = index.findJobs(
+                newCriteria().withJobState(com.netflix.titus.grpc.protogen.JobStatus.JobState.Accepted).build(),
+                Page.newBuilder().withPageSize(10).withCursor("").build()
+        ).get();
+        assertThat(result.getLeft()).hasSize(3).doesNotContain(job);
+    }
+
+    @Test
+    public void testQueriesNotServedByIndex() {
+        Page page = Page.newBuilder().withPageSize(10).withCursor("").build();
+
+        // Finished entities are not indexed.
+        assertThat(index.findTasks(newCriteria().withTaskStates(ImmutableSet.of(TaskStatus.TaskState.Finished)).build(), page)).isEmpty();
+        assertThat(index.findTasks(newCriteria().build(), page)).isEmpty();
+        assertThat(index.findJobs(newCriteria().build(), page)).isEmpty();
+
+        // Criteria other than states must be evaluated against all entities.
+        assertThat(index.findTasks(newCriteria()
+                .withTaskStates(ImmutableSet.of(TaskStatus.TaskState.Started))
+                .withJobIds(Collections.singleton(jobs.get(0).getId()))
+                .build(), page)
+        ).isEmpty();
+    }
+
+    private int totalTasks(TaskStatus.TaskState state) {
+        return index.findTasks(
+                newCriteria().withTaskStates(ImmutableSet.of(state)).build(),
+                Page.newBuilder().withPageSize(1).withCursor("").build()
+        ).get().getRight().getTotalItems();
+    }
+
+    private JobQueryCriteria.Builder<TaskStatus.TaskState, com.netflix.titus.grpc.protogen.JobDescriptor.JobSpecCase> newCriteria() {
+        return JobQueryCriteria.newBuilder();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.jobmanager.service.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.netflix.titus.api.jobmanager.model.job.BatchJobTask;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.JobDescriptor;
+import com.netflix.titus.api.jobmanager.model.job.JobFunctions;
+import com.netflix.titus.api.jobmanager.model.job.JobState;
+import com.netflix.titus.api.jobmanager.model.job.JobStatus;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
+import com.netflix.titus.api.jobmanager.model.job.event.JobUpdateEvent;
+import com.netflix.titus.api.jobmanager.model.job.event.TaskUpdateEvent;
+import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
+import com.netflix.titus.api.jobmanager.service.V3JobOperations;
+import com.netflix.titus.common.runtime.TitusRuntimes;
+import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.grpc.protogen.TaskStatus;
+import com.netflix.titus.runtime.endpoint.JobQueryCriteria;
+import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
+import com.netflix.titus.testkit.model.job.JobGenerator;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JobQueryIndexesTest {
+
+    private final V3JobOperations v3JobOperations = mock(V3JobOperations.class);
+
+    private final JobQueryIndexes indexes = new JobQueryIndexes(v3JobOperations, TitusRuntimes.internal());
+
+    private final List<Job<BatchJobExt>> jobs = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        JobDescriptor<BatchJobExt> template = JobDescriptorGenerator.oneTaskBatchJobDescriptor();
+        for (int i = 0; i < 40; i++) {
+            JobDescriptor<BatchJobExt> jobDescriptor = template.toBuilder()
+                    .withApplicationName(i % 2 == 0 ? "appEven" : "appOdd")
+                    .withCapacityGroup(i < 20 ? "groupA" : "groupB")
+                    .withAttributes(i % 10 == 0 ? ImmutableMap.of("tier", "critical") : Collections.emptyMap())
+                    .build();
+            jobs.add(JobGenerator.batchJobs(jobDescriptor).getValue());
+        }
+        List<Pair<Job, List<Task>>> jobsAndTasks = new ArrayList<>();
+        jobs.forEach(job -> jobsAndTasks.add(Pair.of(job, Collections.emptyList())));
+        when(v3JobOperations.getJobsAndTasks()).thenReturn(jobsAndTasks);
+        indexes.rebuild();
+    }
+
+    @Test
+    public void testFullScanWithoutIndexableCriteria() {
+        JobQueryPlan plan = indexes.plan(JobQueryCriteria.<TaskStatus.TaskState, com.netflix.titus.grpc.protogen.JobDescriptor.JobSpecCase>newBuilder().build());
+        assertThat(plan.isFullScan()).isTrue();
+        assertThat(plan.getCandidateCount()).isEqualTo(40);
+    }
+
+    @Test
+    public void testIntersectionOfIndexes() {
+        JobQueryPlan plan = indexes.plan(newCriteria().withAppName("appEven").withCapacityGroup("groupB").build());
+        assertThat(plan.isFullScan()).isFalse();
+        assertThat(plan.getUsedIndexes()).containsExactlyInAnyOrder(JobQueryIndexes.INDEX_APP_NAME, JobQueryIndexes.INDEX_CAPACITY_GROUP);
+        assertThat(plan.getCandidateJobIds().get()).hasSize(10);
+    }
+
+    @Test
+    public void testMostSelectiveIndexFirst() {
+        JobQueryPlan plan = indexes.plan(newCriteria()
+                .withAppName("appEven")
+                .withLabels(ImmutableMap.of("tier", ImmutableSet.of("critical")))
+                .withLabelsAndOp(true)
+                .build()
+        );
+        assertThat(plan.getUsedIndexes()).containsExactly(JobQueryIndexes.INDEX_LABEL_PREFIX + "tier");
+        assertThat(plan.getCandidateJobIds().get()).hasSize(4);
+    }
+
+    @Test
+    public void testNoMatchingValue() {
+        JobQueryPlan plan = indexes.plan(newCriteria().withAppName("unknown").build());
+        assertThat(plan.getCandidateJobIds().get()).isEmpty();
+    }
+
+    @Test
+    public void testTaskStateIndex() {
+        Job<BatchJobExt> job = jobs.get(0);
+        BatchJobTask task = JobGenerator.batchTasks(job).getValue();
+        Task started = JobFunctions.changeTaskStatus(task, TaskState.Started, "", "");
+        indexes.onJobManagerEvent(TaskUpdateEvent.newTask(job, started));
+
+        JobQueryPlan startedPlan = indexes.plan(newCriteria().withTaskStates(ImmutableSet.of(TaskStatus.TaskState.Started)).build());
+        assertThat(startedPlan.getCandidateJobIds().get()).containsExactly(job.getId());
+
+        // Finished tasks are not indexed.
+        JobQueryPlan finishedPlan = indexes.plan(newCriteria().withTaskStates(ImmutableSet.of(TaskStatus.TaskState.Finished)).build());
+        assertThat(finishedPlan.isFullScan()).isTrue();
+
+        indexes.onJobManagerEvent(TaskUpdateEvent.taskChange(job, JobFunctions.changeTaskStatus(started, TaskState.Finished, "", ""), started));
+        assertThat(indexes.plan(newCriteria().withTaskStates(ImmutableSet.of(TaskStatus.TaskState.Started)).build()).getCandidateJobIds().get()).isEmpty();
+    }
+
+    @Test
+    public void testQueryForFinishedJobsIsFullScan() {
+        JobQueryPlan plan = indexes.plan(newCriteria().withAppName("appEven").withJobState(com.netflix.titus.grpc.protogen.JobStatus.JobState.Finished).build());
+        assertThat(plan.isFullScan()).isTrue();
+    }
+
+    @Test
+    public void testJobUpdatesAreIndexed() {
+        Job<BatchJobExt> job = jobs.get(1);
+        Job<BatchJobExt> updated = job.toBuilder()
+                .withJobDescriptor(job.getJobDescriptor().toBuilder().withApplicationName("appNew").build())
+                .build();
+        indexes.onJobManagerEvent(JobUpdateEvent.jobChange(updated, job));
+        assertThat(indexes.plan(newCriteria().withAppName("appNew").build()).getCandidateJobIds().get()).containsExactly(job.getId());
+        assertThat(indexes.plan(newCriteria().withAppName("appOdd").build()).getCandidateJobIds().get()).hasSize(19);
+
+        finish(updated);
+        assertThat(indexes.plan(newCriteria().withAppName("appNew").build()).getCandidateJobIds().get()).containsExactly(job.getId());
+        assertThat(indexes.plan(newCriteria().withAppName("appNew").withJobState(com.netflix.titus.grpc.protogen.JobStatus.JobState.Accepted).build())
+                .getCandidateJobIds().get()).isEmpty();
+    }
+
+    @Test
+    public void testFinishedJobsAreCandidatesOfQueriesWithoutStateCriteria() {
+        Job<BatchJobExt> finished = finish(jobs.get(0));
+
+        // The full scan returns finished jobs held by the job manager too, so the indexed plan must include them.
+        JobQueryPlan plan = indexes.plan(newCriteria().withJobIds(ImmutableSet.of(finished.getId(), jobs.get(2).getId())).withAppName("appEven").build());
+        assertThat(plan.isFullScan()).isFalse();
+        assertThat(plan.getCandidateJobIds().get()).contains(finished.getId(), jobs.get(2).getId());
+
+        JobQueryPlan taskStatePlan = indexes.plan(newCriteria().withJobIds(ImmutableSet.of(finished.getId())).withTaskStates(ImmutableSet.of(TaskStatus.TaskState.Started)).build());
+        assertThat(taskStatePlan.getCandidateJobIds().get()).doesNotContain(finished.getId());
+    }
+
+    @Test
+    public void testFinishedJobsRemovedFromJobManagerAreForgotten() {
+        Job<BatchJobExt> first = finish(jobs.get(0));
+        when(v3JobOperations.getJob(first.getId())).thenReturn(Optional.empty());
+        finish(jobs.get(2));
+
+        assertThat(indexes.plan(newCriteria().withAppName("appEven").build()).getCandidateJobIds().get())
+                .doesNotContain(first.getId())
+                .contains(jobs.get(2).getId());
+    }
+
+    private Job<BatchJobExt> finish(Job<BatchJobExt> job) {
+        Job<BatchJobExt> finished = job.toBuilder().withStatus(JobStatus.newBuilder().withState(JobState.Finished).build()).build();
+        when(v3JobOperations.getJob(job.getId())).thenReturn(Optional.<Job<?>>of(finished));
+        indexes.onJobManagerEvent(JobUpdateEvent.jobChange(finished, job));
+        return finished;
+    }
+
+    private JobQueryCriteria.Builder<TaskStatus.TaskState, com.netflix.titus.grpc.protogen.JobDescriptor.JobSpecCase> newCriteria() {
+        return JobQueryCriteria.newBuilder();
+    }
+}
@@ -29,8 +29,10 @@ import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
 import com.netflix.titus.api.jobmanager.service.V3JobOperations;
 import com.netflix.titus.api.model.Tier;
 import com.netflix.titus.common.data.generator.DataGenerator;
+import com.netflix.titus.common.runtime.TitusRuntimes;
 import com.netflix.titus.master.config.MasterConfiguration;
 import com.netflix.titus.master.jobmanager.service.common.V3QueueableTask;
+import com.netflix.titus.master.scheduler.SchedulerConfiguration;
 import com.netflix.titus.master.scheduler.constraint.SystemHardConstraint;
 import com.netflix.titus.master.scheduler.constraint.SystemSoftConstraint;
 import com.netflix.titus.master.scheduler.constraint.TaskCache;
@@ -93,7 +95,7 @@ public class DefaultV3TaskInfoFactoryTest {
         Job<BatchJobExt> job = jobs.getValue();
         DataGenerator<BatchJobTask> tasks = JobGenerator.batchTasks(job);
         BatchJobTask task = tasks.getValue();
-        V3ConstraintEvaluatorTransformer transformer = new V3ConstraintEvaluatorTransformer(masterConfiguration, new TaskCache(mock(V3JobOperations.class)));
+        V3ConstraintEvaluatorTransformer transformer = new V3ConstraintEvaluatorTransformer(masterConfiguration, new TaskCache(mock(V3JobOperations.class), mock(SchedulerConfiguration.class), TitusRuntimes.internal()));
 
         V3QueueableTask fenzoTask = new V3QueueableTask(Tier.Flex, null, job, task,
                 () -> Collections.singleton(task.getId()),
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.mesos;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.titus.common.runtime.TitusRuntime;
+import com.netflix.titus.common.runtime.TitusRuntimes;
+import com.netflix.titus.master.config.MasterConfiguration;
+import org.apache.mesos.Protos;
+import org.junit.Before;
+import org.junit.Test;
+import rx.schedulers.TestScheduler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MesosReconciliationSchedulerTest {
+
+    private static final int CHUNK_SIZE = 2;
+
+    private final TestScheduler testScheduler = new TestScheduler();
+    private final TitusRuntime titusRuntime = TitusRuntimes.test(testScheduler);
+
+    private final MesosConfiguration mesosConfiguration = mock(MesosConfiguration.class);
+    private final MasterConfiguration configuration = mock(MasterConfiguration.class);
+
+    private MesosReconciliationScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        when(mesosConfiguration.getReconcilerChunkSize()).thenReturn(CHUNK_SIZE);
+        when(configuration.getMesosTaskReconciliationIntervalSecs()).thenReturn(300L);
+        scheduler = new MesosReconciliationScheduler(mesosConfiguration, configuration, titusRuntime);
+    }
+
+    @Test
+    public void testTasksAreChunked() {
+        List<List<Protos.TaskStatus>> chunks = scheduler.nextCycle(tasks("t1", "t2", "t3", "t4", "t5"));
+
+        assertThat(chunks).hasSize(3);
+        assertThat(chunks.get(2)).hasSize(1);
+        assertThat(scheduler.getChunkIntervalMs(chunks.size())).isEqualTo(100_000);
+    }
+
+    @Test
+    public void testTasksWithOldestStatusUpdateAreFirst() {
+        testScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        scheduler.onStatusUpdate(status("t1", Protos.TaskStatus.Reason.REASON_COMMAND_EXECUTOR_FAILED));
+        testScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        scheduler.onStatusUpdate(status("t3", Protos.TaskStatus.Reason.REASON_COMMAND_EXECUTOR_FAILED));
+
+        List<List<Protos.TaskStatus>> chunks = scheduler.nextCycle(tasks("t1", "t2", "t3", "t4"));
+
+        assertThat(taskIds(chunks.get(0))).containsExactly("t2", "t4");
+        assertThat(taskIds(chunks.get(1))).containsExactly("t1", "t3");
+    }
+
+    @Test
+    public void testOutstandingRequestsTracking() {
+        List<List<Protos.TaskStatus>> chunks = scheduler.nextCycle(tasks("t1", "t2", "t3"));
+
+        scheduler.chunkSent(chunks.get(0));
+        assertThat(scheduler.getOutstandingRequests()).isEqualTo(2);
+
+        scheduler.onStatusUpdate(status("t1", Protos.TaskStatus.Reason.REASON_RECONCILIATION));
+        assertThat(scheduler.getOutstandingRequests()).isEqualTo(1);
+
+        // Sending the next chunk closes the previous one, so the missing reply for 't2' is not outstanding anymore.
+        scheduler.chunkSent(chunks.get(1));
+        assertThat(scheduler.getOutstandingRequests()).isEqualTo(1);
+
+        scheduler.close();
+        assertThat(scheduler.getOutstandingRequests()).isZero();
+    }
+
+    private static List<Protos.TaskStatus> tasks(String... taskIds) {
+        List<Protos.TaskStatus> result = new ArrayList<>();
+        Arrays.stream(taskIds).forEach(taskId -> result.add(status(taskId, Protos.TaskStatus.Reason.REASON_RECONCILIATION)));
+        return result;
+    }
+
+    private static Protos.TaskStatus status(String taskId, Protos.TaskStatus.Reason reason) {
+        return Protos.TaskStatus.newBuilder()
+                .setTaskId(Protos.TaskID.newBuilder().setValue(taskId).build())
+                .setState(Protos.TaskState.TASK_RUNNING)
+                .setReason(reason)
+                .build();
+    }
+
+    private static List<String> taskIds(List<Protos.TaskStatus> taskStatuses) {
+        List<String> result = new ArrayList<>();
+        taskStatuses.forEach(taskStatus -> result.add(taskStatus.getTaskId().getValue()));
+        return result;
+    }
+}
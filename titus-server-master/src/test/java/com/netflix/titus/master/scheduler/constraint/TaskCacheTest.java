@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.master.scheduler.constraint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.titus.api.jobmanager.TaskAttributes;
+import com.netflix.titus.api.jobmanager.model.job.BatchJobTask;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.JobFunctions;
+import com.netflix.titus.api.jobmanager.model.job.JobState;
+import com.netflix.titus.api.jobmanager.model.job.JobStatus;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
+import com.netflix.titus.api.jobmanager.model.job.event.JobUpdateEvent;
+import com.netflix.titus.api.jobmanager.model.job.event.TaskUpdateEvent;
+import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
+import com.netflix.titus.api.jobmanager.service.V3JobOperations;
+import com.netflix.titus.common.runtime.TitusRuntime;
+import com.netflix.titus.common.runtime.TitusRuntimes;
+import com.netflix.titus.common.util.time.TestClock;
+import com.netflix.titus.common.util.tuple.Pair;
+import com.netflix.titus.master.scheduler.SchedulerConfiguration;
+import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
+import com.netflix.titus.testkit.model.job.JobGenerator;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TaskCacheTest {
+
+    private static final long FULL_REBUILD_INTERVAL_MS = 60_000;
+
+    private final TitusRuntime titusRuntime = TitusRuntimes.test();
+    private final TestClock clock = (TestClock) titusRuntime.getClock();
+
+    private final V3JobOperations v3JobOperations = mock(V3JobOperations.class);
+    private final SchedulerConfiguration configuration = mock(SchedulerConfiguration.class);
+
+    private final TaskCache taskCache = new TaskCache(v3JobOperations, configuration, titusRuntime);
+
+    private final Job<BatchJobExt> job = JobGenerator.batchJobs(
+            JobFunctions.changeBatchJobSize(JobDescriptorGenerator.oneTaskBatchJobDescriptor(), 3)
+    ).getValue();
+
+    private final List<BatchJobTask> tasks = JobGenerator.batchTasks(job).toList();
+
+    @Before
+    public void setUp() {
+        when(configuration.getTaskCacheFullRebuildIntervalMs()).thenReturn(FULL_REBUILD_INTERVAL_MS);
+        when(v3JobOperations.getJobsAndTasks()).thenReturn(Collections.singletonList(Pair.<Job, List<Task>>of(job, new ArrayList<>(tasks))));
+        taskCache.prepare();
+    }
+
+    @Test
+    public void testCountersFollowTaskPlacementAndCompletion() {
+        Task taskA = placeInZone(tasks.get(0), "zoneA");
+        Task taskB = placeInZone(tasks.get(1), "zoneA");
+        Task taskC = placeInZone(tasks.get(2), "zoneB");
+        taskCache.onJobManagerEvent(TaskUpdateEvent.taskChange(job, taskA, tasks.get(0)));
+        taskCache.onJobManagerEvent(TaskUpdateEvent.taskChange(job, taskB, tasks.get(1)));
+        taskCache.onJobManagerEvent(TaskUpdateEvent.taskChange(job, taskC, tasks.get(2)));
+
+        // Counters are visible only after the next prepare call.
+        assertThat(taskCache.getTasksByZoneIdCounters(job.getId())).isEmpty();
+        taskCache.prepare();
+        assertThat(taskCache.getTasksByZoneIdCounters(job.getId())).containsEntry("zoneA", 2).containsEntry("zoneB", 1);
+
+        // Repeated events are idempotent.
+        Task startedA = JobFunctions.changeTaskStatus(taskA, TaskState.Started, "", "");
+        taskCache.onJobManagerEvent(TaskUpdateEvent.taskChange(job, startedA, taskA));
+        taskCache.prepare();
+        assertThat(taskCache.getTasksByZoneIdCounters(job.getId())).containsEntry("zoneA", 2);
+
+        // Finished tasks are counted, until they are replaced.
+        Task finishedA = JobFunctions.changeTaskStatus(startedA, TaskState.Finished, "", "");
+        taskCache.onJobManagerEvent(TaskUpdateEvent.taskChange(job, finishedA, startedA));
+        taskCache.prepare();
+        assertThat(taskCache.getTasksByZoneIdCounters(job.getId())).containsEntry("zoneA", 2).containsEntry("zoneB", 1);
+
+        Task replacementA = JobGenerator.batchTasks(job).getValue().toBuilder().withResubmitOf(finishedA.getId()).build();
+        taskCache.onJobManagerEvent(TaskUpdateEvent.newTask(job, replacementA));
+        taskCache.prepare();
+        assertThat(taskCache.getTasksByZoneIdCounters(job.getId())).containsEntry("zoneA", 1).containsEntry("zoneB", 1);
+
+        Job<BatchJobExt> finishedJob = job.toBuilder().withStatus(JobStatus.newBuilder().withState(JobState.Finished).build()).build();
+        taskCache.onJobManagerEvent(JobUpdateEvent.jobChange(finishedJob, job));
+        taskCache.prepare();
+        assertThat(taskCache.getTasksByZoneIdCounters(job.getId())).isEmpty();
+    }
+
+    @Test
+    public void testPeriodicFullRebuildRepairsCounters() {
+        Task taskA = placeInZone(tasks.get(0), "zoneA");
+        when(v3JobOperations.getJobsAndTasks()).thenReturn(Collections.singletonList(Pair.<Job, List<Task>>of(job, Collections.singletonList(taskA))));
+
+        // The event for taskA was never delivered.
+        taskCache.prepare();
+        assertThat(taskCache.getTasksByZoneIdCounters(job.getId())).isEmpty();
+
+        clock.advanceTime(FULL_REBUILD_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        taskCache.prepare();
+        assertThat(taskCache.getTasksByZoneIdCounters(job.getId())).containsEntry("zoneA", 1);
+        assertThat(titusRuntime.getRegistry().counter("titusMaster.scheduler.taskCache.inconsistencies").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFinishedTasksRemovedWithoutEventAreNotReportedAsInconsistency() {
+        Task finishedA = JobFunctions.changeTaskStatus(placeInZone(tasks.get(0), "zoneA"), TaskState.Finished, "", "");
+        taskCache.onJobManagerEvent(TaskUpdateEvent.taskChange(job, finishedA, tasks.get(0)));
+        taskCache.prepare();
+        assertThat(taskCache.getTasksByZoneIdCounters(job.getId())).containsEntry("zoneA", 1);
+
+        // The finished task was removed from the job, for which there is no event.
+        clock.advanceTime(FULL_REBUILD_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        taskCache.prepare();
+        assertThat(taskCache.getTasksByZoneIdCounters(job.getId())).isEmpty();
+        assertThat(titusRuntime.getRegistry().counter("titusMaster.scheduler.taskCache.inconsistencies").count()).isZero();
+    }
+
+    private Task placeInZone(BatchJobTask task, String zoneId) {
+        return task.toBuilder()
+                .addToTaskContext(TaskAttributes.TASK_ATTRIBUTES_AGENT_ZONE, zoneId)
+                .withStatus(JobFunctions.changeTaskStatus(task, TaskState.Launched, "", "").getStatus())
+                .build();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.runtime.connector.jobmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.JobFunctions;
+import com.netflix.titus.api.jobmanager.model.job.JobState;
+import com.netflix.titus.api.jobmanager.model.job.JobStatus;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
+import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
+import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
+import com.netflix.titus.testkit.model.job.JobGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Replays a job/task event stream, as seen by the job data replicator, against {@link JobSnapshot}. The stream
+ * creates all jobs, moves each task through its lifecycle (Accepted, Launched, StartInitiated, Started), finishes
+ * half of the tasks, and finally finishes every fourth job. Run with <tt>./gradlew :titus-server-runtime:jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JobSnapshotBenchmark {
+
+    private static final TaskState[] LIFECYCLE = {TaskState.Accepted, TaskState.Launched, TaskState.StartInitiated, TaskState.Started};
+
+    @Param({"10", "100", "1000"})
+    public int jobCount;
+
+    @Param({"10"})
+    public int tasksPerJob;
+
+    private List<Object> events;
+    private JobSnapshot loadedSnapshot;
+    private List<Task> loadedTasks;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<Job<BatchJobExt>> jobs = JobGenerator.batchJobs(
+                JobFunctions.changeBatchJobSize(JobDescriptorGenerator.oneTaskBatchJobDescriptor(), tasksPerJob)
+        ).toList(jobCount);
+
+        List<Object> events = new ArrayList<>();
+        List<List<Task>> tasksByJob = new ArrayList<>();
+        for (Job<BatchJobExt> job : jobs) {
+            events.add(job);
+            tasksByJob.add(new ArrayList<>(JobGenerator.batchTasks(job).toList()));
+        }
+        for (TaskState state : LIFECYCLE) {
+            tasksByJob.forEach(tasks -> tasks.forEach(task -> events.add(JobFunctions.changeTaskStatus(task, state, "", ""))));
+        }
+        tasksByJob.forEach(tasks -> {
+            for (int i = 0; i < tasks.size(); i += 2) {
+                events.add(JobFunctions.changeTaskStatus(tasks.get(i), TaskState.Finished, "", ""));
+            }
+        });
+        for (int i = 0; i < jobs.size(); i += 4) {
+            Job<BatchJobExt> job = jobs.get(i);
+            events.add(job.toBuilder().withStatus(JobStatus.newBuilder().withState(JobState.Finished).build()).build());
+        }
+        this.events = events;
+
+        JobSnapshot snapshot = JobSnapshot.empty();
+        List<Task> loadedTasks = new ArrayList<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            snapshot = snapshot.updateJob(jobs.get(i)).get();
+            for (Task task : tasksByJob.get(i)) {
+                Task started = JobFunctions.changeTaskStatus(task, TaskState.Started, "", "");
+                snapshot = snapshot.updateTask(started).get();
+                loadedTasks.add(started);
+            }
+        }
+        this.loadedSnapshot = snapshot;
+        this.loadedTasks = loadedTasks;
+    }
+
+    @Benchmark
+    public JobSnapshot replayEventStream() {
+        JobSnapshot snapshot = JobSnapshot.empty();
+        for (Object event : events) {
+            if (event instanceof Job) {
+                snapshot = snapshot.updateJob((Job) event).orElse(snapshot);
+            } else {
+                snapshot = snapshot.updateTask((Task) event).orElse(snapshot);
+            }
+        }
+        return snapshot;
+    }
+
+    @Benchmark
+    public JobSnapshot singleTaskUpdate() {
+        next = (next + 1) % loadedTasks.size();
+        return loadedSnapshot.updateTask(loadedTasks.get(next)).get();
+    }
+
+    @Benchmark
+    public int singleTaskUpdateAndReadAll() {
+        next = (next + 1) % loadedTasks.size();
+        return loadedSnapshot.updateTask(loadedTasks.get(next)).get().getTasks().size();
+    }
+}
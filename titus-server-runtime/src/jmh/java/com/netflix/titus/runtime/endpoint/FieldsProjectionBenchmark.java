@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.runtime.endpoint;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.io.ByteStreams;
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.JobFunctions;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
+import com.netflix.titus.api.json.ObjectMappers;
+import com.netflix.titus.common.util.CollectionsExt;
+import com.netflix.titus.common.util.ProtobufCopy;
+import com.netflix.titus.runtime.endpoint.common.EmptyLogStorageInfo;
+import com.netflix.titus.runtime.endpoint.v3.grpc.V3GrpcModelConverters;
+import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
+import com.netflix.titus.testkit.model.job.JobGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Projects 10k tasks to a small field set, as done for queries with the 'fields' parameter. The protobuf benchmarks
+ * cover the GRPC query path (and federation), the JSON benchmarks compare a cached fields filtering writer with
+ * a mapper created per request. Run with <tt>./gradlew :titus-server-runtime:jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FieldsProjectionBenchmark {
+
+    private static final int TASK_COUNT = 10_000;
+
+    private static final Set<String> FIELDS = CollectionsExt.asSet("id", "jobId", "status.state", "taskContext.stack");
+
+    private final OutputStream output = ByteStreams.nullOutputStream();
+
+    private List<Task> tasks;
+    private List<com.netflix.titus.grpc.protogen.Task> grpcTasks;
+
+    private ObjectMapper mapper;
+    private ObjectWriter cachedWriter;
+
+    @Setup
+    public void setUp() {
+        List<Job<BatchJobExt>> jobs = JobGenerator.batchJobs(
+                JobFunctions.changeBatchJobSize(JobDescriptorGenerator.oneTaskBatchJobDescriptor(), 10)
+        ).toList(TASK_COUNT / 10);
+
+        this.tasks = new ArrayList<>();
+        this.grpcTasks = new ArrayList<>();
+        for (Job<BatchJobExt> job : jobs) {
+            for (Task task : JobGenerator.batchTasks(job).toList()) {
+                tasks.add(task);
+                grpcTasks.add(V3GrpcModelConverters.toGrpcTask(task, EmptyLogStorageInfo.empty()));
+            }
+        }
+
+        this.mapper = ObjectMappers.storeMapper();
+        this.cachedWriter = ObjectMappers.fieldsFilteringWriter(ObjectMappers.withFieldsFilterSupport(mapper), FIELDS);
+    }
+
+    @Benchmark
+    public int protobufCopyPerItem() {
+        int size = 0;
+        for (com.netflix.titus.grpc.protogen.Task task : grpcTasks) {
+            size += ProtobufCopy.copy(task, FIELDS).getSerializedSize();
+        }
+        return size;
+    }
+
+    @Benchmark
+    public int protobufCompiledProjection() {
+        Function<com.netflix.titus.grpc.protogen.Task, com.netflix.titus.grpc.protogen.Task> projection = ProtobufCopy.projectionOf(FIELDS);
+        int size = 0;
+        for (com.netflix.titus.grpc.protogen.Task task : grpcTasks) {
+            size += projection.apply(task).getSerializedSize();
+        }
+        return size;
+    }
+
+    @Benchmark
+    public void jsonMapperPerRequest() throws Exception {
+        ObjectMappers.applyFieldsFilter(mapper, FIELDS).writeValue(output, tasks);
+    }
+
+    @Benchmark
+    public void jsonCachedWriter() throws Exception {
+        cachedWriter.writeValue(output, tasks);
+    }
+}
@@ -4,4 +4,11 @@ import com.netflix.titus.runtime.connector.common.replicator.DataReplicator;
 
 
 public interface JobDataReplicator extends DataReplicator<JobSnapshot> {
+
+    /**
+     * Returns the number of milliseconds since the replica applied the last notification received from the master
+     * event stream, either a change event, or a keep-alive. Unlike {@link #getStalenessMs()}, it is not refreshed
+     * locally while the connection is idle, so it grows if the master stops sending events.
+     */
+    long getCheckpointStalenessMs();
 }
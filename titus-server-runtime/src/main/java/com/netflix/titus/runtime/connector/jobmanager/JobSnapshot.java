@@ -2,7 +2,6 @@ package com.netflix.titus.runtime.connector.jobmanager;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -12,172 +11,90 @@ import com.netflix.titus.api.jobmanager.model.job.Job;
 import com.netflix.titus.api.jobmanager.model.job.JobState;
 import com.netflix.titus.api.jobmanager.model.job.Task;
 import com.netflix.titus.api.jobmanager.model.job.TaskState;
-import com.netflix.titus.common.util.CollectionsExt;
+import com.netflix.titus.common.util.collections.PersistentHashMap;
 import com.netflix.titus.common.util.tuple.Pair;
 
 import static java.util.Collections.unmodifiableList;
-import static java.util.Collections.unmodifiableMap;
 
+/**
+ * Immutable snapshot of jobs and tasks. Consecutive versions share their structure, so a single job or task update
+ * costs O(log n), irrespective of the snapshot size. The list views are materialized lazily, on first access. The
+ * task list of a job is kept with its task map, so it is shared by all snapshot versions in which the job tasks
+ * did not change.
+ */
 public class JobSnapshot {
 
-    private static final JobSnapshot EMPTY = new JobSnapshot(Collections.emptyMap(), Collections.emptyMap());
+    private static final JobSnapshot EMPTY = new JobSnapshot(PersistentHashMap.empty(), PersistentHashMap.empty(), PersistentHashMap.empty());
 
-    private final Map<String, Job<?>> jobsById;
-    private final Map<String, List<Task>> tasksByJobId;
-    private final List<Job<?>> allJobs;
-    private final List<Task> allTasks;
-    private final List<Pair<Job<?>, List<Task>>> allJobsAndTasks;
-    private final Map<String, Task> taskById;
+    private final PersistentHashMap<String, Job<?>> jobsById;
+    private final PersistentHashMap<String, JobTasks> tasksByJobId;
+    private final PersistentHashMap<String, Task> taskById;
 
-    public JobSnapshot(Map<String, Job<?>> jobsById, Map<String, List<Task>> tasksByJobId) {
-        this.jobsById = jobsById;
-
-        Map<String, List<Task>> immutableTasksByJobId = new HashMap<>();
-        tasksByJobId.forEach((jobId, tasks) -> immutableTasksByJobId.put(jobId, unmodifiableList(tasks)));
-        this.tasksByJobId = unmodifiableMap(immutableTasksByJobId);
-
-        this.allJobs = Collections.unmodifiableList(new ArrayList<>(jobsById.values()));
-
-        this.allJobsAndTasks = buildAllJobsAndTasksList(jobsById, tasksByJobId);
+    private volatile List<Job<?>> allJobs;
+    private volatile List<Task> allTasks;
+    private volatile List<Pair<Job<?>, List<Task>>> allJobsAndTasks;
 
-        List<Task> allTasks = new ArrayList<>();
-        tasksByJobId.values().forEach(allTasks::addAll);
-        this.allTasks = Collections.unmodifiableList(allTasks);
-
-        Map<String, Task> taskById = new HashMap<>();
-        tasksByJobId.values().forEach(tasks -> tasks.forEach(task -> taskById.put(task.getId(), task)));
-        this.taskById = taskById;
-    }
-
-    private JobSnapshot(JobSnapshot previousCache, Job<?> updatedJob) {
-        Job<?> previousJob = previousCache.jobsById.get(updatedJob.getId());
-
-        // We check this condition in the updateJob below.
-        Preconditions.checkArgument(previousJob != null || updatedJob.getStatus().getState() != JobState.Finished);
-
-        if (updatedJob.getStatus().getState() == JobState.Finished) {
-            // Remove the job and all its tasks.
-            this.jobsById = CollectionsExt.copyAndRemove(previousCache.jobsById, updatedJob.getId());
-            this.tasksByJobId = CollectionsExt.copyAndRemove(previousCache.tasksByJobId, updatedJob.getId());
-
-            List<Job<?>> allJobs = new ArrayList<>();
-            previousCache.allJobs.forEach(job -> {
-                if (!job.getId().equals(updatedJob.getId())) {
-                    allJobs.add(job);
-                }
-            });
-            this.allJobs = unmodifiableList(allJobs);
-
-            List<Task> allTasks = new ArrayList<>();
-            previousCache.allTasks.forEach(task -> {
-                if (!task.getJobId().equals(updatedJob.getId())) {
-                    allTasks.add(task);
-                }
-            });
-            this.allTasks = unmodifiableList(allTasks);
-
-            List<Pair<Job<?>, List<Task>>> allJobsAndTasks = new ArrayList<>();
-            previousCache.allJobsAndTasks.forEach(pair -> {
-                if (!pair.getLeft().getId().equals(updatedJob.getId())) {
-                    allJobsAndTasks.add(pair);
-                }
-            });
-            this.allJobsAndTasks = unmodifiableList(allJobsAndTasks);
-
-            Map<String, Task> taskById = new HashMap<>();
-            previousCache.taskById.values().forEach(task -> {
-                if (!task.getJobId().equals(updatedJob.getId())) {
-                    taskById.put(task.getId(), task);
-                }
-            });
-            this.taskById = unmodifiableMap(taskById);
-        } else {
-            this.jobsById = unmodifiableMap(CollectionsExt.copyAndAdd(previousCache.jobsById, updatedJob.getId(), updatedJob));
-            this.tasksByJobId = previousCache.tasksByJobId;
-            this.allTasks = previousCache.allTasks;
-            this.taskById = previousCache.taskById;
-
-            if (previousJob == null) {
-                this.allJobs = CollectionsExt.copyAndAdd(previousCache.allJobs, updatedJob);
-                this.allJobsAndTasks = CollectionsExt.copyAndAdd(previousCache.allJobsAndTasks, Pair.of(updatedJob, Collections.emptyList()));
-            } else {
-                List<Job<?>> allJobs = new ArrayList<>();
-                previousCache.allJobs.forEach(job -> allJobs.add(job.getId().equals(updatedJob.getId()) ? updatedJob : job));
-                this.allJobs = allJobs;
-
-                List<Pair<Job<?>, List<Task>>> allJobsAndTasks = new ArrayList<>();
-                previousCache.allJobsAndTasks.forEach(pair -> allJobsAndTasks.add(
-                        pair.getLeft().getId().equals(updatedJob.getId()) ? Pair.of(updatedJob, pair.getRight()) : pair
-                ));
-                this.allJobsAndTasks = allJobsAndTasks;
+    public JobSnapshot(Map<String, Job<?>> jobsById, Map<String, List<Task>> tasksByJobId) {
+        PersistentHashMap<String, JobTasks> persistentTasksByJobId = PersistentHashMap.empty();
+        PersistentHashMap<String, Task> persistentTaskById = PersistentHashMap.empty();
+        for (Map.Entry<String, List<Task>> entry : tasksByJobId.entrySet()) {
+            PersistentHashMap<String, Task> jobTasks = PersistentHashMap.empty();
+            for (Task task : entry.getValue()) {
+                jobTasks = jobTasks.put(task.getId(), task);
+                persistentTaskById = persistentTaskById.put(task.getId(), task);
             }
+            persistentTasksByJobId = persistentTasksByJobId.put(entry.getKey(), new JobTasks(jobTasks));
         }
-    }
-
-    private JobSnapshot(JobSnapshot previousCache, Task updatedTask) {
-        Task previousTask = previousCache.taskById.get(updatedTask.getId());
-
-        // We check these conditions in the updateTask below.
-        Preconditions.checkArgument(previousCache.jobsById.containsKey(updatedTask.getJobId()));
-        Preconditions.checkArgument(previousTask != null || updatedTask.getStatus().getState() != TaskState.Finished);
 
-        this.jobsById = previousCache.jobsById;
-        this.allJobs = previousCache.allJobs;
+        this.jobsById = PersistentHashMap.of(jobsById);
+        this.tasksByJobId = persistentTasksByJobId;
+        this.taskById = persistentTaskById;
+    }
 
-        if (updatedTask.getStatus().getState() == TaskState.Finished) {
-            List<Task> tasks = removeTask(previousCache.tasksByJobId.get(updatedTask.getJobId()), updatedTask);
-            this.tasksByJobId = CollectionsExt.copyAndAdd(previousCache.tasksByJobId, updatedTask.getJobId(), tasks);
-
-            this.allTasks = removeTask(previousCache.allTasks, updatedTask);
-
-            List<Pair<Job<?>, List<Task>>> allJobsAndTasks = new ArrayList<>();
-            previousCache.allJobsAndTasks.forEach(pair -> {
-                if (pair.getLeft().getId().equals(updatedTask.getJobId())) {
-                    allJobsAndTasks.add(Pair.of(pair.getLeft(), removeTask(pair.getRight(), updatedTask)));
-                } else {
-                    allJobsAndTasks.add(pair);
-                }
-            });
-            this.allJobsAndTasks = unmodifiableList(allJobsAndTasks);
-            this.taskById = unmodifiableMap(CollectionsExt.copyAndRemove(previousCache.taskById, updatedTask.getId()));
-        } else {
-            List<Task> tasks = updateTask(previousCache.tasksByJobId.get(updatedTask.getJobId()), updatedTask);
-            this.tasksByJobId = CollectionsExt.copyAndAdd(previousCache.tasksByJobId, updatedTask.getJobId(), tasks);
-
-            this.allTasks = updateTask(previousCache.allTasks, updatedTask);
-
-            List<Pair<Job<?>, List<Task>>> allJobsAndTasks = new ArrayList<>();
-            previousCache.allJobsAndTasks.forEach(pair -> {
-                if (pair.getLeft().getId().equals(updatedTask.getJobId())) {
-                    allJobsAndTasks.add(Pair.of(pair.getLeft(), updateTask(pair.getRight(), updatedTask)));
-                } else {
-                    allJobsAndTasks.add(pair);
-                }
-            });
-            this.allJobsAndTasks = unmodifiableList(allJobsAndTasks);
-            this.taskById = unmodifiableMap(CollectionsExt.copyAndAdd(previousCache.taskById, updatedTask.getId(), updatedTask));
-        }
+    private JobSnapshot(PersistentHashMap<String, Job<?>> jobsById,
+                        PersistentHashMap<String, JobTasks> tasksByJobId,
+                        PersistentHashMap<String, Task> taskById) {
+        this.jobsById = jobsById;
+        this.tasksByJobId = tasksByJobId;
+        this.taskById = taskById;
     }
 
     public List<Job<?>> getJobs() {
-        return allJobs;
+        List<Job<?>> result = allJobs;
+        if (result == null) {
+            result = unmodifiableList(jobsById.values());
+            this.allJobs = result;
+        }
+        return result;
     }
 
     public Optional<Job<?>> findJob(String jobId) {
-        Job<?> job = jobsById.get(jobId);
-        return job == null ? Optional.empty() : Optional.of(job);
+        return jobsById.find(jobId);
     }
 
     public List<Task> getTasks() {
-        return allTasks;
+        List<Task> result = allTasks;
+        if (result == null) {
+            result = unmodifiableList(taskById.values());
+            this.allTasks = result;
+        }
+        return result;
     }
 
     public List<Task> getTasks(String jobId) {
-        return tasksByJobId.getOrDefault(jobId, Collections.emptyList());
+        JobTasks jobTasks = tasksByJobId.get(jobId);
+        return jobTasks == null ? Collections.emptyList() : jobTasks.getTaskList();
     }
 
     public List<Pair<Job<?>, List<Task>>> getJobsAndTasks() {
-        return allJobsAndTasks;
+        List<Pair<Job<?>, List<Task>>> result = allJobsAndTasks;
+        if (result == null) {
+            List<Pair<Job<?>, List<Task>>> jobsAndTasks = new ArrayList<>(jobsById.size());
+            jobsById.forEach((jobId, job) -> jobsAndTasks.add(Pair.of(job, getTasks(jobId))));
+            result = unmodifiableList(jobsAndTasks);
+            this.allJobsAndTasks = result;
+        }
+        return result;
     }
 
     public Optional<Pair<Job<?>, Task>> findTaskById(String taskId) {
@@ -185,7 +102,7 @@ public class JobSnapshot {
         if (task == null) {
             return Optional.empty();
         }
-        Job<?> job = jobsById.get(task.getId());
+        Job<?> job = jobsById.get(task.getJobId());
         // If this happens, we have a bug in the code.
         if (job == null) {
             return Optional.empty();
@@ -198,7 +115,7 @@ public class JobSnapshot {
         if (previous == null && job.getStatus().getState() == JobState.Finished) {
             return Optional.empty();
         }
-        return Optional.of(new JobSnapshot(this, job));
+        return Optional.of(newJobSnapshot(job));
     }
 
     public Optional<JobSnapshot> updateTask(Task task) {
@@ -211,51 +128,71 @@ public class JobSnapshot {
             return Optional.empty();
         }
 
-        return Optional.of(new JobSnapshot(this, task));
+        return Optional.of(newTaskSnapshot(task));
     }
 
     public static JobSnapshot empty() {
         return EMPTY;
     }
 
-    private List<Pair<Job<?>, List<Task>>> buildAllJobsAndTasksList(Map<String, Job<?>> jobsById, Map<String, List<Task>> tasksByJobId) {
-        List<Pair<Job<?>, List<Task>>> result = new ArrayList<>();
+    private JobSnapshot newJobSnapshot(Job<?> updatedJob) {
+        String jobId = updatedJob.getId();
 
-        jobsById.values().forEach(job -> {
-            List<Task> tasks = tasksByJobId.get(job.getId());
-            if (CollectionsExt.isNullOrEmpty(tasks)) {
-                result.add(Pair.of(job, Collections.emptyList()));
-            } else {
-                result.add(Pair.of(job, Collections.unmodifiableList(tasks)));
-            }
-        });
-
-        return Collections.unmodifiableList(result);
-    }
+        // We check this condition in the updateJob above.
+        Preconditions.checkArgument(jobsById.containsKey(jobId) || updatedJob.getStatus().getState() != JobState.Finished);
 
-    private List<Task> updateTask(List<Task> tasks, Task taskToUpdate) {
-        if (CollectionsExt.isNullOrEmpty(tasks)) {
-            return Collections.singletonList(taskToUpdate);
+        if (updatedJob.getStatus().getState() != JobState.Finished) {
+            return new JobSnapshot(jobsById.put(jobId, updatedJob), tasksByJobId, taskById);
         }
 
-        List<Task> result = new ArrayList<>();
-        tasks.forEach(task -> {
-            if (!task.getId().equals(taskToUpdate.getId())) {
-                result.add(task);
+        // Remove the job and all its tasks.
+        PersistentHashMap<String, Task> newTaskById = taskById;
+        JobTasks jobTasks = tasksByJobId.get(jobId);
+        if (jobTasks != null) {
+            for (String taskId : jobTasks.getTasks().keys()) {
+                newTaskById = newTaskById.remove(taskId);
             }
-        });
-        result.add(taskToUpdate);
+        }
+        return new JobSnapshot(jobsById.remove(jobId), tasksByJobId.remove(jobId), newTaskById);
+    }
+
+    private JobSnapshot newTaskSnapshot(Task updatedTask) {
+        String jobId = updatedTask.getJobId();
+        String taskId = updatedTask.getId();
+
+        // We check these conditions in the updateTask above.
+        Preconditions.checkArgument(jobsById.containsKey(jobId));
+        Preconditions.checkArgument(taskById.containsKey(taskId) || updatedTask.getStatus().getState() != TaskState.Finished);
+
+        JobTasks jobTasks = tasksByJobId.get(jobId);
+        PersistentHashMap<String, Task> tasks = jobTasks == null ? PersistentHashMap.empty() : jobTasks.getTasks();
 
-        return unmodifiableList(result);
+        if (updatedTask.getStatus().getState() == TaskState.Finished) {
+            return new JobSnapshot(jobsById, tasksByJobId.put(jobId, new JobTasks(tasks.remove(taskId))), taskById.remove(taskId));
+        }
+        return new JobSnapshot(jobsById, tasksByJobId.put(jobId, new JobTasks(tasks.put(taskId, updatedTask))), taskById.put(taskId, updatedTask));
     }
 
-    private List<Task> removeTask(List<Task> tasks, Task taskToRemove) {
-        List<Task> result = new ArrayList<>();
-        tasks.forEach(task -> {
-            if (!task.getId().equals(taskToRemove.getId())) {
-                result.add(task);
+    private static class JobTasks {
+
+        private final PersistentHashMap<String, Task> tasks;
+        private volatile List<Task> taskList;
+
+        private JobTasks(PersistentHashMap<String, Task> tasks) {
+            this.tasks = tasks;
+        }
+
+        private PersistentHashMap<String, Task> getTasks() {
+            return tasks;
+        }
+
+        private List<Task> getTaskList() {
+            List<Task> result = taskList;
+            if (result == null) {
+                result = tasks.isEmpty() ? Collections.emptyList() : unmodifiableList(tasks.values());
+                this.taskList = result;
             }
-        });
-        return unmodifiableList(result);
+            return result;
+        }
     }
 }
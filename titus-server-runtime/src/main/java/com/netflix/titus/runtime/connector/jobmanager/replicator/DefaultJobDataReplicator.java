@@ -19,22 +19,39 @@ public class DefaultJobDataReplicator extends StreamDataReplicator<JobSnapshot>
     private static final String JOB_REPLICATOR_RETRYABLE_STREAM = "jobReplicatorRetryableStream";
     private static final String JOB_REPLICATOR_GRPC_STREAM = "jobReplicatorGrpcStream";
 
+    private final GrpcJobReplicatorEventStream grpcEventStream;
+    private final TitusRuntime titusRuntime;
+
     @Inject
     public DefaultJobDataReplicator(JobManagementClient client, TitusRuntime titusRuntime) {
+        this(newGrpcEventStream(client, titusRuntime), titusRuntime);
+    }
+
+    private DefaultJobDataReplicator(GrpcJobReplicatorEventStream grpcEventStream, TitusRuntime titusRuntime) {
         super(
-                newReplicatorEventStream(client, titusRuntime),
+                newReplicatorEventStream(grpcEventStream, titusRuntime),
                 new DataReplicatorMetrics(JOB_REPLICATOR, titusRuntime),
                 titusRuntime
         );
+        this.grpcEventStream = grpcEventStream;
+        this.titusRuntime = titusRuntime;
     }
 
-    private static RetryableReplicatorEventStream<JobSnapshot> newReplicatorEventStream(JobManagementClient client, TitusRuntime titusRuntime) {
-        GrpcJobReplicatorEventStream grpcEventStream = new GrpcJobReplicatorEventStream(
+    @Override
+    public long getCheckpointStalenessMs() {
+        return titusRuntime.getClock().wallTime() - grpcEventStream.getLastCheckpointTimestamp();
+    }
+
+    private static GrpcJobReplicatorEventStream newGrpcEventStream(JobManagementClient client, TitusRuntime titusRuntime) {
+        return new GrpcJobReplicatorEventStream(
                 client,
                 new DataReplicatorMetrics(JOB_REPLICATOR_GRPC_STREAM, titusRuntime),
                 titusRuntime,
                 Schedulers.computation()
         );
+    }
+
+    private static RetryableReplicatorEventStream<JobSnapshot> newReplicatorEventStream(GrpcJobReplicatorEventStream grpcEventStream, TitusRuntime titusRuntime) {
         return new RetryableReplicatorEventStream<>(
                 grpcEventStream,
                 new DataReplicatorMetrics(JOB_REPLICATOR_RETRYABLE_STREAM, titusRuntime),
@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.netflix.titus.api.jobmanager.model.job.Job;
@@ -29,6 +30,8 @@ public class GrpcJobReplicatorEventStream extends AbstractReplicatorEventStream<
 
     private final JobManagementClient client;
 
+    private final AtomicLong lastCheckpointTimestamp = new AtomicLong();
+
     public GrpcJobReplicatorEventStream(JobManagementClient client,
                                         DataReplicatorMetrics metrics,
                                         TitusRuntime titusRuntime,
@@ -37,6 +40,15 @@ public class GrpcJobReplicatorEventStream extends AbstractReplicatorEventStream<
         this.client = client;
     }
 
+    /**
+     * Returns the wall time at which the last notification received from the server, after the initial snapshot,
+     * was applied. The server may repeat the snapshot end marker as a keep-alive, so the checkpoint advances even
+     * if there are no changes. Returns 0 if no snapshot was loaded yet.
+     */
+    public long getLastCheckpointTimestamp() {
+        return lastCheckpointTimestamp.get();
+    }
+
     @Override
     protected Observable<ReplicatorEvent<JobSnapshot>> newConnection() {
         return Observable.fromCallable(CacheUpdater::new)
@@ -106,6 +118,7 @@ public class GrpcJobReplicatorEventStream extends AbstractReplicatorEventStream<
 
             JobSnapshot initialSnapshot = new JobSnapshot(jobsById, tasksByJobId);
             lastJobSnapshotRef.set(initialSnapshot);
+            lastCheckpointTimestamp.set(titusRuntime.getClock().wallTime());
 
             logger.info("Job snapshot loaded: jobs={}, tasks={}", initialSnapshot.getJobs().size(), initialSnapshot.getTasks().size());
 
@@ -122,7 +135,7 @@ public class GrpcJobReplicatorEventStream extends AbstractReplicatorEventStream<
                     break;
                 case TASKUPDATE:
                     com.netflix.titus.grpc.protogen.Task task = event.getTaskUpdate().getTask();
-                    Job<?> taskJob = lastSnapshot.getJobs().stream().filter(j -> j.getId().equals(task.getJobId())).findFirst().orElse(null);
+                    Job<?> taskJob = lastSnapshot.findJob(task.getJobId()).orElse(null);
                     if (taskJob != null) {
                         newSnapshot = lastSnapshot.updateTask(V3GrpcModelConverters.toCoreTask(taskJob, task));
                     } else {
@@ -131,8 +144,10 @@ public class GrpcJobReplicatorEventStream extends AbstractReplicatorEventStream<
                     }
                     break;
                 default:
+                    // Snapshot end marker repeated by the server as a keep-alive.
                     newSnapshot = Optional.empty();
             }
+            lastCheckpointTimestamp.set(titusRuntime.getClock().wallTime());
             if (newSnapshot.isPresent()) {
                 lastJobSnapshotRef.set(newSnapshot.get());
                 return Observable.just(new ReplicatorEvent<>(newSnapshot.get(), titusRuntime.getClock().wallTime()));
@@ -47,6 +47,7 @@ import com.fasterxml.jackson.databind.module.SimpleDeserializers;
 import com.google.protobuf.Message;
 import com.netflix.titus.api.json.ObjectMappers;
 import com.netflix.titus.common.util.StringExt;
+import com.netflix.titus.common.util.cache.FieldSetCache;
 import com.netflix.titus.runtime.common.json.AssignableFromDeserializers;
 import com.netflix.titus.runtime.common.json.CompositeDeserializers;
 import com.netflix.titus.runtime.common.json.CustomDeserializerSimpleModule;
@@ -72,6 +73,18 @@ public class JsonMessageReaderWriter implements MessageBodyReader<Object>, Messa
 
     private static final ObjectWriter COMPACT_ERROR_WRITER = MAPPER.writer().withView(ObjectMappers.PublicView.class);
 
+    private static final ObjectMapper FIELDS_FILTERING_MAPPER = ObjectMappers.withFieldsFilterSupport(MAPPER);
+
+    /**
+     * The 'fields' value comes straight from the request URL, so the number of writers built for it is limited.
+     */
+    private static final int MAX_CACHED_FIELDS_WRITERS = 1024;
+
+    private static final FieldSetCache<ObjectWriter> FIELDS_FILTERING_WRITERS = new FieldSetCache<>(
+            MAX_CACHED_FIELDS_WRITERS,
+            names -> ObjectMappers.fieldsFilteringWriter(FIELDS_FILTERING_MAPPER, names)
+    );
+
     private static final Validator VALIDATION = Validation.buildDefaultValidatorFactory().getValidator();
 
     @Context
@@ -160,7 +173,7 @@ public class JsonMessageReaderWriter implements MessageBodyReader<Object>, Messa
         if (fields.isEmpty()) {
             MAPPER.writeValue(entityStream, entity);
         } else {
-            ObjectMappers.applyFieldsFilter(MAPPER, fields).writeValue(entityStream, entity);
+            FIELDS_FILTERING_WRITERS.get(fields).writeValue(entityStream, entity);
         }
     }
 }
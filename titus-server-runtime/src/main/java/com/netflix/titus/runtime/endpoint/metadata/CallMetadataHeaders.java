@@ -17,6 +17,12 @@ public final class CallMetadataHeaders {
      */
     public static String CALL_METADATA_HEADER = "X-Titus-CallMetadata-bin";
 
+    /**
+     * For internal usage only (TitusGateway -> TitusMaster). Interval in milliseconds, at which the job event stream
+     * repeats the snapshot end marker as a keep-alive.
+     */
+    public final static String KEEP_ALIVE_INTERVAL_HEADER = "X-Titus-KeepAliveInterval";
+
     private CallMetadataHeaders() {
     }
 }
@@ -46,6 +46,7 @@ public class V3HeaderInterceptor implements ServerInterceptor {
     public static Metadata.Key<String> DIRECT_CALLER_ID_KEY = Metadata.Key.of(CallMetadataHeaders.DIRECT_CALLER_ID_HEADER, Metadata.ASCII_STRING_MARSHALLER);
     public static Metadata.Key<String> CALL_REASON_KEY = Metadata.Key.of(CallMetadataHeaders.CALL_REASON_HEADER, Metadata.ASCII_STRING_MARSHALLER);
     public static Metadata.Key<byte[]> CALL_METADATA_KEY = Metadata.Key.of(CallMetadataHeaders.CALL_METADATA_HEADER, Metadata.BINARY_BYTE_MARSHALLER);
+    public static Metadata.Key<String> KEEP_ALIVE_INTERVAL_KEY = Metadata.Key.of(CallMetadataHeaders.KEEP_ALIVE_INTERVAL_HEADER, Metadata.ASCII_STRING_MARSHALLER);
 
     public static Context.Key<String> DEBUG_CONTEXT_KEY = Context.key(CallMetadataHeaders.DEBUG_HEADER);
     public static Context.Key<String> COMPRESSION_CONTEXT_KEY = Context.key(CallMetadataHeaders.COMPRESSION_HEADER);
@@ -53,6 +54,7 @@ public class V3HeaderInterceptor implements ServerInterceptor {
     public static Context.Key<String> DIRECT_CALLER_ID_CONTEXT_KEY = Context.key(CallMetadataHeaders.DIRECT_CALLER_ID_HEADER);
     public static Context.Key<String> CALL_REASON_CONTEXT_KEY = Context.key(CallMetadataHeaders.CALL_REASON_HEADER);
     public static Context.Key<CallMetadata> CALL_METADATA_CONTEXT_KEY = Context.key(CallMetadataHeaders.CALL_METADATA_HEADER);
+    public static Context.Key<Long> KEEP_ALIVE_INTERVAL_CONTEXT_KEY = Context.key(CallMetadataHeaders.KEEP_ALIVE_INTERVAL_HEADER);
 
     @Override
     public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
@@ -95,6 +97,18 @@ public class V3HeaderInterceptor implements ServerInterceptor {
                 logger.info("Invalid CallMetadata in a request header", e);
             }
         }
+        Object keepAliveIntervalValue = headers.get(KEEP_ALIVE_INTERVAL_KEY);
+        if (keepAliveIntervalValue != null) {
+            try {
+                long keepAliveIntervalMs = Long.parseLong(keepAliveIntervalValue.toString());
+                if (keepAliveIntervalMs > 0) {
+                    wrappedContext = wrappedContext.withValue(KEEP_ALIVE_INTERVAL_CONTEXT_KEY, keepAliveIntervalMs);
+                }
+            } catch (NumberFormatException e) {
+                // Ignore bad header value.
+                logger.info("Invalid keep-alive interval in a request header: {}", keepAliveIntervalValue);
+            }
+        }
 
         return wrappedContext == Context.current()
                 ? next.startCall(call, headers)
@@ -106,4 +120,13 @@ public class V3HeaderInterceptor implements ServerInterceptor {
         metadata.put(CALL_METADATA_KEY, CommonGrpcModelConverters.toGrpcCallMetadata(callMetadata).toByteArray());
         return serviceStub.withInterceptors(MetadataUtils.newAttachHeadersInterceptor(metadata));
     }
+
+    /**
+     * Asks the server to emit keep-alive notifications in the event streams opened with the returned stub.
+     */
+    public static <STUB extends AbstractStub<STUB>> STUB attachKeepAliveInterval(STUB serviceStub, long keepAliveIntervalMs) {
+        Metadata metadata = new Metadata();
+        metadata.put(KEEP_ALIVE_INTERVAL_KEY, Long.toString(keepAliveIntervalMs));
+        return serviceStub.withInterceptors(MetadataUtils.newAttachHeadersInterceptor(metadata));
+    }
 }
@@ -24,6 +24,8 @@ import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.netflix.titus.api.jobmanager.model.job.BatchJobTask;
+import com.netflix.titus.api.jobmanager.model.job.JobModel;
 import com.netflix.titus.common.util.tuple.Pair;
 import com.netflix.titus.grpc.protogen.Job;
 import com.netflix.titus.grpc.protogen.JobStatus;
@@ -112,6 +114,72 @@ public final class JobManagerCursors {
         });
     }
 
+    /**
+     * Compare two core job entities by the creation time (first), and a job id (second). The order is the same as
+     * {@link #jobCursorOrderComparator()} for the corresponding GRPC entities.
+     */
+    public static Comparator<com.netflix.titus.api.jobmanager.model.job.Job<?>> coreJobCursorOrderComparator() {
+        return (first, second) -> {
+            int cmp = Long.compare(getCoreCursorTimestamp(first), getCoreCursorTimestamp(second));
+            if (cmp != 0) {
+                return cmp;
+            }
+            return first.getId().compareTo(second.getId());
+        };
+    }
+
+    /**
+     * Compare two core task entities by the creation time (first), and a task id (second). The order is the same as
+     * {@link #taskCursorOrderComparator()} for the corresponding GRPC entities.
+     */
+    public static Comparator<com.netflix.titus.api.jobmanager.model.job.Task> coreTaskCursorOrderComparator() {
+        return (first, second) -> {
+            int cmp = Long.compare(getCoreCursorTimestamp(first), getCoreCursorTimestamp(second));
+            if (cmp != 0) {
+                return cmp;
+            }
+            return first.getId().compareTo(second.getId());
+        };
+    }
+
+    /**
+     * Decode a cursor into a core job entity, that can be compared with other jobs using {@link #coreJobCursorOrderComparator()}.
+     */
+    public static Optional<com.netflix.titus.api.jobmanager.model.job.Job<?>> coreJobCursorReference(String cursor) {
+        return decode(cursor).map(cursorValues -> JobModel.newJob()
+                .withId(cursorValues.getLeft())
+                .withStatus(JobModel.newJobStatus()
+                        .withState(com.netflix.titus.api.jobmanager.model.job.JobState.Accepted)
+                        .withTimestamp(cursorValues.getRight())
+                        .build()
+                )
+                .build()
+        );
+    }
+
+    /**
+     * Decode a cursor into a core task entity, that can be compared with other tasks using {@link #coreTaskCursorOrderComparator()}.
+     */
+    public static Optional<com.netflix.titus.api.jobmanager.model.job.Task> coreTaskCursorReference(String cursor) {
+        return decode(cursor).map(cursorValues -> BatchJobTask.newBuilder()
+                .withId(cursorValues.getLeft())
+                .withStatus(JobModel.newTaskStatus()
+                        .withState(com.netflix.titus.api.jobmanager.model.job.TaskState.Accepted)
+                        .withTimestamp(cursorValues.getRight())
+                        .build()
+                )
+                .build()
+        );
+    }
+
+    public static String newCursorFromCoreJob(com.netflix.titus.api.jobmanager.model.job.Job<?> job) {
+        return encode(job.getId(), getCoreCursorTimestamp(job));
+    }
+
+    public static String newCursorFromCoreTask(com.netflix.titus.api.jobmanager.model.job.Task task) {
+        return encode(task.getId(), getCoreCursorTimestamp(task));
+    }
+
     public static String newCursorFrom(Job job) {
         return encode(job.getId(), getCursorTimestamp(job));
     }
@@ -146,6 +214,32 @@ public final class JobManagerCursors {
         return task.getStatus().getTimestamp();
     }
 
+    private static long getCoreCursorTimestamp(com.netflix.titus.api.jobmanager.model.job.Job<?> job) {
+        if (job.getStatus().getState() == com.netflix.titus.api.jobmanager.model.job.JobState.Accepted) {
+            return job.getStatus().getTimestamp();
+        }
+        for (com.netflix.titus.api.jobmanager.model.job.JobStatus next : job.getStatusHistory()) {
+            if (next.getState() == com.netflix.titus.api.jobmanager.model.job.JobState.Accepted) {
+                return next.getTimestamp();
+            }
+        }
+        // Fallback, in case Accepted state is not found which should never happen.
+        return job.getStatus().getTimestamp();
+    }
+
+    private static long getCoreCursorTimestamp(com.netflix.titus.api.jobmanager.model.job.Task task) {
+        if (task.getStatus().getState() == com.netflix.titus.api.jobmanager.model.job.TaskState.Accepted) {
+            return task.getStatus().getTimestamp();
+        }
+        for (com.netflix.titus.api.jobmanager.model.job.TaskStatus next : task.getStatusHistory()) {
+            if (next.getState() == com.netflix.titus.api.jobmanager.model.job.TaskState.Accepted) {
+                return next.getTimestamp();
+            }
+        }
+        // Fallback, in case Accepted state is not found which should never happen.
+        return task.getStatus().getTimestamp();
+    }
+
     private static String encode(String id, long timestamp) {
         String value = id + '@' + timestamp;
         return Base64.getEncoder().encodeToString(value.getBytes());
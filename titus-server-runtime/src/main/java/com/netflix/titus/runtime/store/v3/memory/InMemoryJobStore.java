@@ -121,6 +121,11 @@ public class InMemoryJobStore implements JobStore {
         return storeTask(task);
     }
 
+    @Override
+    public Completable updateTasks(List<Task> tasks) {
+        return Completable.fromAction(() -> tasks.forEach(task -> this.tasks.put(task.getId(), task)));
+    }
+
     @Override
     public Completable replaceTask(Task oldTask, Task newTask) {
         return Completable.fromAction(() -> {
@@ -154,6 +159,11 @@ public class InMemoryJobStore implements JobStore {
         return Observable.from(archivedTasks.asMap().values()).filter(task -> task.getJobId().equals(jobId));
     }
 
+    @Override
+    public Observable<String> retrieveArchivedTaskIdsForJob(String jobId) {
+        return retrieveArchivedTasksForJob(jobId).map(Task::getId);
+    }
+
     @Override
     public Observable<Task> retrieveArchivedTask(String taskId) {
         return Observable.fromCallable(() -> {
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.titus.runtime.connector.jobmanager;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.netflix.titus.api.jobmanager.model.job.Job;
+import com.netflix.titus.api.jobmanager.model.job.JobFunctions;
+import com.netflix.titus.api.jobmanager.model.job.JobState;
+import com.netflix.titus.api.jobmanager.model.job.JobStatus;
+import com.netflix.titus.api.jobmanager.model.job.Task;
+import com.netflix.titus.api.jobmanager.model.job.TaskState;
+import com.netflix.titus.api.jobmanager.model.job.ext.BatchJobExt;
+import com.netflix.titus.testkit.model.job.JobDescriptorGenerator;
+import com.netflix.titus.testkit.model.job.JobGenerator;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JobSnapshotTest {
+
+    private final Job<BatchJobExt> job = JobGenerator.batchJobs(
+            JobFunctions.changeBatchJobSize(JobDescriptorGenerator.oneTaskBatchJobDescriptor(), 2)
+    ).getValue();
+
+    private final List<Task> tasks = (List) JobGenerator.batchTasks(job).toList();
+
+    @Test
+    public void testJobAndTaskLifecycle() {
+        JobSnapshot withJob = JobSnapshot.empty().updateJob(job).get();
+        assertThat(withJob.getJobs()).containsExactly(job);
+        assertThat(withJob.findJob(job.getId())).contains(job);
+        assertThat(withJob.getTasks(job.getId())).isEmpty();
+
+        JobSnapshot withTasks = withJob.updateTask(tasks.get(0)).get().updateTask(tasks.get(1)).get();
+        assertThat(withTasks.getTasks()).containsExactlyInAnyOrderElementsOf(tasks);
+        assertThat(withTasks.getTasks(job.getId())).containsExactlyInAnyOrderElementsOf(tasks);
+        assertThat(withTasks.getJobsAndTasks()).hasSize(1);
+        assertThat(withTasks.getJobsAndTasks().get(0).getRight()).hasSize(2);
+
+        Task finished = JobFunctions.changeTaskStatus(tasks.get(0), TaskState.Finished, "", "");
+        JobSnapshot afterFinish = withTasks.updateTask(finished).get();
+        assertThat(afterFinish.getTasks()).containsExactly(tasks.get(1));
+        assertThat(afterFinish.findTaskById(tasks.get(0).getId())).isEmpty();
+
+        // Previous versions are not affected.
+        assertThat(withJob.getTasks()).isEmpty();
+        assertThat(withTasks.getTasks()).hasSize(2);
+
+        Job<BatchJobExt> finishedJob = job.toBuilder().withStatus(JobStatus.newBuilder().withState(JobState.Finished).build()).build();
+        JobSnapshot afterJobFinish = afterFinish.updateJob(finishedJob).get();
+        assertThat(afterJobFinish.getJobs()).isEmpty();
+        assertThat(afterJobFinish.getTasks()).isEmpty();
+        assertThat(afterJobFinish.findTaskById(tasks.get(1).getId())).isEmpty();
+    }
+
+    @Test
+    public void testFindTaskById() {
+        JobSnapshot snapshot = new JobSnapshot(
+                Collections.singletonMap(job.getId(), job),
+                Collections.singletonMap(job.getId(), tasks)
+        );
+        assertThat(snapshot.findTaskById(tasks.get(0).getId()).map(p -> p.getLeft().getId())).contains(job.getId());
+        assertThat(snapshot.findTaskById(tasks.get(1).getId()).map(p -> p.getRight())).contains(tasks.get(1));
+    }
+
+    @Test
+    public void testJobTaskListIsSharedUntilJobTasksChange() {
+        Job<BatchJobExt> otherJob = JobGenerator.batchJobs(JobDescriptorGenerator.oneTaskBatchJobDescriptor()).getValue();
+        JobSnapshot snapshot = JobSnapshot.empty().updateJob(job).get().updateJob(otherJob).get().updateTask(tasks.get(0)).get();
+        List<Task> jobTasks = snapshot.getTasks(job.getId());
+        assertThat(snapshot.getTasks(job.getId())).isSameAs(jobTasks);
+
+        JobSnapshot afterOtherJobUpdate = snapshot.updateJob(otherJob).get();
+        assertThat(afterOtherJobUpdate.getTasks(job.getId())).isSameAs(jobTasks);
+
+        JobSnapshot afterTaskAdded = snapshot.updateTask(tasks.get(1)).get();
+        assertThat(afterTaskAdded.getTasks(job.getId())).hasSize(2);
+        assertThat(jobTasks).containsExactly(tasks.get(0));
+    }
+
+    @Test
+    public void testInconsistentUpdatesAreIgnored() {
+        assertThat(JobSnapshot.empty().updateTask(tasks.get(0))).isEmpty();
+
+        JobSnapshot withJob = JobSnapshot.empty().updateJob(job).get();
+        Task finished = JobFunctions.changeTaskStatus(tasks.get(0), TaskState.Finished, "", "");
+        assertThat(withJob.updateTask(finished)).isEmpty();
+    }
+}
@@ -122,6 +122,23 @@ public class GrpcJobReplicatorEventStreamTest {
         assertThat(cacheEventSubscriber.takeNext()).isNotNull();
     }
 
+    @Test
+    public void testCheckpointIsUpdatedByServerEventsOnly() {
+        testScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertThat(jobStreamCache.getLastCheckpointTimestamp()).isZero();
+
+        Pair<Job, List<Task>> pair = bootstrapWithOneJobAndOneTask();
+        assertThat(jobStreamCache.getLastCheckpointTimestamp()).isEqualTo(testScheduler.now());
+
+        // Re-emitted events do not advance the checkpoint.
+        testScheduler.advanceTimeBy(GrpcJobReplicatorEventStream.LATENCY_REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        assertThat(cacheEventSubscriber.takeNext()).isNotNull();
+        assertThat(jobStreamCache.getLastCheckpointTimestamp()).isLessThan(testScheduler.now());
+
+        dataGenerator.moveTaskToState(pair.getRight().get(0), TaskState.Launched);
+        assertThat(jobStreamCache.getLastCheckpointTimestamp()).isEqualTo(testScheduler.now());
+    }
+
     private Job bootstrapWithOneJobNoTasks() {
         Job job = dataGenerator.createJob(SERVICE_JOB);
         jobStreamCache.connect().subscribe(cacheEventSubscriber);